@@ -0,0 +1,138 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import javax.swing.JTextField;
+import net.thecir.callbacks.FileCallback;
+import net.thecir.core.LiteReportManager;
+import net.thecir.enums.Stores;
+import net.thecir.filemanagers.NewFileManager;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs the calls MainPanel makes to the core library on synthetic retailer
+ * exports. Every invocation works on a fresh copy of the same output file,
+ * so the results of different releases can be compared.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+public class ReportBenchmark {
+
+    private static final long SEED = 20171016L;
+
+    @Param({"1000", "100000", "1000000"})
+    private int rows;
+
+    @Param({"Technopolis", "Technomarket"})
+    private Stores store;
+
+    private File directory;
+    private File input;
+    //The output every invocation starts from, the input already added once
+    private File template;
+    private File output;
+
+    @Setup(Level.Trial)
+    public void createFiles() throws IOException {
+        directory = Files.createTempDirectory("lrm-benchmark").toFile();
+        input = new File(directory, store + "-" + rows + ".xlsx");
+        SyntheticWorkbooks.write(input, store, rows, SEED);
+        template = new File(directory, "template.xlsx");
+        output = new File(directory, "output.xlsx");
+        LiteReportManager.getInstance().initOutputComponents(null, new JTextField());
+        createNewFile(template);
+        LiteReportManager.getInstance().generateReport(input, template, false, store);
+    }
+
+    @Setup(Level.Invocation)
+    public void resetOutput() throws IOException {
+        Files.copy(template.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public File createNewFile() {
+        return createNewFile(output);
+    }
+
+    @Benchmark
+    public File add() {
+        LiteReportManager.getInstance().generateReport(input, output, false, store);
+        return output;
+    }
+
+    @Benchmark
+    public File subtract() {
+        LiteReportManager.getInstance().generateReport(input, output, true, store);
+        return output;
+    }
+
+    /**
+     * Creates a new output file the same way the create button does, with the
+     * file chooser replaced by a fixed file.
+     */
+    private static File createNewFile(File file) {
+        file.delete();
+        NewFileManager.getInstance().setFileCallback(new FileCallback() {
+            @Override
+            public File getFile() {
+                return file;
+            }
+
+            @Override
+            public void setAsOutputAndDisplay() {
+            }
+        });
+        LiteReportManager.getInstance().createNewFile();
+        return file;
+    }
+}
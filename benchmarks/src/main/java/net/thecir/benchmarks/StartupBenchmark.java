@@ -0,0 +1,76 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import javax.swing.SwingUtilities;
+import net.thecir.jobs.JobQueue;
+import net.thecir.main.MainFrame;
+import net.thecir.panels.MainPanel;
+import net.thecir.session.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how long it takes to build the user interface in a fresh JVM,
+ * class loading included. The frame is never shown.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+public class StartupBenchmark {
+
+    /**
+     * The panel can be built without a display.
+     */
+    @Benchmark
+    @Fork(value = 10, jvmArgsAppend = "-Djava.awt.headless=true")
+    public MainPanel mainPanel() throws Exception {
+        MainPanel[] panel = new MainPanel[1];
+        SwingUtilities.invokeAndWait(() -> panel[0] = new MainPanel(null, new Session(new JobQueue(1))));
+        return panel[0];
+    }
+
+    /**
+     * Needs a display, e.g. Xvfb on a build server.
+     */
+    @Benchmark
+    @Fork(value = 10)
+    public MainFrame mainFrame() throws Exception {
+        MainFrame[] frame = new MainFrame[1];
+        SwingUtilities.invokeAndWait(() -> {
+            frame[0] = new MainFrame();
+            frame[0].dispose();
+        });
+        return frame[0];
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import net.thecir.enums.Stores;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+/**
+ * Generates retailer exports of any size for the benchmarks. The content is
+ * random but reproducible, the same seed always gives the same workbook.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public final class SyntheticWorkbooks {
+
+    private static final String[] HEADER = {"Code", "Article", "Quantity", "Sales"};
+    //Number of distinct articles, so that the same articles repeat in big files
+    private static final int ARTICLES = 5000;
+
+    private SyntheticWorkbooks() {
+    }
+
+    /**
+     * Writes a sales export of the given retailer.
+     *
+     * @param file the workbook to be written
+     * @param store retailer the export belongs to
+     * @param rows number of rows without the header
+     * @param seed seed of the random content
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(File file, Stores store, int rows, long seed) throws IOException {
+        Random random = new Random(seed);
+        SXSSFWorkbook workbook = new SXSSFWorkbook(1000);
+        try (OutputStream out = new FileOutputStream(file)) {
+            Sheet sheet = workbook.createSheet(store.name());
+            Row header = sheet.createRow(0);
+            for (int i = 0; i < HEADER.length; i++) {
+                header.createCell(i).setCellValue(HEADER[i]);
+            }
+            for (int i = 1; i <= rows; i++) {
+                int article = random.nextInt(ARTICLES);
+                int quantity = 1 + random.nextInt(20);
+                Row row = sheet.createRow(i);
+                row.createCell(0).setCellValue(100000 + article);
+                row.createCell(1).setCellValue(store.name() + " article " + article);
+                row.createCell(2).setCellValue(quantity);
+                row.createCell(3).setCellValue(quantity * (10 + article % 990) + 0.99);
+            }
+            workbook.write(out);
+        } finally {
+            workbook.dispose();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+import lombok.Getter;
+
+/**
+ * Identifies the contents of a file by its path, size, modification time and
+ * SHA-256 hash.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class FileFingerprint {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Getter
+    private final String path;
+    @Getter
+    private final long size;
+    @Getter
+    private final long lastModified;
+    @Getter
+    private final String hash;
+
+    /**
+     * Constructor
+     *
+     * @param path - canonical path of the file
+     * @param size - length of the file in bytes
+     * @param lastModified - modification time in milliseconds
+     * @param hash - hex encoded SHA-256 of the contents
+     */
+    public FileFingerprint(String path, long size, long lastModified, String hash) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.hash = hash;
+    }
+
+    /**
+     * Fingerprints a file, reading its contents once.
+     *
+     * @param file the file
+     * @return the fingerprint
+     * @throws IOException if the file cannot be read
+     */
+    public static FileFingerprint of(File file) throws IOException {
+        long size = file.length();
+        long lastModified = file.lastModified();
+        return new FileFingerprint(file.getCanonicalPath(), size, lastModified, hash(file));
+    }
+
+    /**
+     * Computes the SHA-256 of a file in fixed size chunks, so the file is
+     * never loaded in memory as a whole.
+     *
+     * @param file the file
+     * @return hex encoded hash
+     * @throws IOException if the file cannot be read
+     */
+    public static String hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Checks cheaply, without reading the contents, if the file is still the
+     * one this fingerprint was taken of.
+     *
+     * @param file the file to check
+     * @return true if path, size and modification time are unchanged
+     * @throws IOException if the path cannot be resolved
+     */
+    public boolean matches(File file) throws IOException {
+        return file.length() == size && file.lastModified() == lastModified && file.getCanonicalPath().equals(path);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof FileFingerprint)) {
+            return false;
+        }
+        FileFingerprint other = (FileFingerprint) obj;
+        return size == other.size && lastModified == other.lastModified && path.equals(other.path) && hash.equals(other.hash);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(path, size, lastModified, hash);
+    }
+}
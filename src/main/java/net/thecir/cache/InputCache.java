@@ -0,0 +1,312 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import lombok.Getter;
+import lombok.extern.java.Log;
+import net.thecir.main.AppDirectory;
+import net.thecir.readers.RowHandler;
+import net.thecir.readers.WorkbookReader;
+
+/**
+ * Keeps parsed input workbooks in memory, so an unchanged input is read only
+ * once however many times it is used. An entry is found by the input's path
+ * as long as its size and modification time are unchanged, and otherwise by
+ * the hash of its contents, which also finds copies of an already parsed
+ * file. The least recently used entries are evicted once the configured
+ * budget is exceeded, an input shared by several paths counts once.
+ *
+ * The inputs are read through the cache by the preview, the retailer
+ * detection, the incremental import and the throughput model, so a file
+ * previewed before it is applied is parsed only once.
+ *
+ * The budget is set with the system property lrm.inputCache.mb (256 by
+ * default). With lrm.inputCache.persist=true the cache is saved on exit and
+ * reloaded on the next start.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+@Log
+public class InputCache {
+
+    private static final int FILE_MAGIC = 0x4c524d43;
+    private static final int FILE_VERSION = 1;
+    private static final String FILE_NAME = "input-cache.bin";
+
+    private static final InputCache INSTANCE = new InputCache(
+            Long.getLong("lrm.inputCache.mb", 256) * 1024 * 1024, Boolean.getBoolean("lrm.inputCache.persist"));
+
+    //Entries by canonical path, iterated from the least recently used
+    private final LinkedHashMap<String, Entry> byPath = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Entry> byHash = new HashMap<>();
+    //Number of entries sharing each parsed input
+    private final Map<ParsedInput, Integer> shares = new IdentityHashMap<>();
+    @Getter
+    private final long budget;
+    private final boolean persistent;
+    @Getter
+    private long size;
+    private boolean loaded;
+    private boolean dirty;
+
+    /**
+     * Constructor
+     *
+     * @param budget - maximum estimated size of the cached inputs in bytes
+     * @param persistent - if the cache is saved to disk on exit
+     */
+    public InputCache(long budget, boolean persistent) {
+        this.budget = budget;
+        this.persistent = persistent;
+        if (persistent) {
+            Runtime.getRuntime().addShutdownHook(new Thread(this::save, "input-cache-save"));
+        }
+    }
+
+    public static InputCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the parsed contents of an input, reading the workbook only if
+     * it is not cached.
+     *
+     * @param file .xls or .xlsx input
+     * @return the parsed input
+     * @throws IOException if the file cannot be read
+     */
+    public ParsedInput get(File file) throws IOException {
+        ParsedInput input = find(file);
+        if (input != null) {
+            return input;
+        }
+        FileFingerprint fingerprint = FileFingerprint.of(file);
+        input = findCopy(fingerprint);
+        if (input != null) {
+            return input;
+        }
+        input = ParsedInput.parse(file);
+        cache(fingerprint, input);
+        return input;
+    }
+
+    /**
+     * Passes the rows of an input to a handler, from memory if the input is
+     * cached. Otherwise the workbook is read and, unless the handler stops
+     * early or the input exceeds the budget, kept for the next read.
+     *
+     * @param file .xls or .xlsx input
+     * @param handler receives the sheets and rows
+     * @throws IOException if the file cannot be read
+     */
+    public void read(File file, RowHandler handler) throws IOException {
+        ParsedInput input = find(file);
+        if (input == null) {
+            FileFingerprint fingerprint = FileFingerprint.of(file);
+            input = findCopy(fingerprint);
+            if (input == null) {
+                ParsedInput.Collector collector = new ParsedInput.Collector(handler, budget);
+                WorkbookReader.read(file, collector);
+                if (collector.isComplete()) {
+                    cache(fingerprint, collector.getInput());
+                }
+                return;
+            }
+        }
+        input.replay(handler);
+    }
+
+    /**
+     * Looks an input up by its path, without reading it.
+     *
+     * @param file .xls or .xlsx input
+     * @return the parsed input, null if it is not cached or has changed
+     * @throws IOException if the path cannot be resolved
+     */
+    public ParsedInput find(File file) throws IOException {
+        String path = file.getCanonicalPath();
+        synchronized (this) {
+            loadOnce();
+            Entry entry = byPath.get(path);
+            return entry != null && entry.fingerprint.matches(file) ? entry.input : null;
+        }
+    }
+
+    /**
+     * @return the cached input with the same contents, null if there is none
+     */
+    private synchronized ParsedInput findCopy(FileFingerprint fingerprint) {
+        Entry entry = byHash.get(fingerprint.getHash());
+        if (entry == null) {
+            return null;
+        }
+        put(new Entry(fingerprint, entry.input, entry.size));
+        return entry.input;
+    }
+
+    private synchronized void cache(FileFingerprint fingerprint, ParsedInput input) {
+        put(new Entry(fingerprint, input, input.estimateSize()));
+    }
+
+    /**
+     * Drops all cached inputs.
+     */
+    public synchronized void clear() {
+        byPath.clear();
+        byHash.clear();
+        shares.clear();
+        size = 0;
+        dirty = true;
+    }
+
+    private void put(Entry entry) {
+        if (entry.size > budget) {
+            return;
+        }
+        remove(byPath.get(entry.fingerprint.getPath()));
+        byPath.put(entry.fingerprint.getPath(), entry);
+        byHash.put(entry.fingerprint.getHash(), entry);
+        if (shares.merge(entry.input, 1, Integer::sum) == 1) {
+            size += entry.size;
+        }
+        dirty = true;
+        Iterator<Entry> eldest = byPath.values().iterator();
+        while (size > budget && eldest.hasNext()) {
+            Entry evicted = eldest.next();
+            eldest.remove();
+            forget(evicted);
+        }
+    }
+
+    private void remove(Entry entry) {
+        if (entry != null) {
+            byPath.remove(entry.fingerprint.getPath());
+            forget(entry);
+        }
+    }
+
+    private void forget(Entry entry) {
+        if (shares.merge(entry.input, -1, Integer::sum) == 0) {
+            shares.remove(entry.input);
+            size -= entry.size;
+        }
+        if (byHash.get(entry.fingerprint.getHash()) == entry) {
+            byHash.remove(entry.fingerprint.getHash());
+        }
+    }
+
+    private void loadOnce() {
+        if (!persistent || loaded) {
+            return;
+        }
+        loaded = true;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(
+                Files.newInputStream(AppDirectory.resolve(FILE_NAME)))))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                FileFingerprint fingerprint = new FileFingerprint(in.readUTF(), in.readLong(), in.readLong(), in.readUTF());
+                ParsedInput input = ParsedInput.readFrom(in);
+                //Copies of a file are saved once per path but share the loaded input
+                Entry copy = byHash.get(fingerprint.getHash());
+                if (copy != null) {
+                    input = copy.input;
+                }
+                put(new Entry(fingerprint, input, input.estimateSize()));
+            }
+            dirty = false;
+        } catch (NoSuchFileException ex) {
+            //Nothing saved yet
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "Discarding unreadable input cache", ex);
+        }
+    }
+
+    /**
+     * Writes the cache to a temporary file which then replaces the previous
+     * one, so an interrupted save never corrupts it.
+     */
+    private synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        try {
+            Path target = AppDirectory.resolve(FILE_NAME);
+            Path temp = Files.createTempFile(target.getParent(), FILE_NAME, ".tmp");
+            List<Entry> entries = new ArrayList<>(byPath.values());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(
+                    Files.newOutputStream(temp))))) {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(FILE_VERSION);
+                out.writeInt(entries.size());
+                for (Entry entry : entries) {
+                    out.writeUTF(entry.fingerprint.getPath());
+                    out.writeLong(entry.fingerprint.getSize());
+                    out.writeLong(entry.fingerprint.getLastModified());
+                    out.writeUTF(entry.fingerprint.getHash());
+                    entry.input.writeTo(out);
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            dirty = false;
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "Failed to save the input cache", ex);
+        }
+    }
+
+    private static class Entry {
+
+        private final FileFingerprint fingerprint;
+        private final ParsedInput input;
+        private final long size;
+
+        Entry(FileFingerprint fingerprint, ParsedInput input, long size) {
+            this.fingerprint = fingerprint;
+            this.input = input;
+            this.size = size;
+        }
+    }
+}
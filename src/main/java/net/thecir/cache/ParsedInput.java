@@ -0,0 +1,299 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import lombok.Getter;
+import net.thecir.readers.RowHandler;
+import net.thecir.readers.WorkbookReader;
+
+/**
+ * The cell values of an input workbook, read once and kept for reuse.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class ParsedInput {
+
+    private static final byte BLANK = 0;
+    private static final byte NUMBER = 1;
+    private static final byte TEXT = 2;
+
+    @Getter
+    private final List<Sheet> sheets;
+
+    private ParsedInput(List<Sheet> sheets) {
+        this.sheets = Collections.unmodifiableList(sheets);
+    }
+
+    /**
+     * Reads all rows of a workbook.
+     *
+     * @param file .xls or .xlsx workbook
+     * @return the values of the workbook
+     * @throws IOException if the file cannot be read
+     */
+    public static ParsedInput parse(File file) throws IOException {
+        Collector collector = new Collector((sheet, rowIndex, cells) -> true, Long.MAX_VALUE);
+        WorkbookReader.read(file, collector);
+        return collector.getInput();
+    }
+
+    /**
+     * Passes the sheets and rows to a handler the way WorkbookReader reads
+     * them from the workbook.
+     *
+     * @param handler receives the sheets and rows
+     */
+    public void replay(RowHandler handler) {
+        for (Sheet sheet : sheets) {
+            if (!handler.startSheet(sheet.name)) {
+                return;
+            }
+            for (Row row : sheet.rows) {
+                if (!handler.row(sheet.name, row.index, row.cells.clone())) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Roughly estimates the heap occupied by the values.
+     *
+     * @return size in bytes
+     */
+    public long estimateSize() {
+        long size = 64;
+        for (Sheet sheet : sheets) {
+            size += 64;
+            for (Row row : sheet.rows) {
+                size += estimateSize(row.cells);
+            }
+        }
+        return size;
+    }
+
+    private static long estimateSize(Object[] cells) {
+        long size = 48;
+        for (Object cell : cells) {
+            size += 8;
+            if (cell instanceof Double) {
+                size += 16;
+            } else if (cell != null) {
+                size += 40 + 2L * cell.toString().length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Writes the values in a compact binary form.
+     *
+     * @param out destination
+     * @throws IOException if writing fails
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(sheets.size());
+        for (Sheet sheet : sheets) {
+            writeString(out, sheet.name);
+            out.writeInt(sheet.rows.size());
+            for (Row row : sheet.rows) {
+                out.writeInt(row.index);
+                out.writeInt(row.cells.length);
+                for (Object cell : row.cells) {
+                    if (cell instanceof Double) {
+                        out.writeByte(NUMBER);
+                        out.writeDouble((Double) cell);
+                    } else if (cell != null) {
+                        out.writeByte(TEXT);
+                        writeString(out, cell.toString());
+                    } else {
+                        out.writeByte(BLANK);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads values written by {@link #writeTo(DataOutput)}.
+     *
+     * @param in source
+     * @return the values
+     * @throws IOException if reading fails
+     */
+    public static ParsedInput readFrom(DataInput in) throws IOException {
+        int sheetCount = in.readInt();
+        List<Sheet> sheets = new ArrayList<>(sheetCount);
+        for (int s = 0; s < sheetCount; s++) {
+            Sheet sheet = new Sheet(readString(in));
+            int rowCount = in.readInt();
+            for (int r = 0; r < rowCount; r++) {
+                int index = in.readInt();
+                Object[] cells = new Object[in.readInt()];
+                for (int c = 0; c < cells.length; c++) {
+                    byte type = in.readByte();
+                    if (type == NUMBER) {
+                        cells[c] = in.readDouble();
+                    } else if (type == TEXT) {
+                        cells[c] = readString(in);
+                    }
+                }
+                sheet.rows.add(new Row(index, cells));
+            }
+            sheets.add(sheet);
+        }
+        return new ParsedInput(sheets);
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Keeps the rows of a workbook while passing them on to another handler.
+     * Keeping stops once the estimated size exceeds a limit.
+     */
+    static class Collector implements RowHandler {
+
+        private final RowHandler handler;
+        private final long limit;
+        private final List<Sheet> sheets = new ArrayList<>();
+        private long size = 64;
+        private boolean stopped;
+
+        Collector(RowHandler handler, long limit) {
+            this.handler = handler;
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean startSheet(String name) {
+            if (!handler.startSheet(name)) {
+                stopped = true;
+                return false;
+            }
+            if (size <= limit) {
+                sheets.add(new Sheet(name));
+                size += 64;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean row(String sheet, int rowIndex, Object[] cells) {
+            if (size <= limit) {
+                size += estimateSize(cells);
+                sheets.get(sheets.size() - 1).rows.add(new Row(rowIndex, cells.clone()));
+                if (size > limit) {
+                    //Too large to keep, what has been kept is released at once
+                    sheets.clear();
+                }
+            }
+            if (!handler.row(sheet, rowIndex, cells)) {
+                stopped = true;
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * @return true if the whole workbook has been kept
+         */
+        boolean isComplete() {
+            return !stopped && size <= limit;
+        }
+
+        ParsedInput getInput() {
+            return new ParsedInput(sheets);
+        }
+    }
+
+    /**
+     * The non-empty rows of a sheet.
+     */
+    public static class Sheet {
+
+        @Getter
+        private final String name;
+        private final List<Row> rows = new ArrayList<>();
+
+        Sheet(String name) {
+            this.name = name;
+        }
+
+        public List<Row> getRows() {
+            return Collections.unmodifiableList(rows);
+        }
+    }
+
+    /**
+     * A row and its zero based index in the sheet.
+     */
+    public static class Row {
+
+        @Getter
+        private final int index;
+        private final Object[] cells;
+
+        Row(int index, Object[] cells) {
+            this.index = index;
+            this.cells = cells;
+        }
+
+        /**
+         * @return copy of the cell values - Double, String or null
+         */
+        public Object[] getCells() {
+            return cells.clone();
+        }
+
+        /**
+         * @param column zero based column
+         * @return the value of the cell, null if blank
+         */
+        public Object get(int column) {
+            return column < cells.length ? cells[column] : null;
+        }
+
+        public int size() {
+            return cells.length;
+        }
+    }
+}
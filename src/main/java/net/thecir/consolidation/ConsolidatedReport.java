@@ -0,0 +1,362 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.consolidation;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.stream.IntStream;
+import lombok.Getter;
+import lombok.extern.java.Log;
+import net.thecir.enums.Stores;
+import net.thecir.jobs.StagedOutput;
+import net.thecir.readers.RowHandler;
+import net.thecir.readers.WorkbookReader;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+/**
+ * The inputs of several retailers summed per product. The inputs are read in
+ * parallel, each into a partial report of its own, and the partial reports
+ * are merged by a parallel reduction, so the whole takes about as long as the
+ * largest input.
+ *
+ * The leading rows of a sheet without numbers are taken as its header. In the
+ * rows after it the columns named like a product code in
+ * ProductKeys.properties identify the product, so rows of retailers naming
+ * or grouping it differently are still summed together. A row without a code
+ * is identified by its text cells. The other numbers are summed per column,
+ * the columns of different retailers are matched by their header.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+@Log
+public class ConsolidatedReport {
+
+    //Rows of the written report kept in memory
+    private static final int WRITE_WINDOW = 100;
+    private static final String SHEET_NAME = "Consolidated";
+    private static final List<String> KEY_WORDS = loadKeyWords();
+
+    @Getter
+    private final List<Stores> stores;
+    //Header of the cells identifying a product, taken from the first input having one
+    private final List<String> keyHeader = new ArrayList<>();
+    //Header of the summed columns by their normalized form, in the order they first appear
+    private final Map<String, String> measures = new LinkedHashMap<>();
+    //Products by their normalized key, in the order they first appear
+    private final Map<String, Product> products = new LinkedHashMap<>();
+
+    private ConsolidatedReport(List<Stores> stores) {
+        this.stores = stores;
+    }
+
+    /**
+     * Reads the inputs of the retailers in parallel and sums them per
+     * product.
+     *
+     * @param inputs one input per retailer
+     * @return the consolidated report
+     * @throws IOException if an input cannot be read
+     */
+    public static ConsolidatedReport build(Map<Stores, File> inputs) throws IOException {
+        List<Stores> stores = Collections.unmodifiableList(new ArrayList<>(inputs.keySet()));
+        try {
+            return IntStream.range(0, stores.size()).parallel()
+                    .mapToObj((index) -> read(stores, index, inputs.get(stores.get(index))))
+                    .reduce(ConsolidatedReport::merge)
+                    .orElseGet(() -> new ConsolidatedReport(stores));
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * @return number of distinct products
+     */
+    public int getProductCount() {
+        return products.size();
+    }
+
+    /**
+     * @return header of the summed columns, in the order they are written
+     */
+    public List<String> getMeasures() {
+        return new ArrayList<>(measures.values());
+    }
+
+    /**
+     * Writes the report as a single sheet. Every summed column is followed by
+     * its values per retailer. The output is replaced only once the report
+     * has been written completely.
+     *
+     * @param output .xlsx file, replaced if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public void write(File output) throws IOException {
+        int keyColumns = keyHeader.size();
+        for (Product product : products.values()) {
+            keyColumns = Math.max(keyColumns, product.key.size());
+        }
+        SXSSFWorkbook workbook = new SXSSFWorkbook(WRITE_WINDOW);
+        try (StagedOutput staged = StagedOutput.create(output)) {
+            Sheet sheet = workbook.createSheet(SHEET_NAME);
+            Row header = sheet.createRow(0);
+            for (int i = 0; i < keyHeader.size(); i++) {
+                header.createCell(i).setCellValue(keyHeader.get(i));
+            }
+            int column = keyColumns;
+            for (String measure : measures.values()) {
+                header.createCell(column++).setCellValue(measure);
+                for (Stores store : stores) {
+                    header.createCell(column++).setCellValue(measure + " (" + store.name() + ")");
+                }
+            }
+            int rowIndex = 1;
+            for (Product product : products.values()) {
+                Row row = sheet.createRow(rowIndex++);
+                for (int i = 0; i < product.key.size(); i++) {
+                    Object cell = product.key.get(i);
+                    if (cell instanceof Double) {
+                        row.createCell(i).setCellValue((Double) cell);
+                    } else {
+                        row.createCell(i).setCellValue(cell.toString());
+                    }
+                }
+                column = keyColumns;
+                for (String measure : measures.keySet()) {
+                    double[] values = product.values.get(measure);
+                    if (values == null) {
+                        column += 1 + stores.size();
+                        continue;
+                    }
+                    double total = 0;
+                    for (double value : values) {
+                        total += value;
+                    }
+                    row.createCell(column++).setCellValue(total);
+                    for (double value : values) {
+                        row.createCell(column++).setCellValue(value);
+                    }
+                }
+            }
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(staged.getFile()))) {
+                workbook.write(out);
+            }
+            staged.commit();
+        } finally {
+            workbook.dispose();
+        }
+    }
+
+    /**
+     * Reads the input of one retailer into a partial report.
+     *
+     * @param index position of the retailer in the stores
+     */
+    private static ConsolidatedReport read(List<Stores> stores, int index, File input) {
+        ConsolidatedReport part = new ConsolidatedReport(stores);
+        try {
+            WorkbookReader.read(input, new RowHandler() {
+
+                //Header of each column of the current sheet
+                private final List<String> header = new ArrayList<>();
+                private boolean dataStarted;
+
+                @Override
+                public boolean startSheet(String name) {
+                    header.clear();
+                    dataStarted = false;
+                    return true;
+                }
+
+                @Override
+                public boolean row(String sheet, int rowIndex, Object[] cells) {
+                    if (!dataStarted) {
+                        boolean numbers = false;
+                        for (Object cell : cells) {
+                            numbers |= cell instanceof Double;
+                        }
+                        if (!numbers) {
+                            //A lower header row names the columns more precisely
+                            for (int i = 0; i < cells.length; i++) {
+                                if (cells[i] != null) {
+                                    while (header.size() <= i) {
+                                        header.add(null);
+                                    }
+                                    header.set(i, cells[i].toString().trim());
+                                }
+                            }
+                            return true;
+                        }
+                        dataStarted = true;
+                    }
+                    part.add(index, header, cells);
+                    return true;
+                }
+            });
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } catch (RuntimeException ex) {
+            //POI reports unreadable workbooks with runtime exceptions
+            throw new UncheckedIOException(new IOException("Cannot read " + input + ": " + ex.getMessage(), ex));
+        }
+        return part;
+    }
+
+    private void add(int index, List<String> header, Object[] cells) {
+        List<Object> key = new ArrayList<>();
+        List<String> keyNames = new ArrayList<>();
+        StringBuilder codes = new StringBuilder();
+        StringBuilder text = new StringBuilder();
+        Map<String, Double> counts = new HashMap<>();
+        for (int i = 0; i < cells.length; i++) {
+            Object cell = cells[i];
+            if (cell == null || cell instanceof String && ((String) cell).trim().isEmpty()) {
+                continue;
+            }
+            String name = i < header.size() && header.get(i) != null ? header.get(i) : CellReference.convertNumToColString(i);
+            boolean code = isKeyColumn(name);
+            if (cell instanceof Double && !code) {
+                String measure = normalize(name);
+                measures.putIfAbsent(measure, name);
+                counts.merge(measure, (Double) cell, Double::sum);
+            } else {
+                key.add(cell instanceof Double ? cell : cell.toString().trim());
+                keyNames.add(name);
+                //A code may be stored as a number by one retailer and as text by another
+                (code ? codes : text).append(cell instanceof Double ? format((Double) cell) : normalize(cell.toString())).append('\t');
+            }
+        }
+        //Rows of numbers only, such as totals, belong to no product
+        if (key.isEmpty() || counts.isEmpty()) {
+            return;
+        }
+        String id = codes.length() > 0 ? "code\t" + codes : "text\t" + text;
+        if (keyHeader.isEmpty()) {
+            keyHeader.addAll(keyNames);
+        }
+        Product product = products.computeIfAbsent(id, (ignored) -> new Product(key));
+        for (Map.Entry<String, Double> count : counts.entrySet()) {
+            product.values.computeIfAbsent(count.getKey(), (ignored) -> new double[stores.size()])[index] += count.getValue();
+        }
+    }
+
+    /**
+     * Adds the products of another partial report to this one.
+     *
+     * @return this report
+     */
+    private ConsolidatedReport merge(ConsolidatedReport other) {
+        if (keyHeader.isEmpty()) {
+            keyHeader.addAll(other.keyHeader);
+        }
+        other.measures.forEach(measures::putIfAbsent);
+        for (Map.Entry<String, Product> entry : other.products.entrySet()) {
+            Product product = products.putIfAbsent(entry.getKey(), entry.getValue());
+            if (product == null) {
+                continue;
+            }
+            for (Map.Entry<String, double[]> values : entry.getValue().values.entrySet()) {
+                double[] sums = product.values.putIfAbsent(values.getKey(), values.getValue());
+                if (sums != null) {
+                    for (int i = 0; i < sums.length; i++) {
+                        sums[i] += values.getValue()[i];
+                    }
+                }
+            }
+        }
+        return this;
+    }
+
+    private static boolean isKeyColumn(String name) {
+        String normalized = normalize(name);
+        for (String word : KEY_WORDS) {
+            if (normalized.contains(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String normalize(String text) {
+        return text.trim().replaceAll("\\s+", " ").toLowerCase();
+    }
+
+    /**
+     * @return the number without a fraction if it has none, codes are stored
+     * as whole numbers
+     */
+    private static String format(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    private static List<String> loadKeyWords() {
+        Properties properties = new Properties();
+        try (InputStream stream = ConsolidatedReport.class.getResourceAsStream("/ProductKeys.properties")) {
+            if (stream != null) {
+                properties.load(new InputStreamReader(stream, StandardCharsets.UTF_8));
+            }
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "Cannot load the product key words", ex);
+        }
+        List<String> words = new ArrayList<>();
+        for (String word : properties.getProperty("Words", "").split(",")) {
+            if (!word.trim().isEmpty()) {
+                words.add(normalize(word));
+            }
+        }
+        return words;
+    }
+
+    /**
+     * The cells identifying a product, as first found, and its sums.
+     */
+    private static class Product {
+
+        private final List<Object> key;
+        //Sums of each column per retailer, by the column's normalized header
+        private final Map<String, double[]> values = new HashMap<>();
+
+        Product(List<Object> key) {
+            this.key = key;
+        }
+    }
+}
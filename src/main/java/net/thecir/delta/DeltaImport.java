@@ -0,0 +1,342 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.delta;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import lombok.Getter;
+import net.thecir.cache.InputCache;
+import net.thecir.jobs.ReportJob;
+import net.thecir.readers.RowHandler;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+/**
+ * Applies a retailer's cumulative export incrementally. The export is compared
+ * with the snapshot of the retailer's previous export, and only the difference
+ * is merged: the rows which are new or changed are added, the rows which are
+ * gone or changed are subtracted. A row is identified by the hash of its
+ * values, so only the hashes of the previous export are held in memory.
+ *
+ * The leading rows of a sheet without numbers are taken as its header and are
+ * copied to both parts, so the core reads them like a full export. The parts
+ * are written as .xlsx files, whatever the format of the export.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class DeltaImport implements Closeable {
+
+    //Rows of a part kept in memory while it is written
+    private static final int WRITE_WINDOW = 100;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final InputSnapshot.Writer snapshot;
+    //The jobs applying the difference, the whole export if there was no snapshot
+    @Getter
+    private final List<ReportJob> jobs = new ArrayList<>();
+    private final List<File> parts = new ArrayList<>();
+    @Getter
+    private int addedRows;
+    @Getter
+    private int removedRows;
+    @Getter
+    private int unchangedRows;
+
+    private DeltaImport(InputSnapshot.Writer snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Compares an export with the snapshot of the previous one and writes the
+     * parts which have to be applied. A snapshot of the export is written in
+     * the same pass, it replaces the previous one with
+     * {@link #keepSnapshot()}.
+     *
+     * @param job the job adding the export to its output
+     * @param hash content hash of the export
+     * @param previous snapshot of the export applied before, null to apply the
+     * whole export
+     * @return the parts to be applied
+     * @throws IOException if a file cannot be read or written
+     */
+    public static DeltaImport prepare(ReportJob job, String hash, InputSnapshot previous) throws IOException {
+        DeltaImport delta = new DeltaImport(new InputSnapshot.Writer(job.getOutput(), job.getStore(), hash));
+        try {
+            if (previous == null) {
+                read(job, delta.snapshot);
+                delta.jobs.add(job);
+            } else {
+                delta.compare(job, previous);
+            }
+        } catch (IOException | RuntimeException ex) {
+            delta.close();
+            throw ex;
+        }
+        return delta;
+    }
+
+    private void compare(ReportJob job, InputSnapshot previous) throws IOException {
+        //Occurrences of the rows of the previous export not found in the new one
+        Map<Long, Integer> remaining = new HashMap<>();
+        previous.read(new HeaderFilter(null) {
+            @Override
+            void data(String sheet, Object[] cells) {
+                remaining.merge(hash(sheet, cells), 1, Integer::sum);
+            }
+        });
+        PartWriter added = new PartWriter();
+        PartWriter removed = new PartWriter();
+        try {
+            read(job, new HeaderFilter(added) {
+                @Override
+                public boolean startSheet(String name) {
+                    snapshot.startSheet(name);
+                    return super.startSheet(name);
+                }
+
+                @Override
+                public boolean row(String sheet, int rowIndex, Object[] cells) {
+                    snapshot.row(sheet, rowIndex, cells);
+                    return super.row(sheet, rowIndex, cells);
+                }
+
+                @Override
+                void data(String sheet, Object[] cells) {
+                    if (take(remaining, hash(sheet, cells))) {
+                        unchangedRows++;
+                    } else {
+                        added.data(sheet, cells);
+                        addedRows++;
+                    }
+                }
+            });
+            previous.read(new HeaderFilter(removed) {
+                @Override
+                void data(String sheet, Object[] cells) {
+                    if (take(remaining, hash(sheet, cells))) {
+                        removed.data(sheet, cells);
+                        removedRows++;
+                    }
+                }
+            });
+            if (removedRows > 0) {
+                File part = removed.write();
+                parts.add(part);
+                jobs.add(new ReportJob(part, job.getOutput(), true, job.getStore(), job.isLargeFile()));
+            }
+            if (addedRows > 0) {
+                File part = added.write();
+                parts.add(part);
+                jobs.add(new ReportJob(part, job.getOutput(), false, job.getStore(), job.isLargeFile()));
+            }
+        } finally {
+            added.dispose();
+            removed.dispose();
+        }
+    }
+
+    /**
+     * Keeps the snapshot of the export for the next incremental job. Called
+     * once the parts have been applied.
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void keepSnapshot() throws IOException {
+        snapshot.keep();
+    }
+
+    /**
+     * Deletes the parts, and the snapshot unless it has been kept.
+     *
+     * @throws IOException if the snapshot cannot be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        for (File part : parts) {
+            Files.deleteIfExists(part.toPath());
+        }
+        snapshot.close();
+    }
+
+    private static void read(ReportJob job, RowHandler handler) throws IOException {
+        try {
+            InputCache.getInstance().read(job.getInput(), handler);
+        } catch (InputSnapshot.SnapshotWriteException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Removes one occurrence of a row.
+     *
+     * @return false if there was none left
+     */
+    private static boolean take(Map<Long, Integer> remaining, long hash) {
+        Integer count = remaining.get(hash);
+        if (count == null) {
+            return false;
+        }
+        if (count == 1) {
+            remaining.remove(hash);
+        } else {
+            remaining.put(hash, count - 1);
+        }
+        return true;
+    }
+
+    /**
+     * @return 64 bit FNV-1a hash of the sheet name and the values of a row,
+     * trailing blank cells are ignored
+     */
+    private static long hash(String sheet, Object[] cells) {
+        long hash = hash(FNV_OFFSET, sheet);
+        int length = cells.length;
+        while (length > 0 && cells[length - 1] == null) {
+            length--;
+        }
+        for (int i = 0; i < length; i++) {
+            Object cell = cells[i];
+            if (cell instanceof Double) {
+                hash = (hash ^ 1) * FNV_PRIME;
+                long bits = Double.doubleToLongBits((Double) cell);
+                for (int shift = 0; shift < 64; shift += 8) {
+                    hash = (hash ^ ((bits >>> shift) & 0xff)) * FNV_PRIME;
+                }
+            } else if (cell != null) {
+                hash = hash(((hash ^ 2) * FNV_PRIME), cell.toString());
+            } else {
+                hash = (hash ^ 3) * FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    private static long hash(long hash, String text) {
+        for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+        }
+        //Separates the text from whatever follows it
+        return (hash ^ 0xff) * FNV_PRIME;
+    }
+
+    /**
+     * Passes the header rows of each sheet to a part and the rows after them
+     * to {@link #data(String, Object[])}. The header ends with the first row
+     * containing a number.
+     */
+    private abstract static class HeaderFilter implements RowHandler {
+
+        private final PartWriter header;
+        private final Set<String> dataStarted = new HashSet<>();
+
+        HeaderFilter(PartWriter header) {
+            this.header = header;
+        }
+
+        @Override
+        public boolean row(String sheet, int rowIndex, Object[] cells) {
+            if (!dataStarted.contains(sheet)) {
+                boolean numbers = false;
+                for (Object cell : cells) {
+                    numbers |= cell instanceof Double;
+                }
+                if (!numbers) {
+                    if (header != null) {
+                        header.header(sheet, rowIndex, cells);
+                    }
+                    return true;
+                }
+                dataStarted.add(sheet);
+            }
+            data(sheet, cells);
+            return true;
+        }
+
+        abstract void data(String sheet, Object[] cells);
+    }
+
+    /**
+     * Streams the rows of a part into a workbook. Header rows keep their
+     * place, the other rows follow them without gaps.
+     */
+    private static class PartWriter {
+
+        private final SXSSFWorkbook workbook = new SXSSFWorkbook(WRITE_WINDOW);
+        //Index of the next row of each sheet
+        private final Map<String, Integer> nextRows = new HashMap<>();
+
+        void header(String sheet, int rowIndex, Object[] cells) {
+            write(sheet, rowIndex, cells);
+        }
+
+        void data(String sheet, Object[] cells) {
+            write(sheet, nextRows.getOrDefault(sheet, 0), cells);
+        }
+
+        private void write(String sheetName, int rowIndex, Object[] cells) {
+            Sheet sheet = workbook.getSheet(sheetName);
+            if (sheet == null) {
+                sheet = workbook.createSheet(sheetName);
+            }
+            Row row = sheet.createRow(rowIndex);
+            for (int i = 0; i < cells.length; i++) {
+                if (cells[i] instanceof Double) {
+                    row.createCell(i).setCellValue((Double) cells[i]);
+                } else if (cells[i] != null) {
+                    row.createCell(i).setCellValue(cells[i].toString());
+                }
+            }
+            nextRows.put(sheetName, rowIndex + 1);
+        }
+
+        File write() throws IOException {
+            File part = File.createTempFile("lrm-delta", ".xlsx");
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(part))) {
+                workbook.write(out);
+            } catch (IOException ex) {
+                Files.deleteIfExists(part.toPath());
+                throw ex;
+            }
+            return part;
+        }
+
+        void dispose() {
+            workbook.dispose();
+        }
+    }
+}
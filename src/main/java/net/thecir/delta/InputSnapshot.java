@@ -0,0 +1,299 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.delta;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import lombok.Getter;
+import lombok.extern.java.Log;
+import net.thecir.enums.Stores;
+import net.thecir.readers.RowHandler;
+
+/**
+ * The rows of an input applied incrementally to an output, kept in a hidden
+ * compressed file next to the output. The next export of the retailer is
+ * compared with it, so only the rows which changed in between are applied.
+ * The last few snapshots of each retailer are kept, an undone merge falls
+ * back to the snapshot before it.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+@Log
+public class InputSnapshot {
+
+    private static final int MAGIC = 0x4C524D53;
+    private static final int VERSION = 1;
+    private static final byte END = 0;
+    private static final byte SHEET = 1;
+    private static final byte ROW = 2;
+    private static final byte BLANK = 0;
+    private static final byte NUMBER = 1;
+    private static final byte TEXT = 2;
+
+    //Snapshots kept per output and retailer, the oldest are deleted first
+    private static final int MAX_SNAPSHOTS = 3;
+
+    @Getter
+    private final Path file;
+    //Content hash of the input, as recorded in the ledger
+    @Getter
+    private final String hash;
+    @Getter
+    private final Instant time;
+
+    private InputSnapshot(Path file, String hash, Instant time) {
+        this.file = file;
+        this.hash = hash;
+        this.time = time;
+    }
+
+    /**
+     * Lists the snapshots of a retailer's inputs applied to an output.
+     *
+     * @param output the output file
+     * @param store the retailer
+     * @return the readable snapshots, newest first
+     * @throws IOException if the folder of the output cannot be listed
+     */
+    public static List<InputSnapshot> list(File output, Stores store) throws IOException {
+        List<InputSnapshot> snapshots = new ArrayList<>();
+        Path folder = output.getAbsoluteFile().toPath().getParent();
+        String prefix = prefix(output, store);
+        //Not a glob, the name of the output may contain its special characters
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder,
+                (file) -> file.getFileName().toString().startsWith(prefix) && file.getFileName().toString().endsWith(".snapshot"))) {
+            for (Path file : files) {
+                try (DataInputStream in = open(file)) {
+                    snapshots.add(new InputSnapshot(file, readString(in), Instant.ofEpochMilli(in.readLong())));
+                } catch (IOException ex) {
+                    log.log(Level.FINE, "Skipped unreadable snapshot " + file, ex);
+                }
+            }
+        }
+        snapshots.sort(Comparator.comparing(InputSnapshot::getTime).reversed());
+        return snapshots;
+    }
+
+    /**
+     * Streams the rows of the snapshot in the order they were read from the
+     * input.
+     *
+     * @param handler receives the sheets and rows
+     * @throws IOException if the snapshot cannot be read
+     */
+    public void read(RowHandler handler) throws IOException {
+        try (DataInputStream in = open(file)) {
+            readString(in);
+            in.readLong();
+            String sheet = null;
+            for (byte record = in.readByte(); record != END; record = in.readByte()) {
+                if (record == SHEET) {
+                    sheet = readString(in);
+                    handler.startSheet(sheet);
+                } else {
+                    int index = in.readInt();
+                    Object[] cells = new Object[in.readInt()];
+                    for (int i = 0; i < cells.length; i++) {
+                        cells[i] = readValue(in);
+                    }
+                    handler.row(sheet, index, cells);
+                }
+            }
+        }
+    }
+
+    private static DataInputStream open(Path file) throws IOException {
+        DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(Files.newInputStream(file))));
+        try {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw new IOException("Not a snapshot: " + file);
+            }
+        } catch (IOException ex) {
+            in.close();
+            throw ex;
+        }
+        return in;
+    }
+
+    private static String prefix(File output, Stores store) {
+        return "." + output.getName() + "." + store.name() + ".";
+    }
+
+    /**
+     * Writes a snapshot row by row while its input is read. The snapshot
+     * replaces an earlier one of the same input only once it is kept.
+     */
+    public static class Writer implements RowHandler, Closeable {
+
+        private final File output;
+        private final Stores store;
+        private final Path target;
+        private final Path temp;
+        private final DataOutputStream out;
+        private boolean kept;
+
+        /**
+         * Starts a snapshot of a retailer's input.
+         *
+         * @param output the output the input is applied to
+         * @param store the retailer
+         * @param hash content hash of the input
+         * @throws IOException if the snapshot cannot be created
+         */
+        public Writer(File output, Stores store, String hash) throws IOException {
+            this.output = output;
+            this.store = store;
+            Path folder = output.getAbsoluteFile().toPath().getParent();
+            target = folder.resolve(prefix(output, store) + hash.substring(0, Math.min(16, hash.length())) + ".snapshot");
+            temp = Files.createTempFile(folder, "~snapshot", ".tmp");
+            out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            writeString(out, hash);
+            out.writeLong(System.currentTimeMillis());
+        }
+
+        @Override
+        public boolean startSheet(String name) {
+            try {
+                out.writeByte(SHEET);
+                writeString(out, name);
+            } catch (IOException ex) {
+                throw new SnapshotWriteException(ex);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean row(String sheet, int rowIndex, Object[] cells) {
+            try {
+                out.writeByte(ROW);
+                out.writeInt(rowIndex);
+                out.writeInt(cells.length);
+                for (Object cell : cells) {
+                    writeValue(out, cell);
+                }
+            } catch (IOException ex) {
+                throw new SnapshotWriteException(ex);
+            }
+            return true;
+        }
+
+        /**
+         * Finishes the snapshot, puts it next to the output and deletes the
+         * oldest snapshots of the retailer.
+         *
+         * @throws IOException if the snapshot cannot be written
+         */
+        public void keep() throws IOException {
+            out.writeByte(END);
+            out.close();
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            kept = true;
+            List<InputSnapshot> snapshots = list(output, store);
+            for (InputSnapshot old : snapshots.subList(Math.min(MAX_SNAPSHOTS, snapshots.size()), snapshots.size())) {
+                Files.deleteIfExists(old.getFile());
+            }
+        }
+
+        /**
+         * Discards the snapshot unless it has been kept.
+         *
+         * @throws IOException if the temporary file cannot be deleted
+         */
+        @Override
+        public void close() throws IOException {
+            if (!kept) {
+                out.close();
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Carries a write error out of the reader's callbacks.
+     */
+    static class SnapshotWriteException extends RuntimeException {
+
+        SnapshotWriteException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+
+    private static void writeValue(DataOutput out, Object value) throws IOException {
+        if (value instanceof Double) {
+            out.writeByte(NUMBER);
+            out.writeDouble((Double) value);
+        } else if (value != null) {
+            out.writeByte(TEXT);
+            writeString(out, value.toString());
+        } else {
+            out.writeByte(BLANK);
+        }
+    }
+
+    private static Object readValue(DataInput in) throws IOException {
+        byte type = in.readByte();
+        if (type == NUMBER) {
+            return in.readDouble();
+        }
+        return type == TEXT ? readString(in) : null;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.detection;
+
+import lombok.Getter;
+import net.thecir.enums.Stores;
+
+/**
+ * The retailer an input most likely belongs to.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+@Getter
+public class StoreDetection {
+
+    //Confidence from which the retailer is used without asking
+    public static final double CONFIDENT = 0.5;
+
+    static final StoreDetection UNKNOWN = new StoreDetection(null, 0);
+
+    //Null if no retailer matches at all
+    private final Stores store;
+    //From 0 to 1, how much better the retailer matches than the next best one
+    private final double confidence;
+
+    StoreDetection(Stores store, double confidence) {
+        this.store = store;
+        this.confidence = confidence;
+    }
+
+    /**
+     * @return true if the retailer can be used for unattended runs
+     */
+    public boolean isConfident() {
+        return store != null && confidence >= CONFIDENT;
+    }
+}
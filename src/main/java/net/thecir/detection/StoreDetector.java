@@ -0,0 +1,297 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.detection;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.prefs.Preferences;
+import lombok.extern.java.Log;
+import net.thecir.cache.InputCache;
+import net.thecir.cache.ParsedInput;
+import net.thecir.enums.JobPhase;
+import net.thecir.enums.JobStatus;
+import net.thecir.enums.Stores;
+import net.thecir.jobs.JobListener;
+import net.thecir.jobs.ReportJob;
+import net.thecir.readers.WorkbookHead;
+import net.thecir.readers.WorkbookReader;
+
+/**
+ * Recognises the retailer of an input by its sheet names and first rows,
+ * without reading the rest of the file. A retailer matches if one of its
+ * words from StoreSignatures.properties appears there, or if the header is
+ * like the header of an input merged for the retailer before. As a listener
+ * it learns these headers from the completed jobs and keeps them in the
+ * preferences, but only if the retailer of the job is confirmed by its words
+ * or by a confident detection, so a wrong choice is not learned.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+@Log
+public class StoreDetector implements JobListener {
+
+    //Rows taken as the header of an input
+    private static final int HEADER_ROWS = 10;
+    //Headers remembered per retailer
+    private static final int MAX_HEADERS = 5;
+    //Words kept of a header, preferences values are limited in length
+    private static final int MAX_WORDS = 30;
+    private static final int MAX_WORD_LENGTH = 40;
+    //Score of a retailer named in the header, it outweighs any likeness of headers
+    private static final double HEADER_SCORE = 2;
+    //Score of a retailer whose word only appears in the name of the file
+    private static final double FILE_NAME_SCORE = 0.7;
+
+    private static final StoreDetector INSTANCE = new StoreDetector();
+
+    private final Preferences prefs = Preferences.userRoot().node(StoreDetector.class.getName());
+    private final Map<Stores, List<String>> keywords = new EnumMap<>(Stores.class);
+
+    private StoreDetector() {
+        Properties signatures = new Properties();
+        try (InputStream stream = StoreDetector.class.getResourceAsStream("/StoreSignatures.properties")) {
+            if (stream != null) {
+                signatures.load(new InputStreamReader(stream, StandardCharsets.UTF_8));
+            }
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "Cannot load the store signatures", ex);
+        }
+        for (Stores store : Stores.values()) {
+            List<String> words = new ArrayList<>();
+            for (String word : signatures.getProperty(store.name(), store.name()).split(",")) {
+                if (!word.trim().isEmpty()) {
+                    words.add(word.trim().toLowerCase());
+                }
+            }
+            keywords.put(store, words);
+        }
+    }
+
+    public static StoreDetector getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Finds the retailer of an input.
+     *
+     * @param input .xls or .xlsx file
+     * @return the best matching retailer and how confident the match is
+     * @throws IOException if the input cannot be read
+     */
+    public StoreDetection detect(File input) throws IOException {
+        return detect(readHeader(input), input.getName().toLowerCase());
+    }
+
+    private StoreDetection detect(Set<String> header, String fileName) {
+        Stores best = null;
+        double bestScore = 0;
+        double secondScore = 0;
+        for (Stores store : Stores.values()) {
+            double score = Math.max(keywordScore(store, header, fileName), learnedScore(store, header));
+            if (score > bestScore) {
+                secondScore = bestScore;
+                bestScore = score;
+                best = store;
+            } else if (score > secondScore) {
+                secondScore = score;
+            }
+        }
+        return best == null ? StoreDetection.UNKNOWN : new StoreDetection(best, Math.min(1, bestScore - secondScore));
+    }
+
+    /**
+     * Remembers the header of an input as one of the retailer's, if the header
+     * names the retailer or is confidently detected as the retailer's.
+     *
+     * @param input .xls or .xlsx file
+     * @param store the retailer the input was merged for
+     * @return false if the retailer is not confirmed and nothing was learned
+     * @throws IOException if the input cannot be read
+     */
+    public boolean learn(File input, Stores store) throws IOException {
+        Set<String> header = readHeader(input);
+        if (header.isEmpty() || !confirms(header, input.getName().toLowerCase(), store)) {
+            return false;
+        }
+        String learned = String.join("\t", header);
+        synchronized (this) {
+            List<String> headers = readHeaders(store);
+            headers.remove(learned);
+            headers.add(0, learned);
+            StringBuilder value = new StringBuilder();
+            for (String each : headers.subList(0, Math.min(MAX_HEADERS, headers.size()))) {
+                if (value.length() + each.length() + 1 > Preferences.MAX_VALUE_LENGTH) {
+                    break;
+                }
+                if (value.length() > 0) {
+                    value.append('\n');
+                }
+                value.append(each);
+            }
+            prefs.put(store.name(), value.toString());
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the retailer's words appear in the header or the header
+     * is confidently detected as the retailer's
+     */
+    private boolean confirms(Set<String> header, String fileName, Stores store) {
+        if (keywordScore(store, header, "") >= HEADER_SCORE) {
+            return true;
+        }
+        StoreDetection detection = detect(header, fileName);
+        return detection.isConfident() && detection.getStore() == store;
+    }
+
+    @Override
+    public void phaseChanged(ReportJob job, JobPhase phase) {
+    }
+
+    @Override
+    public void jobFinished(ReportJob job, JobStatus status, Throwable error) {
+        if (status != JobStatus.Completed) {
+            return;
+        }
+        try {
+            if (!learn(job.getInput(), job.getStore())) {
+                log.fine("Not learning the header of " + job.getInput() + ", " + job.getStore() + " is not confirmed by it");
+            }
+        } catch (IOException | RuntimeException ex) {
+            //POI reports unreadable workbooks with runtime exceptions, they must not reach the other listeners
+            log.log(Level.FINE, "Cannot learn the header of " + job.getInput(), ex);
+        }
+    }
+
+    /**
+     * @return the words of the sheet names and the text cells of the first
+     * rows, in the order they appear. An input in the input cache is not read
+     * again.
+     */
+    private Set<String> readHeader(File input) throws IOException {
+        List<String> sheetNames = new ArrayList<>();
+        List<Object[]> rows = new ArrayList<>();
+        ParsedInput cached = InputCache.getInstance().find(input);
+        if (cached != null) {
+            for (ParsedInput.Sheet sheet : cached.getSheets()) {
+                sheetNames.add(sheet.getName());
+            }
+            if (!cached.getSheets().isEmpty()) {
+                for (ParsedInput.Row row : cached.getSheets().get(0).getRows()) {
+                    if (rows.size() == HEADER_ROWS) {
+                        break;
+                    }
+                    rows.add(row.getCells());
+                }
+            }
+        } else {
+            WorkbookHead head = WorkbookReader.readHead(input, HEADER_ROWS);
+            sheetNames.addAll(head.getSheetNames());
+            rows.addAll(head.getRows());
+        }
+        Set<String> words = new LinkedHashSet<>();
+        for (String name : sheetNames) {
+            addWord(words, name);
+        }
+        for (Object[] cells : rows) {
+            for (Object cell : cells) {
+                //Numbers differ from file to file, they say nothing about the retailer
+                if (cell instanceof String) {
+                    addWord(words, (String) cell);
+                }
+            }
+        }
+        return words;
+    }
+
+    private static void addWord(Set<String> words, String text) {
+        String word = text.trim().replaceAll("\\s+", " ").toLowerCase();
+        if (word.length() > MAX_WORD_LENGTH) {
+            word = word.substring(0, MAX_WORD_LENGTH);
+        }
+        if (words.size() < MAX_WORDS && word.codePoints().anyMatch(Character::isLetter)) {
+            words.add(word);
+        }
+    }
+
+    private double keywordScore(Stores store, Set<String> header, String fileName) {
+        double score = 0;
+        for (String keyword : keywords.get(store)) {
+            for (String word : header) {
+                if (word.contains(keyword)) {
+                    return HEADER_SCORE;
+                }
+            }
+            if (fileName.contains(keyword)) {
+                score = FILE_NAME_SCORE;
+            }
+        }
+        return score;
+    }
+
+    /**
+     * @return the highest share of words the header has in common with a
+     * learned header of the retailer
+     */
+    private double learnedScore(Stores store, Set<String> header) {
+        double score = 0;
+        for (String learned : readHeaders(store)) {
+            Set<String> words = new LinkedHashSet<>(Arrays.asList(learned.split("\t")));
+            int union = words.size();
+            int common = 0;
+            for (String word : header) {
+                if (words.contains(word)) {
+                    common++;
+                } else {
+                    union++;
+                }
+            }
+            score = Math.max(score, (double) common / union);
+        }
+        return score;
+    }
+
+    private List<String> readHeaders(Stores store) {
+        List<String> headers = new ArrayList<>();
+        for (String header : prefs.get(store.name(), "").split("\n")) {
+            if (!header.isEmpty()) {
+                headers.add(header);
+            }
+        }
+        return headers;
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.diagnostics;
+
+import java.awt.EventQueue;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.FileHandler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+import lombok.extern.java.Log;
+import net.thecir.main.AppDirectory;
+
+/**
+ * Measures how quickly the event dispatch thread responds. A probe is posted
+ * to the event queue periodically and the delay until it is dispatched is
+ * recorded in a histogram. When a probe waits longer than the stall threshold
+ * the stack trace of the event dispatch thread is written to a rotating log
+ * in the application's folder, showing what blocks it.
+ *
+ * The probe interval and the threshold are set in milliseconds with the
+ * system properties lrm.edt.probeMillis and lrm.edt.stallMillis.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+@Log
+public class EdtMonitor {
+
+    private static final long PROBE_MILLIS = Long.getLong("lrm.edt.probeMillis", 100);
+    private static final long STALL_MILLIS = Long.getLong("lrm.edt.stallMillis", 500);
+    //Size of each stall log and the number of logs kept
+    private static final int LOG_LIMIT = 1 << 20;
+    private static final int LOG_COUNT = 3;
+    private static final EdtMonitor INSTANCE = new EdtMonitor();
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    //Time the probe waiting to be dispatched was posted, 0 if there is none
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicInteger stalls = new AtomicInteger();
+    private volatile long lastDelayNanos;
+    private volatile Thread dispatchThread;
+    private volatile Instant lastStall;
+    //Whether the pending probe has been reported, used by the probing thread only
+    private boolean stallReported;
+    private ScheduledExecutorService prober;
+    private FileHandler stallLog;
+    //The newest stall log, null if stalls are not logged
+    private volatile Path stallLogFile;
+
+    public static EdtMonitor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts probing the event queue, does nothing if already started.
+     */
+    public synchronized void start() {
+        if (prober != null) {
+            return;
+        }
+        try {
+            //The handler's pattern numbers the logs in place of %g
+            Path base = AppDirectory.resolve("edt-stalls");
+            stallLog = new FileHandler(base.toString().replace("%", "%%") + "%g.log", LOG_LIMIT, LOG_COUNT, true);
+            stallLog.setFormatter(new SimpleFormatter());
+            stallLogFile = base.resolveSibling("edt-stalls0.log");
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "The stalls of the event dispatch thread will not be logged", ex);
+        }
+        prober = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "edt-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        prober.scheduleWithFixedDelay(this::probe, PROBE_MILLIS, PROBE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (prober != null) {
+            prober.shutdownNow();
+            prober = null;
+        }
+        if (stallLog != null) {
+            stallLog.close();
+            stallLog = null;
+            stallLogFile = null;
+        }
+    }
+
+    /**
+     * @return the dispatch delays of the probes in microseconds
+     */
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * @return the number of probes which waited longer than the threshold
+     */
+    public int getStalls() {
+        return stalls.get();
+    }
+
+    /**
+     * @return the time of the last stall, null if there was none
+     */
+    public Instant getLastStall() {
+        return lastStall;
+    }
+
+    public Path getStallLog() {
+        return stallLogFile;
+    }
+
+    public long getStallMillis() {
+        return STALL_MILLIS;
+    }
+
+    /**
+     * Forgets the delays and stalls recorded so far.
+     */
+    public void reset() {
+        histogram.reset();
+        stalls.set(0);
+        lastStall = null;
+    }
+
+    private void probe() {
+        long posted = pending.get();
+        long now = System.nanoTime();
+        if (posted == 0) {
+            if (stallReported) {
+                stallReported = false;
+                publish(Level.INFO, "The event dispatch thread responded after "
+                        + TimeUnit.NANOSECONDS.toMillis(lastDelayNanos) + " ms");
+            }
+            pending.set(now);
+            EventQueue.invokeLater(() -> dispatched(now));
+        } else if (!stallReported && now - posted >= TimeUnit.MILLISECONDS.toNanos(STALL_MILLIS)) {
+            stallReported = true;
+            stalls.incrementAndGet();
+            lastStall = Instant.now();
+            long millis = TimeUnit.NANOSECONDS.toMillis(now - posted);
+            log.log(Level.WARNING, "The event dispatch thread has not responded for {0} ms", millis);
+            publish(Level.WARNING, describeStall(millis));
+        }
+    }
+
+    /**
+     * Called on the event dispatch thread when a probe is dispatched.
+     */
+    private void dispatched(long posted) {
+        lastDelayNanos = System.nanoTime() - posted;
+        dispatchThread = Thread.currentThread();
+        histogram.record(TimeUnit.NANOSECONDS.toMicros(lastDelayNanos));
+        pending.set(0);
+    }
+
+    private String describeStall(long millis) {
+        Thread thread = dispatchThread != null ? dispatchThread : findDispatchThread();
+        StringBuilder text = new StringBuilder("The event dispatch thread has not responded for ")
+                .append(millis).append(" ms");
+        if (thread == null) {
+            return text.toString();
+        }
+        ThreadInfo info = ManagementFactory.getThreadMXBean().getThreadInfo(thread.getId(), Integer.MAX_VALUE);
+        StackTraceElement[] stack;
+        text.append(System.lineSeparator()).append('"').append(thread.getName()).append('"');
+        if (info != null) {
+            text.append(' ').append(info.getThreadState());
+            if (info.getLockName() != null) {
+                text.append(" on ").append(info.getLockName());
+            }
+            if (info.getLockOwnerName() != null) {
+                text.append(" owned by \"").append(info.getLockOwnerName()).append('"');
+            }
+            stack = info.getStackTrace();
+        } else {
+            stack = thread.getStackTrace();
+        }
+        for (StackTraceElement element : stack) {
+            text.append(System.lineSeparator()).append("\tat ").append(element);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Finds the event dispatch thread by its name, for a stall before the
+     * first probe was dispatched.
+     */
+    private static Thread findDispatchThread() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("AWT-EventQueue")) {
+                return thread;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void publish(Level level, String message) {
+        if (stallLog != null) {
+            LogRecord record = new LogRecord(level, message);
+            record.setSourceClassName(EdtMonitor.class.getName());
+            record.setSourceMethodName("probe");
+            stallLog.publish(record);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.diagnostics;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import lombok.Getter;
+import net.thecir.enums.JobPhase;
+import net.thecir.enums.JobStatus;
+import net.thecir.jobs.ReportJob;
+
+/**
+ * Measurements of a finished report job.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class JobMetrics {
+
+    @Getter
+    private final ReportJob job;
+    @Getter
+    private final JobStatus status;
+    @Getter
+    private final Instant started;
+    @Getter
+    private final long wallMillis;
+    private final Map<JobPhase, Long> phaseMillis;
+    @Getter
+    private final long inputBytes;
+    @Getter
+    private final long outputBytes;
+    //Peak heap use of the whole application while the job was running
+    @Getter
+    private final long peakHeapBytes;
+    @Getter
+    private final long gcCount;
+    @Getter
+    private final long gcMillis;
+
+    public JobMetrics(ReportJob job, JobStatus status, Instant started, long wallMillis, Map<JobPhase, Long> phaseMillis,
+            long inputBytes, long outputBytes, long peakHeapBytes, long gcCount, long gcMillis) {
+        this.job = job;
+        this.status = status;
+        this.started = started;
+        this.wallMillis = wallMillis;
+        this.phaseMillis = Collections.unmodifiableMap(new EnumMap<>(phaseMillis));
+        this.inputBytes = inputBytes;
+        this.outputBytes = outputBytes;
+        this.peakHeapBytes = peakHeapBytes;
+        this.gcCount = gcCount;
+        this.gcMillis = gcMillis;
+    }
+
+    /**
+     * @param phase a phase of the job
+     * @return time spent in the phase, 0 if the phase was not reached
+     */
+    public long getPhaseMillis(JobPhase phase) {
+        return phaseMillis.getOrDefault(phase, 0L);
+    }
+
+    /**
+     * @return megabytes of input processed per second of generation
+     */
+    public double getInputMegabytesPerSecond() {
+        long millis = getPhaseMillis(JobPhase.Generating);
+        return millis == 0 ? 0 : inputBytes / 1048576.0 / (millis / 1000.0);
+    }
+}
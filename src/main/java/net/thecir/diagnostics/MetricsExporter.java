@@ -0,0 +1,155 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.diagnostics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import net.thecir.enums.JobPhase;
+
+/**
+ * Writes job metrics as CSV or JSON, chosen by the extension of the file.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public final class MetricsExporter {
+
+    private MetricsExporter() {
+    }
+
+    /**
+     * @param metrics the metrics to be written
+     * @param file .json for JSON, CSV otherwise
+     * @throws IOException if the file cannot be written
+     */
+    public static void export(List<JobMetrics> metrics, Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            if (file.getFileName().toString().toLowerCase().endsWith(".json")) {
+                writeJson(metrics, writer);
+            } else {
+                writeCsv(metrics, writer);
+            }
+        }
+    }
+
+    public static void writeCsv(List<JobMetrics> metrics, Writer writer) throws IOException {
+        StringBuilder line = new StringBuilder("started,input,output,store,subtract,status,wallMillis");
+        for (JobPhase phase : JobPhase.values()) {
+            line.append(',').append(phase.name().toLowerCase()).append("Millis");
+        }
+        line.append(",inputBytes,outputBytes,inputMBPerSecond,peakHeapBytes,gcCount,gcMillis\n");
+        writer.write(line.toString());
+        for (JobMetrics m : metrics) {
+            line.setLength(0);
+            line.append(m.getStarted()).append(',')
+                    .append(csv(m.getJob().getInput().toString())).append(',')
+                    .append(csv(m.getJob().getOutput().toString())).append(',')
+                    .append(m.getJob().getStore()).append(',')
+                    .append(m.getJob().isSubtract()).append(',')
+                    .append(m.getStatus()).append(',')
+                    .append(m.getWallMillis());
+            for (JobPhase phase : JobPhase.values()) {
+                line.append(',').append(m.getPhaseMillis(phase));
+            }
+            line.append(',').append(m.getInputBytes())
+                    .append(',').append(m.getOutputBytes())
+                    .append(',').append(String.format(Locale.ROOT, "%.3f", m.getInputMegabytesPerSecond()))
+                    .append(',').append(m.getPeakHeapBytes())
+                    .append(',').append(m.getGcCount())
+                    .append(',').append(m.getGcMillis()).append('\n');
+            writer.write(line.toString());
+        }
+    }
+
+    public static void writeJson(List<JobMetrics> metrics, Writer writer) throws IOException {
+        writer.write("[");
+        for (int i = 0; i < metrics.size(); i++) {
+            writer.write(i == 0 ? "\n  " : ",\n  ");
+            writer.write(toJson(metrics.get(i)));
+        }
+        writer.write("\n]\n");
+    }
+
+    /**
+     * @param m metrics of a job
+     * @return the metrics as a JSON object on a single line
+     */
+    public static String toJson(JobMetrics m) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"started\": ").append(json(m.getStarted().toString()))
+                .append(", \"input\": ").append(json(m.getJob().getInput().toString()))
+                .append(", \"output\": ").append(json(m.getJob().getOutput().toString()))
+                .append(", \"store\": ").append(json(m.getJob().getStore().name()))
+                .append(", \"subtract\": ").append(m.getJob().isSubtract())
+                .append(", \"status\": ").append(json(m.getStatus().name()))
+                .append(", \"wallMillis\": ").append(m.getWallMillis())
+                .append(", \"phaseMillis\": {");
+        for (JobPhase phase : JobPhase.values()) {
+            json.append(phase.ordinal() == 0 ? "" : ", ").append(json(phase.name())).append(": ").append(m.getPhaseMillis(phase));
+        }
+        json.append("}, \"inputBytes\": ").append(m.getInputBytes())
+                .append(", \"outputBytes\": ").append(m.getOutputBytes())
+                .append(", \"inputMBPerSecond\": ").append(String.format(Locale.ROOT, "%.3f", m.getInputMegabytesPerSecond()))
+                .append(", \"peakHeapBytes\": ").append(m.getPeakHeapBytes())
+                .append(", \"gcCount\": ").append(m.getGcCount())
+                .append(", \"gcMillis\": ").append(m.getGcMillis()).append("}");
+        return json.toString();
+    }
+
+    private static String csv(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    /**
+     * @param value any text
+     * @return the text as a quoted JSON string
+     */
+    public static String json(String value) {
+        StringBuilder escaped = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"':
+                    escaped.append("\\\"");
+                    break;
+                case '\\':
+                    escaped.append("\\\\");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        escaped.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        escaped.append(c);
+                    }
+            }
+        }
+        return escaped.append('"').toString();
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.diagnostics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import net.thecir.enums.JobPhase;
+import net.thecir.enums.JobStatus;
+import net.thecir.jobs.JobListener;
+import net.thecir.jobs.ReportJob;
+
+/**
+ * Times the phases of every job and samples the heap and garbage collection
+ * through the platform MXBeans. Keeps the metrics of the most recent jobs.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class MetricsRecorder implements JobListener {
+
+    private static final int HISTORY_SIZE = 200;
+    private static final MetricsRecorder INSTANCE = new MetricsRecorder();
+
+    private final Map<ReportJob, Tracker> running = new ConcurrentHashMap<>();
+    private final Deque<JobMetrics> history = new ArrayDeque<>();
+    private final List<Runnable> changeListeners = new CopyOnWriteArrayList<>();
+
+    public static MetricsRecorder getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param listener called on the job's thread whenever a job has finished
+     */
+    public void addChangeListener(Runnable listener) {
+        changeListeners.add(listener);
+    }
+
+    public void removeChangeListener(Runnable listener) {
+        changeListeners.remove(listener);
+    }
+
+    /**
+     * @return metrics of the recent jobs, oldest first
+     */
+    public synchronized List<JobMetrics> getHistory() {
+        return new ArrayList<>(history);
+    }
+
+    /**
+     * @param job a finished job
+     * @return the metrics of the job, null if it is not among the recent jobs
+     */
+    public synchronized JobMetrics find(ReportJob job) {
+        for (Iterator<JobMetrics> it = history.descendingIterator(); it.hasNext();) {
+            JobMetrics metrics = it.next();
+            if (metrics.getJob() == job) {
+                return metrics;
+            }
+        }
+        return null;
+    }
+
+    public synchronized void clearHistory() {
+        history.clear();
+    }
+
+    @Override
+    public void phaseChanged(ReportJob job, JobPhase phase) {
+        Tracker tracker = running.get(job);
+        if (tracker == null) {
+            if (running.isEmpty()) {
+                resetPeakHeap();
+            }
+            tracker = new Tracker();
+            running.put(job, tracker);
+        }
+        tracker.enter(phase);
+    }
+
+    @Override
+    public void jobFinished(ReportJob job, JobStatus status, Throwable error) {
+        Tracker tracker = running.remove(job);
+        if (tracker == null) {
+            //Cancelled before it started
+            return;
+        }
+        tracker.enter(null);
+        JobMetrics metrics = new JobMetrics(job, status, tracker.started,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - tracker.startNanos), tracker.phaseMillis,
+                job.getInput().length(), job.getOutput().length(), peakHeap(),
+                gcCount() - tracker.gcCount, gcMillis() - tracker.gcMillis);
+        synchronized (this) {
+            history.addLast(metrics);
+            while (history.size() > HISTORY_SIZE) {
+                history.removeFirst();
+            }
+        }
+        for (Runnable listener : changeListeners) {
+            listener.run();
+        }
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * @return number of collections of all garbage collectors so far
+     */
+    public static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * @return time spent in all garbage collectors so far
+     */
+    public static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    /**
+     * Phase timings of a running job.
+     */
+    private static class Tracker {
+
+        private final Instant started = Instant.now();
+        private final long startNanos = System.nanoTime();
+        private final long gcCount = gcCount();
+        private final long gcMillis = gcMillis();
+        private final Map<JobPhase, Long> phaseMillis = new EnumMap<>(JobPhase.class);
+        private JobPhase phase;
+        private long phaseStart = startNanos;
+
+        synchronized void enter(JobPhase next) {
+            long now = System.nanoTime();
+            if (phase != null) {
+                phaseMillis.merge(phase, TimeUnit.NANOSECONDS.toMillis(now - phaseStart), Long::sum);
+            }
+            phase = next;
+            phaseStart = now;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.diagnostics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import lombok.extern.java.Log;
+import net.thecir.main.AppDirectory;
+
+/**
+ * The most recent completed jobs of all runs of the application, kept in the
+ * application's folder, one line per job. Records are appended as jobs
+ * complete and the file is rewritten once it holds twice the records kept.
+ *
+ * The number of records kept is set with the system property
+ * lrm.history.maxRuns.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+@Log
+public class RunHistory {
+
+    private static final int MAX_RUNS = Integer.getInteger("lrm.history.maxRuns", 1000);
+    private static final String HEADER = "#LiteReportManager run history 1";
+    private static final RunHistory INSTANCE = new RunHistory();
+
+    private final List<RunRecord> runs = new ArrayList<>();
+    //Null if the history is only kept in memory
+    private Path file;
+    private boolean loaded;
+    //Records in the file, including those no longer kept
+    private int fileRecords;
+
+    public static RunHistory getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the kept records, oldest first
+     */
+    public synchronized List<RunRecord> getRuns() {
+        load();
+        return Collections.unmodifiableList(new ArrayList<>(runs));
+    }
+
+    /**
+     * Adds a completed job to the history.
+     *
+     * @param run the job's record
+     */
+    public synchronized void add(RunRecord run) {
+        load();
+        runs.add(run);
+        if (runs.size() > MAX_RUNS) {
+            runs.subList(0, runs.size() - MAX_RUNS).clear();
+        }
+        if (file == null) {
+            return;
+        }
+        try {
+            if (++fileRecords > 2 * MAX_RUNS) {
+                rewrite();
+            } else {
+                Files.write(file, (run.toLine() + System.lineSeparator()).getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "Cannot write the run history " + file, ex);
+        }
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        try {
+            file = AppDirectory.resolve("run-history.tsv");
+            if (!Files.exists(file)) {
+                Files.write(file, (HEADER + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    runs.add(RunRecord.parse(line));
+                    fileRecords++;
+                } catch (RuntimeException ex) {
+                    log.log(Level.FINE, "Skipped a damaged line of the run history", ex);
+                }
+            }
+            if (runs.size() > MAX_RUNS) {
+                runs.subList(0, runs.size() - MAX_RUNS).clear();
+            }
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "The run history is not kept between runs", ex);
+            file = null;
+        }
+    }
+
+    private void rewrite() throws IOException {
+        List<String> lines = new ArrayList<>(runs.size() + 1);
+        lines.add(HEADER);
+        for (RunRecord run : runs) {
+            lines.add(run.toLine());
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, lines, StandardCharsets.UTF_8);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        fileRecords = runs.size();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.diagnostics;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import lombok.Getter;
+import net.thecir.enums.JobPhase;
+import net.thecir.enums.Stores;
+
+/**
+ * A completed job as kept in the {@link RunHistory}.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class RunRecord {
+
+    //Phases kept in a record, in the order of the line's fields
+    static final JobPhase[] PHASES = {JobPhase.Checking, JobPhase.Staging, JobPhase.Generating, JobPhase.Committing};
+
+    @Getter
+    private final Instant time;
+    @Getter
+    private final Stores store;
+    //How the input was applied, see mode(boolean, boolean, boolean)
+    @Getter
+    private final String mode;
+    @Getter
+    private final long inputBytes;
+    //Rows of the input, -1 if they were not counted
+    @Getter
+    private final long inputRows;
+    private final Map<JobPhase, Long> phaseMillis;
+    @Getter
+    private final long wallMillis;
+
+    public RunRecord(Instant time, Stores store, String mode, long inputBytes, long inputRows,
+            Map<JobPhase, Long> phaseMillis, long wallMillis) {
+        this.time = time;
+        this.store = store;
+        this.mode = mode;
+        this.inputBytes = inputBytes;
+        this.inputRows = inputRows;
+        this.phaseMillis = Collections.unmodifiableMap(new EnumMap<>(phaseMillis));
+        this.wallMillis = wallMillis;
+    }
+
+    /**
+     * @param subtract if the input was subtracted
+     * @param incremental if only the changed rows were applied
+     * @param largeFile if the report was generated in a separate process
+     * @return the name of the mode, runs of different modes take different
+     * times for the same input
+     */
+    public static String mode(boolean subtract, boolean incremental, boolean largeFile) {
+        return (subtract ? "subtract" : "add") + (incremental ? "+incremental" : "") + (largeFile ? "+large" : "");
+    }
+
+    /**
+     * @param phase a phase of the job
+     * @return time spent in the phase, 0 if the phase was not reached
+     */
+    public long getPhaseMillis(JobPhase phase) {
+        return phaseMillis.getOrDefault(phase, 0L);
+    }
+
+    String toLine() {
+        StringBuilder line = new StringBuilder().append(time).append('\t').append(store.name()).append('\t').append(mode)
+                .append('\t').append(inputBytes).append('\t').append(inputRows);
+        for (JobPhase phase : PHASES) {
+            line.append('\t').append(getPhaseMillis(phase));
+        }
+        return line.append('\t').append(wallMillis).toString();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the line is not a record
+     */
+    static RunRecord parse(String line) {
+        String[] fields = line.split("\t");
+        if (fields.length != 6 + PHASES.length) {
+            throw new IllegalArgumentException("Not a run record: " + line);
+        }
+        Map<JobPhase, Long> phases = new EnumMap<>(JobPhase.class);
+        for (int i = 0; i < PHASES.length; i++) {
+            phases.put(PHASES[i], Long.parseLong(fields[5 + i]));
+        }
+        return new RunRecord(Instant.parse(fields[0]), Stores.valueOf(fields[1]), fields[2], Long.parseLong(fields[3]),
+                Long.parseLong(fields[4]), phases, Long.parseLong(fields[5 + PHASES.length]));
+    }
+}
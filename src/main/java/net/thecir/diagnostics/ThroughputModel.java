@@ -0,0 +1,474 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.diagnostics;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import lombok.Getter;
+import lombok.extern.java.Log;
+import net.thecir.cache.InputCache;
+import net.thecir.cache.ParsedInput;
+import net.thecir.enums.JobPhase;
+import net.thecir.enums.JobStatus;
+import net.thecir.jobs.HeapEstimate;
+import net.thecir.jobs.JobListener;
+import net.thecir.jobs.ReportJob;
+import net.thecir.readers.WorkbookReader;
+
+/**
+ * Predicts how long a job will take from the {@link RunHistory}. The time of
+ * each phase is fitted as a fixed part plus a part proportional to the size
+ * of the input, over the recent runs of the same retailer and mode. While a
+ * job runs, the remaining phases are scaled by how much faster or slower
+ * than predicted its finished phases were.
+ *
+ * A completed job is added to the history. It is flagged as an anomaly if it
+ * was much slower than predicted, compared to how far the history's own runs
+ * stray from the model.
+ *
+ * The rows of an input are taken from the input cache or, for an .xlsx, from
+ * the range its sheets declare, on a separate thread while its job runs. The
+ * input is never read a second time just to count them. A run is recorded
+ * with the mode the job was actually generated in.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+@Log
+public class ThroughputModel implements JobListener {
+
+    //Runs fitted, the most recent of the closest group
+    private static final int FIT_RUNS = 50;
+    //Runs a group needs before a prediction is based on it
+    private static final int MIN_RUNS = 3;
+    //Runs needed before a job is flagged as an anomaly
+    private static final int MIN_ANOMALY_RUNS = 5;
+    //A job is never an anomaly if it is not this much slower, nor by less time
+    private static final double MIN_ANOMALY_RATIO = 1.5;
+    private static final long MIN_ANOMALY_MILLIS = 2000;
+    //Finished phases shorter than this do not rescale the remaining ones
+    private static final long MIN_SCALING_MILLIS = 200;
+    private static final int KEPT_ANOMALIES = 200;
+    private static final double MEGABYTE = 1048576.0;
+    private static final ThroughputModel INSTANCE = new ThroughputModel(RunHistory.getInstance());
+
+    private final RunHistory history;
+    private final Map<ReportJob, Tracker> running = new ConcurrentHashMap<>();
+    //Predictions of queued and running jobs, cleared whenever the history grows
+    private final Map<ReportJob, Prediction> predictions = new WeakHashMap<>();
+    private final Map<ReportJob, Anomaly> anomalies = new LinkedHashMap<ReportJob, Anomaly>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ReportJob, Anomaly> eldest) {
+            return size() > KEPT_ANOMALIES;
+        }
+    };
+    private final ExecutorService rowCounter = Executors.newSingleThreadExecutor((runnable) -> {
+        Thread thread = new Thread(runnable, "row-counter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    ThroughputModel(RunHistory history) {
+        this.history = history;
+    }
+
+    public static ThroughputModel getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Predicts the duration of a job from the history.
+     *
+     * @param job a job
+     * @return the prediction, null if there is no history to base it on
+     */
+    public Prediction predict(ReportJob job) {
+        synchronized (predictions) {
+            if (predictions.containsKey(job)) {
+                return predictions.get(job);
+            }
+        }
+        Prediction prediction = fit(job, history.getRuns());
+        synchronized (predictions) {
+            predictions.put(job, prediction);
+        }
+        return prediction;
+    }
+
+    /**
+     * Estimates what is left of a running job.
+     *
+     * @param job a job
+     * @return the estimate, null if the job is not running or cannot be
+     * predicted
+     */
+    public Estimate estimate(ReportJob job) {
+        Tracker tracker = running.get(job);
+        return tracker == null || tracker.prediction == null ? null : tracker.estimate();
+    }
+
+    /**
+     * @param job a completed job
+     * @return how much slower than predicted the job was, null if it was not
+     * an anomaly
+     */
+    public Anomaly getAnomaly(ReportJob job) {
+        synchronized (anomalies) {
+            return anomalies.get(job);
+        }
+    }
+
+    @Override
+    public void phaseChanged(ReportJob job, JobPhase phase) {
+        Tracker tracker = running.get(job);
+        if (tracker == null) {
+            tracker = new Tracker(job, predict(job));
+            running.put(job, tracker);
+            Tracker counted = tracker;
+            rowCounter.execute(() -> countRows(counted));
+        }
+        tracker.enter(phase);
+    }
+
+    @Override
+    public void modeChosen(ReportJob job, boolean largeFile) {
+        Tracker tracker = running.get(job);
+        if (tracker != null && largeFile) {
+            tracker.largeFile = true;
+        }
+    }
+
+    @Override
+    public void jobFinished(ReportJob job, JobStatus status, Throwable error) {
+        Tracker tracker = running.remove(job);
+        if (tracker == null) {
+            return;
+        }
+        tracker.finished = true;
+        if (status != JobStatus.Completed) {
+            return;
+        }
+        tracker.enter(null);
+        long wallMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - tracker.startNanos);
+        Prediction prediction = tracker.prediction;
+        if (prediction != null && prediction.isAnomaly(wallMillis)) {
+            Anomaly anomaly = new Anomaly(wallMillis, prediction.getTotalMillis());
+            synchronized (anomalies) {
+                anomalies.put(job, anomaly);
+            }
+            log.warning(job + " took " + wallMillis + " ms, " + prediction.getTotalMillis() + " ms were expected");
+        }
+        history.add(new RunRecord(Instant.now(), job.getStore(),
+                RunRecord.mode(job.isSubtract(), job.isIncremental(), tracker.largeFile), tracker.inputBytes, tracker.rows,
+                tracker.phaseMillis, wallMillis));
+        synchronized (predictions) {
+            predictions.clear();
+        }
+    }
+
+    /**
+     * @return the mode the job is expected to run in, known for sure only once
+     * it runs
+     */
+    private static String mode(ReportJob job) {
+        return RunRecord.mode(job.isSubtract(), job.isIncremental(), HeapEstimate.requiresLargeFileMode(job));
+    }
+
+    private static void countRows(Tracker tracker) {
+        if (tracker.finished) {
+            return;
+        }
+        try {
+            ParsedInput cached = InputCache.getInstance().find(tracker.job.getInput());
+            if (cached == null) {
+                tracker.rows = WorkbookReader.readRowCount(tracker.job.getInput());
+            } else {
+                long rows = 0;
+                for (ParsedInput.Sheet sheet : cached.getSheets()) {
+                    rows += sheet.getRows().size();
+                }
+                tracker.rows = rows;
+            }
+        } catch (Exception ex) {
+            log.log(Level.FINE, "Cannot count the rows of " + tracker.job.getInput(), ex);
+        }
+    }
+
+    static Prediction fit(ReportJob job, List<RunRecord> runs) {
+        String mode = mode(job);
+        List<RunRecord> group = select(runs, (run) -> run.getStore() == job.getStore() && run.getMode().equals(mode));
+        if (group.size() < MIN_RUNS) {
+            group = select(runs, (run) -> run.getStore() == job.getStore());
+        }
+        if (group.size() < MIN_RUNS) {
+            group = select(runs, (run) -> true);
+        }
+        if (group.isEmpty()) {
+            return null;
+        }
+        Map<JobPhase, double[]> lines = new EnumMap<>(JobPhase.class);
+        for (JobPhase phase : RunRecord.PHASES) {
+            lines.put(phase, fitLine(group, phase));
+        }
+        //How far the fitted runs stray from the model, on a log scale
+        double sum = 0;
+        double squares = 0;
+        for (RunRecord run : group) {
+            double ratio = Math.log(Math.max(1, run.getWallMillis()) / Math.max(1.0, total(lines, run.getInputBytes())));
+            sum += ratio;
+            squares += ratio * ratio;
+        }
+        double mean = sum / group.size();
+        double deviation = Math.sqrt(Math.max(0, squares / group.size() - mean * mean));
+        double slowRatio = group.size() < MIN_ANOMALY_RUNS ? Double.POSITIVE_INFINITY
+                : Math.max(MIN_ANOMALY_RATIO, Math.exp(mean + 3 * deviation));
+
+        long rows = 0;
+        long rowBytes = 0;
+        for (RunRecord run : group) {
+            if (run.getInputRows() >= 0) {
+                rows += run.getInputRows();
+                rowBytes += run.getInputBytes();
+            }
+        }
+        long bytes = job.getInput().length();
+        Map<JobPhase, Long> phaseMillis = new EnumMap<>(JobPhase.class);
+        for (JobPhase phase : RunRecord.PHASES) {
+            phaseMillis.put(phase, Math.round(value(lines.get(phase), bytes)));
+        }
+        return new Prediction(phaseMillis, group.size(), slowRatio, rowBytes == 0 ? -1 : Math.round(bytes * (double) rows / rowBytes));
+    }
+
+    private static List<RunRecord> select(List<RunRecord> runs, Predicate<RunRecord> filter) {
+        List<RunRecord> selected = new ArrayList<>();
+        for (int i = runs.size() - 1; i >= 0 && selected.size() < FIT_RUNS; i--) {
+            if (filter.test(runs.get(i))) {
+                selected.add(runs.get(i));
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Fits the time of a phase as a + b * megabytes by least squares. Falls
+     * back to the mean time if the sizes hardly differ, a slope fitted to
+     * nearly equal sizes would be mostly noise.
+     *
+     * @return {a, b}
+     */
+    private static double[] fitLine(List<RunRecord> runs, JobPhase phase) {
+        double n = runs.size();
+        double sx = 0;
+        double sy = 0;
+        double sxx = 0;
+        double sxy = 0;
+        for (RunRecord run : runs) {
+            double x = run.getInputBytes() / MEGABYTE;
+            double y = run.getPhaseMillis(phase);
+            sx += x;
+            sy += y;
+            sxx += x * x;
+            sxy += x * y;
+        }
+        //A slope is fitted only if the sizes spread by more than a tenth of their mean
+        double variance = n * sxx - sx * sx;
+        if (variance > 0.01 * sx * sx) {
+            double b = (n * sxy - sx * sy) / variance;
+            double a = (sy - b * sx) / n;
+            if (b >= 0 && a >= 0) {
+                return new double[]{a, b};
+            }
+            if (b >= 0) {
+                return new double[]{0, sxy / sxx};
+            }
+        }
+        return new double[]{sy / n, 0};
+    }
+
+    private static double value(double[] line, long bytes) {
+        return line[0] + line[1] * bytes / MEGABYTE;
+    }
+
+    private static double total(Map<JobPhase, double[]> lines, long bytes) {
+        double total = 0;
+        for (double[] line : lines.values()) {
+            total += value(line, bytes);
+        }
+        return total;
+    }
+
+    /**
+     * The expected duration of a job.
+     */
+    public static class Prediction {
+
+        private final Map<JobPhase, Long> phaseMillis;
+        @Getter
+        private final long totalMillis;
+        //Number of runs the prediction is based on
+        @Getter
+        private final int runs;
+        //A job taking this many times the prediction is an anomaly
+        private final double slowRatio;
+        //Rows expected in the input, -1 if unknown
+        @Getter
+        private final long rows;
+
+        Prediction(Map<JobPhase, Long> phaseMillis, int runs, double slowRatio, long rows) {
+            this.phaseMillis = Collections.unmodifiableMap(phaseMillis);
+            long total = 0;
+            for (long millis : phaseMillis.values()) {
+                total += millis;
+            }
+            this.totalMillis = total;
+            this.runs = runs;
+            this.slowRatio = slowRatio;
+            this.rows = rows;
+        }
+
+        /**
+         * @param phase a phase of the job
+         * @return the expected time of the phase
+         */
+        public long getPhaseMillis(JobPhase phase) {
+            return phaseMillis.getOrDefault(phase, 0L);
+        }
+
+        boolean isAnomaly(long wallMillis) {
+            return wallMillis - totalMillis >= MIN_ANOMALY_MILLIS && wallMillis > totalMillis * slowRatio;
+        }
+    }
+
+    /**
+     * What is left of a running job.
+     */
+    @Getter
+    public static class Estimate {
+
+        private final long remainingMillis;
+        //If the current phase takes longer than it should, the remaining time is then too low
+        private final boolean overdue;
+        //Rows generated per second, 0 if unknown
+        private final double rowsPerSecond;
+
+        Estimate(long remainingMillis, boolean overdue, double rowsPerSecond) {
+            this.remainingMillis = remainingMillis;
+            this.overdue = overdue;
+            this.rowsPerSecond = rowsPerSecond;
+        }
+    }
+
+    /**
+     * A job which was much slower than predicted.
+     */
+    @Getter
+    public static class Anomaly {
+
+        private final long actualMillis;
+        private final long expectedMillis;
+
+        Anomaly(long actualMillis, long expectedMillis) {
+            this.actualMillis = actualMillis;
+            this.expectedMillis = expectedMillis;
+        }
+    }
+
+    /**
+     * Phase timings of a running job.
+     */
+    private static class Tracker {
+
+        private final ReportJob job;
+        private final Prediction prediction;
+        private final long inputBytes;
+        private final long startNanos = System.nanoTime();
+        private final Map<JobPhase, Long> phaseMillis = new EnumMap<>(JobPhase.class);
+        private JobPhase phase;
+        private long phaseStart = startNanos;
+        //Rows of the input, -1 until known
+        private volatile long rows = -1;
+        private volatile boolean finished;
+        //If a part of the report was generated in large file mode
+        private volatile boolean largeFile;
+
+        Tracker(ReportJob job, Prediction prediction) {
+            this.job = job;
+            this.prediction = prediction;
+            this.inputBytes = job.getInput().length();
+        }
+
+        synchronized void enter(JobPhase next) {
+            long now = System.nanoTime();
+            if (phase != null) {
+                phaseMillis.merge(phase, TimeUnit.NANOSECONDS.toMillis(now - phaseStart), Long::sum);
+            }
+            phase = next;
+            phaseStart = now;
+        }
+
+        synchronized Estimate estimate() {
+            long predictedDone = 0;
+            long actualDone = 0;
+            for (JobPhase done : RunRecord.PHASES) {
+                if (phase == null || done.compareTo(phase) >= 0) {
+                    break;
+                }
+                predictedDone += prediction.getPhaseMillis(done);
+                actualDone += phaseMillis.getOrDefault(done, 0L);
+            }
+            double scale = predictedDone < MIN_SCALING_MILLIS ? 1
+                    : Math.min(3, Math.max(0.5, actualDone / (double) predictedDone));
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - phaseStart);
+            double remaining = 0;
+            boolean overdue = false;
+            for (JobPhase later : RunRecord.PHASES) {
+                if (phase != null && later.compareTo(phase) < 0) {
+                    continue;
+                }
+                double expected = prediction.getPhaseMillis(later) * scale;
+                if (later == phase) {
+                    overdue = elapsed > expected;
+                    expected = Math.max(0, expected - elapsed);
+                }
+                remaining += expected;
+            }
+            long knownRows = rows >= 0 ? rows : prediction.getRows();
+            double generatingMillis = phaseMillis.containsKey(JobPhase.Generating)
+                    ? phaseMillis.get(JobPhase.Generating) : prediction.getPhaseMillis(JobPhase.Generating) * scale;
+            double rowsPerSecond = knownRows <= 0 || generatingMillis <= 0 ? 0 : knownRows * 1000 / generatingMillis;
+            return new Estimate(Math.round(remaining), overdue, rowsPerSecond);
+        }
+    }
+}
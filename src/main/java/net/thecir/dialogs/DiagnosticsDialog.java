@@ -0,0 +1,230 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.dialogs;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ResourceBundle;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JFileChooser;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.WindowConstants;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.table.AbstractTableModel;
+import net.miginfocom.swing.MigLayout;
+import net.thecir.diagnostics.EdtMonitor;
+import net.thecir.diagnostics.JobMetrics;
+import net.thecir.diagnostics.LatencyHistogram;
+import net.thecir.diagnostics.MetricsExporter;
+import net.thecir.diagnostics.MetricsRecorder;
+import net.thecir.enums.JobPhase;
+import net.thecir.main.StartupTimer;
+
+/**
+ * Shows the timings and memory use of the recent jobs and exports them.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class DiagnosticsDialog extends JDialog {
+
+    private static final String[] COLUMNS = {"input", "retailer", "status", "total", "checking", "staging",
+        "generating", "committing", "throughput", "peakHeap", "gc"};
+
+    private final MetricsRecorder recorder = MetricsRecorder.getInstance();
+    private final EdtMonitor edtMonitor = EdtMonitor.getInstance();
+    private final ResourceBundle componentBundle = ResourceBundle.getBundle("LanguageBundles/ComponentText");
+    private final ResourceBundle messagesBundle = ResourceBundle.getBundle("LanguageBundles/Messages");
+    private final ResourceBundle errorBundle = ResourceBundle.getBundle("LanguageBundles/ErrorMessages");
+
+    private final MetricsTableModel tableModel = new MetricsTableModel();
+    private final JLabel memoryLabel = new JLabel();
+    private final JLabel responsivenessLabel = new JLabel();
+    private final JFileChooser exportChooser = new JFileChooser();
+    //Refreshes the memory and responsiveness labels while the dialog is open
+    private final Timer memoryTimer = new Timer(1000, event -> {
+        updateMemory();
+        updateResponsiveness();
+    });
+    private final Runnable historyListener = () -> SwingUtilities.invokeLater(this::refresh);
+
+    public DiagnosticsDialog(JFrame parent) {
+        super(parent, false);
+        setTitle(componentBundle.getString("DiagnosticsDialog.title"));
+        setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        setLayout(new MigLayout("", "[grow]", "[grow][shrink 0][shrink 0][shrink 0]"));
+
+        JTable table = new JTable(tableModel);
+        table.setFillsViewportHeight(true);
+        JButton exportButton = new JButton(componentBundle.getString("DiagnosticsDialog.exportButton"));
+        JButton clearButton = new JButton(componentBundle.getString("DiagnosticsDialog.clearButton"));
+        exportButton.addActionListener(event -> export());
+        clearButton.addActionListener(event -> {
+            recorder.clearHistory();
+            edtMonitor.reset();
+            refresh();
+            updateResponsiveness();
+        });
+        exportChooser.setAcceptAllFileFilterUsed(false);
+        exportChooser.addChoosableFileFilter(new FileNameExtensionFilter("CSV (*.csv)", "csv"));
+        exportChooser.addChoosableFileFilter(new FileNameExtensionFilter("JSON (*.json)", "json"));
+
+        add(new JScrollPane(table), "grow, wmin 700, hmin 200, wrap");
+        add(new JLabel(MessageFormat.format(componentBundle.getString("DiagnosticsDialog.startup"),
+                StartupTimer.getReport())), "wrap");
+        add(responsivenessLabel, "wrap");
+        add(memoryLabel, "split 3, growx");
+        add(clearButton);
+        add(exportButton);
+
+        recorder.addChangeListener(historyListener);
+        refresh();
+        updateMemory();
+        updateResponsiveness();
+        if (edtMonitor.getStallLog() != null) {
+            responsivenessLabel.setToolTipText(MessageFormat.format(
+                    componentBundle.getString("DiagnosticsDialog.responsiveness.toolTip"), edtMonitor.getStallLog()));
+        }
+        memoryTimer.start();
+        pack();
+        setLocationRelativeTo(parent);
+    }
+
+    @Override
+    public void dispose() {
+        memoryTimer.stop();
+        recorder.removeChangeListener(historyListener);
+        super.dispose();
+    }
+
+    private void refresh() {
+        tableModel.setMetrics(recorder.getHistory());
+    }
+
+    private void updateMemory() {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        memoryLabel.setText(MessageFormat.format(componentBundle.getString("DiagnosticsDialog.memory"),
+                megabytes(heap.getUsed()), megabytes(heap.getMax() < 0 ? heap.getCommitted() : heap.getMax()),
+                MetricsRecorder.gcCount(), MetricsRecorder.gcMillis()));
+    }
+
+    private void updateResponsiveness() {
+        LatencyHistogram delays = edtMonitor.getHistogram();
+        responsivenessLabel.setText(MessageFormat.format(componentBundle.getString("DiagnosticsDialog.responsiveness"),
+                delays.getPercentile(50) / 1000.0, delays.getPercentile(99) / 1000.0, delays.getMax() / 1000.0,
+                delays.getCount(), edtMonitor.getStalls(), edtMonitor.getStallMillis()));
+    }
+
+    private void export() {
+        if (exportChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = exportChooser.getSelectedFile();
+        String extension = ((FileNameExtensionFilter) exportChooser.getFileFilter()).getExtensions()[0];
+        if (!file.getName().toLowerCase().endsWith("." + extension)) {
+            file = new File(file.getPath() + "." + extension);
+        }
+        try {
+            MetricsExporter.export(recorder.getHistory(), file.toPath());
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(this, MessageFormat.format(errorBundle.getString("MetricsNotExported"),
+                    file, ex.getLocalizedMessage()), null, JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private static long megabytes(long bytes) {
+        return bytes / 1048576;
+    }
+
+    /**
+     * One row per finished job, newest first.
+     */
+    private class MetricsTableModel extends AbstractTableModel {
+
+        private List<JobMetrics> metrics = new ArrayList<>();
+
+        void setMetrics(List<JobMetrics> history) {
+            metrics = new ArrayList<>(history.size());
+            for (int i = history.size() - 1; i >= 0; i--) {
+                metrics.add(history.get(i));
+            }
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return metrics.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return componentBundle.getString("DiagnosticsTable." + COLUMNS[column]);
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int columnIndex) {
+            JobMetrics m = metrics.get(rowIndex);
+            switch (columnIndex) {
+                case 0:
+                    return m.getJob().getInput().getName();
+                case 1:
+                    return m.getJob().getStore();
+                case 2:
+                    return messagesBundle.getString("JobStatus." + m.getStatus().name());
+                case 3:
+                    return m.getWallMillis();
+                case 4:
+                    return m.getPhaseMillis(JobPhase.Checking);
+                case 5:
+                    return m.getPhaseMillis(JobPhase.Staging);
+                case 6:
+                    return m.getPhaseMillis(JobPhase.Generating);
+                case 7:
+                    return m.getPhaseMillis(JobPhase.Committing);
+                case 8:
+                    return String.format("%.2f", m.getInputMegabytesPerSecond());
+                case 9:
+                    return megabytes(m.getPeakHeapBytes());
+                default:
+                    return m.getGcCount() + " / " + m.getGcMillis();
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.dialogs;
+
+import java.text.MessageFormat;
+import java.util.List;
+import java.util.ResourceBundle;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTabbedPane;
+import javax.swing.JTable;
+import javax.swing.WindowConstants;
+import javax.swing.table.AbstractTableModel;
+import net.miginfocom.swing.MigLayout;
+import net.thecir.jobs.DryRun;
+
+/**
+ * Shows what the tried jobs would change in their outputs, one tab per job.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class DryRunDialog extends JDialog {
+
+    private static final String[] COLUMNS = {"sheet", "row", "product", "before", "after", "change"};
+
+    private final ResourceBundle componentBundle = ResourceBundle.getBundle("LanguageBundles/ComponentText");
+
+    public DryRunDialog(JFrame parent, List<DryRun> results) {
+        super(parent, false);
+        setTitle(componentBundle.getString("DryRunDialog.title"));
+        setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        setLayout(new MigLayout("", "[grow]", "[grow]"));
+        if (results.size() == 1) {
+            add(createPanel(results.get(0)), "grow");
+        } else {
+            JTabbedPane tabs = new JTabbedPane();
+            for (DryRun result : results) {
+                tabs.addTab(result.getJob().getInput().getName(), createPanel(result));
+            }
+            add(tabs, "grow");
+        }
+        pack();
+        setLocationRelativeTo(parent);
+    }
+
+    private JPanel createPanel(DryRun result) {
+        JPanel panel = new JPanel(new MigLayout("", "[grow]", "[shrink 0][shrink 0][grow][shrink 0]"));
+        panel.add(new JLabel(MessageFormat.format(componentBundle.getString("DryRunDialog.summary"),
+                result.getJob().getInput().getName(), result.getJob().getOutput().getName(), result.getAddedRows(),
+                result.getChangedRows(), result.getRemovedRows(), result.getMillis() / 1000.0)), "wrap");
+        panel.add(new JLabel(MessageFormat.format(componentBundle.getString("DryRunDialog.total"),
+                result.getTotalBefore(), result.getTotalAfter(), result.getTotalAfter() - result.getTotalBefore())), "wrap");
+        JTable table = new JTable(new ChangeTableModel(result.getRows()));
+        table.setFillsViewportHeight(true);
+        table.setAutoCreateRowSorter(true);
+        panel.add(new JScrollPane(table), "grow, wmin 600, hmin 200, wrap");
+        if (result.getConflict() != null) {
+            panel.add(new JLabel(MessageFormat.format(componentBundle.getString("DryRunDialog.conflict." + result.getConflict()),
+                    result.getJob().getInput().getName(), result.getJob().getOutput().getName())), "wrap");
+        }
+        if (!result.isCompared()) {
+            panel.add(new JLabel(MessageFormat.format(componentBundle.getString("DryRunDialog.notCompared"),
+                    result.getJob().getOutput().getName())), "wrap");
+        }
+        if (result.isTruncated()) {
+            panel.add(new JLabel(MessageFormat.format(componentBundle.getString("DryRunDialog.truncated"),
+                    result.getRows().size())), "wrap");
+        }
+        return panel;
+    }
+
+    /**
+     * One row per changed row of the output.
+     */
+    private class ChangeTableModel extends AbstractTableModel {
+
+        private final List<DryRun.RowChange> rows;
+
+        ChangeTableModel(List<DryRun.RowChange> rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return componentBundle.getString("DryRunTable." + COLUMNS[column]);
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            switch (column) {
+                case 1:
+                    return Integer.class;
+                case 3:
+                case 4:
+                case 5:
+                    return Double.class;
+                default:
+                    return String.class;
+            }
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int column) {
+            DryRun.RowChange row = rows.get(rowIndex);
+            switch (column) {
+                case 0:
+                    return row.getSheet();
+                case 1:
+                    return row.getRow() + 1;
+                case 2:
+                    return row.getLabel();
+                case 3:
+                    return row.getBefore();
+                case 4:
+                    return row.getAfter();
+                default:
+                    return (row.getAfter() == null ? 0 : row.getAfter()) - (row.getBefore() == null ? 0 : row.getBefore());
+            }
+        }
+    }
+}
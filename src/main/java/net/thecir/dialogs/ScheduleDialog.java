@@ -0,0 +1,425 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.dialogs;
+
+import java.awt.Component;
+import java.io.File;
+import java.text.MessageFormat;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.time.format.TextStyle;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.ResourceBundle;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.WindowConstants;
+import javax.swing.table.AbstractTableModel;
+import net.miginfocom.swing.MigLayout;
+import net.thecir.enums.BrowseMode;
+import net.thecir.enums.ScheduleInterval;
+import net.thecir.enums.SchedulePriority;
+import net.thecir.enums.Stores;
+import net.thecir.filechoosers.FileBrowser;
+import net.thecir.schedule.JobScheduler;
+import net.thecir.schedule.ScheduleListener;
+import net.thecir.schedule.ScheduledJob;
+
+/**
+ * Lists the scheduled jobs with their last and next runs, and adds, edits,
+ * removes or runs them.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class ScheduleDialog extends JDialog {
+
+    private static final String[] COLUMNS = {"name", "inputs", "output", "store", "repeats", "priority", "lastRun",
+        "result", "nextRun"};
+
+    private final ResourceBundle componentBundle = ResourceBundle.getBundle("LanguageBundles/ComponentText");
+    private final ResourceBundle errorBundle = ResourceBundle.getBundle("LanguageBundles/ErrorMessages");
+
+    private final JobScheduler scheduler;
+    private final ScheduleTableModel tableModel = new ScheduleTableModel();
+    private final JTable table = new JTable(tableModel);
+    private final ScheduleListener scheduleListener = new ScheduleListener() {
+        @Override
+        public void runStarted(ScheduledJob job, int inputs) {
+            SwingUtilities.invokeLater(ScheduleDialog.this::refresh);
+        }
+
+        @Override
+        public void runFinished(ScheduledJob job) {
+            SwingUtilities.invokeLater(ScheduleDialog.this::refresh);
+        }
+    };
+
+    public ScheduleDialog(JFrame parent, JobScheduler scheduler) {
+        super(parent, false);
+        this.scheduler = scheduler;
+        setTitle(componentBundle.getString("ScheduleDialog.title"));
+        setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        setLayout(new MigLayout("", "[grow]", "[grow][shrink 0][shrink 0]"));
+
+        table.setFillsViewportHeight(true);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        JButton addButton = new JButton(componentBundle.getString("ScheduleDialog.addButton"));
+        JButton editButton = new JButton(componentBundle.getString("ScheduleDialog.editButton"));
+        JButton removeButton = new JButton(componentBundle.getString("ScheduleDialog.removeButton"));
+        JButton runButton = new JButton(componentBundle.getString("ScheduleDialog.runButton"));
+        addButton.addActionListener(event -> edit(null));
+        editButton.addActionListener(event -> {
+            ScheduledJob selected = getSelectedJob();
+            if (selected != null) {
+                edit(selected);
+            }
+        });
+        removeButton.addActionListener(event -> {
+            ScheduledJob selected = getSelectedJob();
+            if (selected != null && JOptionPane.showConfirmDialog(this, MessageFormat.format(
+                    componentBundle.getString("ScheduleDialog.removeConfirm"), selected.getName()), null,
+                    JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
+                scheduler.remove(selected.getName());
+                refresh();
+            }
+        });
+        runButton.addActionListener(event -> {
+            ScheduledJob selected = getSelectedJob();
+            if (selected != null) {
+                scheduler.runNow(selected.getName());
+                refresh();
+            }
+        });
+
+        add(new JScrollPane(table), "grow, wmin 800, hmin 200, wrap");
+        JLabel infoLabel = new JLabel(MessageFormat.format(componentBundle.getString(scheduler.isStarted()
+                ? "ScheduleDialog.info" : "ScheduleDialog.otherInstance"), Integer.getInteger("lrm.schedule.offPeakStart", 22),
+                Integer.getInteger("lrm.schedule.offPeakEnd", 6)));
+        add(infoLabel, "wrap");
+        add(addButton, "split 4");
+        add(editButton);
+        add(removeButton);
+        add(runButton);
+        //Only the instance running the schedules may change them
+        for (JButton button : new JButton[]{addButton, editButton, removeButton, runButton}) {
+            button.setEnabled(scheduler.isStarted());
+        }
+
+        scheduler.addListener(scheduleListener);
+        refresh();
+        pack();
+        setLocationRelativeTo(parent);
+    }
+
+    @Override
+    public void dispose() {
+        scheduler.removeListener(scheduleListener);
+        super.dispose();
+    }
+
+    private void refresh() {
+        ScheduledJob selected = getSelectedJob();
+        tableModel.setJobs(scheduler.getJobs());
+        if (selected != null) {
+            for (int row = 0; row < tableModel.jobs.size(); row++) {
+                if (tableModel.jobs.get(row).getName().equals(selected.getName())) {
+                    table.setRowSelectionInterval(row, row);
+                }
+            }
+        }
+    }
+
+    private ScheduledJob getSelectedJob() {
+        int row = table.getSelectedRow();
+        return row < 0 ? null : tableModel.jobs.get(row);
+    }
+
+    /**
+     * Shows the editor until a valid job is entered or the editor is
+     * cancelled.
+     *
+     * @param job the job to be edited, null to add one
+     */
+    private void edit(ScheduledJob job) {
+        Editor editor = new Editor(job);
+        while (JOptionPane.showConfirmDialog(this, editor, componentBundle.getString(job == null
+                ? "ScheduleEditor.addTitle" : "ScheduleEditor.editTitle"), JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE) == JOptionPane.OK_OPTION) {
+            try {
+                ScheduledJob edited = editor.getJob();
+                boolean renamed = job == null || !job.getName().equals(edited.getName());
+                if (renamed && scheduler.getJobs().stream().anyMatch(other -> other.getName().equals(edited.getName()))) {
+                    throw new IllegalArgumentException(MessageFormat.format(errorBundle.getString("ScheduleNameTaken"),
+                            edited.getName()));
+                }
+                scheduler.put(job == null ? null : job.getName(), edited);
+                refresh();
+                return;
+            } catch (IllegalArgumentException ex) {
+                JOptionPane.showMessageDialog(this, ex.getMessage(), null, JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
+
+    private String describeRepeats(ScheduledJob job) {
+        return MessageFormat.format(componentBundle.getString("ScheduleDialog.repeats." + job.getInterval()),
+                String.format("%02d", job.getTime().getMinute()), job.getTime().toString(),
+                job.getDay().getDisplayName(TextStyle.FULL, Locale.getDefault()));
+    }
+
+    private String describeResult(ScheduledJob job) {
+        if (scheduler.isActive(job.getName())) {
+            return componentBundle.getString("ScheduleDialog.running");
+        } else if (job.getLastError() != null) {
+            return job.getLastError();
+        } else if (job.getLastRun() == null) {
+            return null;
+        }
+        return MessageFormat.format(componentBundle.getString("ScheduleDialog.result"), job.getLastCompleted(),
+                job.getLastSkipped(), job.getLastFailed());
+    }
+
+    private static Date toDate(Instant time) {
+        return time == null ? null : Date.from(time);
+    }
+
+    /**
+     * One row per scheduled job.
+     */
+    private class ScheduleTableModel extends AbstractTableModel {
+
+        private List<ScheduledJob> jobs = Collections.emptyList();
+
+        void setJobs(List<ScheduledJob> jobs) {
+            this.jobs = jobs;
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return jobs.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return componentBundle.getString("ScheduleTable." + COLUMNS[column]);
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return column == 6 || column == 8 ? Date.class : String.class;
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int column) {
+            ScheduledJob job = jobs.get(rowIndex);
+            switch (column) {
+                case 0:
+                    return job.getName();
+                case 1:
+                    return job.getInputPattern() + (job.isSubtract() ? " (-)" : "");
+                case 2:
+                    return job.getOutput().getPath();
+                case 3:
+                    return job.getStore().name();
+                case 4:
+                    return job.isEnabled() ? describeRepeats(job) : componentBundle.getString("ScheduleDialog.disabled");
+                case 5:
+                    return componentBundle.getString("SchedulePriority." + job.getPriority());
+                case 6:
+                    return toDate(job.getLastRun());
+                case 7:
+                    return describeResult(job);
+                default:
+                    return toDate(scheduler.getNextRun(job));
+            }
+        }
+    }
+
+    /**
+     * The fields of a scheduled job.
+     */
+    private class Editor extends JPanel {
+
+        private final JTextField nameField = new JTextField(30);
+        private final JTextField inputField = new JTextField(30);
+        private final JTextField outputField = new JTextField(30);
+        private final JComboBox<Stores> storeComboBox = new JComboBox<>(Stores.values());
+        private final JCheckBox subtractCheckBox = new JCheckBox(componentBundle.getString("ScheduleEditor.subtract"));
+        private final JComboBox<ScheduleInterval> intervalComboBox = new JComboBox<>(ScheduleInterval.values());
+        private final JTextField timeField = new JTextField(5);
+        private final JComboBox<DayOfWeek> dayComboBox = new JComboBox<>(DayOfWeek.values());
+        private final JComboBox<SchedulePriority> priorityComboBox = new JComboBox<>(SchedulePriority.values());
+        private final JCheckBox enabledCheckBox = new JCheckBox(componentBundle.getString("ScheduleEditor.enabled"), true);
+
+        Editor(ScheduledJob job) {
+            super(new MigLayout("", "[shrink 0][grow][shrink 0]"));
+            JButton inputButton = new JButton("...");
+            JButton outputButton = new JButton("...");
+            inputField.setToolTipText(componentBundle.getString("ScheduleEditor.inputs.toolTip"));
+            intervalComboBox.setRenderer(new NameRenderer("ScheduleInterval."));
+            priorityComboBox.setRenderer(new NameRenderer("SchedulePriority."));
+            priorityComboBox.setToolTipText(componentBundle.getString("ScheduleEditor.priority.toolTip"));
+            dayComboBox.setRenderer(new DefaultListCellRenderer() {
+                @Override
+                public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected,
+                        boolean cellHasFocus) {
+                    return super.getListCellRendererComponent(list, ((DayOfWeek) value).getDisplayName(TextStyle.FULL,
+                            Locale.getDefault()), index, isSelected, cellHasFocus);
+                }
+            });
+            intervalComboBox.addActionListener(event -> {
+                dayComboBox.setEnabled(intervalComboBox.getSelectedItem() == ScheduleInterval.Weekly);
+            });
+            //Owned by the editor's window, a browser owned by the frame would be blocked by it
+            inputButton.addActionListener(event -> {
+                List<File> picked = new FileBrowser(SwingUtilities.getWindowAncestor(this), BrowseMode.Open, "xlsx", "xls")
+                        .browse(null);
+                if (!picked.isEmpty()) {
+                    //Every file of the folder with the extension of the picked one
+                    String name = picked.get(0).getName();
+                    inputField.setText(new File(picked.get(0).getParentFile(), "*" + name.substring(Math.max(0,
+                            name.lastIndexOf('.')))).getPath());
+                }
+            });
+            outputButton.addActionListener(event -> {
+                List<File> picked = new FileBrowser(SwingUtilities.getWindowAncestor(this), BrowseMode.Open, "xlsx", "xls")
+                        .browse(null);
+                if (!picked.isEmpty()) {
+                    outputField.setText(picked.get(0).getPath());
+                }
+            });
+
+            add(new JLabel(componentBundle.getString("ScheduleEditor.name")));
+            add(nameField, "growx, wrap");
+            add(new JLabel(componentBundle.getString("ScheduleEditor.inputs")));
+            add(inputField, "growx");
+            add(inputButton, "wrap");
+            add(new JLabel(componentBundle.getString("ScheduleEditor.output")));
+            add(outputField, "growx");
+            add(outputButton, "wrap");
+            add(new JLabel(componentBundle.getString("ScheduleEditor.store")));
+            add(storeComboBox, "split 2");
+            add(subtractCheckBox, "wrap");
+            add(new JLabel(componentBundle.getString("ScheduleEditor.repeats")));
+            add(intervalComboBox, "split 4");
+            add(dayComboBox);
+            add(new JLabel(componentBundle.getString("ScheduleEditor.time")));
+            add(timeField, "wrap");
+            add(new JLabel(componentBundle.getString("ScheduleEditor.priority")));
+            add(priorityComboBox, "split 2");
+            add(enabledCheckBox, "wrap");
+
+            if (job == null) {
+                intervalComboBox.setSelectedItem(ScheduleInterval.Daily);
+                priorityComboBox.setSelectedItem(SchedulePriority.Normal);
+                timeField.setText("22:00");
+            } else {
+                nameField.setText(job.getName());
+                inputField.setText(job.getInputPattern());
+                outputField.setText(job.getOutput().getPath());
+                storeComboBox.setSelectedItem(job.getStore());
+                subtractCheckBox.setSelected(job.isSubtract());
+                intervalComboBox.setSelectedItem(job.getInterval());
+                dayComboBox.setSelectedItem(job.getDay());
+                timeField.setText(job.getTime().toString());
+                priorityComboBox.setSelectedItem(job.getPriority());
+                enabledCheckBox.setSelected(job.isEnabled());
+            }
+            dayComboBox.setEnabled(intervalComboBox.getSelectedItem() == ScheduleInterval.Weekly);
+        }
+
+        /**
+         * @return the entered job
+         * @throws IllegalArgumentException with the message to be shown if
+         * a field is invalid
+         */
+        ScheduledJob getJob() {
+            String name = nameField.getText().trim();
+            if (name.isEmpty() || name.contains("\t")) {
+                throw new IllegalArgumentException(errorBundle.getString("ScheduleNameRequired"));
+            }
+            File pattern = new File(inputField.getText().trim()).getAbsoluteFile();
+            if (inputField.getText().trim().isEmpty() || !pattern.getParentFile().isDirectory()) {
+                throw new IllegalArgumentException(MessageFormat.format(errorBundle.getString("ScheduleInputsInvalid"),
+                        inputField.getText()));
+            }
+            if (outputField.getText().trim().isEmpty()) {
+                throw new IllegalArgumentException(errorBundle.getString("ScheduleOutputRequired"));
+            }
+            LocalTime time;
+            try {
+                time = LocalTime.parse(timeField.getText().trim());
+            } catch (DateTimeParseException ex) {
+                throw new IllegalArgumentException(MessageFormat.format(errorBundle.getString("ScheduleTimeInvalid"),
+                        timeField.getText()));
+            }
+            return new ScheduledJob(name, pattern.getPath(), new File(outputField.getText().trim()),
+                    (Stores) storeComboBox.getSelectedItem(), subtractCheckBox.isSelected(),
+                    (ScheduleInterval) intervalComboBox.getSelectedItem(), time, (DayOfWeek) dayComboBox.getSelectedItem(),
+                    (SchedulePriority) priorityComboBox.getSelectedItem(), enabledCheckBox.isSelected());
+        }
+    }
+
+    /**
+     * Shows the names of enum values in the current language.
+     */
+    private class NameRenderer extends DefaultListCellRenderer {
+
+        private final String keyPrefix;
+
+        NameRenderer(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected,
+                boolean cellHasFocus) {
+            return super.getListCellRendererComponent(list, componentBundle.getString(keyPrefix + value), index, isSelected,
+                    cellHasFocus);
+        }
+    }
+}
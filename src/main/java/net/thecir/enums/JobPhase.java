@@ -0,0 +1,60 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.enums;
+
+import lombok.Getter;
+
+/**
+ * The consecutive phases a report job goes through while running in the
+ * background.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public enum JobPhase {
+    Checking("JobPhase.Checking"),
+    Staging("JobPhase.Staging"),
+    Generating("JobPhase.Generating"),
+    Committing("JobPhase.Committing"),
+    Done("JobPhase.Done");
+    @Getter
+    private final String messageKey;
+
+    /**
+     * Constructor
+     *
+     * @param messageKey - key of the phase description in the Messages bundle
+     */
+    private JobPhase(String messageKey) {
+        this.messageKey = messageKey;
+    }
+
+    /**
+     * Percentage of the job which is complete once this phase is reached.
+     *
+     * @return value between 0 and 100
+     */
+    public int getProgress() {
+        return ordinal() * 100 / (values().length - 1);
+    }
+}
@@ -24,78 +24,133 @@
 package net.thecir.filechoosers;
 
 import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
 import java.util.ResourceBundle;
-import javax.swing.JFileChooser;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 import javax.swing.JTextField;
-import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.SwingUtilities;
 import net.thecir.callbacks.FileCallback;
+import net.thecir.enums.BrowseMode;
+import net.thecir.ledger.ApplicationLedger;
 import org.apache.commons.io.FilenameUtils;
 
 /**
+ * Asks the core library's new file manager where to create a new output.
  *
  * @author Konstantin Tsanov <k.tsanov@gmail.com>
  */
-public class CreateNewFileChooser extends JFileChooser implements FileCallback {
+public class CreateNewFileChooser implements FileCallback {
 
     private final JFrame parent;
     private final JTextField newFileField;
     //To set the output file
-    private final JFileChooser outputFileChooser;
+    private final Consumer<File> outputSetter;
+    //Remembers the folder of the outputs
+    private final RecentFiles recentOutputs;
+    private final String[] extensions;
+    private FileBrowser browser;
+    private File selectedFile;
     private ResourceBundle errorBundle;
 
-    public CreateNewFileChooser(JFrame parent, JTextField newFileField, JFileChooser outputFileChooser, String... extensions) {
+    public CreateNewFileChooser(JFrame parent, JTextField newFileField, Consumer<File> outputSetter,
+            RecentFiles recentOutputs, String... extensions) {
         this.parent = parent;
         this.newFileField = newFileField;
-        this.outputFileChooser = outputFileChooser;
-        setFileSelectionMode(FILES_ONLY);
-        FileNameExtensionFilter filter = new FileNameExtensionFilter("Excel Workbook (.xlsx)", extensions);
-        setFileFilter(filter);
-        setAcceptAllFileFilterUsed(false);
+        this.outputSetter = outputSetter;
+        this.recentOutputs = recentOutputs;
+        this.extensions = extensions;
     }
 
+    /**
+     * Shows the save dialog. The new file is created in the background, so the
+     * dialog is shown on the event dispatch thread and the caller waits for it.
+     *
+     * @return the selected file or null if the dialog was cancelled
+     */
     @Override
     public File getFile() {
-        int result = showSaveDialog(parent);
-        if (result == JFileChooser.APPROVE_OPTION) {
-            return getSelectedFile();
-        } else {
-            return null;
-        }
+        AtomicReference<File> file = new AtomicReference<>();
+        runOnEventThread(() -> file.set(chooseFile()));
+        selectedFile = file.get();
+        return selectedFile;
     }
 
     @Override
     public void setAsOutputAndDisplay() {
-        newFileField.setText(getSelectedFile() == null ? null : getSelectedFile().toString());
-        outputFileChooser.setSelectedFile(getSelectedFile());
+        if (selectedFile != null) {
+            try {
+                ApplicationLedger.forOutput(selectedFile).start();
+            } catch (IOException ex) {
+                Logger.getLogger(CreateNewFileChooser.class.getName()).log(Level.WARNING, "Cannot start the ledger of " + selectedFile, ex);
+            }
+        }
+        runOnEventThread(() -> {
+            newFileField.setText(selectedFile == null ? null : selectedFile.toString());
+            outputSetter.accept(selectedFile);
+        });
     }
 
-    @Override
-    public void approveSelection() {
-        File f = manageExtension(getSelectedFile());
-        setSelectedFile(f);
-        if (getDialogType() == SAVE_DIALOG) {
-            if (f.exists()) {
-                errorBundle = ResourceBundle.getBundle("LanguageBundles/ErrorMessages");
-                int result = JOptionPane.showConfirmDialog(this, errorBundle.getString("FileAlreadyExistsOverwrite"), errorBundle.getString("ExistingFileLabel"), JOptionPane.YES_NO_CANCEL_OPTION);
-                switch (result) {
-                    case JOptionPane.YES_OPTION:
-                        super.approveSelection();
-                        return;
-                    case JOptionPane.NO_OPTION:
-                        return;
-                    case JOptionPane.CLOSED_OPTION:
-                        return;
-                    case JOptionPane.CANCEL_OPTION:
-                        cancelSelection();
-                        return;
-                }
-            } else {
-                super.approveSelection();
+    /**
+     * Sets the text of the dialog in the current language.
+     */
+    public void setComponentText() {
+        if (browser != null) {
+            browser.setComponentText();
+        }
+    }
+
+    /**
+     * Shows the browser until a file is picked which is new or may be
+     * overwritten.
+     */
+    private File chooseFile() {
+        if (browser == null) {
+            browser = new FileBrowser(parent, BrowseMode.Save, extensions);
+        }
+        File directory = recentOutputs.getDirectory();
+        while (true) {
+            List<File> picked = browser.browse(directory);
+            if (picked.isEmpty()) {
+                return null;
+            }
+            directory = browser.getDirectory();
+            recentOutputs.setDirectory(directory);
+            File file = manageExtension(picked.get(0));
+            if (!file.exists()) {
+                return file;
             }
+            errorBundle = ResourceBundle.getBundle("LanguageBundles/ErrorMessages");
+            int result = JOptionPane.showConfirmDialog(parent, errorBundle.getString("FileAlreadyExistsOverwrite"), errorBundle.getString("ExistingFileLabel"), JOptionPane.YES_NO_CANCEL_OPTION);
+            switch (result) {
+                case JOptionPane.YES_OPTION:
+                    return file;
+                case JOptionPane.NO_OPTION:
+                    continue;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private void runOnEventThread(Runnable runnable) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            runnable.run();
+            return;
+        }
+        try {
+            SwingUtilities.invokeAndWait(runnable);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (InvocationTargetException ex) {
+            Logger.getLogger(CreateNewFileChooser.class.getName()).log(Level.SEVERE, null, ex);
         }
-        super.approveSelection();
     }
 
     private File manageExtension(File file) {
@@ -0,0 +1,441 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.filechoosers;
+
+import java.awt.Component;
+import java.awt.Window;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.concurrent.ExecutionException;
+import javax.swing.AbstractAction;
+import javax.swing.AbstractListModel;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.Icon;
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JComponent;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.KeyStroke;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingWorker;
+import javax.swing.UIManager;
+import net.miginfocom.swing.MigLayout;
+import net.thecir.enums.BrowseMode;
+
+/**
+ * A light replacement for JFileChooser. Folders are listed on a background
+ * thread and the list is filled while the listing runs, so even slow network
+ * shares never block the event dispatch thread. Files are recognized by
+ * their extension alone and shown with a common icon, so only entries
+ * without a matching extension are checked for being folders.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class FileBrowser extends JDialog {
+
+    private final BrowseMode mode;
+    private final String[] extensions;
+
+    private final JComboBox<File> placesCombo = new JComboBox<>();
+    private final JButton upButton = new JButton();
+    private final JTextField pathField = new JTextField();
+    private final EntryListModel entries = new EntryListModel();
+    private final JList<Entry> entryList = new JList<>(entries);
+    private final JLabel fileNameLabel = new JLabel();
+    private final JTextField fileNameField = new JTextField();
+    private final JLabel statusLabel = new JLabel();
+    private final JButton approveButton = new JButton();
+    private final JButton cancelButton = new JButton();
+
+    private ResourceBundle componentBundle;
+    private ResourceBundle errorBundle;
+    private Path directory;
+    private Lister lister;
+    private List<File> selection = Collections.emptyList();
+
+    /**
+     * Constructor
+     *
+     * @param owner - window the dialog is shown over, may be null
+     * @param mode - what the user picks
+     * @param extensions - extensions of the listed files, without the dot
+     */
+    public FileBrowser(Window owner, BrowseMode mode, String... extensions) {
+        super(owner, ModalityType.APPLICATION_MODAL);
+        this.mode = mode;
+        this.extensions = extensions;
+        setLayout(new MigLayout("", "[shrink 0][grow][shrink 0]", "[shrink 0][grow][shrink 0][shrink 0]"));
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+
+        for (File root : File.listRoots()) {
+            placesCombo.addItem(root);
+        }
+        placesCombo.addItem(new File(System.getProperty("user.home")));
+        entryList.setSelectionMode(mode == BrowseMode.OpenMultiple
+                ? ListSelectionModel.MULTIPLE_INTERVAL_SELECTION : ListSelectionModel.SINGLE_SELECTION);
+        entryList.setCellRenderer(new EntryRenderer());
+        //Spares the list measuring every entry
+        entryList.setPrototypeCellValue(new Entry(Paths.get("A rather long name of a retailer export.xlsx"), false));
+        fileNameField.setEnabled(mode == BrowseMode.Save);
+
+        add(placesCombo, "growx");
+        add(pathField, "growx");
+        add(upButton, "growx, wrap");
+        add(new JScrollPane(entryList), "span, grow, w 600, h 350, wrap");
+        add(fileNameLabel);
+        add(fileNameField, "span, growx, wrap");
+        add(statusLabel, "span 2, growx, split 3");
+        add(approveButton, "tag ok");
+        add(cancelButton, "tag cancel");
+
+        attachListeners();
+        setComponentText();
+        pack();
+    }
+
+    /**
+     * Shows the dialog and waits until it is closed.
+     *
+     * @param start folder shown first, the home folder if null or missing
+     * @return the picked files, empty if the dialog was cancelled
+     */
+    public List<File> browse(File start) {
+        selection = Collections.emptyList();
+        fileNameField.setText(null);
+        navigate(start == null ? null : start.toPath());
+        setLocationRelativeTo(getOwner());
+        setVisible(true);
+        stopListing();
+        return selection;
+    }
+
+    /**
+     * @return the folder shown last
+     */
+    public File getDirectory() {
+        return directory == null ? null : directory.toFile();
+    }
+
+    /**
+     * Sets the text of the dialog in the current language.
+     */
+    public final void setComponentText() {
+        componentBundle = ResourceBundle.getBundle("LanguageBundles/ComponentText");
+        errorBundle = ResourceBundle.getBundle("LanguageBundles/ErrorMessages");
+        setTitle(componentBundle.getString("FileBrowser.title." + mode.name()));
+        upButton.setText(componentBundle.getString("FileBrowser.upButton"));
+        fileNameLabel.setText(componentBundle.getString("FileBrowser.fileNameLabel"));
+        approveButton.setText(componentBundle.getString("FileBrowser.approveButton." + mode.name()));
+        cancelButton.setText(componentBundle.getString("FileBrowser.cancelButton"));
+    }
+
+    private void attachListeners() {
+        placesCombo.addActionListener((ae) -> {
+            File place = (File) placesCombo.getSelectedItem();
+            if (place != null && !place.toPath().equals(directory)) {
+                navigate(place.toPath());
+            }
+        });
+        upButton.addActionListener((ae) -> {
+            if (directory != null && directory.getParent() != null) {
+                navigate(directory.getParent());
+            }
+        });
+        pathField.addActionListener((ae) -> {
+            try {
+                Path path = Paths.get(pathField.getText().trim());
+                if (hasExtension(path.getFileName() == null ? "" : path.getFileName().toString())
+                        && mode != BrowseMode.Folder) {
+                    approve(Collections.singletonList(path.toFile()));
+                } else {
+                    navigate(path);
+                }
+            } catch (InvalidPathException ex) {
+                statusLabel.setText(MessageFormat.format(errorBundle.getString("CannotListFolder"), pathField.getText()));
+            }
+        });
+        entryList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2 && entryList.getSelectedValue() != null) {
+                    open(entryList.getSelectedValue());
+                }
+            }
+        });
+        entryList.addListSelectionListener((event) -> {
+            Entry entry = entryList.getSelectedValue();
+            if (mode == BrowseMode.Save && entry != null && !entry.directory) {
+                fileNameField.setText(entry.path.getFileName().toString());
+            }
+        });
+        entryList.getInputMap(JComponent.WHEN_FOCUSED).put(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0), "open");
+        entryList.getActionMap().put("open", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                approveSelected();
+            }
+        });
+        fileNameField.addActionListener((ae) -> approveSelected());
+        approveButton.addActionListener((ae) -> approveSelected());
+        cancelButton.addActionListener((ae) -> dispose());
+        getRootPane().registerKeyboardAction((ae) -> dispose(), KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0),
+                JComponent.WHEN_IN_FOCUSED_WINDOW);
+    }
+
+    private void open(Entry entry) {
+        if (entry.directory) {
+            navigate(entry.path);
+        } else {
+            approve(Collections.singletonList(entry.path.toFile()));
+        }
+    }
+
+    private void approveSelected() {
+        List<Entry> selected = entryList.getSelectedValuesList();
+        switch (mode) {
+            case Save:
+                String name = fileNameField.getText() == null ? "" : fileNameField.getText().trim();
+                if (!name.isEmpty() && directory != null) {
+                    approve(Collections.singletonList(directory.resolve(name).toFile()));
+                } else if (selected.size() == 1 && selected.get(0).directory) {
+                    navigate(selected.get(0).path);
+                }
+                return;
+            case Folder:
+                if (selected.size() == 1 && selected.get(0).directory) {
+                    approve(Collections.singletonList(selected.get(0).path.toFile()));
+                } else if (directory != null) {
+                    approve(Collections.singletonList(directory.toFile()));
+                }
+                return;
+            default:
+                if (selected.size() == 1 && selected.get(0).directory) {
+                    navigate(selected.get(0).path);
+                    return;
+                }
+                List<File> files = new ArrayList<>();
+                for (Entry entry : selected) {
+                    if (!entry.directory) {
+                        files.add(entry.path.toFile());
+                    }
+                }
+                if (!files.isEmpty()) {
+                    approve(files);
+                }
+        }
+    }
+
+    private void approve(List<File> files) {
+        selection = files;
+        dispose();
+    }
+
+    /**
+     * Shows a folder and starts listing it in the background.
+     */
+    private void navigate(Path target) {
+        if (target == null || !target.isAbsolute()) {
+            target = target == null ? Paths.get(System.getProperty("user.home")) : target.toAbsolutePath();
+        }
+        stopListing();
+        directory = target;
+        pathField.setText(target.toString());
+        entries.clear();
+        lister = new Lister(target);
+        lister.execute();
+    }
+
+    private void stopListing() {
+        if (lister != null) {
+            lister.cancel(true);
+            lister = null;
+        }
+    }
+
+    private boolean hasExtension(String name) {
+        int dot = name.lastIndexOf('.');
+        if (dot < 0) {
+            return false;
+        }
+        String extension = name.substring(dot + 1);
+        for (String accepted : extensions) {
+            if (accepted.equalsIgnoreCase(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lists a folder, handing the entries over in chunks as they are found.
+     */
+    private class Lister extends SwingWorker<Void, Entry> {
+
+        private final Path folder;
+
+        Lister(Path folder) {
+            this.folder = folder;
+        }
+
+        @Override
+        protected Void doInBackground() throws IOException {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+                for (Path path : stream) {
+                    if (isCancelled()) {
+                        break;
+                    }
+                    String name = path.getFileName().toString();
+                    //Hidden files and the lock files of open workbooks
+                    if (name.startsWith(".") || name.startsWith("~")) {
+                        continue;
+                    }
+                    if (mode != BrowseMode.Folder && hasExtension(name)) {
+                        publish(new Entry(path, false));
+                    } else if (Files.isDirectory(path)) {
+                        publish(new Entry(path, true));
+                    }
+                }
+            }
+            return null;
+        }
+
+        @Override
+        protected void process(List<Entry> chunk) {
+            if (lister == this) {
+                entries.addAll(chunk);
+                statusLabel.setText(MessageFormat.format(componentBundle.getString("FileBrowser.loading"), entries.getSize()));
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (lister != this || isCancelled()) {
+                return;
+            }
+            try {
+                get();
+                entries.sort();
+                statusLabel.setText(MessageFormat.format(componentBundle.getString("FileBrowser.items"), entries.getSize()));
+            } catch (InterruptedException | ExecutionException ex) {
+                statusLabel.setText(MessageFormat.format(errorBundle.getString("CannotListFolder"), folder));
+            }
+        }
+    }
+
+    /**
+     * A file or folder of the listed folder.
+     */
+    private static class Entry {
+
+        private final Path path;
+        private final boolean directory;
+
+        Entry(Path path, boolean directory) {
+            this.path = path;
+            this.directory = directory;
+        }
+    }
+
+    /**
+     * Entries in the order they were found, sorted once the listing is done.
+     * Every chunk fires a single event.
+     */
+    private static class EntryListModel extends AbstractListModel<Entry> {
+
+        private static final Comparator<Entry> ORDER = Comparator.<Entry, Boolean>comparing((entry) -> !entry.directory)
+                .thenComparing((entry) -> entry.path.getFileName().toString(), String.CASE_INSENSITIVE_ORDER);
+
+        private final List<Entry> entries = new ArrayList<>();
+
+        void addAll(List<Entry> chunk) {
+            int first = entries.size();
+            entries.addAll(chunk);
+            fireIntervalAdded(this, first, entries.size() - 1);
+        }
+
+        void clear() {
+            int size = entries.size();
+            entries.clear();
+            if (size > 0) {
+                fireIntervalRemoved(this, 0, size - 1);
+            }
+        }
+
+        void sort() {
+            entries.sort(ORDER);
+            if (!entries.isEmpty()) {
+                fireContentsChanged(this, 0, entries.size() - 1);
+            }
+        }
+
+        @Override
+        public int getSize() {
+            return entries.size();
+        }
+
+        @Override
+        public Entry getElementAt(int index) {
+            return entries.get(index);
+        }
+    }
+
+    /**
+     * Shows the name with a common icon, never asking the system for the
+     * icon of a particular file.
+     */
+    private static class EntryRenderer extends DefaultListCellRenderer {
+
+        private final Icon directoryIcon = UIManager.getIcon("FileView.directoryIcon");
+        private final Icon fileIcon = UIManager.getIcon("FileView.fileIcon");
+
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected,
+                boolean cellHasFocus) {
+            super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+            Entry entry = (Entry) value;
+            setText(entry.path.getFileName().toString());
+            setIcon(entry.directory ? directoryIcon : fileIcon);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.filechoosers;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.prefs.Preferences;
+import net.thecir.enums.Stores;
+
+/**
+ * The most recently used files of one kind, e.g. inputs, per retailer. Kept
+ * in the preferences, like the language. The files are never checked for
+ * existence here, so listing them costs no file system access.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class RecentFiles {
+
+    private static final int MAX_FILES = 10;
+    //Preferences values are limited in length
+    private static final int MAX_VALUE_LENGTH = Preferences.MAX_VALUE_LENGTH;
+
+    private final Preferences prefs = Preferences.userRoot().node(RecentFiles.class.getName());
+    private final String kind;
+
+    /**
+     * Constructor
+     *
+     * @param kind - name of the list, e.g. "input"
+     */
+    public RecentFiles(String kind) {
+        this.kind = kind;
+    }
+
+    /**
+     * @param store retailer of the files, null for the files of all retailers
+     * @return the files, most recent first
+     */
+    public List<File> get(Stores store) {
+        Set<File> files = new LinkedHashSet<>();
+        if (store == null) {
+            for (Stores each : Stores.values()) {
+                files.addAll(read(each));
+            }
+        } else {
+            files.addAll(read(store));
+        }
+        return new ArrayList<>(files);
+    }
+
+    /**
+     * Moves the files to the top of the retailer's list.
+     *
+     * @param store retailer of the files
+     * @param added the used files
+     */
+    public void add(Stores store, List<File> added) {
+        Set<File> files = new LinkedHashSet<>();
+        for (File file : added) {
+            files.add(file.getAbsoluteFile());
+        }
+        files.addAll(read(store));
+        write(store, new ArrayList<>(files));
+    }
+
+    /**
+     * Removes a file from the lists of all retailers, e.g. once it was found
+     * to be missing.
+     *
+     * @param file the file to be forgotten
+     */
+    public void remove(File file) {
+        for (Stores store : Stores.values()) {
+            List<File> files = read(store);
+            if (files.remove(file.getAbsoluteFile())) {
+                write(store, files);
+            }
+        }
+    }
+
+    /**
+     * @return the folder last browsed for this kind of file, null if unknown
+     */
+    public File getDirectory() {
+        String directory = prefs.get(kind + ".directory", null);
+        return directory == null ? null : new File(directory);
+    }
+
+    public void setDirectory(File directory) {
+        prefs.put(kind + ".directory", directory.getAbsolutePath());
+    }
+
+    private List<File> read(Stores store) {
+        List<File> files = new ArrayList<>();
+        for (String path : prefs.get(key(store), "").split("\n")) {
+            if (!path.isEmpty()) {
+                files.add(new File(path));
+            }
+        }
+        return files;
+    }
+
+    private void write(Stores store, List<File> files) {
+        StringBuilder value = new StringBuilder();
+        for (File file : files.subList(0, Math.min(MAX_FILES, files.size()))) {
+            String path = file.getPath();
+            if (value.length() + path.length() + 1 > MAX_VALUE_LENGTH) {
+                break;
+            }
+            if (value.length() > 0) {
+                value.append('\n');
+            }
+            value.append(path);
+        }
+        prefs.put(key(store), value.toString());
+    }
+
+    private String key(Stores store) {
+        return kind + "." + store.name();
+    }
+}
@@ -0,0 +1,624 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.headless;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.thecir.consolidation.ConsolidatedReport;
+import net.thecir.core.LiteReportManager;
+import net.thecir.diagnostics.MetricsExporter;
+import net.thecir.detection.StoreDetection;
+import net.thecir.detection.StoreDetector;
+import net.thecir.diagnostics.MetricsRecorder;
+import net.thecir.diagnostics.ThroughputModel;
+import net.thecir.enums.JobPhase;
+import net.thecir.enums.JobStatus;
+import net.thecir.enums.Stores;
+import net.thecir.jobs.CompositeJobListener;
+import net.thecir.jobs.DryRun;
+import net.thecir.jobs.DuplicatePolicy;
+import net.thecir.jobs.JobListener;
+import net.thecir.jobs.JobQueue;
+import net.thecir.jobs.ReportJob;
+import net.thecir.jobs.ReportTask;
+import net.thecir.schedule.JobScheduler;
+import net.thecir.schedule.ScheduleListener;
+import net.thecir.schedule.ScheduledJob;
+import net.thecir.server.JobServer;
+import net.thecir.server.JobSubmitter;
+import net.thecir.watch.FolderWatcher;
+import net.thecir.watch.StoreResolver;
+
+/**
+ * Command line mode. Runs report jobs given as arguments or in a manifest
+ * file, or keeps merging the files dropped into a watched folder, submitted
+ * to the job server or due by the saved schedules, without initializing
+ * Swing, so it can be used from scripts on machines without a display.
+ *
+ * Headless runs do not learn the headers of the retailers. The store
+ * detector, which keeps them in the user's preferences, is only used to
+ * recognise inputs whose retailer is given as auto.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class HeadlessRunner {
+
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_FAILED = 1;
+    public static final int EXIT_USAGE = 2;
+
+    //Changed rows printed per job of a dry run
+    private static final int DRY_RUN_ROWS = 20;
+    //Store name asking to recognise the retailer of each input
+    private static final String AUTO_STORE = "auto";
+
+    private final PrintStream out;
+    private final PrintStream err;
+    private final ResourceBundle messages = ResourceBundle.getBundle("LanguageBundles/Headless");
+
+    private final List<ReportJob> jobs = new ArrayList<>();
+    private File output;
+    private Stores store;
+    //If the retailer of each input is recognised by its header
+    private boolean autoStore;
+    private boolean subtract;
+    private boolean largeFile;
+    //Apply only the rows changed since the retailer's previous export
+    private boolean incremental;
+    //Only print what the jobs would change
+    private boolean dryRun;
+    private File watchFolder;
+    //Port of the job server, 0 if jobs are not accepted from other programs
+    private int serverPort;
+    //Run the saved scheduled jobs until terminated
+    private boolean schedule;
+    //Subfolders of the watched folder mapped to the retailer of their files
+    private final Map<String, Stores> folderStores = new LinkedHashMap<>();
+    private int threads = Runtime.getRuntime().availableProcessors();
+    //Maximum number of inputs written to an output at once, 0 for the queue's default
+    private int batchSize;
+    //Inputs conflicting with the output's ledger are skipped unless --force is given
+    private DuplicatePolicy duplicatePolicy = DuplicatePolicy.REFUSE;
+    //Inputs summed into a consolidated report instead of being merged, one per retailer
+    private final Map<Stores, File> consolidatedInputs = new EnumMap<>(Stores.class);
+    //File the consolidated report is written to, null if the inputs are merged
+    private File consolidatedOutput;
+    //CSV or JSON file the metrics of the jobs are exported to, may be null
+    private File metricsFile;
+    private boolean help;
+
+    public HeadlessRunner(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * Checks if the application was started with command line arguments, in
+     * which case the GUI must not be created.
+     *
+     * @param args arguments of the application
+     * @return true if the headless mode is requested
+     */
+    public static boolean isRequested(String... args) {
+        return args.length > 0;
+    }
+
+    /**
+     * Parses the arguments, runs all jobs and waits for them to finish.
+     *
+     * @param args command line arguments
+     * @return exit code of the application
+     */
+    public int run(String... args) {
+        try {
+            parseArguments(args);
+        } catch (IllegalArgumentException | IOException ex) {
+            err.println(ex.getMessage());
+            printUsage(err);
+            return EXIT_USAGE;
+        }
+        if (help) {
+            printUsage(out);
+            return EXIT_OK;
+        }
+        if (consolidatedOutput != null) {
+            return consolidate();
+        }
+        if (jobs.isEmpty() && watchFolder == null && serverPort == 0 && !schedule) {
+            err.println(messages.getString("NoJobs"));
+            printUsage(err);
+            return EXIT_USAGE;
+        }
+        if (dryRun) {
+            return dryRun();
+        }
+        JobQueue queue = new JobQueue(threads);
+        if (batchSize > 0) {
+            queue.setBatchLimits(batchSize, Long.getLong("lrm.batch.flushSeconds", 30), TimeUnit.SECONDS);
+        }
+        int result = jobs.isEmpty() ? EXIT_OK : runJobs(queue);
+        if (serverPort > 0 && result == EXIT_OK) {
+            result = serve(queue);
+        }
+        if (schedule && result == EXIT_OK) {
+            result = runSchedules(queue);
+        }
+        if (watchFolder != null && result == EXIT_OK) {
+            result = watch(queue);
+        } else if ((serverPort > 0 || schedule) && result == EXIT_OK) {
+            result = awaitTermination(queue);
+        }
+        return result;
+    }
+
+    private void parseArguments(String... args) throws IOException {
+        List<File> inputs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--input":
+                    inputs.add(new File(value(args, ++i)));
+                    break;
+                case "--output":
+                    output = new File(value(args, ++i));
+                    break;
+                case "--store":
+                    String name = value(args, ++i);
+                    autoStore = AUTO_STORE.equalsIgnoreCase(name);
+                    store = autoStore ? null : parseStore(name);
+                    break;
+                case "--subtract":
+                    subtract = true;
+                    break;
+                case "--large-files":
+                    largeFile = true;
+                    break;
+                case "--incremental":
+                    incremental = true;
+                    break;
+                case "--dry-run":
+                    dryRun = true;
+                    break;
+                case "--manifest":
+                    readManifest(new File(value(args, ++i)));
+                    break;
+                case "--watch":
+                    watchFolder = new File(value(args, ++i));
+                    break;
+                case "--serve":
+                    serverPort = parsePositive(value(args, ++i), "InvalidPort");
+                    break;
+                case "--schedule":
+                    schedule = true;
+                    break;
+                case "--map":
+                    String[] mapping = value(args, ++i).split("=", 2);
+                    if (mapping.length != 2) {
+                        throw new IllegalArgumentException(MessageFormat.format(messages.getString("InvalidMapping"), args[i]));
+                    }
+                    folderStores.put(mapping[0], parseStore(mapping[1]));
+                    break;
+                case "--force":
+                    duplicatePolicy = DuplicatePolicy.ALLOW;
+                    break;
+                case "--consolidate":
+                    consolidatedOutput = new File(value(args, ++i));
+                    break;
+                case "--metrics":
+                    metricsFile = new File(value(args, ++i));
+                    break;
+                case "--threads":
+                    threads = parsePositive(value(args, ++i), "InvalidThreads");
+                    break;
+                case "--batch-size":
+                    batchSize = parsePositive(value(args, ++i), "InvalidBatchSize");
+                    break;
+                case "--help":
+                    help = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException(MessageFormat.format(messages.getString("UnknownArgument"), args[i]));
+            }
+        }
+        if (consolidatedOutput != null) {
+            if (inputs.size() < 2) {
+                throw new IllegalArgumentException(messages.getString("ConsolidateInputsRequired"));
+            }
+            for (File input : inputs) {
+                if (consolidatedInputs.put(detectStore(input), input) != null) {
+                    throw new IllegalArgumentException(MessageFormat.format(messages.getString("ConsolidateDuplicateStore"), input));
+                }
+            }
+        } else if (!inputs.isEmpty()) {
+            if (output == null || store == null && !autoStore) {
+                throw new IllegalArgumentException(messages.getString("OutputAndStoreRequired"));
+            }
+            for (File input : inputs) {
+                jobs.add(new ReportJob(input, output, subtract, autoStore ? detectStore(input) : store));
+            }
+        }
+        if (largeFile || incremental) {
+            jobs.replaceAll(job -> new ReportJob(job.getInput(), job.getOutput(), job.isSubtract(), job.getStore(), largeFile,
+                    incremental));
+        }
+        if (watchFolder != null && output == null) {
+            throw new IllegalArgumentException(messages.getString("OutputRequiredForWatch"));
+        }
+    }
+
+    /**
+     * Reads jobs from a manifest. Every line describes one job as
+     * input;output;store[;subtract]. Empty lines and lines starting with #
+     * are skipped, relative paths are resolved against the manifest's folder.
+     */
+    private void readManifest(File manifest) throws IOException {
+        File base = manifest.getAbsoluteFile().getParentFile();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(";");
+            if (fields.length < 3 || fields.length > 4) {
+                throw new IllegalArgumentException(MessageFormat.format(messages.getString("InvalidManifestLine"),
+                        manifest, lineNumber));
+            }
+            File input = resolve(base, fields[0].trim());
+            String name = fields[2].trim();
+            jobs.add(new ReportJob(input, resolve(base, fields[1].trim()), fields.length == 4 && Boolean.parseBoolean(fields[3].trim()),
+                    AUTO_STORE.equalsIgnoreCase(name) ? detectStore(input) : parseStore(name)));
+        }
+    }
+
+    private int runJobs(JobQueue queue) {
+        TimingListener listener = new TimingListener(new CountDownLatch(jobs.size()));
+        JobListener recorded = new CompositeJobListener(MetricsRecorder.getInstance(), ThroughputModel.getInstance(), listener);
+        long start = System.nanoTime();
+        for (ReportJob job : jobs) {
+            queue.submit(new ReportTask(job, recorded, duplicatePolicy));
+        }
+        try {
+            listener.latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return EXIT_FAILED;
+        }
+        out.println(MessageFormat.format(messages.getString("Summary"), jobs.size() - listener.failed.get(), jobs.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        exportMetrics();
+        return listener.failed.get() == 0 ? EXIT_OK : EXIT_FAILED;
+    }
+
+    /**
+     * Prints what every job would change in its output, the outputs are left
+     * as they are. The folder and the job server are not used.
+     */
+    private int dryRun() {
+        int result = EXIT_OK;
+        for (ReportJob job : jobs) {
+            try {
+                DryRun run = DryRun.run(job, LiteReportManager.getInstance());
+                out.println(MessageFormat.format(messages.getString("DryRun"), job, run.getAddedRows(), run.getChangedRows(),
+                        run.getRemovedRows(), run.getTotalBefore(), run.getTotalAfter(), run.getMillis()));
+                if (run.getConflict() != null) {
+                    out.println("    " + MessageFormat.format(messages.getString("DryRunConflict." + run.getConflict()),
+                            job.getInput(), job.getOutput()));
+                }
+                if (!run.isCompared()) {
+                    out.println("    " + MessageFormat.format(messages.getString("DryRunNotCompared"), job.getOutput()));
+                }
+                for (DryRun.RowChange row : run.getRows().subList(0, Math.min(DRY_RUN_ROWS, run.getRows().size()))) {
+                    out.println("    " + MessageFormat.format(messages.getString("DryRunRow"), row.getSheet(), row.getRow() + 1,
+                            row.getLabel(), row.getBefore() == null ? "-" : row.getBefore(),
+                            row.getAfter() == null ? "-" : row.getAfter()));
+                }
+            } catch (IOException ex) {
+                err.println(job + ": " + ex);
+                result = EXIT_FAILED;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return EXIT_FAILED;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sums the inputs into the consolidated report given by --consolidate.
+     */
+    private int consolidate() {
+        long start = System.nanoTime();
+        try {
+            ConsolidatedReport report = ConsolidatedReport.build(consolidatedInputs);
+            report.write(consolidatedOutput);
+            out.println(MessageFormat.format(messages.getString("Consolidated"), report.getProductCount(),
+                    consolidatedInputs.size(), consolidatedOutput, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+            return EXIT_OK;
+        } catch (IOException ex) {
+            err.println(ex);
+            return EXIT_FAILED;
+        }
+    }
+
+    /**
+     * Writes the metrics of the finished jobs to the file given by --metrics.
+     */
+    private void exportMetrics() {
+        if (metricsFile == null) {
+            return;
+        }
+        try {
+            MetricsExporter.export(MetricsRecorder.getInstance().getHistory(), metricsFile.toPath());
+        } catch (IOException ex) {
+            err.println(MessageFormat.format(messages.getString("MetricsNotExported"), metricsFile, ex));
+        }
+    }
+
+    /**
+     * Starts accepting jobs from other programs, see {@link JobServer}.
+     */
+    private int serve(JobQueue queue) {
+        try {
+            JobServer server = new JobServer(serverPort, submitter(queue));
+            server.start();
+            out.println(MessageFormat.format(messages.getString("ServerStarted"), server.getAddress(),
+                    JobServer.TOKEN_HEADER, server.getTokenFile()));
+            return EXIT_OK;
+        } catch (IOException ex) {
+            err.println(ex);
+            return EXIT_FAILED;
+        }
+    }
+
+    /**
+     * Starts running the saved scheduled jobs, see {@link JobScheduler}.
+     */
+    private int runSchedules(JobQueue queue) {
+        try {
+            JobScheduler scheduler = new JobScheduler(JobScheduler.defaultFile(), submitter(queue));
+            scheduler.addListener(new ScheduleListener() {
+                @Override
+                public void runStarted(ScheduledJob job, int inputs) {
+                    synchronized (out) {
+                        if (job.getLastError() != null) {
+                            out.println(MessageFormat.format(messages.getString("ScheduleRunNotStarted"), job.getName(),
+                                    job.getLastError()));
+                        } else {
+                            out.println(MessageFormat.format(messages.getString("ScheduleRunStarted"), job.getName(), inputs,
+                                    job.getOutput()));
+                        }
+                    }
+                }
+
+                @Override
+                public void runFinished(ScheduledJob job) {
+                    synchronized (out) {
+                        out.println(MessageFormat.format(messages.getString("ScheduleRunFinished"), job.getName(),
+                                job.getLastCompleted(), job.getLastSkipped(), job.getLastFailed()));
+                    }
+                }
+            });
+            if (!scheduler.start()) {
+                err.println(messages.getString("SchedulerRunning"));
+                return EXIT_FAILED;
+            }
+            out.println(MessageFormat.format(messages.getString("SchedulerStarted"), scheduler.getJobs().size(),
+                    JobScheduler.defaultFile()));
+            return EXIT_OK;
+        } catch (IOException ex) {
+            err.println(ex);
+            return EXIT_FAILED;
+        }
+    }
+
+    /**
+     * @return queues the jobs of the job server and of the scheduled jobs
+     */
+    private JobSubmitter submitter(JobQueue queue) {
+        JobListener timing = new TimingListener(null);
+        return (job, listener, policy) -> {
+            ReportTask task = new ReportTask(job, new CompositeJobListener(MetricsRecorder.getInstance(),
+                    ThroughputModel.getInstance(), timing, listener), policy);
+            queue.submit(task);
+            return task;
+        };
+    }
+
+    /**
+     * Keeps running the submitted jobs until the application is terminated.
+     */
+    private int awaitTermination(JobQueue queue) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                queue.shutdown(1, TimeUnit.MINUTES);
+                exportMetrics();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        try {
+            new CountDownLatch(1).await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return EXIT_OK;
+    }
+
+    /**
+     * Merges every file dropped into the watched folder until the application
+     * is terminated.
+     */
+    private int watch(JobQueue queue) {
+        //Headers are only read with --store auto, so the detector and its preferences stay unused otherwise
+        StoreResolver resolver = new StoreResolver(watchFolder.toPath(), store, autoStore);
+        folderStores.forEach(resolver::map);
+        JobListener listener = new CompositeJobListener(MetricsRecorder.getInstance(), ThroughputModel.getInstance(),
+                new TimingListener(null));
+        try {
+            FolderWatcher watcher = new FolderWatcher(watchFolder.toPath(), (Path file) -> {
+                Stores fileStore = resolver.resolve(file);
+                if (fileStore == null) {
+                    err.println(MessageFormat.format(messages.getString("UnknownStoreForFile"), file));
+                } else {
+                    queue.submit(new ReportTask(new ReportJob(file.toFile(), output, subtract, fileStore, largeFile, incremental), listener,
+                            duplicatePolicy));
+                }
+            });
+            watcher.exclude(output.toPath());
+            watcher.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    watcher.close();
+                    queue.shutdown(1, TimeUnit.MINUTES);
+                    exportMetrics();
+                } catch (IOException ex) {
+                    err.println(ex);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            out.println(MessageFormat.format(messages.getString("WatchingFolder"), watcher.getRoot()));
+            new CountDownLatch(1).await();
+            return EXIT_OK;
+        } catch (IOException ex) {
+            err.println(ex);
+            return EXIT_FAILED;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return EXIT_OK;
+        }
+    }
+
+    /**
+     * Prints the wall time of every finished job.
+     */
+    private class TimingListener implements JobListener {
+
+        //Counted down for every finished job, may be null
+        private final CountDownLatch latch;
+        private final AtomicInteger failed = new AtomicInteger();
+        private final Map<ReportJob, Long> startTimes = new ConcurrentHashMap<>();
+
+        TimingListener(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void phaseChanged(ReportJob job, JobPhase phase) {
+            if (phase == JobPhase.Checking) {
+                startTimes.put(job, System.nanoTime());
+            }
+        }
+
+        @Override
+        public void jobFinished(ReportJob job, JobStatus status, Throwable error) {
+            Long start = startTimes.remove(job);
+            long millis = start == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (status != JobStatus.Completed) {
+                failed.incrementAndGet();
+            }
+            synchronized (out) {
+                out.println(MessageFormat.format(messages.getString("JobFinished"), status, millis, job));
+                if (error != null) {
+                    out.println("    " + error);
+                }
+                ThroughputModel.Anomaly anomaly = ThroughputModel.getInstance().getAnomaly(job);
+                if (anomaly != null) {
+                    out.println("    " + MessageFormat.format(messages.getString("SlowerThanExpected"),
+                            anomaly.getActualMillis(), anomaly.getExpectedMillis()));
+                }
+            }
+            if (latch != null) {
+                latch.countDown();
+            }
+        }
+    }
+
+    private void printUsage(PrintStream stream) {
+        stream.println(messages.getString("Usage"));
+    }
+
+    private String value(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(MessageFormat.format(messages.getString("MissingValue"), args[index - 1]));
+        }
+        return args[index];
+    }
+
+    private Stores parseStore(String name) {
+        for (Stores store : Stores.values()) {
+            if (store.name().equalsIgnoreCase(name)) {
+                return store;
+            }
+        }
+        throw new IllegalArgumentException(MessageFormat.format(messages.getString("UnknownStore"), name));
+    }
+
+    /**
+     * Recognises the retailer of an input by its header. Inputs which cannot
+     * be recognised with confidence are refused before any job is run.
+     */
+    private Stores detectStore(File input) throws IOException {
+        StoreDetection detection = StoreDetector.getInstance().detect(input);
+        if (!detection.isConfident()) {
+            throw new IllegalArgumentException(MessageFormat.format(messages.getString("StoreNotDetected"), input));
+        }
+        out.println(MessageFormat.format(messages.getString("StoreDetected"), input, detection.getStore(),
+                detection.getConfidence()));
+        return detection.getStore();
+    }
+
+    private int parsePositive(String value, String errorKey) {
+        try {
+            int count = Integer.parseInt(value);
+            if (count > 0) {
+                return count;
+            }
+        } catch (NumberFormatException ex) {
+            //Reported below
+        }
+        throw new IllegalArgumentException(MessageFormat.format(messages.getString(errorKey), value));
+    }
+
+    private static File resolve(File base, String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(base, path);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.index;
+
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Getter;
+
+/**
+ * The result of searching an {@link OutputIndex}.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+@Getter
+public class IndexQuery {
+
+    //Number of matching rows, including those not returned
+    int matchedRows;
+    final List<RowMatch> rows = new ArrayList<>();
+    //Sums of the matching rows per sheet and column
+    final List<ColumnSum> sums = new ArrayList<>();
+    long nanos;
+
+    IndexQuery() {
+    }
+
+    /**
+     * A matching row and the sum of its numbers.
+     */
+    @Getter
+    public static class RowMatch {
+
+        private final String sheet;
+        private final int row;
+        private final String label;
+        private final double total;
+
+        RowMatch(String sheet, int row, String label, double total) {
+            this.sheet = sheet;
+            this.row = row;
+            this.label = label;
+            this.total = total;
+        }
+    }
+
+    /**
+     * The sum of a column over the matching rows.
+     */
+    @Getter
+    public static class ColumnSum {
+
+        private final String sheet;
+        private final String column;
+        private final double sum;
+        //Number of matching rows with a number in the column
+        private final int cells;
+
+        ColumnSum(String sheet, String column, double sum, int cells) {
+            this.sheet = sheet;
+            this.column = column;
+            this.sum = sum;
+            this.cells = cells;
+        }
+    }
+}
@@ -0,0 +1,512 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import lombok.Getter;
+import lombok.extern.java.Log;
+import net.thecir.cache.FileFingerprint;
+import net.thecir.journal.JournalEntry;
+import net.thecir.readers.RowHandler;
+import net.thecir.readers.WorkbookReader;
+import org.apache.poi.ss.util.CellReference;
+
+/**
+ * The numbers of an output by sheet, row and column, kept in a hidden
+ * compressed file next to the output, so they can be searched without
+ * opening the workbook. The text cells of a row name its product, the leading
+ * rows of a sheet without numbers name its columns. The values of a column
+ * are held in a primitive array per column.
+ *
+ * The index records the fingerprint of the output it was built from and is
+ * only used while the output still matches it. Jobs changing only numbers of
+ * existing rows update it in place, any other change of the output makes it
+ * stale and it is built again when it is next searched.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+@Log
+public class OutputIndex {
+
+    private static final int MAGIC = 0x4C524D49;
+    private static final int VERSION = 1;
+
+    //Indexes by canonical output, so every user of an output sees the same index
+    private static final Map<File, OutputIndex> INDEXES = new ConcurrentHashMap<>();
+
+    @Getter
+    private final File output;
+    private final Path file;
+    //The output the sheets were read from, null if there are none
+    private FileFingerprint fingerprint;
+    private final Map<String, SheetIndex> sheets = new LinkedHashMap<>();
+
+    private OutputIndex(File output, Path file) {
+        this.output = output;
+        this.file = file;
+    }
+
+    /**
+     * Returns the index of an output file.
+     *
+     * @param output the output file
+     * @return its index, shared by all callers, it may have to be built
+     * @throws IOException if the path of the output cannot be resolved
+     */
+    public static OutputIndex forOutput(File output) throws IOException {
+        File canonical = output.getCanonicalFile();
+        return INDEXES.computeIfAbsent(canonical, (key) -> new OutputIndex(key,
+                new File(key.getParentFile(), "." + key.getName() + ".index").toPath()));
+    }
+
+    /**
+     * Returns the index of an output only if it matches the output, reading
+     * it from its file if needed. Never builds the index.
+     *
+     * @param output the output file
+     * @return the index, null if there is no index matching the output
+     */
+    public static OutputIndex findCurrent(File output) {
+        try {
+            OutputIndex index = forOutput(output);
+            synchronized (index) {
+                return index.isCurrent() || index.load() ? index : null;
+            }
+        } catch (IOException | RuntimeException ex) {
+            log.log(Level.FINE, "Cannot read the index of " + output, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Makes sure the index matches the output, reading it from its file or
+     * building it from the output if needed.
+     *
+     * @throws IOException if the output cannot be read
+     */
+    public synchronized void refresh() throws IOException {
+        if (!isCurrent() && !load()) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Builds the index from the output and saves it.
+     *
+     * @throws IOException if the output cannot be read
+     */
+    public synchronized void rebuild() throws IOException {
+        if (!output.isFile()) {
+            throw new FileNotFoundException(output.toString());
+        }
+        sheets.clear();
+        fingerprint = null;
+        FileFingerprint read = FileFingerprint.of(output);
+        try {
+            WorkbookReader.read(output, new RowHandler() {
+                private SheetIndex sheet;
+                private boolean dataStarted;
+
+                @Override
+                public boolean startSheet(String name) {
+                    sheet = new SheetIndex(name);
+                    sheets.put(name, sheet);
+                    dataStarted = false;
+                    return true;
+                }
+
+                @Override
+                public boolean row(String sheetName, int rowIndex, Object[] cells) {
+                    if (!dataStarted) {
+                        boolean numbers = false;
+                        for (Object cell : cells) {
+                            numbers |= cell instanceof Double;
+                        }
+                        if (!numbers) {
+                            sheet.header(cells);
+                            return true;
+                        }
+                        dataStarted = true;
+                    }
+                    sheet.add(rowIndex, cells);
+                    return true;
+                }
+            });
+        } catch (RuntimeException ex) {
+            //POI reports unreadable workbooks with runtime exceptions
+            sheets.clear();
+            throw new IOException("Cannot read " + output + ": " + ex.getMessage(), ex);
+        }
+        //The output may have changed while it was read
+        if (!read.matches(output)) {
+            sheets.clear();
+            throw new IOException(output + " was changed while it was indexed");
+        }
+        fingerprint = read;
+        save();
+    }
+
+    /**
+     * Updates the index with the cells changed by the jobs of a batch. Called
+     * once the output has been replaced, only if the index matched the output
+     * before the batch. If a job changed anything but numbers of indexed rows
+     * the index is dropped, it is built again on demand.
+     *
+     * @param changes the changed cells of each job in the order they were
+     * applied, null for a job whose changes are unknown
+     */
+    public synchronized void update(List<List<JournalEntry.Change>> changes) {
+        try {
+            for (List<JournalEntry.Change> jobChanges : changes) {
+                if (jobChanges == null || !apply(jobChanges)) {
+                    invalidate();
+                    return;
+                }
+            }
+            fingerprint = FileFingerprint.of(output);
+            save();
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "Cannot update the index of " + output, ex);
+            invalidate();
+        }
+    }
+
+    /**
+     * Finds the rows whose product contains all words of a text and sums
+     * their columns. The index must be current, see {@link #refresh()}.
+     *
+     * @param text words to look for, empty to match all rows
+     * @param maxRows maximum number of matching rows returned, the sums
+     * include all of them
+     * @return the matching rows and their sums per sheet and column
+     */
+    public synchronized IndexQuery query(String text, int maxRows) {
+        long start = System.nanoTime();
+        String[] words = normalize(text).split(" ");
+        IndexQuery result = new IndexQuery();
+        for (SheetIndex sheet : sheets.values()) {
+            int[] matches = new int[sheet.size];
+            int count = 0;
+            for (int i = 0; i < sheet.size; i++) {
+                if (containsAll(sheet.keys[i], words)) {
+                    matches[count++] = i;
+                }
+            }
+            if (count == 0) {
+                continue;
+            }
+            result.matchedRows += count;
+            for (int m = 0; m < count && result.rows.size() < maxRows; m++) {
+                int i = matches[m];
+                double total = 0;
+                for (double[] values : sheet.columns.values()) {
+                    if (!Double.isNaN(values[i])) {
+                        total += values[i];
+                    }
+                }
+                result.rows.add(new IndexQuery.RowMatch(sheet.name, sheet.rows[i], sheet.labels[i], total));
+            }
+            for (Map.Entry<Integer, double[]> column : sheet.columns.entrySet()) {
+                double[] values = column.getValue();
+                double sum = 0;
+                int cells = 0;
+                for (int m = 0; m < count; m++) {
+                    double value = values[matches[m]];
+                    if (!Double.isNaN(value)) {
+                        sum += value;
+                        cells++;
+                    }
+                }
+                if (cells > 0) {
+                    result.sums.add(new IndexQuery.ColumnSum(sheet.name, sheet.columnName(column.getKey()), sum, cells));
+                }
+            }
+        }
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * @return number of indexed rows
+     */
+    public synchronized int getRowCount() {
+        int rows = 0;
+        for (SheetIndex sheet : sheets.values()) {
+            rows += sheet.size;
+        }
+        return rows;
+    }
+
+    /**
+     * @return true if the index matches the output as it is now
+     */
+    private boolean isCurrent() throws IOException {
+        return fingerprint != null && fingerprint.matches(output);
+    }
+
+    private boolean apply(List<JournalEntry.Change> changes) {
+        for (JournalEntry.Change change : changes) {
+            SheetIndex sheet = sheets.get(change.getSheet());
+            if (sheet == null) {
+                return false;
+            }
+            int position = Arrays.binarySearch(sheet.rows, 0, sheet.size, change.getRow());
+            boolean numbers = (change.getBefore() == null || change.getBefore() instanceof Double)
+                    && (change.getAfter() == null || change.getAfter() instanceof Double);
+            if (position < 0 || !numbers) {
+                return false;
+            }
+            sheet.column(change.getColumn())[position] = change.getAfter() == null ? Double.NaN : (Double) change.getAfter();
+        }
+        return true;
+    }
+
+    private void invalidate() {
+        sheets.clear();
+        fingerprint = null;
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "Cannot delete " + file, ex);
+        }
+    }
+
+    private void save() throws IOException {
+        Path temp = Files.createTempFile(file.getParent(), "~index", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))))) {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.writeUTF(fingerprint.getPath());
+                out.writeLong(fingerprint.getSize());
+                out.writeLong(fingerprint.getLastModified());
+                out.writeUTF(fingerprint.getHash());
+                out.writeInt(sheets.size());
+                for (SheetIndex sheet : sheets.values()) {
+                    sheet.writeTo(out);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Reads the index from its file if it matches the output.
+     *
+     * @return true if the index was read
+     */
+    private boolean load() throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                return false;
+            }
+            FileFingerprint read = new FileFingerprint(in.readUTF(), in.readLong(), in.readLong(), in.readUTF());
+            if (!read.matches(output)) {
+                return false;
+            }
+            Map<String, SheetIndex> loaded = new LinkedHashMap<>();
+            for (int s = in.readInt(); s > 0; s--) {
+                SheetIndex sheet = SheetIndex.readFrom(in);
+                loaded.put(sheet.name, sheet);
+            }
+            sheets.clear();
+            sheets.putAll(loaded);
+            fingerprint = read;
+            return true;
+        }
+    }
+
+    private static boolean containsAll(String key, String[] words) {
+        for (String word : words) {
+            if (!key.contains(word)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String normalize(String text) {
+        return text.trim().replaceAll("\\s+", " ").toLowerCase();
+    }
+
+    /**
+     * The rows of a sheet, column by column.
+     */
+    private static class SheetIndex {
+
+        private final String name;
+        //Header of each column, from the rows before the first number
+        private final Map<Integer, String> headers = new TreeMap<>();
+        private int size;
+        //Index of each row in the sheet, ascending
+        private int[] rows = new int[16];
+        private String[] labels = new String[16];
+        //Labels in the normalized form they are searched in
+        private String[] keys = new String[16];
+        //Values of each column by row, NaN where a row has no number
+        private final Map<Integer, double[]> columns = new TreeMap<>();
+
+        SheetIndex(String name) {
+            this.name = name;
+        }
+
+        void header(Object[] cells) {
+            //A lower header row names the columns more precisely
+            for (int i = 0; i < cells.length; i++) {
+                if (cells[i] != null && !cells[i].toString().trim().isEmpty()) {
+                    headers.put(i, cells[i].toString().trim());
+                }
+            }
+        }
+
+        void add(int rowIndex, Object[] cells) {
+            if (size == rows.length) {
+                int capacity = size * 2;
+                rows = Arrays.copyOf(rows, capacity);
+                labels = Arrays.copyOf(labels, capacity);
+                keys = Arrays.copyOf(keys, capacity);
+                for (Map.Entry<Integer, double[]> column : columns.entrySet()) {
+                    column.setValue(grow(column.getValue(), capacity));
+                }
+            }
+            StringBuilder label = new StringBuilder();
+            for (int i = 0; i < cells.length; i++) {
+                if (cells[i] instanceof Double) {
+                    column(i)[size] = (Double) cells[i];
+                } else if (cells[i] != null && !cells[i].toString().trim().isEmpty()) {
+                    if (label.length() > 0) {
+                        label.append(" / ");
+                    }
+                    label.append(cells[i].toString().trim());
+                }
+            }
+            rows[size] = rowIndex;
+            labels[size] = label.toString();
+            keys[size] = normalize(labels[size]);
+            size++;
+        }
+
+        /**
+         * @return the values of a column, created blank if it has none yet
+         */
+        double[] column(int index) {
+            return columns.computeIfAbsent(index, (key) -> grow(new double[0], rows.length));
+        }
+
+        String columnName(int index) {
+            return headers.getOrDefault(index, CellReference.convertNumToColString(index));
+        }
+
+        private static double[] grow(double[] values, int capacity) {
+            double[] grown = Arrays.copyOf(values, capacity);
+            Arrays.fill(grown, values.length, capacity, Double.NaN);
+            return grown;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            writeString(out, name);
+            out.writeInt(headers.size());
+            for (Map.Entry<Integer, String> header : headers.entrySet()) {
+                out.writeInt(header.getKey());
+                writeString(out, header.getValue());
+            }
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeInt(rows[i]);
+                writeString(out, labels[i]);
+            }
+            out.writeInt(columns.size());
+            for (Map.Entry<Integer, double[]> column : columns.entrySet()) {
+                out.writeInt(column.getKey());
+                double[] values = column.getValue();
+                for (int i = 0; i < size; i++) {
+                    out.writeDouble(values[i]);
+                }
+            }
+        }
+
+        static SheetIndex readFrom(DataInputStream in) throws IOException {
+            SheetIndex sheet = new SheetIndex(readString(in));
+            for (int h = in.readInt(); h > 0; h--) {
+                sheet.headers.put(in.readInt(), readString(in));
+            }
+            sheet.size = in.readInt();
+            int capacity = Math.max(16, sheet.size);
+            sheet.rows = new int[capacity];
+            sheet.labels = new String[capacity];
+            sheet.keys = new String[capacity];
+            for (int i = 0; i < sheet.size; i++) {
+                sheet.rows[i] = in.readInt();
+                sheet.labels[i] = readString(in);
+                sheet.keys[i] = normalize(sheet.labels[i]);
+            }
+            for (int c = in.readInt(); c > 0; c--) {
+                int index = in.readInt();
+                double[] values = new double[capacity];
+                for (int i = 0; i < sheet.size; i++) {
+                    values[i] = in.readDouble();
+                }
+                Arrays.fill(values, sheet.size, capacity, Double.NaN);
+                sheet.columns.put(index, values);
+            }
+            return sheet;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
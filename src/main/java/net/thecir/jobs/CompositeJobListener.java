@@ -0,0 +1,64 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.jobs;
+
+import java.util.Arrays;
+import java.util.List;
+import net.thecir.enums.JobPhase;
+import net.thecir.enums.JobStatus;
+
+/**
+ * Forwards the progress of jobs to several listeners, in the given order.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class CompositeJobListener implements JobListener {
+
+    private final List<JobListener> listeners;
+
+    public CompositeJobListener(JobListener... listeners) {
+        this.listeners = Arrays.asList(listeners);
+    }
+
+    @Override
+    public void phaseChanged(ReportJob job, JobPhase phase) {
+        for (JobListener listener : listeners) {
+            listener.phaseChanged(job, phase);
+        }
+    }
+
+    @Override
+    public void modeChosen(ReportJob job, boolean largeFile) {
+        for (JobListener listener : listeners) {
+            listener.modeChosen(job, largeFile);
+        }
+    }
+
+    @Override
+    public void jobFinished(ReportJob job, JobStatus status, Throwable error) {
+        for (JobListener listener : listeners) {
+            listener.jobFinished(job, status, error);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.jobs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import lombok.Getter;
+import net.thecir.cache.FileFingerprint;
+import net.thecir.cache.ParsedInput;
+import net.thecir.core.LiteReportManager;
+import net.thecir.delta.DeltaImport;
+import net.thecir.delta.InputSnapshot;
+import net.thecir.enums.LedgerConflict;
+import net.thecir.ledger.ApplicationLedger;
+import net.thecir.readers.WorkbookReader;
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * What a job would change in its output, found without changing it. The
+ * report is generated into a temporary copy of the output, which is compared
+ * with the output row by row and deleted. The output, its ledger and its
+ * journal are left untouched. The rows of the output are held in memory for
+ * the comparison, so outputs larger than lrm.dryRun.maxOutputMB (8 by
+ * default) are not compared row by row, only the sums of their numbers are.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+@Getter
+public class DryRun {
+
+    //Changed rows kept for display, the counts and totals include all of them
+    private static final int MAX_ROWS = Integer.getInteger("lrm.dryRun.maxRows", 10000);
+    //Largest output whose rows are compared
+    private static final long MAX_OUTPUT_BYTES = Long.getLong("lrm.dryRun.maxOutputMB", 8) * 1024 * 1024;
+
+    private final ReportJob job;
+    //Why the job would be refused by the output's ledger, null if it would not be
+    private final LedgerConflict conflict;
+    private int addedRows;
+    private int changedRows;
+    private int removedRows;
+    //Sums of all numbers in the output before and after the job
+    private double totalBefore;
+    private double totalAfter;
+    private final List<RowChange> rows = new ArrayList<>();
+    //False if the output was too large to compare its rows, only the sums are known
+    private boolean compared;
+    private long millis;
+
+    private DryRun(ReportJob job, LedgerConflict conflict) {
+        this.job = job;
+        this.conflict = conflict;
+    }
+
+    /**
+     * Generates the report of a job into a temporary copy of its output and
+     * compares the copy with the output.
+     *
+     * @param job the job to be tried
+     * @param engine generates the report
+     * @return what the job would change
+     * @throws IOException if a file cannot be read or the copy cannot be
+     * written
+     * @throws InterruptedException if interrupted while the report of a large
+     * file is generated
+     */
+    public static DryRun run(ReportJob job, LiteReportManager engine) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        String hash = FileFingerprint.hash(job.getInput());
+        ApplicationLedger ledger = ApplicationLedger.forOutput(job.getOutput());
+        DryRun result = new DryRun(job, ledger.check(hash, job.isSubtract(), job.getStore()));
+        File copy = File.createTempFile("lrm-dryrun", "." + FilenameUtils.getExtension(job.getOutput().getName()));
+        try {
+            Files.copy(job.getOutput().toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            if (job.isIncremental() && !job.isSubtract()) {
+                //The snapshot written while comparing is never kept
+                try (DeltaImport delta = DeltaImport.prepare(job, hash, findSnapshot(job, ledger))) {
+                    for (ReportJob part : delta.getJobs()) {
+                        generate(part, copy, engine);
+                    }
+                }
+            } else {
+                generate(job, copy, engine);
+            }
+            if (job.getOutput().length() <= MAX_OUTPUT_BYTES) {
+                result.compare(ParsedInput.parse(job.getOutput()), copy);
+            } else {
+                result.sum(job.getOutput(), copy);
+            }
+        } finally {
+            Files.deleteIfExists(copy.toPath());
+        }
+        result.millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return result;
+    }
+
+    private static void generate(ReportJob job, File target, LiteReportManager engine) throws IOException, InterruptedException {
+        if (HeapEstimate.requiresLargeFileMode(job)) {
+            ReportProcess.generate(job, target);
+        } else {
+            engine.generateReport(job.getInput(), target, job.isSubtract(), job.getStore());
+        }
+    }
+
+    /**
+     * @return the newest snapshot of the retailer's exports which is applied
+     * to the output, null if there is none
+     */
+    private static InputSnapshot findSnapshot(ReportJob job, ApplicationLedger ledger) throws IOException {
+        for (InputSnapshot snapshot : InputSnapshot.list(job.getOutput(), job.getStore())) {
+            if (ledger.check(snapshot.getHash(), false, job.getStore()) == LedgerConflict.AlreadyApplied) {
+                return snapshot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Streams both versions of the output, only the sums of their numbers are
+     * kept.
+     */
+    private void sum(File before, File after) throws IOException {
+        WorkbookReader.read(before, (sheet, rowIndex, cells) -> {
+            totalBefore += sum(cells);
+            return true;
+        });
+        WorkbookReader.read(after, (sheet, rowIndex, cells) -> {
+            totalAfter += sum(cells);
+            return true;
+        });
+    }
+
+    private void compare(ParsedInput before, File after) throws IOException {
+        compared = true;
+        Map<String, Map<Integer, Object[]>> old = new HashMap<>();
+        for (ParsedInput.Sheet sheet : before.getSheets()) {
+            Map<Integer, Object[]> sheetRows = new HashMap<>();
+            for (ParsedInput.Row row : sheet.getRows()) {
+                sheetRows.put(row.getIndex(), row.getCells());
+                totalBefore += sum(row.getCells());
+            }
+            old.put(sheet.getName(), sheetRows);
+        }
+        WorkbookReader.read(after, (sheet, rowIndex, cells) -> {
+            totalAfter += sum(cells);
+            Object[] was = old.computeIfAbsent(sheet, (key) -> new HashMap<>()).remove(rowIndex);
+            if (was == null || isBlank(was)) {
+                if (!isBlank(cells)) {
+                    addedRows++;
+                    add(sheet, rowIndex, null, cells);
+                }
+            } else if (!sameValues(was, cells)) {
+                changedRows++;
+                add(sheet, rowIndex, was, cells);
+            }
+            return true;
+        });
+        //Rows which are gone from the generated report
+        old.forEach((sheet, sheetRows) -> sheetRows.forEach((rowIndex, cells) -> {
+            if (!isBlank(cells)) {
+                removedRows++;
+                add(sheet, rowIndex, cells, null);
+            }
+        }));
+        Collections.sort(rows, (a, b) -> a.sheet.equals(b.sheet) ? Integer.compare(a.row, b.row) : a.sheet.compareTo(b.sheet));
+    }
+
+    private void add(String sheet, int row, Object[] before, Object[] after) {
+        if (rows.size() < MAX_ROWS) {
+            rows.add(new RowChange(sheet, row, label(after == null ? before : after),
+                    before == null ? null : sum(before), after == null ? null : sum(after)));
+        }
+    }
+
+    /**
+     * @return true if more rows changed than are kept
+     */
+    public boolean isTruncated() {
+        return addedRows + changedRows + removedRows > rows.size();
+    }
+
+    /**
+     * @return the text cells of a row, which name its product
+     */
+    private static String label(Object[] cells) {
+        StringBuilder label = new StringBuilder();
+        for (Object cell : cells) {
+            if (cell instanceof String && !((String) cell).trim().isEmpty()) {
+                if (label.length() > 0) {
+                    label.append(" / ");
+                }
+                label.append(((String) cell).trim());
+            }
+        }
+        return label.toString();
+    }
+
+    private static double sum(Object[] cells) {
+        double sum = 0;
+        for (Object cell : cells) {
+            if (cell instanceof Double) {
+                sum += (Double) cell;
+            }
+        }
+        return sum;
+    }
+
+    private static boolean isBlank(Object[] cells) {
+        for (Object cell : cells) {
+            if (cell != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the rows hold the same values, trailing blank cells
+     * are ignored
+     */
+    private static boolean sameValues(Object[] a, Object[] b) {
+        for (int i = 0; i < Math.max(a.length, b.length); i++) {
+            Object x = i < a.length ? a[i] : null;
+            Object y = i < b.length ? b[i] : null;
+            if (!Objects.equals(x, y)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A row the job would add, change or remove, with the sums of its
+     * numbers before and after the job.
+     */
+    @Getter
+    public static class RowChange {
+
+        private final String sheet;
+        private final int row;
+        private final String label;
+        //Null if the row is new
+        private final Double before;
+        //Null if the row would be removed
+        private final Double after;
+
+        RowChange(String sheet, int row, String label, Double before, Double after) {
+            this.sheet = sheet;
+            this.row = row;
+            this.label = label;
+            this.before = before;
+            this.after = after;
+        }
+    }
+}
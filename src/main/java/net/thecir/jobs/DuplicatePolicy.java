@@ -0,0 +1,47 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.jobs;
+
+import net.thecir.enums.LedgerConflict;
+
+/**
+ * Decides whether a job may run although the output's ledger shows that its
+ * input was already applied, or was never applied when it is subtracted.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public interface DuplicatePolicy {
+
+    DuplicatePolicy REFUSE = (job, conflict) -> false;
+    DuplicatePolicy ALLOW = (job, conflict) -> true;
+
+    /**
+     * Called on the thread running the job.
+     *
+     * @param job the job about to run
+     * @param conflict what is wrong with the job
+     * @return true if the job should run anyway
+     */
+    boolean proceed(ReportJob job, LedgerConflict conflict);
+}
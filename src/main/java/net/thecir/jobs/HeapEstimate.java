@@ -0,0 +1,88 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.jobs;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Rough estimate of the heap a report job needs. Workbooks are fully loaded
+ * into memory while the report is generated and take many times their size
+ * on disk, xlsx files more than xls files as they are compressed.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public final class HeapEstimate {
+
+    private static final long XLSX_FACTOR = 80;
+    private static final long XLS_FACTOR = 8;
+    //Heap needed regardless of the files, for the report library itself
+    private static final long BASE = 64L * 1024 * 1024;
+
+    private HeapEstimate() {
+    }
+
+    /**
+     * @param job a report job
+     * @return estimated heap in bytes needed to generate the job's report
+     */
+    public static long of(ReportJob job) {
+        return BASE + inMemorySize(job.getInput()) + inMemorySize(job.getOutput());
+    }
+
+    /**
+     * @return heap in bytes this JVM can still allocate
+     */
+    public static long available() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    /**
+     * @param job a report job
+     * @return true if the job must be generated in large file mode, either
+     * because it was requested or because the job would not fit the heap
+     */
+    public static boolean requiresLargeFileMode(ReportJob job) {
+        return job.isLargeFile() || of(job) > available();
+    }
+
+    /**
+     * @return physical memory of the machine in bytes, or -1 if unknown
+     */
+    public static long physicalMemory() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getTotalPhysicalMemorySize();
+        }
+        return -1;
+    }
+
+    private static long inMemorySize(File file) {
+        long factor = "xls".equalsIgnoreCase(FilenameUtils.getExtension(file.getName())) ? XLS_FACTOR : XLSX_FACTOR;
+        return file.length() * factor;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.jobs;
+
+import net.thecir.enums.JobPhase;
+import net.thecir.enums.JobStatus;
+
+/**
+ * Receives the progress of report jobs. The methods are invoked on the thread
+ * running the job, or on the thread cancelling it - use {@link EdtJobListener}
+ * to update Swing components.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public interface JobListener {
+
+    /**
+     * Called whenever the job enters a new phase.
+     *
+     * @param job the running job
+     * @param phase the phase that was just entered
+     */
+    void phaseChanged(ReportJob job, JobPhase phase);
+
+    /**
+     * Called before the report is generated, once for each part of a job
+     * applied in parts.
+     *
+     * @param job the running job
+     * @param largeFile true if the report is generated in large file mode
+     */
+    default void modeChosen(ReportJob job, boolean largeFile) {
+    }
+
+    /**
+     * Called exactly once when the job is completed, cancelled or has failed.
+     *
+     * @param job the finished job
+     * @param status final status of the job
+     * @param error cause of the failure, null unless the status is Failed
+     */
+    void jobFinished(ReportJob job, JobStatus status, Throwable error);
+}
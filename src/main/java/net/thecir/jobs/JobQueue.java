@@ -0,0 +1,228 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.jobs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool running report tasks in parallel. Tasks writing to the same
+ * output file are kept in a lane and run one after another, so only tasks
+ * for different outputs run concurrently. Waiting tasks never occupy a pool
+ * thread.
+ *
+ * The reports of consecutive tasks of a lane are collected in a batch and
+ * written to the output at once, when the lane runs empty or the batch
+ * reaches its size or age limit. The limits default to the system
+ * properties lrm.batch.maxJobs (10) and lrm.batch.flushSeconds (30).
+ *
+ * Other changes of an output, like undoing a merge, are queued in the lane
+ * as well, so they never overlap the tasks.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class JobQueue {
+
+    private final ExecutorService executor;
+    //Pending tasks per output file, the head of each lane is the running one
+    private final Map<File, Lane> lanes = new HashMap<>();
+    private volatile int maxBatchJobs = Integer.getInteger("lrm.batch.maxJobs", 10);
+    private volatile long maxBatchMillis = TimeUnit.SECONDS.toMillis(Long.getLong("lrm.batch.flushSeconds", 30));
+
+    /**
+     * Creates a queue with one thread per available core.
+     */
+    public JobQueue() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param threads - maximum number of tasks running at the same time
+     */
+    public JobQueue(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, (runnable) -> {
+            Thread thread = new Thread(runnable, "report-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Limits how many tasks are written to an output at once.
+     *
+     * @param maxJobs maximum number of tasks in a batch, 1 writes every task
+     * on its own
+     * @param flushInterval maximum time since the start of a batch
+     * @param unit unit of the interval
+     */
+    public void setBatchLimits(int maxJobs, long flushInterval, TimeUnit unit) {
+        if (maxJobs < 1) {
+            throw new IllegalArgumentException("maxJobs must be positive: " + maxJobs);
+        }
+        maxBatchJobs = maxJobs;
+        maxBatchMillis = unit.toMillis(flushInterval);
+    }
+
+    /**
+     * Queues the task. It is started right away unless another task for the
+     * same output is still waiting or running.
+     *
+     * @param task the task to be run
+     */
+    public synchronized void submit(ReportTask task) {
+        enqueue(laneKey(task.getJob().getOutput()), task);
+    }
+
+    /**
+     * Queues an action changing an output in the output's lane. It runs once
+     * the tasks queued before it have finished and their reports have been
+     * written, and the tasks queued after it wait for it.
+     *
+     * @param <T> type of the action's result
+     * @param output the output the action changes
+     * @param action the action to be run
+     * @return the result of the action once run
+     */
+    public synchronized <T> Future<T> submit(File output, Callable<T> action) {
+        FutureTask<T> future = new FutureTask<>(action);
+        enqueue(laneKey(output), future);
+        return future;
+    }
+
+    /**
+     * @return true if no task is waiting or running
+     */
+    public synchronized boolean isIdle() {
+        return lanes.isEmpty();
+    }
+
+    /**
+     * Stops accepting tasks and waits for the running ones to finish.
+     *
+     * @param timeout maximum time to wait
+     * @param unit unit of the timeout
+     * @return true if all tasks finished in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        executor.shutdown();
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    private void enqueue(File key, Object item) {
+        Lane lane = lanes.get(key);
+        if (lane == null) {
+            lane = new Lane();
+            lanes.put(key, lane);
+        }
+        lane.tasks.add(item);
+        if (lane.tasks.size() == 1) {
+            Lane started = lane;
+            executor.execute(() -> run(key, started, item));
+        }
+    }
+
+    private void run(File key, Lane lane, Object item) {
+        if (item instanceof ReportTask) {
+            runLane(key, lane, (ReportTask) item);
+        } else {
+            //The batch was flushed by the task before the action
+            try {
+                ((FutureTask<?>) item).run();
+            } finally {
+                next(key, lane);
+            }
+        }
+    }
+
+    private void runLane(File key, Lane lane, ReportTask task) {
+        if (lane.batch == null) {
+            lane.batch = new OutputBatch(task.getJob().getOutput());
+        }
+        try {
+            task.run(lane.batch);
+        } finally {
+            //The finished task stays the head of the lane until the batch is flushed
+            if (!hasNextTask(lane) || lane.batch.size() >= maxBatchJobs || lane.batch.ageMillis() >= maxBatchMillis) {
+                lane.batch.flush();
+                lane.batch = null;
+            }
+            next(key, lane);
+        }
+    }
+
+    /**
+     * @return true if a task, not an action, follows the running one
+     */
+    private synchronized boolean hasNextTask(Lane lane) {
+        Iterator<Object> items = lane.tasks.iterator();
+        items.next();
+        return items.hasNext() && items.next() instanceof ReportTask;
+    }
+
+    private synchronized void next(File key, Lane lane) {
+        lane.tasks.poll();
+        Object item = lane.tasks.peek();
+        if (item == null) {
+            lanes.remove(key);
+        } else {
+            executor.execute(() -> run(key, lane, item));
+        }
+    }
+
+    private static File laneKey(File output) {
+        try {
+            return output.getCanonicalFile();
+        } catch (IOException ex) {
+            return output.getAbsoluteFile();
+        }
+    }
+
+    /**
+     * Tasks and actions of one output and the batch of the reports not yet
+     * written.
+     */
+    private static class Lane {
+
+        //ReportTasks and the FutureTasks of actions
+        private final Deque<Object> tasks = new ArrayDeque<>();
+        //Only touched by the running task's thread
+        private OutputBatch batch;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.jobs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Level;
+import lombok.extern.java.Log;
+import net.thecir.enums.Stores;
+import net.thecir.index.OutputIndex;
+import net.thecir.journal.JournalEntry;
+
+/**
+ * Consecutive jobs of one output, generated into a common working copy of
+ * the output. The output itself is replaced only once, when the batch is
+ * flushed, so readers of the output never see a partially applied batch.
+ *
+ * All jobs generate into the same working copy, the output is copied once
+ * per batch. A job which fails or is cancelled after it started writing
+ * leaves the copy spoiled, so the copy is then made again from the output
+ * and the reports of the jobs accepted before are generated into it once
+ * more. A batch is used by one thread at a time, the lane of its output.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+@Log
+class OutputBatch {
+
+    private final File output;
+    private final long created = System.nanoTime();
+    //Tasks whose reports are in the working copy, waiting for the flush
+    private final List<ReportTask> accepted = new ArrayList<>();
+    private StagedOutput workingCopy;
+    //Cells the accepted tasks changed, old value from the output, null if not known
+    private List<JournalEntry.Change> changed = new ArrayList<>();
+
+    OutputBatch(File output) {
+        this.output = output;
+    }
+
+    /**
+     * @return the file the next job should generate its report into
+     * @throws IOException if the output cannot be copied
+     */
+    File begin() throws IOException {
+        if (workingCopy == null) {
+            workingCopy = StagedOutput.stage(output);
+        }
+        return workingCopy.getFile();
+    }
+
+    /**
+     * @return the output file, as it was before the batch
+     */
+    File getOutput() {
+        return output;
+    }
+
+    /**
+     * Keeps the report of the current job, it is written to the output with
+     * the next flush.
+     *
+     * @param task the job's task, notified once the batch is flushed
+     * @param changes the cells which differ between the output and the
+     * working copy, null if they are not known
+     * @return the cells changed by the current job alone, null if they are
+     * not known
+     */
+    List<JournalEntry.Change> accept(ReportTask task, List<JournalEntry.Change> changes) {
+        List<JournalEntry.Change> own = null;
+        if (changes != null && changed != null) {
+            Map<String, JournalEntry.Change> previous = new LinkedHashMap<>();
+            for (JournalEntry.Change change : changed) {
+                previous.put(key(change), change);
+            }
+            own = new ArrayList<>();
+            for (JournalEntry.Change change : changes) {
+                JournalEntry.Change was = previous.remove(key(change));
+                Object before = was == null ? change.getBefore() : was.getAfter();
+                if (!Objects.equals(before, change.getAfter())) {
+                    own.add(new JournalEntry.Change(change.getSheet(), change.getRow(), change.getColumn(), before, change.getAfter()));
+                }
+            }
+            //Cells an earlier job changed which the current one set back
+            for (JournalEntry.Change was : previous.values()) {
+                own.add(new JournalEntry.Change(was.getSheet(), was.getRow(), was.getColumn(), was.getAfter(), was.getBefore()));
+            }
+        }
+        //Once a job's changes are unknown, so are those of the jobs after it
+        changed = changes;
+        accepted.add(task);
+        return own;
+    }
+
+    private static String key(JournalEntry.Change change) {
+        //Sheet names cannot contain a colon
+        return change.getSheet() + ':' + change.getRow() + ':' + change.getColumn();
+    }
+
+    /**
+     * Discards the report of the current job. If the job had started to
+     * write, the working copy is made again and the accepted jobs are
+     * generated into it once more. Should that fail, the accepted jobs fail.
+     *
+     * @param written true if the job may have changed the working copy
+     */
+    void reject(boolean written) {
+        if (!written || workingCopy == null) {
+            return;
+        }
+        discard();
+        if (accepted.isEmpty()) {
+            return;
+        }
+        try {
+            workingCopy = StagedOutput.stage(output);
+            for (ReportTask task : accepted) {
+                task.regenerate(workingCopy.getFile());
+            }
+        } catch (IOException | InterruptedException | RuntimeException ex) {
+            if (ex instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            log.log(Level.SEVERE, "Failed to rebuild the batch of " + output, ex);
+            discard();
+            IOException error = ex instanceof IOException ? (IOException) ex : new IOException(ex);
+            for (ReportTask task : accepted) {
+                task.flushed(error);
+            }
+            accepted.clear();
+            changed = new ArrayList<>();
+        }
+    }
+
+    private void discard() {
+        if (workingCopy == null) {
+            return;
+        }
+        try {
+            workingCopy.close();
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "Failed to delete " + workingCopy.getFile(), ex);
+        }
+        workingCopy = null;
+    }
+
+    /**
+     * @param hash content hash of an input
+     * @param store retailer of the input
+     * @return net number of times the input was applied by the accepted jobs
+     */
+    int pending(String hash, Stores store) {
+        int net = 0;
+        for (ReportTask task : accepted) {
+            if (hash.equals(task.getHash()) && store == task.getJob().getStore()) {
+                net += task.getJob().isSubtract() ? -1 : 1;
+            }
+        }
+        return net;
+    }
+
+    /**
+     * @return number of accepted jobs
+     */
+    int size() {
+        return accepted.size();
+    }
+
+    /**
+     * @return milliseconds since the batch was created
+     */
+    long ageMillis() {
+        return (System.nanoTime() - created) / 1000000;
+    }
+
+    /**
+     * Replaces the output with the working copy and notifies the accepted
+     * tasks. The working copy is discarded if no job was accepted. An index
+     * of the output which was up to date is updated with the changed cells.
+     */
+    void flush() {
+        if (workingCopy == null) {
+            return;
+        }
+        OutputIndex index = accepted.isEmpty() ? null : OutputIndex.findCurrent(output);
+        List<List<JournalEntry.Change>> changes = new ArrayList<>();
+        for (ReportTask task : accepted) {
+            changes.add(task.getChanges());
+        }
+        IOException error = null;
+        try {
+            if (!accepted.isEmpty()) {
+                workingCopy.commit();
+            }
+        } catch (IOException ex) {
+            error = ex;
+        }
+        discard();
+        if (index != null && error == null) {
+            index.update(changes);
+        }
+        for (ReportTask task : accepted) {
+            task.flushed(error);
+        }
+        accepted.clear();
+        changed = new ArrayList<>();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.jobs;
+
+import java.io.File;
+import lombok.Getter;
+import net.thecir.enums.Stores;
+
+/**
+ * Immutable description of a single report generation - which input is
+ * applied to which output and how.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class ReportJob {
+
+    @Getter
+    private final File input;
+    @Getter
+    private final File output;
+    @Getter
+    private final boolean subtract;
+    @Getter
+    private final Stores store;
+    //Generate the report in a separate process sized for the files
+    @Getter
+    private final boolean largeFile;
+    //Apply only the rows which changed since the retailer's previous export
+    @Getter
+    private final boolean incremental;
+
+    /**
+     * Constructor
+     *
+     * @param input - file containing the retailer's data
+     * @param output - report the data is merged into
+     * @param subtract - if the input must be subtracted rather than added
+     * @param store - retailer the input originates from
+     */
+    public ReportJob(File input, File output, boolean subtract, Stores store) {
+        this(input, output, subtract, store, false);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param input - file containing the retailer's data
+     * @param output - report the data is merged into
+     * @param subtract - if the input must be subtracted rather than added
+     * @param store - retailer the input originates from
+     * @param largeFile - if the report must be generated in large file mode
+     * regardless of the estimated heap
+     */
+    public ReportJob(File input, File output, boolean subtract, Stores store, boolean largeFile) {
+        this(input, output, subtract, store, largeFile, false);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param input - file containing the retailer's data
+     * @param output - report the data is merged into
+     * @param subtract - if the input must be subtracted rather than added
+     * @param store - retailer the input originates from
+     * @param largeFile - if the report must be generated in large file mode
+     * regardless of the estimated heap
+     * @param incremental - if only the rows changed since the previous
+     * incremental job of the retailer must be applied, ignored when
+     * subtracting
+     */
+    public ReportJob(File input, File output, boolean subtract, Stores store, boolean largeFile, boolean incremental) {
+        this.input = input;
+        this.output = output;
+        this.subtract = subtract;
+        this.store = store;
+        this.largeFile = largeFile;
+        this.incremental = incremental;
+    }
+
+    @Override
+    public String toString() {
+        return input.getName() + (subtract ? " - " : " + ") + output.getName() + " (" + store + ")";
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.jobs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.java.Log;
+import net.thecir.core.LiteReportManager;
+import net.thecir.enums.Stores;
+
+/**
+ * Generates a report in a separate JVM whose heap is sized for the job, so
+ * that large workbooks neither exhaust the application's heap nor keep it
+ * grown once the job is over. Interrupting the waiting thread kills the
+ * process.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+@Log
+public final class ReportProcess {
+
+    private static final long MIN_HEAP = 256L * 1024 * 1024;
+    //Keep the last part of the process output for the error message
+    private static final int MAX_OUTPUT = 8192;
+
+    private ReportProcess() {
+    }
+
+    /**
+     * Generates the job's report into the given output and waits for it.
+     *
+     * @param job the job to be run
+     * @param output file the report is generated into, usually a staged copy
+     * of the job's output
+     * @throws IOException if the process could not be started or failed
+     * @throws InterruptedException if the thread was interrupted, the process
+     * is killed
+     */
+    public static void generate(ReportJob job, File output) throws IOException, InterruptedException {
+        long heap = heapFor(job);
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin" + File.separator + "java").getPath());
+        command.add("-Xmx" + heap / (1024 * 1024) + "m");
+        command.add("-Djava.awt.headless=true");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ReportProcess.class.getName());
+        command.add(job.getInput().getAbsolutePath());
+        command.add(output.getAbsolutePath());
+        command.add(job.getStore().name());
+        command.add(Boolean.toString(job.isSubtract()));
+        log.info("Generating " + job + " in a separate process with " + heap / (1024 * 1024) + " MB of heap");
+        File console = File.createTempFile("report-process", ".log");
+        try {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(console).start();
+            try {
+                int exitCode = process.waitFor();
+                if (exitCode != 0) {
+                    throw new IOException("Report process exited with " + exitCode + ": " + readTail(console));
+                }
+            } finally {
+                if (process.isAlive()) {
+                    process.destroyForcibly().waitFor(10, TimeUnit.SECONDS);
+                }
+            }
+        } finally {
+            console.delete();
+        }
+    }
+
+    /**
+     * The estimated heap of the job, capped at three quarters of the physical
+     * memory.
+     */
+    private static long heapFor(ReportJob job) {
+        long heap = Math.max(MIN_HEAP, HeapEstimate.of(job));
+        long physical = HeapEstimate.physicalMemory();
+        return physical > 0 ? Math.min(heap, physical / 4 * 3) : heap;
+    }
+
+    private static String readTail(File console) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(console, "r")) {
+            long start = Math.max(0, file.length() - MAX_OUTPUT);
+            byte[] tail = new byte[(int) (file.length() - start)];
+            file.seek(start);
+            file.readFully(tail);
+            return new String(tail, Charset.defaultCharset()).trim();
+        }
+    }
+
+    /**
+     * Entry point of the process.
+     *
+     * @param args input, output, store, subtract
+     */
+    public static void main(String[] args) {
+        try {
+            LiteReportManager.getInstance().generateReport(new File(args[0]), new File(args[1]),
+                    Boolean.parseBoolean(args[3]), Stores.valueOf(args[2]));
+        } catch (Throwable ex) {
+            ex.printStackTrace();
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+}
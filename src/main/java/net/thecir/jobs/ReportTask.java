@@ -0,0 +1,374 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.jobs;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.java.Log;
+import net.thecir.cache.FileFingerprint;
+import net.thecir.core.LiteReportManager;
+import net.thecir.delta.DeltaImport;
+import net.thecir.delta.InputSnapshot;
+import net.thecir.enums.JobPhase;
+import net.thecir.enums.JobStatus;
+import net.thecir.enums.LedgerConflict;
+import net.thecir.journal.JournalEntry;
+import net.thecir.journal.OutputJournal;
+import net.thecir.ledger.ApplicationLedger;
+
+/**
+ * Runs a single report job. The input is first checked against the output's
+ * ledger, so the same input is not applied twice by mistake. The report is
+ * then generated into a staged copy of the output, which replaces the
+ * original only if the job was not cancelled in the meantime. Jobs which do
+ * not fit the heap are generated in a separate process. Queued jobs of the
+ * same output are batched by the queue, see {@link OutputBatch}. Incremental
+ * jobs apply only the difference to the retailer's previous export, see
+ * {@link DeltaImport}. The cells
+ * changed by a completed job are kept in the output's journal, so the job
+ * can be undone.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+@Log
+public class ReportTask implements Runnable {
+
+    @Getter
+    private final ReportJob job;
+    private final JobListener listener;
+    private final DuplicatePolicy duplicatePolicy;
+    //Generates the report, the shared instance unless the job belongs to a session
+    private final LiteReportManager engine;
+    //Guards the status, the running thread and the point after which the job can no longer be cancelled
+    private final Object lock = new Object();
+    @Getter
+    private volatile JobStatus status = JobStatus.Queued;
+    @Getter
+    private volatile JobPhase phase;
+    private boolean committing;
+    private Thread runner;
+    private ApplicationLedger ledger;
+    //Content hash of the input, known once the job is running
+    @Getter(AccessLevel.PACKAGE)
+    private String hash;
+    //Cells changed by the report, null if the job cannot be undone
+    @Getter(AccessLevel.PACKAGE)
+    private List<JournalEntry.Change> changes;
+    //If a part of the report was generated in large file mode
+    private boolean largeFileMode;
+    //The jobs generated into the batch's working copy, kept to generate them again if the copy is spoiled
+    private List<ReportJob> parts;
+    //Owns the parts of an incremental job until the batch is flushed
+    private DeltaImport delta;
+
+    /**
+     * Creates a task which refuses inputs conflicting with the output's
+     * ledger.
+     *
+     * @param job - the job to be run
+     * @param listener - notified on the running thread about the progress
+     */
+    public ReportTask(ReportJob job, JobListener listener) {
+        this(job, listener, DuplicatePolicy.REFUSE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param job - the job to be run
+     * @param listener - notified on the running thread about the progress
+     * @param duplicatePolicy - decides about inputs conflicting with the
+     * output's ledger
+     */
+    public ReportTask(ReportJob job, JobListener listener, DuplicatePolicy duplicatePolicy) {
+        this(job, listener, duplicatePolicy, LiteReportManager.getInstance());
+    }
+
+    /**
+     * Creates a task generating its report with the engine of a session.
+     *
+     * @param job - the job to be run
+     * @param listener - notified on the running thread about the progress
+     * @param duplicatePolicy - decides about inputs conflicting with the
+     * output's ledger
+     * @param engine - generates the report
+     */
+    public ReportTask(ReportJob job, JobListener listener, DuplicatePolicy duplicatePolicy, LiteReportManager engine) {
+        this.job = job;
+        this.listener = listener;
+        this.duplicatePolicy = duplicatePolicy;
+        this.engine = engine;
+    }
+
+    /**
+     * Cancels the job unless it has already finished or its output is being
+     * replaced. A queued job will never start, a running one is interrupted
+     * and its staged output is discarded.
+     *
+     * @return true if the job was cancelled
+     */
+    public boolean abort() {
+        synchronized (lock) {
+            if (committing || status.isFinal()) {
+                return false;
+            }
+            status = JobStatus.Cancelled;
+            if (runner != null) {
+                runner.interrupt();
+            }
+        }
+        listener.jobFinished(job, JobStatus.Cancelled, null);
+        return true;
+    }
+
+    /**
+     * Runs the job on its own, the output is replaced as soon as the report
+     * is generated.
+     */
+    @Override
+    public void run() {
+        OutputBatch batch = new OutputBatch(job.getOutput());
+        run(batch);
+        batch.flush();
+    }
+
+    /**
+     * Runs the job as part of a batch. A generated report is only written to
+     * the output, and the job finished, once the batch is flushed.
+     *
+     * @param batch the batch of the job's output
+     */
+    void run(OutputBatch batch) {
+        synchronized (lock) {
+            if (status != JobStatus.Queued) {
+                return;
+            }
+            status = JobStatus.Running;
+            runner = Thread.currentThread();
+        }
+        try {
+            JobStatus result = execute(batch);
+            if (result != null) {
+                finish(result, null);
+            }
+        } catch (Exception ex) {
+            finish(JobStatus.Failed, ex);
+        } finally {
+            synchronized (lock) {
+                runner = null;
+                //Do not leak an interrupt caused by abort() into the next job of the pool thread
+                Thread.interrupted();
+            }
+        }
+    }
+
+    /**
+     * @return the status of the finished job, null if it waits for its batch
+     * to be flushed
+     */
+    private JobStatus execute(OutputBatch batch) throws Exception {
+        enterPhase(JobPhase.Checking);
+        ledger = ApplicationLedger.forOutput(job.getOutput());
+        hash = FileFingerprint.hash(job.getInput());
+        LedgerConflict conflict = ledger.check(hash, job.isSubtract(), job.getStore(), batch.pending(hash, job.getStore()));
+        if (conflict != null && !duplicatePolicy.proceed(job, conflict)) {
+            log.warning("Skipped " + job + ": " + conflict);
+            return JobStatus.Skipped;
+        }
+        enterPhase(JobPhase.Staging);
+        File target = batch.begin();
+        boolean written = false;
+        boolean accepted = false;
+        try {
+            if (status == JobStatus.Cancelled) {
+                return JobStatus.Cancelled;
+            }
+            enterPhase(JobPhase.Generating);
+            if (job.isIncremental() && !job.isSubtract()) {
+                delta = DeltaImport.prepare(job, hash, findSnapshot(batch));
+                log.info(job + ": " + delta.getAddedRows() + " rows added, " + delta.getRemovedRows() + " removed, "
+                        + delta.getUnchangedRows() + " unchanged");
+                parts = delta.getJobs();
+            } else {
+                parts = Collections.singletonList(job);
+            }
+            written = true;
+            for (ReportJob part : parts) {
+                generate(part, target);
+            }
+            if (delta != null) {
+                delta.keepSnapshot();
+            }
+            synchronized (lock) {
+                if (status == JobStatus.Cancelled) {
+                    return JobStatus.Cancelled;
+                }
+                committing = true;
+            }
+            enterPhase(JobPhase.Committing);
+            changes = batch.accept(this, diff(batch.getOutput(), target));
+            accepted = true;
+            return null;
+        } finally {
+            if (!accepted) {
+                synchronized (lock) {
+                    //The working copy may be rebuilt, which must not be interrupted
+                    committing = true;
+                    Thread.interrupted();
+                }
+                closeDelta();
+                batch.reject(written);
+            }
+        }
+    }
+
+    private void generate(ReportJob job, File target) throws IOException, InterruptedException {
+        boolean largeFile = HeapEstimate.requiresLargeFileMode(job);
+        largeFileMode |= largeFile;
+        listener.modeChosen(this.job, largeFile);
+        write(job, target, largeFile);
+    }
+
+    private void write(ReportJob job, File target, boolean largeFile) throws IOException, InterruptedException {
+        if (largeFile) {
+            ReportProcess.generate(job, target);
+        } else {
+            engine.generateReport(job.getInput(), target, job.isSubtract(), job.getStore());
+        }
+    }
+
+    /**
+     * Generates the report of an accepted job once more, into a new working
+     * copy of its batch.
+     *
+     * @param target the working copy
+     * @throws IOException if the report cannot be generated
+     * @throws InterruptedException if a large file job is interrupted
+     */
+    void regenerate(File target) throws IOException, InterruptedException {
+        for (ReportJob part : parts) {
+            write(part, target, HeapEstimate.requiresLargeFileMode(part));
+        }
+    }
+
+    private void closeDelta() {
+        if (delta == null) {
+            return;
+        }
+        try {
+            delta.close();
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "Failed to delete the parts of " + job, ex);
+        }
+        delta = null;
+    }
+
+    /**
+     * @return the newest snapshot of the retailer's exports which is still
+     * applied to the output, null if there is none
+     */
+    private InputSnapshot findSnapshot(OutputBatch batch) throws IOException {
+        for (InputSnapshot snapshot : InputSnapshot.list(job.getOutput(), job.getStore())) {
+            String applied = snapshot.getHash();
+            if (ledger.check(applied, false, job.getStore(), batch.pending(applied, job.getStore())) == LedgerConflict.AlreadyApplied) {
+                return snapshot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Called once the batch of the job has been flushed.
+     *
+     * @param error why the output could not be replaced, null on success
+     */
+    void flushed(IOException error) {
+        closeDelta();
+        if (error != null) {
+            finish(JobStatus.Failed, error);
+            return;
+        }
+        try {
+            ledger.record(hash, job.isSubtract(), job.getStore(), job.getInput());
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "Failed to record " + job + " in the ledger", ex);
+        }
+        if (changes != null) {
+            try {
+                OutputJournal.forOutput(job.getOutput()).record(new JournalEntry(Instant.now(), job.getInput(), hash,
+                        job.getStore(), job.isSubtract(), changes));
+            } catch (IOException ex) {
+                log.log(Level.WARNING, "Failed to record " + job + " in the journal", ex);
+            }
+            changes = null;
+        }
+        enterPhase(JobPhase.Done);
+        finish(JobStatus.Completed, null);
+    }
+
+    /**
+     * @return the cells which differ between the output and the working copy,
+     * null if they cannot be found. Large file jobs and large outputs are not
+     * journaled, the old output would have to be held in memory.
+     */
+    private List<JournalEntry.Change> diff(File before, File after) {
+        if (largeFileMode || !OutputJournal.isJournaled(before)) {
+            return null;
+        }
+        try {
+            return OutputJournal.diff(before, after);
+        } catch (IOException | RuntimeException ex) {
+            //POI reports unreadable workbooks with runtime exceptions, the job must not fail because of its journal
+            log.log(Level.WARNING, "Cannot journal " + job, ex);
+            return null;
+        }
+    }
+
+    private void enterPhase(JobPhase phase) {
+        this.phase = phase;
+        if (status != JobStatus.Cancelled) {
+            listener.phaseChanged(job, phase);
+        }
+    }
+
+    private void finish(JobStatus result, Throwable error) {
+        synchronized (lock) {
+            //An aborted job has already been reported
+            if (status == JobStatus.Cancelled) {
+                return;
+            }
+            status = result;
+        }
+        if (error != null) {
+            log.log(Level.SEVERE, "Report job failed: " + job, error);
+        }
+        listener.jobFinished(job, result, error);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.jobs;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * A working copy of an output file, placed next to it. The report is generated
+ * into the copy and only moved over the original once the job has finished, so
+ * a cancelled or failed job never leaves a half written output behind.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class StagedOutput implements Closeable {
+
+    private final Path target;
+    private final Path staged;
+    private boolean committed;
+
+    private StagedOutput(Path target, Path staged) {
+        this.target = target;
+        this.staged = staged;
+    }
+
+    /**
+     * Copies the output into a hidden file in the same directory.
+     *
+     * @param output the file to be staged
+     * @return the staged copy
+     * @throws IOException if the output is missing or cannot be copied
+     */
+    public static StagedOutput stage(File output) throws IOException {
+        if (!output.isFile()) {
+            throw new FileNotFoundException(output.toString());
+        }
+        StagedOutput staged = create(output);
+        Files.copy(staged.target, staged.staged, StandardCopyOption.REPLACE_EXISTING);
+        return staged;
+    }
+
+    /**
+     * Creates an empty hidden file in the same directory, for callers which
+     * write the whole output themselves.
+     *
+     * @param output the file to be replaced
+     * @return the empty working copy
+     * @throws IOException if the file cannot be created
+     */
+    public static StagedOutput create(File output) throws IOException {
+        Path target = output.toPath().toAbsolutePath();
+        Path staged = Files.createTempFile(target.getParent(), "~" + FilenameUtils.getBaseName(output.getName()),
+                "." + FilenameUtils.getExtension(output.getName()));
+        return new StagedOutput(target, staged);
+    }
+
+    /**
+     * @return the working copy the report should be written to
+     */
+    public File getFile() {
+        return staged.toFile();
+    }
+
+    /**
+     * Replaces the original output with the working copy. The move is atomic
+     * where the file system supports it.
+     *
+     * @throws IOException if the original cannot be replaced
+     */
+    public void commit() throws IOException {
+        try {
+            Files.move(staged, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(staged, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        committed = true;
+    }
+
+    /**
+     * Discards the working copy unless it has been committed.
+     *
+     * @throws IOException if the working copy cannot be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        if (!committed) {
+            Files.deleteIfExists(staged);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.journal;
+
+import java.io.File;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import net.thecir.enums.Stores;
+
+/**
+ * A job recorded in an output's journal, with the cells it changed.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+@Getter
+public class JournalEntry {
+
+    private final Instant time;
+    private final File input;
+    //Content hash of the input, as recorded in the ledger
+    private final String hash;
+    private final Stores store;
+    private final boolean subtract;
+    private final List<Change> changes;
+    //If the job has been undone and can be redone
+    @Setter(AccessLevel.PACKAGE)
+    private boolean undone;
+
+    public JournalEntry(Instant time, File input, String hash, Stores store, boolean subtract, List<Change> changes) {
+        this.time = time;
+        this.input = input;
+        this.hash = hash;
+        this.store = store;
+        this.subtract = subtract;
+        this.changes = Collections.unmodifiableList(changes);
+    }
+
+    /**
+     * A cell changed by a job. Values are Double, String or null for blank
+     * cells, as read by WorkbookReader.
+     */
+    @Getter
+    public static class Change {
+
+        private final String sheet;
+        private final int row;
+        private final int column;
+        private final Object before;
+        private final Object after;
+
+        public Change(String sheet, int row, int column, Object before, Object after) {
+            this.sheet = sheet;
+            this.row = row;
+            this.column = column;
+            this.before = before;
+            this.after = after;
+        }
+    }
+}
@@ -0,0 +1,466 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.journal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import net.thecir.cache.ParsedInput;
+import net.thecir.enums.Stores;
+import net.thecir.jobs.StagedOutput;
+import net.thecir.ledger.ApplicationLedger;
+import net.thecir.readers.WorkbookReader;
+import org.apache.poi.EncryptedDocumentException;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.ss.util.CellReference;
+
+/**
+ * The undo history of an output file. Every completed job is recorded with
+ * the cells it changed, old and new value, in a compressed binary file next
+ * to the output. Undoing a job writes the old values back into the output and
+ * redoing it the new ones, so neither needs the inputs or a copy of the
+ * whole output. The oldest jobs are dropped once the journal grows past its
+ * limits. Outputs larger than lrm.journal.maxOutputMB (8 by default) are not
+ * journaled, as the old version is held in memory to find the changes.
+ *
+ * Like the ledger, the journal of an output is only used by one job at a
+ * time.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class OutputJournal {
+
+    private static final Map<File, OutputJournal> JOURNALS = new ConcurrentHashMap<>();
+
+    private static final int MAGIC = 0x4C524D4A;
+    private static final int VERSION = 1;
+    private static final byte BLANK = 0;
+    private static final byte NUMBER = 1;
+    private static final byte TEXT = 2;
+
+    //Limits of the journal, the oldest jobs are dropped first
+    private static final int MAX_ENTRIES = Integer.getInteger("lrm.journal.maxEntries", 20);
+    private static final long MAX_BYTES = Long.getLong("lrm.journal.maxBytes", 16L << 20);
+    //Largest output whose changes are journaled
+    private static final long MAX_OUTPUT_BYTES = Long.getLong("lrm.journal.maxOutputMB", 8) * 1024 * 1024;
+
+    private final File output;
+    private final Path file;
+    //Oldest first, the undone jobs follow the applied ones
+    private final List<JournalEntry> entries = new ArrayList<>();
+    private long loadedSize = -1;
+    private long loadedModified;
+
+    private OutputJournal(File output, Path file) {
+        this.output = output;
+        this.file = file;
+    }
+
+    /**
+     * Returns the journal of an output file.
+     *
+     * @param output the output file
+     * @return its journal, shared by all callers
+     * @throws IOException if the path of the output cannot be resolved
+     */
+    public static OutputJournal forOutput(File output) throws IOException {
+        File canonical = output.getCanonicalFile();
+        return JOURNALS.computeIfAbsent(canonical, (key) -> new OutputJournal(key,
+                new File(key.getParentFile(), "." + key.getName() + ".journal").toPath()));
+    }
+
+    /**
+     * @param output an output file
+     * @return false if the output is too large to find the changes of a job
+     */
+    public static boolean isJournaled(File output) {
+        return output.length() <= MAX_OUTPUT_BYTES;
+    }
+
+    /**
+     * Finds the cells which differ between two versions of an output. Only
+     * the older version is held in memory, the newer one is streamed.
+     *
+     * @param before the output before the job
+     * @param after the output after the job
+     * @return the changed cells
+     * @throws IOException if either file cannot be read
+     */
+    public static List<JournalEntry.Change> diff(File before, File after) throws IOException {
+        Map<String, Map<Integer, Object[]>> old = new HashMap<>();
+        for (ParsedInput.Sheet sheet : ParsedInput.parse(before).getSheets()) {
+            Map<Integer, Object[]> rows = new HashMap<>();
+            for (ParsedInput.Row row : sheet.getRows()) {
+                rows.put(row.getIndex(), row.getCells());
+            }
+            old.put(sheet.getName(), rows);
+        }
+        List<JournalEntry.Change> changes = new ArrayList<>();
+        WorkbookReader.read(after, (sheet, rowIndex, cells) -> {
+            Object[] was = old.computeIfAbsent(sheet, (key) -> new HashMap<>()).remove(rowIndex);
+            compare(changes, sheet, rowIndex, was == null ? new Object[0] : was, cells);
+            return true;
+        });
+        //Rows which are gone from the newer version
+        old.forEach((sheet, rows) -> rows.forEach((rowIndex, cells) -> compare(changes, sheet, rowIndex, cells, new Object[0])));
+        return changes;
+    }
+
+    private static void compare(List<JournalEntry.Change> changes, String sheet, int row, Object[] before, Object[] after) {
+        for (int column = 0; column < Math.max(before.length, after.length); column++) {
+            Object was = column < before.length ? before[column] : null;
+            Object is = column < after.length ? after[column] : null;
+            if (!Objects.equals(was, is)) {
+                changes.add(new JournalEntry.Change(sheet, row, column, was, is));
+            }
+        }
+    }
+
+    /**
+     * Appends a completed job. Jobs undone before it can no longer be redone.
+     *
+     * @param entry the job and its changes
+     * @throws IOException if the journal cannot be written
+     */
+    public synchronized void record(JournalEntry entry) throws IOException {
+        reloadIfChanged();
+        entries.removeIf(JournalEntry::isUndone);
+        entries.add(entry);
+        save();
+    }
+
+    /**
+     * @return the job the next undo reverts, null if there is none
+     * @throws IOException if the journal cannot be read
+     */
+    public synchronized JournalEntry peekUndo() throws IOException {
+        reloadIfChanged();
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if (!entries.get(i).isUndone()) {
+                return entries.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the job the next redo applies again, null if there is none
+     * @throws IOException if the journal cannot be read
+     */
+    public synchronized JournalEntry peekRedo() throws IOException {
+        reloadIfChanged();
+        for (JournalEntry entry : entries) {
+            if (entry.isUndone()) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the old values of the last applied job's cells back into the
+     * output and records the reversal in the ledger.
+     *
+     * @return the undone job, null if there was none
+     * @throws OutputChangedException if the cells were changed since the job
+     * @throws IOException if the output cannot be updated
+     */
+    public synchronized JournalEntry undo() throws IOException {
+        JournalEntry entry = peekUndo();
+        if (entry != null) {
+            patch(entry, true);
+            entry.setUndone(true);
+            save();
+            ApplicationLedger.forOutput(output).record(entry.getHash(), !entry.isSubtract(), entry.getStore(), entry.getInput());
+        }
+        return entry;
+    }
+
+    /**
+     * Writes the new values of the first undone job's cells into the output
+     * again and records it in the ledger.
+     *
+     * @return the redone job, null if there was none
+     * @throws OutputChangedException if the cells were changed since the undo
+     * @throws IOException if the output cannot be updated
+     */
+    public synchronized JournalEntry redo() throws IOException {
+        JournalEntry entry = peekRedo();
+        if (entry != null) {
+            patch(entry, false);
+            entry.setUndone(false);
+            save();
+            ApplicationLedger.forOutput(output).record(entry.getHash(), entry.isSubtract(), entry.getStore(), entry.getInput());
+        }
+        return entry;
+    }
+
+    /**
+     * Sets the cells of a job to their old or new values. Each cell must still
+     * hold the value the job left, respectively found, or nothing is written.
+     * Formula and error cells are left to be recalculated.
+     */
+    private void patch(JournalEntry entry, boolean undo) throws IOException {
+        Workbook workbook;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(output))) {
+            workbook = WorkbookFactory.create(in);
+        } catch (InvalidFormatException | EncryptedDocumentException ex) {
+            throw new IOException(ex);
+        }
+        try (StagedOutput staged = StagedOutput.create(output)) {
+            for (JournalEntry.Change change : entry.getChanges()) {
+                Sheet sheet = workbook.getSheet(change.getSheet());
+                if (sheet == null) {
+                    sheet = workbook.createSheet(change.getSheet());
+                }
+                Row row = sheet.getRow(change.getRow());
+                if (row == null) {
+                    row = sheet.createRow(change.getRow());
+                }
+                Cell cell = row.getCell(change.getColumn());
+                if (cell != null && (cell.getCellTypeEnum() == CellType.FORMULA || cell.getCellTypeEnum() == CellType.ERROR)) {
+                    continue;
+                }
+                Object expected = undo ? change.getAfter() : change.getBefore();
+                if (!Objects.equals(valueOf(cell), expected)) {
+                    throw new OutputChangedException(output, sheet.getSheetName() + "!"
+                            + new CellReference(change.getRow(), change.getColumn()).formatAsString());
+                }
+                setValue(cell == null ? row.createCell(change.getColumn()) : cell, undo ? change.getBefore() : change.getAfter());
+            }
+            workbook.setForceFormulaRecalculation(true);
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(staged.getFile()))) {
+                workbook.write(out);
+            }
+            staged.commit();
+        } finally {
+            workbook.close();
+        }
+    }
+
+    /**
+     * @return the value of a cell the way WorkbookReader reads it
+     */
+    private static Object valueOf(Cell cell) {
+        if (cell == null) {
+            return null;
+        }
+        switch (cell.getCellTypeEnum()) {
+            case NUMERIC:
+                return cell.getNumericCellValue();
+            case STRING:
+                String text = cell.getStringCellValue();
+                return text.isEmpty() ? null : text;
+            case BOOLEAN:
+                return cell.getBooleanCellValue() ? "TRUE" : "FALSE";
+            default:
+                return null;
+        }
+    }
+
+    private static void setValue(Cell cell, Object value) {
+        if (value == null) {
+            cell.setCellType(CellType.BLANK);
+        } else if (value instanceof Double) {
+            cell.setCellValue((Double) value);
+        } else if (cell.getCellTypeEnum() == CellType.BOOLEAN && ("TRUE".equals(value) || "FALSE".equals(value))) {
+            cell.setCellValue("TRUE".equals(value));
+        } else {
+            cell.setCellValue(value.toString());
+        }
+    }
+
+    /**
+     * Rereads the journal if it was changed by another process.
+     */
+    private void reloadIfChanged() throws IOException {
+        long size = Files.exists(file) ? Files.size(file) : 0;
+        long modified = Files.exists(file) ? Files.getLastModifiedTime(file).toMillis() : 0;
+        if (size == loadedSize && modified == loadedModified) {
+            return;
+        }
+        entries.clear();
+        if (size > 0) {
+            try (DataInputStream in = new DataInputStream(new GZIPInputStream(Files.newInputStream(file)))) {
+                if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                    throw new IOException("Not a journal: " + file);
+                }
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    entries.add(readEntry(in));
+                }
+            }
+        }
+        loadedSize = size;
+        loadedModified = modified;
+    }
+
+    /**
+     * Writes the journal, dropping the oldest jobs beyond the limits. The
+     * file is replaced at once, so it is never left half written.
+     */
+    private void save() throws IOException {
+        List<byte[]> serialized = new ArrayList<>();
+        long total = 0;
+        for (JournalEntry entry : entries) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            writeEntry(new DataOutputStream(bytes), entry);
+            serialized.add(bytes.toByteArray());
+            total += bytes.size();
+        }
+        while (!entries.isEmpty() && (entries.size() > MAX_ENTRIES || total > MAX_BYTES)) {
+            entries.remove(0);
+            total -= serialized.remove(0).length;
+        }
+        Path temp = Files.createTempFile(file.getParent(), "~journal", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))))) {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.writeInt(serialized.size());
+                for (byte[] entry : serialized) {
+                    out.write(entry);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        loadedSize = Files.size(file);
+        loadedModified = Files.getLastModifiedTime(file).toMillis();
+    }
+
+    private static void writeEntry(DataOutput out, JournalEntry entry) throws IOException {
+        out.writeLong(entry.getTime().toEpochMilli());
+        writeString(out, entry.getInput().getPath());
+        writeString(out, entry.getHash());
+        writeString(out, entry.getStore().name());
+        out.writeBoolean(entry.isSubtract());
+        out.writeBoolean(entry.isUndone());
+        //Sheet names are written once and referred to by their index
+        List<String> sheets = new ArrayList<>();
+        for (JournalEntry.Change change : entry.getChanges()) {
+            if (!sheets.contains(change.getSheet())) {
+                sheets.add(change.getSheet());
+            }
+        }
+        out.writeInt(sheets.size());
+        for (String sheet : sheets) {
+            writeString(out, sheet);
+        }
+        out.writeInt(entry.getChanges().size());
+        for (JournalEntry.Change change : entry.getChanges()) {
+            out.writeShort(sheets.indexOf(change.getSheet()));
+            out.writeInt(change.getRow());
+            out.writeShort(change.getColumn());
+            writeValue(out, change.getBefore());
+            writeValue(out, change.getAfter());
+        }
+    }
+
+    private static JournalEntry readEntry(DataInput in) throws IOException {
+        Instant time = Instant.ofEpochMilli(in.readLong());
+        File input = new File(readString(in));
+        String hash = readString(in);
+        Stores store = Stores.valueOf(readString(in));
+        boolean subtract = in.readBoolean();
+        boolean undone = in.readBoolean();
+        String[] sheets = new String[in.readInt()];
+        for (int i = 0; i < sheets.length; i++) {
+            sheets[i] = readString(in);
+        }
+        int count = in.readInt();
+        List<JournalEntry.Change> changes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String sheet = sheets[in.readShort()];
+            int row = in.readInt();
+            int column = in.readShort();
+            changes.add(new JournalEntry.Change(sheet, row, column, readValue(in), readValue(in)));
+        }
+        JournalEntry entry = new JournalEntry(time, input, hash, store, subtract, changes);
+        entry.setUndone(undone);
+        return entry;
+    }
+
+    private static void writeValue(DataOutput out, Object value) throws IOException {
+        if (value instanceof Double) {
+            out.writeByte(NUMBER);
+            out.writeDouble((Double) value);
+        } else if (value != null) {
+            out.writeByte(TEXT);
+            writeString(out, value.toString());
+        } else {
+            out.writeByte(BLANK);
+        }
+    }
+
+    private static Object readValue(DataInput in) throws IOException {
+        byte type = in.readByte();
+        if (type == NUMBER) {
+            return in.readDouble();
+        }
+        return type == TEXT ? readString(in) : null;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.ledger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import net.thecir.enums.LedgerConflict;
+import net.thecir.enums.Stores;
+
+/**
+ * Records which inputs were applied to an output file. The ledger is kept in
+ * a hidden file next to the output, one line per application, and is loaded
+ * into a map on first use, so checking an input costs a single lookup
+ * regardless of the number of recorded applications.
+ *
+ * An output may hold inputs applied before it had a ledger, so subtracting an
+ * input is only refused if the ledger knows its history: the input was
+ * recorded before, or the ledger was started together with a new output.
+ *
+ * Only the jobs of an output's lane touch its ledger, so they never run
+ * concurrently.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class ApplicationLedger {
+
+    private static final Map<File, ApplicationLedger> LEDGERS = new ConcurrentHashMap<>();
+    //Marks a ledger started with its output
+    private static final String CREATED = "created";
+
+    private final Path file;
+    //Net number of times each input hash was applied per retailer, additions minus subtractions
+    private final Map<String, Integer> applications = new HashMap<>();
+    //If the ledger was started with its output, so it knows every application
+    private boolean complete;
+    private long loadedSize = -1;
+    private long loadedModified;
+
+    private ApplicationLedger(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the ledger of an output file.
+     *
+     * @param output the output file
+     * @return its ledger, shared by all callers
+     * @throws IOException if the path of the output cannot be resolved
+     */
+    public static ApplicationLedger forOutput(File output) throws IOException {
+        File canonical = output.getCanonicalFile();
+        return LEDGERS.computeIfAbsent(canonical, (key) -> new ApplicationLedger(
+                new File(key.getParentFile(), "." + key.getName() + ".ledger").toPath()));
+    }
+
+    /**
+     * Checks if applying an input would repeat or undo a previous application.
+     *
+     * @param hash content hash of the input
+     * @param subtract if the input is going to be subtracted
+     * @param store retailer of the input
+     * @return the conflict, null if there is none
+     * @throws IOException if the ledger cannot be read
+     */
+    public LedgerConflict check(String hash, boolean subtract, Stores store) throws IOException {
+        return check(hash, subtract, store, 0);
+    }
+
+    /**
+     * Checks if applying an input would repeat or undo a previous
+     * application, including applications not recorded yet.
+     *
+     * @param hash content hash of the input
+     * @param subtract if the input is going to be subtracted
+     * @param store retailer of the input
+     * @param pending net number of applications of the input waiting to be
+     * recorded
+     * @return the conflict, null if there is none
+     * @throws IOException if the ledger cannot be read
+     */
+    public synchronized LedgerConflict check(String hash, boolean subtract, Stores store, int pending) throws IOException {
+        reloadIfChanged();
+        Integer recorded = applications.get(key(hash, store));
+        int applied = (recorded == null ? 0 : recorded) + pending;
+        if (!subtract && applied > 0) {
+            return LedgerConflict.AlreadyApplied;
+        }
+        if (subtract && applied <= 0 && (recorded != null || complete)) {
+            return LedgerConflict.NotApplied;
+        }
+        return null;
+    }
+
+    /**
+     * Starts the ledger of a newly created output, which holds no inputs yet.
+     * The ledger of a previous file of the same name is discarded.
+     *
+     * @throws IOException if the ledger cannot be written
+     */
+    public synchronized void start() throws IOException {
+        String line = Instant.now() + "\t" + CREATED + System.lineSeparator();
+        Files.write(file, line.getBytes(StandardCharsets.UTF_8));
+        applications.clear();
+        complete = true;
+        loadedSize = Files.size(file);
+        loadedModified = Files.getLastModifiedTime(file).toMillis();
+    }
+
+    /**
+     * Appends an application to the ledger.
+     *
+     * @param hash content hash of the input
+     * @param subtract if the input was subtracted
+     * @param store retailer of the input
+     * @param input the applied file
+     * @throws IOException if the ledger cannot be written
+     */
+    public synchronized void record(String hash, boolean subtract, Stores store, File input) throws IOException {
+        reloadIfChanged();
+        String line = Instant.now() + "\t" + hash + "\t" + (subtract ? "-" : "+") + "\t" + store + "\t" + input.getAbsolutePath() + System.lineSeparator();
+        Files.write(file, line.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        apply(hash, subtract, store.name());
+        loadedSize = Files.size(file);
+        loadedModified = Files.getLastModifiedTime(file).toMillis();
+    }
+
+    /**
+     * Rereads the ledger if it was changed by another process.
+     */
+    private void reloadIfChanged() throws IOException {
+        long size = Files.exists(file) ? Files.size(file) : 0;
+        long modified = Files.exists(file) ? Files.getLastModifiedTime(file).toMillis() : 0;
+        if (size == loadedSize && modified == loadedModified) {
+            return;
+        }
+        applications.clear();
+        complete = false;
+        for (String line : Files.exists(file) ? Files.readAllLines(file, StandardCharsets.UTF_8) : Collections.<String>emptyList()) {
+            String[] fields = line.split("\t");
+            if (fields.length >= 4) {
+                apply(fields[1], "-".equals(fields[2]), fields[3]);
+            } else if (fields.length == 2 && CREATED.equals(fields[1])) {
+                complete = true;
+            }
+        }
+        loadedSize = size;
+        loadedModified = modified;
+    }
+
+    private void apply(String hash, boolean subtract, String store) {
+        applications.merge(hash + "/" + store, subtract ? -1 : 1, Integer::sum);
+    }
+
+    private static String key(String hash, Stores store) {
+        return hash + "/" + store.name();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.main;
+
+import net.thecir.headless.HeadlessRunner;
+
+/**
+ * Entry point for the application. Starts the command line mode when
+ * arguments are given and the GUI otherwise. Kept free of any Swing
+ * references so the command line mode never loads AWT.
+ *
+ * With the system property lrm.cds.training set the GUI classes are only
+ * loaded and the application exits, see the cds profile of the build.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public final class Launcher {
+
+    private Launcher() {
+    }
+
+    public static void main(String args[]) throws Exception {
+        if (Boolean.getBoolean("lrm.cds.training")) {
+            System.setProperty("java.awt.headless", "true");
+            MainFrame.loadClasses();
+            System.exit(0);
+        }
+        if (HeadlessRunner.isRequested(args)) {
+            System.setProperty("java.awt.headless", "true");
+            System.exit(new HeadlessRunner(System.out, System.err).run(args));
+        }
+        MainFrame.main(args);
+    }
+}
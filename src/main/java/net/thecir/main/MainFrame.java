@@ -23,66 +23,117 @@
  */
 package net.thecir.main;
 
+import net.thecir.diagnostics.EdtMonitor;
+import net.thecir.dialogs.DiagnosticsDialog;
+import net.thecir.dialogs.ScheduleDialog;
 import net.thecir.enums.Languages;
 import net.thecir.panels.MainPanel;
 import java.awt.Dimension;
 import java.awt.Image;
 import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
+import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.prefs.Preferences;
 import javax.imageio.ImageIO;
 import javax.swing.ImageIcon;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFrame;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
+import javax.swing.JTabbedPane;
+import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
 import lombok.extern.java.Log;
 import net.miginfocom.swing.MigLayout;
+import net.thecir.jobs.JobQueue;
+import net.thecir.schedule.JobScheduler;
+import net.thecir.server.JobServer;
+import net.thecir.session.Session;
 
 /**
- * The frame for the application. Main entry point is located here.
+ * The frame for the application. Main entry point is located here. Every tab
+ * of the frame is a workspace with its own session, the jobs of different
+ * workspaces run in parallel.
  *
  * @author Konstantin Tsanov <k.tsanov@gmail.com>
  */
 @Log
 public class MainFrame extends JFrame {
 
-    private MainPanel mainPanel;
+    private static final String WORKSPACE_NUMBER = "workspaceNumber";
+
+    private JTabbedPane workspaceTabs;
+    //The workspace shown, it receives the jobs of the job server
+    private volatile MainPanel selectedPanel;
+    //Shared by the sessions, so the jobs of one output never run at the same time
+    private final JobQueue jobQueue = new JobQueue();
+    //Numbers the workspaces in their titles
+    private int workspaceCount;
 
     private JMenuBar topMenuBar;
-    private JMenu fileJMenu, optionsJMenu, languageJMenu;
-    private JMenuItem exitJMenuItem;
-    private final Locale locale = getLocaleFromPreferences();
+    private JMenu fileJMenu, optionsJMenu, languageJMenu, scheduleJMenu, diagnosticsJMenu;
+    private JMenuItem newWorkspaceJMenuItem, closeWorkspaceJMenuItem, exitJMenuItem, scheduledJobsJMenuItem, jobMetricsJMenuItem;
+    private JCheckBoxMenuItem jobServerJMenuItem;
+    private Locale locale;
+    //Accepts jobs from other programs, null if not enabled
+    private JobServer jobServer;
+    //Runs the scheduled jobs in the workspace shown, null until the schedules are read
+    private JobScheduler scheduler;
 
     public MainFrame() {
+        this(getLocaleFromPreferences());
+        setIconImages(loadImages());
+    }
+
+    /**
+     * Creates the frame without icons, they are set once loaded.
+     *
+     * @param locale language of the application
+     */
+    private MainFrame(Locale locale) {
+        this.locale = locale;
+        Locale.setDefault(locale);
         setMinimumSize(new Dimension(550, 300));
         setLayout(new MigLayout("", "[grow,fill]", "[grow,fill]"));
         setTitle("Lite Report Manager");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLocationRelativeTo(null);
-        mainPanel = new MainPanel(this);
+        workspaceTabs = new JTabbedPane();
+        workspaceTabs.addChangeListener((event) -> {
+            selectedPanel = (MainPanel) workspaceTabs.getSelectedComponent();
+        });
         initMenuBar();
-        loadImages();
-        add(mainPanel);
-        setLanguage(locale);
+        add(workspaceTabs);
+        addWorkspace();
+        setComponentText();
         pack();
+        if (Preferences.userRoot().node(MainFrame.class.getName()).getBoolean("JobServer", false)) {
+            setJobServerEnabled(true);
+        }
+        CompletableFuture.runAsync(this::startScheduler);
     }
 
     private void initMenuBar() {
         topMenuBar = new JMenuBar();
         createInitFileMenu();
         createInitOptionsMenu();
+        createInitScheduleMenu();
+        createInitDiagnosticsMenu();
         setJMenuBar(topMenuBar);
     }
 
@@ -92,6 +143,22 @@ public class MainFrame extends JFrame {
     private void createInitFileMenu() {
         fileJMenu = new JMenu();
         fileJMenu.setMnemonic(KeyEvent.VK_F);
+        newWorkspaceJMenuItem = new JMenuItem();
+        newWorkspaceJMenuItem.setMnemonic(KeyEvent.VK_N);
+        newWorkspaceJMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_T, InputEvent.CTRL_DOWN_MASK));
+        newWorkspaceJMenuItem.addActionListener((ActionEvent event) -> {
+            addWorkspace();
+        });
+        fileJMenu.add(newWorkspaceJMenuItem);
+        closeWorkspaceJMenuItem = new JMenuItem();
+        closeWorkspaceJMenuItem.setMnemonic(KeyEvent.VK_C);
+        closeWorkspaceJMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_W, InputEvent.CTRL_DOWN_MASK));
+        closeWorkspaceJMenuItem.setEnabled(false);
+        closeWorkspaceJMenuItem.addActionListener((ActionEvent event) -> {
+            closeWorkspace();
+        });
+        fileJMenu.add(closeWorkspaceJMenuItem);
+        fileJMenu.addSeparator();
         exitJMenuItem = new JMenuItem();
         exitJMenuItem.setMnemonic(KeyEvent.VK_E);
         exitJMenuItem.addActionListener((ActionEvent event) -> {
@@ -101,6 +168,41 @@ public class MainFrame extends JFrame {
         topMenuBar.add(fileJMenu);
     }
 
+    /**
+     * Opens a new workspace with its own session and shows it.
+     */
+    private void addWorkspace() {
+        MainPanel panel = new MainPanel(this, new Session(jobQueue));
+        panel.putClientProperty(WORKSPACE_NUMBER, ++workspaceCount);
+        workspaceTabs.addTab(null, panel);
+        setWorkspaceTitle(workspaceTabs.getTabCount() - 1, ResourceBundle.getBundle("LanguageBundles/ComponentText"));
+        workspaceTabs.setSelectedComponent(panel);
+        closeWorkspaceJMenuItem.setEnabled(workspaceTabs.getTabCount() > 1);
+    }
+
+    /**
+     * Closes the workspace shown, unless its jobs are still running. The last
+     * workspace cannot be closed.
+     */
+    private void closeWorkspace() {
+        MainPanel panel = selectedPanel;
+        if (workspaceTabs.getTabCount() < 2) {
+            return;
+        }
+        if (panel.isBusy()) {
+            JOptionPane.showMessageDialog(this, ResourceBundle.getBundle("LanguageBundles/ErrorMessages").getString("WorkspaceBusy"));
+            return;
+        }
+        panel.close();
+        workspaceTabs.remove(panel);
+        closeWorkspaceJMenuItem.setEnabled(workspaceTabs.getTabCount() > 1);
+    }
+
+    private void setWorkspaceTitle(int index, ResourceBundle r) {
+        Object number = ((MainPanel) workspaceTabs.getComponentAt(index)).getClientProperty(WORKSPACE_NUMBER);
+        workspaceTabs.setTitleAt(index, MessageFormat.format(r.getString("MainFrame.workspaceTab"), number));
+    }
+
     /**
      * Creates and initializes the options menu and submenu.
      */
@@ -111,8 +213,8 @@ public class MainFrame extends JFrame {
         for (Languages lang : Languages.values()) {
             JMenuItem language = new JMenuItem(lang.getName());
             language.addActionListener((ActionEvent ActionEvent) -> {
-                if (!getLocaleFromPreferences().getCountry().equals(lang.getLocale().getCountry())
-                        && !getLocaleFromPreferences().getLanguage().equals(lang.getLocale().getLanguage())) {
+                if (!locale.getCountry().equals(lang.getLocale().getCountry())
+                        && !locale.getLanguage().equals(lang.getLocale().getLanguage())) {
                     setLanguage(lang.getLocale());
                     setLocaleToPreferences(lang);
                     pack();
@@ -121,17 +223,112 @@ public class MainFrame extends JFrame {
             languageJMenu.add(language);
         }
         optionsJMenu.add(languageJMenu);
+        jobServerJMenuItem = new JCheckBoxMenuItem();
+        jobServerJMenuItem.addActionListener((ActionEvent event) -> {
+            setJobServerEnabled(jobServerJMenuItem.isSelected());
+        });
+        optionsJMenu.add(jobServerJMenuItem);
         topMenuBar.add(optionsJMenu);
     }
 
+    /**
+     * Starts or stops accepting jobs from other programs on the port given by
+     * the lrm.server.port property. The choice is kept in the preferences.
+     *
+     * @param enabled true to start the server
+     */
+    private void setJobServerEnabled(boolean enabled) {
+        if (jobServer != null) {
+            jobServer.close();
+            jobServer = null;
+        }
+        if (enabled) {
+            try {
+                jobServer = new JobServer(getJobServerPort(), (job, listener, duplicatePolicy) -> {
+                    return selectedPanel.submit(job, listener, duplicatePolicy);
+                });
+                jobServer.start();
+            } catch (IOException ex) {
+                log.log(Level.WARNING, "Cannot start the job server", ex);
+                JOptionPane.showMessageDialog(this, MessageFormat.format(
+                        ResourceBundle.getBundle("LanguageBundles/ErrorMessages").getString("JobServerNotStarted"),
+                        getJobServerPort(), ex.getMessage()));
+                enabled = false;
+            }
+        }
+        jobServerJMenuItem.setSelected(enabled);
+        Preferences.userRoot().node(MainFrame.class.getName()).putBoolean("JobServer", enabled);
+    }
+
+    private static int getJobServerPort() {
+        return Integer.getInteger("lrm.server.port", JobServer.DEFAULT_PORT);
+    }
+
+    /**
+     * Creates and initializes the schedule menu. Its item is enabled once the
+     * scheduled jobs are read.
+     */
+    private void createInitScheduleMenu() {
+        scheduleJMenu = new JMenu();
+        scheduleJMenu.setMnemonic(KeyEvent.VK_S);
+        scheduledJobsJMenuItem = new JMenuItem();
+        scheduledJobsJMenuItem.setMnemonic(KeyEvent.VK_J);
+        scheduledJobsJMenuItem.setEnabled(false);
+        scheduledJobsJMenuItem.addActionListener((ActionEvent event) -> {
+            new ScheduleDialog(this, scheduler).setVisible(true);
+        });
+        scheduleJMenu.add(scheduledJobsJMenuItem);
+        topMenuBar.add(scheduleJMenu);
+    }
+
+    /**
+     * Reads the scheduled jobs and starts running them, with the runs missed
+     * while the application was closed. Called in the background. If another
+     * instance runs them, they can only be viewed.
+     */
+    private void startScheduler() {
+        try {
+            JobScheduler started = new JobScheduler(JobScheduler.defaultFile(), (job, listener, duplicatePolicy) -> {
+                return selectedPanel.submit(job, listener, duplicatePolicy);
+            });
+            if (!started.start()) {
+                log.info("The scheduled jobs are run by another instance");
+            }
+            SwingUtilities.invokeLater(() -> {
+                scheduler = started;
+                scheduledJobsJMenuItem.setEnabled(true);
+            });
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "Cannot read the scheduled jobs", ex);
+        }
+    }
+
+    /**
+     * Creates and initializes the diagnostics menu and submenu.
+     */
+    private void createInitDiagnosticsMenu() {
+        diagnosticsJMenu = new JMenu();
+        diagnosticsJMenu.setMnemonic(KeyEvent.VK_D);
+        jobMetricsJMenuItem = new JMenuItem();
+        jobMetricsJMenuItem.setMnemonic(KeyEvent.VK_J);
+        jobMetricsJMenuItem.addActionListener((ActionEvent event) -> {
+            new DiagnosticsDialog(this).setVisible(true);
+        });
+        diagnosticsJMenu.add(jobMetricsJMenuItem);
+        topMenuBar.add(diagnosticsJMenu);
+    }
+
     /**
      * Sets the language for the whole application.
      *
      * @param locale Language to be used.
      */
     private void setLanguage(Locale locale) {
+        this.locale = locale;
         Locale.setDefault(locale);
-        mainPanel.setComponentText();
+        for (int i = 0; i < workspaceTabs.getTabCount(); i++) {
+            ((MainPanel) workspaceTabs.getComponentAt(i)).setComponentText();
+        }
         setComponentText();
     }
 
@@ -141,13 +338,11 @@ public class MainFrame extends JFrame {
      *
      * @return new locale object, composed of the extracted parameters
      */
-    private Locale getLocaleFromPreferences() {
-        Preferences prefs = Preferences.userRoot().node(getClass().getName());
+    private static Locale getLocaleFromPreferences() {
+        Preferences prefs = Preferences.userRoot().node(MainFrame.class.getName());
         String language = "Language";
         String country = "Country";
-        Locale newLocale = new Locale(prefs.get(language, "en"), prefs.get(country, "US"));
-        Locale.setDefault(newLocale);
-        return newLocale;
+        return new Locale(prefs.get(language, "en"), prefs.get(country, "US"));
     }
 
     /**
@@ -157,7 +352,7 @@ public class MainFrame extends JFrame {
      * @param lang enum containing the required variables
      */
     private void setLocaleToPreferences(Languages lang) {
-        Preferences prefs = Preferences.userRoot().node(getClass().getName());
+        Preferences prefs = Preferences.userRoot().node(MainFrame.class.getName());
         String language = "Language";
         String country = "Country";
         prefs.put(language, lang.getShortLanguage());
@@ -172,12 +367,22 @@ public class MainFrame extends JFrame {
     private void setComponentText() {
         ResourceBundle r = ResourceBundle.getBundle("LanguageBundles/ComponentText");
         fileJMenu.setText(r.getString("MainFrame.optionsMenu.fileJMenu"));
+        newWorkspaceJMenuItem.setText(r.getString("MainFrame.optionsMenu.newWorkspaceJMenuItem"));
+        closeWorkspaceJMenuItem.setText(r.getString("MainFrame.optionsMenu.closeWorkspaceJMenuItem"));
+        for (int i = 0; i < workspaceTabs.getTabCount(); i++) {
+            setWorkspaceTitle(i, r);
+        }
         exitJMenuItem.setText(r.getString("MainFrame.optionsMenu.exitJMenuItem"));
         optionsJMenu.setText(r.getString("MainFrame.optionsMenu.optionsJMenu"));
         languageJMenu.setText(r.getString("MainFrame.optionsMenu.languageJMenu"));
+        jobServerJMenuItem.setText(MessageFormat.format(r.getString("MainFrame.optionsMenu.jobServerJMenuItem"), getJobServerPort()));
+        scheduleJMenu.setText(r.getString("MainFrame.scheduleMenu.scheduleJMenu"));
+        scheduledJobsJMenuItem.setText(r.getString("MainFrame.scheduleMenu.scheduledJobsJMenuItem"));
+        diagnosticsJMenu.setText(r.getString("MainFrame.diagnosticsMenu.diagnosticsJMenu"));
+        jobMetricsJMenuItem.setText(r.getString("MainFrame.diagnosticsMenu.jobMetricsJMenuItem"));
     }
 
-    private void loadImages() {
+    private static List<Image> loadImages() {
         List<Image> icons = new ArrayList<>();
         java.net.URL logo16 = ClassLoader.getSystemResource("images/logo_16x16.png");
         java.net.URL logo32 = ClassLoader.getSystemResource("images/logo_32x32.png");
@@ -196,30 +401,69 @@ public class MainFrame extends JFrame {
         } catch (IOException ex) {
             Logger.getLogger(MainFrame.class.getName()).log(Level.SEVERE, null, ex);
         }
-        this.setIconImages(icons);
+        return icons;
     }
 
     /**
-     * Entry point for the application.
-     *
-     * @param args
+     * Loads the bundles of the language, so they are cached by the time the
+     * components get their text.
      */
-    public static void main(String args[]) {
+    private static void loadBundles(Locale locale) {
+        for (String bundle : new String[]{"LanguageBundles/ComponentText", "LanguageBundles/Messages",
+            "LanguageBundles/ErrorMessages", "CoreLanguageBundles/ErrorMessages"}) {
+            ResourceBundle.getBundle(bundle, locale);
+        }
+    }
+
+    private static void installLookAndFeel() {
         try {
             UIManager.setLookAndFeel("com.seaglasslookandfeel.SeaGlassLookAndFeel");
-        } catch (ClassNotFoundException ex) {
-            Logger.getLogger(MainFrame.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (InstantiationException ex) {
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException
+                | UnsupportedLookAndFeelException ex) {
             Logger.getLogger(MainFrame.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (IllegalAccessException ex) {
-            Logger.getLogger(MainFrame.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (UnsupportedLookAndFeelException ex) {
+        } catch (LinkageError ex) {
+            //SeaGlass needs internal classes which newer JDKs no longer export
             Logger.getLogger(MainFrame.class.getName()).log(Level.SEVERE, null, ex);
         }
+    }
+
+    /**
+     * Loads the classes of a normal startup without showing anything, for
+     * the class data sharing archive of the cds build profile.
+     *
+     * @throws Exception if the panel cannot be created
+     */
+    static void loadClasses() throws Exception {
+        installLookAndFeel();
+        loadBundles(getLocaleFromPreferences());
+        SwingUtilities.invokeAndWait(() -> new MainPanel(null, new Session(new JobQueue(1))));
+    }
+
+    /**
+     * Entry point for the application. The preferences, icons and bundles are
+     * loaded in the background while the look and feel is installed, the icons
+     * are set once the window is already visible.
+     *
+     * @param args
+     */
+    public static void main(String args[]) {
+        StartupTimer.mark("main");
+        CompletableFuture<Locale> locale = CompletableFuture.supplyAsync(MainFrame::getLocaleFromPreferences);
+        CompletableFuture<Void> bundles = locale.thenAcceptAsync(MainFrame::loadBundles);
+        CompletableFuture<List<Image>> icons = CompletableFuture.supplyAsync(MainFrame::loadImages);
+        installLookAndFeel();
+        StartupTimer.mark("look and feel");
 
         /* Create and display the form */
         java.awt.EventQueue.invokeLater(() -> {
-            new MainFrame().setVisible(true);
+            MainFrame frame = new MainFrame(locale.join());
+            StartupTimer.mark("frame");
+            frame.setVisible(true);
+            StartupTimer.mark("visible");
+            //Started once shown, building the frame is not a stall
+            EdtMonitor.getInstance().start();
+            icons.thenAccept((images) -> SwingUtilities.invokeLater(() -> frame.setIconImages(images)));
+            bundles.thenRun(StartupTimer::log);
         });
     }
 }
@@ -0,0 +1,77 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.main;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import lombok.extern.java.Log;
+
+/**
+ * Records when the steps of the startup were done. The report gives every
+ * step's time since the start of the JVM.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+@Log
+public final class StartupTimer {
+
+    //Wall clock time at the end of each step, in order
+    private static final Map<String, Long> STEPS = new LinkedHashMap<>();
+
+    private StartupTimer() {
+    }
+
+    /**
+     * Records the end of a startup step.
+     *
+     * @param step name of the step
+     */
+    public static synchronized void mark(String step) {
+        STEPS.put(step, System.currentTimeMillis());
+    }
+
+    /**
+     * @return the steps with their time since the start of the JVM, e.g.
+     * "main 80 ms, look and feel 410 ms, visible 690 ms"
+     */
+    public static synchronized String getReport() {
+        long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, Long> step : STEPS.entrySet()) {
+            if (report.length() > 0) {
+                report.append(", ");
+            }
+            report.append(step.getKey()).append(' ').append(step.getValue() - jvmStart).append(" ms");
+        }
+        return report.toString();
+    }
+
+    /**
+     * Logs the report.
+     */
+    public static void log() {
+        log.info("Startup: " + getReport());
+    }
+}
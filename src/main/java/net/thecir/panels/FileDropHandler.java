@@ -0,0 +1,88 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.panels;
+
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.TransferHandler;
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Accepts Excel files dragged onto a component.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class FileDropHandler extends TransferHandler {
+
+    private final Consumer<List<File>> onDrop;
+    private final String[] extensions;
+
+    /**
+     * Constructor
+     *
+     * @param onDrop - receives the dropped files with a matching extension
+     * @param extensions - accepted file extensions
+     */
+    public FileDropHandler(Consumer<List<File>> onDrop, String... extensions) {
+        this.onDrop = onDrop;
+        this.extensions = extensions;
+    }
+
+    @Override
+    public boolean canImport(TransferSupport support) {
+        return support.isDataFlavorSupported(DataFlavor.javaFileListFlavor);
+    }
+
+    @Override
+    public boolean importData(TransferSupport support) {
+        if (!canImport(support)) {
+            return false;
+        }
+        try {
+            @SuppressWarnings("unchecked")
+            List<File> dropped = (List<File>) support.getTransferable().getTransferData(DataFlavor.javaFileListFlavor);
+            List<File> files = new ArrayList<>();
+            for (File file : dropped) {
+                if (file.isFile() && FilenameUtils.isExtension(file.getName().toLowerCase(), extensions)) {
+                    files.add(file);
+                }
+            }
+            if (files.isEmpty()) {
+                return false;
+            }
+            onDrop.accept(files);
+            return true;
+        } catch (UnsupportedFlavorException | IOException ex) {
+            Logger.getLogger(FileDropHandler.class.getName()).log(Level.SEVERE, null, ex);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.panels;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JSplitPane;
+import javax.swing.JTable;
+import javax.swing.JTextField;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.AbstractTableModel;
+import net.miginfocom.swing.MigLayout;
+import net.thecir.index.IndexQuery;
+import net.thecir.index.OutputIndex;
+
+/**
+ * Searches the products of the selected output and sums their numbers per
+ * sheet and column, using the output's index instead of the workbook. The
+ * index is built in the background the first time it is needed.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class IndexPanel extends JPanel {
+
+    private static final String[] ROW_COLUMNS = {"sheet", "row", "product", "total"};
+    private static final String[] SUM_COLUMNS = {"sheet", "column", "sum", "cells"};
+    //Matching rows listed, the sums include all of them
+    private static final int MAX_ROWS = Integer.getInteger("lrm.index.maxRows", 1000);
+    //Milliseconds the search waits for the next key stroke
+    private static final int TYPING_DELAY = 250;
+
+    private final JLabel searchLabel;
+    private final JTextField searchField;
+    private final JButton rebuildButton;
+    private final JLabel infoLabel;
+    private final ResultTableModel<IndexQuery.RowMatch> rowTableModel;
+    private final ResultTableModel<IndexQuery.ColumnSum> sumTableModel;
+    private final Timer typingTimer;
+
+    private ResourceBundle componentBundle;
+    private ResourceBundle errorBundle;
+    private File output;
+    //Incremented by every search, so only the result of the last one is shown
+    private int searches;
+    private String info;
+
+    public IndexPanel() {
+        setLayout(new MigLayout("insets 0", "[shrink 0][grow][shrink 0]", "[shrink 0][grow][shrink 0]"));
+        searchLabel = new JLabel();
+        searchField = new JTextField();
+        rebuildButton = new JButton();
+        infoLabel = new JLabel();
+        rowTableModel = new ResultTableModel<>("IndexRowTable.", ROW_COLUMNS, new Class<?>[]{String.class, Integer.class,
+            String.class, Double.class}, (row, column) -> {
+                switch (column) {
+                    case 0:
+                        return row.getSheet();
+                    case 1:
+                        return row.getRow() + 1;
+                    case 2:
+                        return row.getLabel();
+                    default:
+                        return row.getTotal();
+                }
+            });
+        sumTableModel = new ResultTableModel<>("IndexSumTable.", SUM_COLUMNS, new Class<?>[]{String.class, String.class,
+            Double.class, Integer.class}, (sum, column) -> {
+                switch (column) {
+                    case 0:
+                        return sum.getSheet();
+                    case 1:
+                        return sum.getColumn();
+                    case 2:
+                        return sum.getSum();
+                    default:
+                        return sum.getCells();
+                }
+            });
+        JTable rowTable = new JTable(rowTableModel);
+        rowTable.setFillsViewportHeight(true);
+        rowTable.setAutoCreateRowSorter(true);
+        JTable sumTable = new JTable(sumTableModel);
+        sumTable.setFillsViewportHeight(true);
+        sumTable.setAutoCreateRowSorter(true);
+        JSplitPane split = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, new JScrollPane(rowTable), new JScrollPane(sumTable));
+        split.setResizeWeight(0.6);
+
+        add(searchLabel);
+        add(searchField, "growx");
+        add(rebuildButton, "wrap");
+        add(split, "span, grow, wrap");
+        add(infoLabel, "span");
+
+        typingTimer = new Timer(TYPING_DELAY, (ae) -> search(false));
+        typingTimer.setRepeats(false);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                typingTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                typingTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                typingTimer.restart();
+            }
+        });
+        searchField.addActionListener((ae) -> search(false));
+        rebuildButton.addActionListener((ae) -> search(true));
+    }
+
+    /**
+     * Sets the texts in the current language.
+     *
+     * @param componentText bundle containing the component texts
+     * @param errors bundle containing the error messages
+     */
+    public void setComponentText(ResourceBundle componentText, ResourceBundle errors) {
+        componentBundle = componentText;
+        errorBundle = errors;
+        searchLabel.setText(componentText.getString("IndexPanel.searchLabel"));
+        rebuildButton.setText(componentText.getString("IndexPanel.rebuildButton"));
+        rebuildButton.setToolTipText(componentText.getString("IndexPanel.rebuildButton.toolTip"));
+        rowTableModel.fireTableStructureChanged();
+        sumTableModel.fireTableStructureChanged();
+        displayInfo();
+    }
+
+    /**
+     * Searches another output, the results of the previous one are cleared.
+     *
+     * @param file the selected output, null if there is none
+     */
+    public void setOutput(File file) {
+        output = file;
+        searches++;
+        rowTableModel.setRows(Collections.emptyList());
+        sumTableModel.setRows(Collections.emptyList());
+        info = null;
+        rebuildButton.setEnabled(file != null);
+        if (isShowing()) {
+            search(false);
+        } else {
+            displayInfo();
+        }
+    }
+
+    /**
+     * Repeats the search after the output has been changed, if the panel is
+     * shown. Otherwise the search is repeated once the panel is shown.
+     *
+     * @param file the changed output
+     */
+    public void outputChanged(File file) {
+        if (file.equals(output) && isShowing()) {
+            search(false);
+        }
+    }
+
+    /**
+     * Searches the output in the background, with the index brought up to
+     * date first.
+     *
+     * @param rebuild true to build the index again even if it is up to date
+     */
+    public void search(boolean rebuild) {
+        typingTimer.stop();
+        int search = ++searches;
+        if (output == null) {
+            displayInfo();
+            return;
+        }
+        File file = output;
+        String text = searchField.getText();
+        rebuildButton.setEnabled(false);
+        info = componentBundle == null ? null : MessageFormat.format(componentBundle.getString("IndexPanel.searching"), file.getName());
+        displayInfo();
+        new SwingWorker<Object[], Void>() {
+            @Override
+            protected Object[] doInBackground() throws IOException {
+                OutputIndex index = OutputIndex.forOutput(file);
+                if (rebuild) {
+                    index.rebuild();
+                } else {
+                    index.refresh();
+                }
+                return new Object[]{index.query(text, MAX_ROWS), index.getRowCount()};
+            }
+
+            @Override
+            protected void done() {
+                if (search != searches) {
+                    return;
+                }
+                rebuildButton.setEnabled(true);
+                try {
+                    Object[] result = get();
+                    IndexQuery query = (IndexQuery) result[0];
+                    rowTableModel.setRows(query.getRows());
+                    sumTableModel.setRows(query.getSums());
+                    info = MessageFormat.format(componentBundle.getString("IndexPanel.result"), query.getMatchedRows(),
+                            result[1], query.getNanos() / 1000000.0);
+                    if (query.getRows().size() < query.getMatchedRows()) {
+                        info += " " + MessageFormat.format(componentBundle.getString("IndexPanel.moreRows"), query.getRows().size());
+                    }
+                } catch (ExecutionException ex) {
+                    Logger.getLogger(IndexPanel.class.getName()).log(Level.WARNING, null, ex);
+                    rowTableModel.setRows(Collections.emptyList());
+                    sumTableModel.setRows(Collections.emptyList());
+                    info = MessageFormat.format(errorBundle.getString("CannotIndexOutput"), file.getName(), ex.getCause().getMessage());
+                } catch (InterruptedException ex) {
+                    Logger.getLogger(IndexPanel.class.getName()).log(Level.WARNING, null, ex);
+                }
+                displayInfo();
+            }
+        }.execute();
+    }
+
+    private void displayInfo() {
+        if (componentBundle == null) {
+            return;
+        }
+        infoLabel.setText(output == null ? componentBundle.getString("IndexPanel.noOutput") : info);
+    }
+
+    /**
+     * Reads a value of a result row for a column.
+     */
+    private interface ValueReader<T> {
+
+        Object read(T row, int column);
+    }
+
+    /**
+     * Lists the rows of a search result.
+     */
+    private class ResultTableModel<T> extends AbstractTableModel {
+
+        private final String keyPrefix;
+        private final String[] columns;
+        private final Class<?>[] classes;
+        private final ValueReader<T> reader;
+        private List<T> rows = Collections.emptyList();
+
+        ResultTableModel(String keyPrefix, String[] columns, Class<?>[] classes, ValueReader<T> reader) {
+            this.keyPrefix = keyPrefix;
+            this.columns = columns;
+            this.classes = classes;
+            this.reader = reader;
+        }
+
+        void setRows(List<T> rows) {
+            this.rows = rows;
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return columns.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return componentBundle == null ? columns[column] : componentBundle.getString(keyPrefix + columns[column]);
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return classes[column];
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int column) {
+            return reader.read(rows.get(rowIndex), column);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.panels;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ResourceBundle;
+import javax.swing.table.AbstractTableModel;
+import net.thecir.enums.JobStatus;
+import net.thecir.jobs.ReportJob;
+import net.thecir.jobs.ReportTask;
+
+/**
+ * Table model listing the queued, running and finished report jobs.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class JobTableModel extends AbstractTableModel {
+
+    private static final String[] COLUMN_KEYS = {"JobTable.input", "JobTable.output", "JobTable.retailer",
+        "JobTable.subtract", "JobTable.status"};
+
+    private final List<ReportTask> tasks = new ArrayList<>();
+    private final String[] columnNames = new String[COLUMN_KEYS.length];
+    private ResourceBundle messagesBundle;
+
+    /**
+     * Sets the column names and status texts in the current language.
+     *
+     * @param componentText bundle containing the column names
+     * @param messages bundle containing the status texts
+     */
+    public void setComponentText(ResourceBundle componentText, ResourceBundle messages) {
+        for (int i = 0; i < COLUMN_KEYS.length; i++) {
+            columnNames[i] = componentText.getString(COLUMN_KEYS[i]);
+        }
+        messagesBundle = messages;
+        fireTableStructureChanged();
+    }
+
+    public void add(ReportTask task) {
+        tasks.add(task);
+        fireTableRowsInserted(tasks.size() - 1, tasks.size() - 1);
+    }
+
+    /**
+     * Repaints the row of a job whose state has changed.
+     *
+     * @param job the changed job
+     */
+    public void jobChanged(ReportJob job) {
+        for (int i = 0; i < tasks.size(); i++) {
+            if (tasks.get(i).getJob() == job) {
+                fireTableRowsUpdated(i, i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes all jobs which are no longer queued or running.
+     */
+    public void removeFinished() {
+        Iterator<ReportTask> iterator = tasks.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getStatus().isFinal()) {
+                iterator.remove();
+            }
+        }
+        fireTableDataChanged();
+    }
+
+    @Override
+    public int getRowCount() {
+        return tasks.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_KEYS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == 3 ? Boolean.class : String.class;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        ReportTask task = tasks.get(row);
+        ReportJob job = task.getJob();
+        switch (column) {
+            case 0:
+                return job.getInput().getName();
+            case 1:
+                return job.getOutput().getName();
+            case 2:
+                return job.getStore().toString();
+            case 3:
+                return job.isSubtract();
+            default:
+                if (task.getStatus() == JobStatus.Running && task.getPhase() != null) {
+                    return messagesBundle.getString(task.getPhase().getMessageKey());
+                }
+                return messagesBundle.getString("JobStatus." + task.getStatus());
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.panels;
+
+import java.awt.Component;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import javax.swing.DefaultComboBoxModel;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollBar;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.RowFilter;
+import javax.swing.SwingUtilities;
+import javax.swing.table.TableRowSorter;
+import net.miginfocom.swing.MigLayout;
+import net.thecir.enums.Severity;
+import net.thecir.jobs.ReportJob;
+import net.thecir.status.StatusEvent;
+
+/**
+ * Shows the latest status messages, which can be filtered by their severity
+ * and by the job they are about. Follows the newest message as long as the
+ * view is scrolled to the end.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class LogPanel extends JPanel {
+
+    private final JLabel severityLabel;
+    private final JComboBox<Severity> severityComboBox;
+    private final JLabel jobLabel;
+    private final JComboBox<ReportJob> jobComboBox;
+    private final DefaultComboBoxModel<ReportJob> jobComboBoxModel;
+    private final JButton clearButton;
+    private final JTable logTable;
+    private final JScrollPane logScrollPane;
+    private final LogTableModel logTableModel;
+    private final TableRowSorter<LogTableModel> sorter;
+    //Number of the kept messages about each job offered in the filter
+    private final Map<ReportJob, Integer> jobMessages = new IdentityHashMap<>();
+
+    private ResourceBundle componentBundle;
+
+    /**
+     * @param capacity the number of messages kept
+     */
+    public LogPanel(int capacity) {
+        setLayout(new MigLayout("insets 0", "[shrink 0][shrink 0][shrink 0][grow][shrink 0]", "[shrink 0][grow]"));
+        severityLabel = new JLabel();
+        severityComboBox = new JComboBox<>(Severity.values());
+        severityComboBox.setRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+                if (componentBundle != null) {
+                    setText(componentBundle.getString("LogPanel.severity." + value));
+                }
+                return this;
+            }
+        });
+        jobLabel = new JLabel();
+        jobComboBoxModel = new DefaultComboBoxModel<>();
+        jobComboBoxModel.addElement(null);
+        jobComboBox = new JComboBox<>(jobComboBoxModel);
+        jobComboBox.setRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+                if (value instanceof ReportJob) {
+                    setText(((ReportJob) value).getInput().getName());
+                    setToolTipText(((ReportJob) value).getInput().getPath());
+                } else if (componentBundle != null) {
+                    setText(componentBundle.getString("LogPanel.allJobs"));
+                    setToolTipText(null);
+                }
+                return this;
+            }
+        });
+        clearButton = new JButton();
+        logTableModel = new LogTableModel(capacity);
+        logTable = new JTable(logTableModel);
+        logTable.setFillsViewportHeight(true);
+        sorter = new TableRowSorter<>(logTableModel);
+        //Always in the order the messages were published
+        sorter.setSortKeys(null);
+        for (int i = 0; i < logTableModel.getColumnCount(); i++) {
+            sorter.setSortable(i, false);
+        }
+        logTable.setRowSorter(sorter);
+        logScrollPane = new JScrollPane(logTable);
+
+        add(severityLabel);
+        add(severityComboBox);
+        add(jobLabel);
+        add(jobComboBox, "wmin 150");
+        add(clearButton, "wrap");
+        add(logScrollPane, "span, grow");
+
+        severityComboBox.addActionListener((ae) -> updateFilter());
+        jobComboBox.addActionListener((ae) -> updateFilter());
+        clearButton.addActionListener((ae) -> {
+            logTableModel.clear();
+            jobMessages.clear();
+            jobComboBoxModel.removeAllElements();
+            jobComboBoxModel.addElement(null);
+        });
+    }
+
+    /**
+     * Sets the texts in the current language.
+     *
+     * @param componentText bundle containing the component texts
+     */
+    public void setComponentText(ResourceBundle componentText) {
+        componentBundle = componentText;
+        severityLabel.setText(componentText.getString("LogPanel.severityLabel"));
+        jobLabel.setText(componentText.getString("LogPanel.jobLabel"));
+        clearButton.setText(componentText.getString("LogPanel.clearButton"));
+        logTableModel.setComponentText(componentText);
+        for (int i = 0; i < logTableModel.getColumnCount(); i++) {
+            sorter.setSortable(i, false);
+        }
+        severityComboBox.repaint();
+        jobComboBox.repaint();
+    }
+
+    /**
+     * Appends messages to the log. Called on the event dispatch thread.
+     *
+     * @param events the messages in the order they were published
+     */
+    public void append(List<StatusEvent> events) {
+        JScrollBar scrollBar = logScrollPane.getVerticalScrollBar();
+        boolean atEnd = scrollBar.getValue() + scrollBar.getVisibleAmount() >= scrollBar.getMaximum();
+        for (StatusEvent event : events) {
+            if (event.getJob() != null && jobMessages.merge(event.getJob(), 1, Integer::sum) == 1) {
+                jobComboBoxModel.addElement(event.getJob());
+            }
+        }
+        for (StatusEvent event : logTableModel.addAll(events)) {
+            ReportJob job = event.getJob();
+            if (job != null && jobMessages.merge(job, -1, Integer::sum) == 0) {
+                jobMessages.remove(job);
+                if (jobComboBox.getSelectedItem() != job) {
+                    jobComboBoxModel.removeElement(job);
+                }
+            }
+        }
+        if (atEnd) {
+            //Once the table has been resized for the new rows
+            SwingUtilities.invokeLater(() -> {
+                if (logTable.getRowCount() > 0) {
+                    logTable.scrollRectToVisible(logTable.getCellRect(logTable.getRowCount() - 1, 0, true));
+                }
+            });
+        }
+    }
+
+    private void updateFilter() {
+        Severity least = (Severity) severityComboBox.getSelectedItem();
+        Object job = jobComboBox.getSelectedItem();
+        sorter.setRowFilter(new RowFilter<LogTableModel, Integer>() {
+            @Override
+            public boolean include(RowFilter.Entry<? extends LogTableModel, ? extends Integer> entry) {
+                StatusEvent event = entry.getModel().getEvent(entry.getIdentifier());
+                return event.getSeverity().compareTo(least) >= 0 && (job == null || event.getJob() == job);
+            }
+        });
+    }
+}
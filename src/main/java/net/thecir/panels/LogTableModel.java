@@ -0,0 +1,149 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.panels;
+
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.FormatStyle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ResourceBundle;
+import javax.swing.table.AbstractTableModel;
+import net.thecir.status.StatusEvent;
+
+/**
+ * Table model of the latest status messages. The messages are kept in a ring
+ * buffer, the oldest are dropped once it is full.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class LogTableModel extends AbstractTableModel {
+
+    private static final String[] COLUMN_KEYS = {"LogTable.time", "LogTable.severity", "LogTable.input",
+        "LogTable.message"};
+
+    private final StatusEvent[] events;
+    //Index of the oldest message in the buffer
+    private int first;
+    private int size;
+    private final String[] columnNames = new String[COLUMN_KEYS.length];
+    private ResourceBundle componentBundle;
+    private DateTimeFormatter timeFormat;
+
+    /**
+     * @param capacity the number of messages kept
+     */
+    public LogTableModel(int capacity) {
+        events = new StatusEvent[capacity];
+    }
+
+    /**
+     * Sets the column names and severity texts in the current language.
+     *
+     * @param componentText bundle containing the texts
+     */
+    public void setComponentText(ResourceBundle componentText) {
+        for (int i = 0; i < COLUMN_KEYS.length; i++) {
+            columnNames[i] = componentText.getString(COLUMN_KEYS[i]);
+        }
+        componentBundle = componentText;
+        timeFormat = DateTimeFormatter.ofLocalizedTime(FormatStyle.MEDIUM).withZone(ZoneId.systemDefault());
+        fireTableStructureChanged();
+    }
+
+    /**
+     * Appends messages, dropping the oldest ones which no longer fit.
+     *
+     * @param added the messages in the order they were published
+     * @return the dropped messages, including those added but not kept
+     */
+    public List<StatusEvent> addAll(List<StatusEvent> added) {
+        List<StatusEvent> dropped = new ArrayList<>(added.subList(0, Math.max(0, added.size() - events.length)));
+        List<StatusEvent> kept = added.subList(dropped.size(), added.size());
+        int removed = Math.min(size, size + kept.size() - events.length);
+        if (removed > 0) {
+            for (int i = 0; i < removed; i++) {
+                dropped.add(events[(first + i) % events.length]);
+                events[(first + i) % events.length] = null;
+            }
+            first = (first + removed) % events.length;
+            size -= removed;
+            fireTableRowsDeleted(0, removed - 1);
+        }
+        if (!kept.isEmpty()) {
+            for (StatusEvent event : kept) {
+                events[(first + size) % events.length] = event;
+                size++;
+            }
+            fireTableRowsInserted(size - kept.size(), size - 1);
+        }
+        return dropped;
+    }
+
+    public void clear() {
+        Arrays.fill(events, null);
+        first = 0;
+        size = 0;
+        fireTableDataChanged();
+    }
+
+    /**
+     * @param row index of a row
+     * @return the message shown in the row
+     */
+    public StatusEvent getEvent(int row) {
+        return events[(first + row) % events.length];
+    }
+
+    @Override
+    public int getRowCount() {
+        return size;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_KEYS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        StatusEvent event = getEvent(row);
+        switch (column) {
+            case 0:
+                return timeFormat.format(event.getTime());
+            case 1:
+                return componentBundle.getString("Severity." + event.getSeverity());
+            case 2:
+                return event.getJob() == null ? null : event.getJob().getInput().getName();
+            default:
+                return event.getMessage();
+        }
+    }
+}
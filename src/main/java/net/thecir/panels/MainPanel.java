@@ -23,25 +23,85 @@
  */
 package net.thecir.panels;
 
-import java.util.Locale;
+import java.awt.event.ActionEvent;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.AbstractAction;
 import javax.swing.ButtonGroup;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
-import javax.swing.JFileChooser;
-import static javax.swing.JFileChooser.FILES_ONLY;
+import javax.swing.JComponent;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JPopupMenu;
+import javax.swing.JProgressBar;
 import javax.swing.JRadioButton;
+import javax.swing.JScrollPane;
+import javax.swing.JTabbedPane;
+import javax.swing.JTable;
 import javax.swing.JTextField;
-import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.JToggleButton;
+import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 import net.miginfocom.swing.MigLayout;
-import net.thecir.core.LiteReportManager;
+import net.thecir.consolidation.ConsolidatedReport;
+import net.thecir.detection.StoreDetection;
+import net.thecir.detection.StoreDetector;
+import net.thecir.dialogs.DryRunDialog;
+import net.thecir.diagnostics.MetricsRecorder;
+import net.thecir.diagnostics.ThroughputModel;
+import net.thecir.enums.BrowseMode;
+import net.thecir.enums.JobPhase;
+import net.thecir.enums.JobStatus;
+import net.thecir.enums.LedgerConflict;
+import net.thecir.enums.Severity;
 import net.thecir.enums.Stores;
 import net.thecir.filechoosers.CreateNewFileChooser;
-import net.thecir.filemanagers.NewFileManager;
+import net.thecir.filechoosers.FileBrowser;
+import net.thecir.filechoosers.RecentFiles;
+import net.thecir.jobs.CompositeJobListener;
+import net.thecir.jobs.DryRun;
+import net.thecir.jobs.DuplicatePolicy;
+import net.thecir.jobs.EdtJobListener;
+import net.thecir.jobs.JobListener;
+import net.thecir.jobs.ReportJob;
+import net.thecir.jobs.ReportTask;
+import net.thecir.journal.JournalEntry;
+import net.thecir.journal.OutputChangedException;
+import net.thecir.journal.OutputJournal;
+import net.thecir.server.JobSubmitter;
+import net.thecir.session.Session;
+import net.thecir.status.StatusBus;
+import net.thecir.status.StatusEvent;
+import net.thecir.status.StatusField;
+import net.thecir.watch.FolderWatcher;
+import net.thecir.watch.StoreResolver;
 
 /**
  *
@@ -66,53 +126,93 @@ public class MainPanel extends JPanel {
     private ButtonGroup retailersButtonGroup;
 
     private JButton generateReport;
+    //Sums the inputs of different retailers into a new report
+    private JButton consolidateButton;
+    private JButton clearJobsButton;
+    private JToggleButton watchFolderToggle;
+    //Revert and reapply the last merge into the output
+    private JButton undoButton;
+    private JButton redoButton;
+
+    private JTable jobTable;
+    private JobTableModel jobTableModel;
+    //Switches between the jobs and the preview of the input files
+    private JTabbedPane tabbedPane;
+    private PreviewPanel previewPanel;
+    private LogPanel logPanel;
+    private IndexPanel indexPanel;
 
     //If the data from the input file must be subtracted from the output file rather than added to it
     private JCheckBox subtractCheckBox;
+    //If the report must be generated in a separate process, sized for big files
+    private JCheckBox largeFileCheckBox;
+    //If only the rows changed since the retailer's previous export must be applied
+    private JCheckBox incrementalCheckBox;
+    //If the jobs must only show what they would change, without changing the output
+    private JCheckBox dryRunCheckBox;
 
     private JLabel statusLabel;
     private JTextField statusBar;
+    //Handed to the core instead of the status bar, its texts go through the status bus
+    private JTextField statusField;
+    private JProgressBar progressBar;
+    //Time left of the current batch, as predicted from the earlier runs
+    private JLabel etaLabel;
+    private Timer etaTimer;
+    private JButton cancelButton;
+
+    //Delivers the status messages of the core and the jobs to the status bar and the log
+    private final StatusBus statusBus = new StatusBus();
+    //The engine and the queue of the workspace
+    private final Session session;
+    //Jobs of the current batch, emptied once all of them have finished
+    private final List<ReportTask> activeTasks = new ArrayList<>();
+    private boolean creatingNewFile;
+    //If a consolidated report is being written
+    private boolean consolidating;
+    //If jobs are being tried without changing their output
+    private boolean dryRunning;
+    //Feeds new files of the watched folder into the queue, null if not watching
+    private FolderWatcher folderWatcher;
+    //If a merge is being undone or redone
+    private boolean patchingOutput;
+    //Counts the journal lookups, so a late lookup for an earlier output is ignored
+    private int journalLookups;
 
     private final JFrame parent;
 
-    private final JFileChooser inputFileChooser;
-    private final JFileChooser outputFileChooser;
+    //The file browsers are created on first use
+    private FileBrowser inputBrowser;
+    private FileBrowser outputBrowser;
+    private FileBrowser folderBrowser;
+    private FileBrowser consolidatedBrowser;
     private volatile CreateNewFileChooser createNewFileChooser;
+    private final RecentFiles recentInputs = new RecentFiles("input");
+    private final RecentFiles recentOutputs = new RecentFiles("output");
+
+    private final List<File> inputFiles = new ArrayList<>();
+    private File outputFile;
+    //Counts the selections of inputs, so a late detection for earlier inputs is ignored
+    private int storeDetections;
 
+    private ResourceBundle componentBundle;
     private ResourceBundle errorBundle;
     private ResourceBundle messagesBundle;
     private ResourceBundle backEndErrorBundle;
 
-    public MainPanel(JFrame parent) {
-        MigLayout layout = new MigLayout("", "[shrink 0][grow][shrink 0][shrink 0]", "[shrink 0][shrink 0][shrink 0][shrink 0][shrink 0]");
+    /**
+     * Creates the panel of a workspace.
+     *
+     * @param parent - the window of the panel
+     * @param session - runs the workspace's jobs
+     */
+    public MainPanel(JFrame parent, Session session) {
+        MigLayout layout = new MigLayout("", "[shrink 0][grow][shrink 0][shrink 0]", "[shrink 0][shrink 0][shrink 0][shrink 0][shrink 0][grow][shrink 0]");
         setLayout(layout);
         this.parent = parent;
-        errorBundle = ResourceBundle.getBundle("LanguageBundles/ErrorMessages");
-        messagesBundle = ResourceBundle.getBundle("LanguageBundles/Messages");
-        backEndErrorBundle = ResourceBundle.getBundle("CoreLanguageBundles/ErrorMessages");
-        inputFileChooser = new JFileChooser() {
-            @Override
-            public void approveSelection() {
-                super.approveSelection();
-                inputFilePath.setText(getSelectedFile().toString());
-            }
-        };
-        outputFileChooser = new JFileChooser() {
-            @Override
-            public void approveSelection() {
-                super.approveSelection();
-                outputFilePath.setText(getSelectedFile().toString());
-            }
-        };
-        FileNameExtensionFilter filter = new FileNameExtensionFilter("Excel Workbook (*.xls|*.xlsx)", "xlsx", "xls");
-        inputFileChooser.setFileSelectionMode(FILES_ONLY);
-        inputFileChooser.setAcceptAllFileFilterUsed(false);
-        inputFileChooser.setFileFilter(filter);
-        outputFileChooser.setFileSelectionMode(FILES_ONLY);
-        outputFileChooser.setAcceptAllFileFilterUsed(false);
-        outputFileChooser.setFileFilter(filter);
+        this.session = session;
         initComponents();
-        createNewFileChooser = new CreateNewFileChooser(parent, outputFilePath, outputFileChooser, "xlsx");
+        session.bind(parent, statusField);
         addComponents();
         setComponentText();
         attachListeners();
@@ -144,12 +244,39 @@ public class MainPanel extends JPanel {
         retailersButtonGroup.add(technopolisJButton);
 
         generateReport = new JButton();
+        consolidateButton = new JButton();
         subtractCheckBox = new JCheckBox();
+        largeFileCheckBox = new JCheckBox();
+        incrementalCheckBox = new JCheckBox();
+        dryRunCheckBox = new JCheckBox();
+        clearJobsButton = new JButton();
+        watchFolderToggle = new JToggleButton();
+        undoButton = new JButton();
+        undoButton.setEnabled(false);
+        redoButton = new JButton();
+        redoButton.setEnabled(false);
+
+        jobTableModel = new JobTableModel();
+        jobTable = new JTable(jobTableModel);
+        jobTable.setFillsViewportHeight(true);
+        previewPanel = new PreviewPanel();
+        logPanel = new LogPanel(StatusBus.getCapacity());
+        indexPanel = new IndexPanel();
+        tabbedPane = new JTabbedPane();
 
         statusLabel = new JLabel();
         statusBar = new JTextField();
         statusBar.setEditable(false);
         statusBar.setOpaque(true);
+        statusField = new StatusField(statusBus);
+        statusBus.addListener(this::showStatus);
+        progressBar = new JProgressBar(0, 100);
+        progressBar.setStringPainted(true);
+        progressBar.setString("");
+        etaLabel = new JLabel();
+        etaTimer = new Timer(1000, (ae) -> updateEta());
+        cancelButton = new JButton();
+        cancelButton.setEnabled(false);
     }
 
     private void addComponents() {
@@ -164,18 +291,42 @@ public class MainPanel extends JPanel {
         add(createNewFileButton, "growx, wrap");
         add(technopolisJButton, "growx");
         add(technomarketJButton, "growx, wrap");
-        add(generateReport, "span, center, split 2");
-        add(subtractCheckBox, "wrap");
+        add(generateReport, "span, center, split 10");
+        add(consolidateButton);
+        add(subtractCheckBox);
+        add(largeFileCheckBox);
+        add(incrementalCheckBox);
+        add(dryRunCheckBox);
+        add(clearJobsButton);
+        add(watchFolderToggle);
+        add(undoButton);
+        add(redoButton, "wrap");
+        tabbedPane.addTab(null, new JScrollPane(jobTable));
+        tabbedPane.addTab(null, previewPanel);
+        tabbedPane.addTab(null, logPanel);
+        tabbedPane.addTab(null, indexPanel);
+        add(tabbedPane, "span, grow, hmin 80, wrap");
         add(statusLabel);
-        add(statusBar, "span, growx");
+        add(statusBar, "growx");
+        add(progressBar, "growx, split 2");
+        add(etaLabel);
+        add(cancelButton, "growx");
     }
 
     public void setComponentText() {
-        createNewFileChooser.setLocale(Locale.getDefault());
+        for (FileBrowser browser : new FileBrowser[]{inputBrowser, outputBrowser, folderBrowser, consolidatedBrowser}) {
+            if (browser != null) {
+                browser.setComponentText();
+            }
+        }
+        if (createNewFileChooser != null) {
+            createNewFileChooser.setComponentText();
+        }
         messagesBundle = ResourceBundle.getBundle("LanguageBundles/Messages");
         errorBundle = ResourceBundle.getBundle("LanguageBundles/ErrorMessages");
         backEndErrorBundle = ResourceBundle.getBundle("CoreLanguageBundles/ErrorMessages");
-        ResourceBundle r = ResourceBundle.getBundle("LanguageBundles/ComponentText");
+        componentBundle = ResourceBundle.getBundle("LanguageBundles/ComponentText");
+        ResourceBundle r = componentBundle;
         inputFileLabel.setText(r.getString("MainPanel.srcFileLabel"));
         clearInputFileButton.setText(r.getString("MainPanel.clearButton"));
         outputFileLabel.setText(r.getString("MainPanel.destFileLabel"));
@@ -184,46 +335,827 @@ public class MainPanel extends JPanel {
         technopolisJButton.setText(r.getString("MainPanel.technopolisJButton"));
         technomarketJButton.setText(r.getString("MainPanel.technomarketJButton"));
         generateReport.setText(r.getString("MainPanel.generateReport"));
+        consolidateButton.setText(r.getString("MainPanel.consolidateButton"));
+        consolidateButton.setToolTipText(r.getString("MainPanel.consolidateButton.toolTip"));
         subtractCheckBox.setText(r.getString("MainPanel.subtractCheckBox"));
+        largeFileCheckBox.setText(r.getString("MainPanel.largeFileCheckBox"));
+        largeFileCheckBox.setToolTipText(r.getString("MainPanel.largeFileCheckBox.toolTip"));
+        incrementalCheckBox.setText(r.getString("MainPanel.incrementalCheckBox"));
+        incrementalCheckBox.setToolTipText(r.getString("MainPanel.incrementalCheckBox.toolTip"));
+        dryRunCheckBox.setText(r.getString("MainPanel.dryRunCheckBox"));
+        dryRunCheckBox.setToolTipText(r.getString("MainPanel.dryRunCheckBox.toolTip"));
         statusLabel.setText(r.getString("MainPanel.statusLabel"));
+        cancelButton.setText(r.getString("MainPanel.cancelButton"));
+        clearJobsButton.setText(r.getString("MainPanel.clearJobsButton"));
+        watchFolderToggle.setText(r.getString("MainPanel.watchFolderToggle"));
+        undoButton.setText(r.getString("MainPanel.undoButton"));
+        redoButton.setText(r.getString("MainPanel.redoButton"));
+        updateUndoComponents();
+        jobTableModel.setComponentText(r, messagesBundle);
+        tabbedPane.setTitleAt(0, r.getString("MainPanel.jobsTab"));
+        tabbedPane.setTitleAt(1, r.getString("MainPanel.previewTab"));
+        tabbedPane.setTitleAt(2, r.getString("MainPanel.logTab"));
+        tabbedPane.setTitleAt(3, r.getString("MainPanel.indexTab"));
+        previewPanel.setComponentText(r, errorBundle);
+        logPanel.setComponentText(r);
+        indexPanel.setComponentText(r, errorBundle);
+        displayInputFiles();
+    }
+
+    /**
+     * @return the selected input files, empty if there are none
+     */
+    private File[] getInputFiles() {
+        return inputFiles.toArray(new File[inputFiles.size()]);
+    }
+
+    private void setInputFiles(List<File> files) {
+        inputFiles.clear();
+        inputFiles.addAll(files);
+        displayInputFiles();
+        previewPanel.setFiles(files);
+        if (!files.isEmpty()) {
+            tabbedPane.setSelectedComponent(previewPanel);
+            detectStore(files);
+        }
+    }
+
+    private void setOutputFile(File file) {
+        outputFile = file;
+        outputFilePath.setText(file == null ? null : file.toString());
+        indexPanel.setOutput(file);
+        updateUndoComponents();
+    }
+
+    private FileBrowser getInputBrowser() {
+        if (inputBrowser == null) {
+            inputBrowser = new FileBrowser(parent, BrowseMode.OpenMultiple, "xlsx", "xls");
+        }
+        return inputBrowser;
+    }
+
+    private FileBrowser getOutputBrowser() {
+        if (outputBrowser == null) {
+            outputBrowser = new FileBrowser(parent, BrowseMode.Open, "xlsx", "xls");
+        }
+        return outputBrowser;
+    }
+
+    private CreateNewFileChooser getCreateNewFileChooser() {
+        if (createNewFileChooser == null) {
+            createNewFileChooser = new CreateNewFileChooser(parent, outputFilePath, this::setOutputFile, recentOutputs, "xlsx");
+        }
+        return createNewFileChooser;
+    }
+
+    /**
+     * Offers the recently used files of the selected retailer in a menu below
+     * the button, so they are picked without listing any folder. The browser
+     * is opened right away if there are none.
+     *
+     * @param button the button the menu is shown below
+     * @param recent the recently used files
+     * @param browser creates the browser
+     * @param setter receives the picked files
+     */
+    private void chooseFiles(JButton button, RecentFiles recent, Supplier<FileBrowser> browser, Consumer<List<File>> setter) {
+        List<File> files = recent.get(getSelectedStore());
+        if (files.isEmpty()) {
+            browse(recent, browser.get(), setter);
+            return;
+        }
+        JPopupMenu menu = new JPopupMenu();
+        for (File file : files) {
+            JMenuItem item = new JMenuItem(file.getName());
+            item.setToolTipText(file.getPath());
+            item.addActionListener((ae) -> {
+                if (file.isFile()) {
+                    setter.accept(Collections.singletonList(file));
+                } else {
+                    recent.remove(file);
+                    publishStatus(Severity.Warning, MessageFormat.format(errorBundle.getString("RecentFileMissing"), file));
+                }
+            });
+            menu.add(item);
+        }
+        menu.addSeparator();
+        JMenuItem browseItem = new JMenuItem(componentBundle.getString("MainPanel.browseMenuItem"));
+        browseItem.addActionListener((ae) -> browse(recent, browser.get(), setter));
+        menu.add(browseItem);
+        menu.show(button, 0, button.getHeight());
+    }
+
+    private void browse(RecentFiles recent, FileBrowser browser, Consumer<List<File>> setter) {
+        List<File> files = browser.browse(recent.getDirectory());
+        if (browser.getDirectory() != null) {
+            recent.setDirectory(browser.getDirectory());
+        }
+        if (!files.isEmpty()) {
+            setter.accept(files);
+        }
+    }
+
+    private void displayInputFiles() {
+        File[] files = getInputFiles();
+        if (files.length == 0) {
+            inputFilePath.setText(null);
+        } else if (files.length == 1) {
+            inputFilePath.setText(files[0].toString());
+        } else {
+            inputFilePath.setText(MessageFormat.format(messagesBundle.getString("FilesSelected"), files.length));
+        }
+    }
+
+    /**
+     * @return the selected retailer, null if none is selected
+     */
+    private Stores getSelectedStore() {
+        if (retailersButtonGroup.getSelection() == null) {
+            return null;
+        }
+        return technomarketJButton.isSelected() ? Stores.Technomarket : Stores.Technopolis;
+    }
+
+    private void setSelectedStore(Stores store) {
+        (store == Stores.Technomarket ? technomarketJButton : technopolisJButton).setSelected(true);
+    }
+
+    /**
+     * Recognises the retailer of the inputs by their headers in the background
+     * and selects it, if all inputs are recognised as the same retailer.
+     *
+     * @param files the selected inputs
+     */
+    private void detectStore(List<File> files) {
+        int detection = ++storeDetections;
+        List<File> inputs = new ArrayList<>(files);
+        new SwingWorker<StoreDetection, Void>() {
+            @Override
+            protected StoreDetection doInBackground() throws IOException {
+                StoreDetection least = null;
+                for (File input : inputs) {
+                    StoreDetection each = StoreDetector.getInstance().detect(input);
+                    if (!each.isConfident() || least != null && least.getStore() != each.getStore()) {
+                        return null;
+                    }
+                    if (least == null || each.getConfidence() < least.getConfidence()) {
+                        least = each;
+                    }
+                }
+                return least;
+            }
+
+            @Override
+            protected void done() {
+                if (detection != storeDetections) {
+                    return;
+                }
+                StoreDetection result = null;
+                try {
+                    result = get();
+                } catch (InterruptedException | ExecutionException ex) {
+                    Logger.getLogger(MainPanel.class.getName()).log(Level.WARNING, null, ex);
+                }
+                if (result == null) {
+                    publishStatus(Severity.Warning, messagesBundle.getString("StoreNotDetected"));
+                } else {
+                    setSelectedStore(result.getStore());
+                    publishStatus(Severity.Info, MessageFormat.format(messagesBundle.getString("StoreDetected"), result.getStore(),
+                            result.getConfidence()));
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Adds a job to the table and the queue.
+     *
+     * @param job the job to be run
+     */
+    private void enqueue(ReportJob job) {
+        enqueue(job, new CompositeJobListener(), this::confirmLedgerConflict);
+    }
+
+    private ReportTask enqueue(ReportJob job, JobListener listener, DuplicatePolicy duplicatePolicy) {
+        ReportTask task = new ReportTask(job, new CompositeJobListener(MetricsRecorder.getInstance(),
+                ThroughputModel.getInstance(), StoreDetector.getInstance(), statusBus, reportListener, listener),
+                duplicatePolicy, session.getEngine());
+        activeTasks.add(task);
+        jobTableModel.add(task);
+        session.getJobQueue().submit(task);
+        updateJobComponents();
+        updateProgress();
+        return task;
+    }
+
+    /**
+     * Adds a job submitted by another program to the table and the queue, see
+     * {@link JobSubmitter}. Called on a thread of the job server.
+     *
+     * @param job the job to be run
+     * @param listener notified about the job
+     * @param duplicatePolicy decides about inputs conflicting with the
+     * output's ledger
+     * @return the queued task
+     * @throws InterruptedException if the thread was interrupted while waiting
+     * for the event dispatch thread
+     */
+    public ReportTask submit(ReportJob job, JobListener listener, DuplicatePolicy duplicatePolicy) throws InterruptedException {
+        AtomicReference<ReportTask> task = new AtomicReference<>();
+        try {
+            SwingUtilities.invokeAndWait(() -> task.set(enqueue(job, listener, duplicatePolicy)));
+        } catch (InvocationTargetException ex) {
+            throw new IllegalStateException(ex.getCause());
+        }
+        return task.get();
+    }
+
+    /**
+     * Tries the jobs one after another without changing their output, see
+     * {@link DryRun}, and shows what they would change.
+     *
+     * @param jobs the jobs to be tried
+     */
+    private void dryRun(List<ReportJob> jobs) {
+        dryRunning = true;
+        updateJobComponents();
+        publishStatus(Severity.Info, messagesBundle.getString("DryRunning"));
+        new SwingWorker<List<DryRun>, Void>() {
+            @Override
+            protected List<DryRun> doInBackground() throws IOException, InterruptedException {
+                List<DryRun> results = new ArrayList<>();
+                for (ReportJob job : jobs) {
+                    results.add(DryRun.run(job, session.getEngine()));
+                }
+                return results;
+            }
+
+            @Override
+            protected void done() {
+                dryRunning = false;
+                updateJobComponents();
+                try {
+                    List<DryRun> results = get();
+                    publishStatus(Severity.Info, MessageFormat.format(messagesBundle.getString("DryRunDone"), results.size()));
+                    new DryRunDialog(parent, results).setVisible(true);
+                } catch (InterruptedException ex) {
+                    Logger.getLogger(MainPanel.class.getName()).log(Level.SEVERE, null, ex);
+                } catch (ExecutionException ex) {
+                    String message = MessageFormat.format(errorBundle.getString("DryRunFailed"), ex.getCause().getMessage());
+                    Logger.getLogger(MainPanel.class.getName()).log(Level.WARNING, message, ex.getCause());
+                    publishStatus(Severity.Error, message);
+                    JOptionPane.showMessageDialog(parent, message);
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Sums the selected inputs into a new consolidated report, see
+     * {@link ConsolidatedReport}. The retailer of each input is recognised by
+     * its header, each retailer may have only one input.
+     */
+    private void consolidate() {
+        List<File> inputs = new ArrayList<>(inputFiles);
+        if (inputs.size() < 2) {
+            JOptionPane.showMessageDialog(parent, errorBundle.getString("ConsolidateInputsRequired"));
+            return;
+        }
+        File output = chooseConsolidatedFile();
+        if (output == null) {
+            return;
+        }
+        ResourceBundle errors = errorBundle;
+        long start = System.nanoTime();
+        consolidating = true;
+        updateJobComponents();
+        publishStatus(Severity.Info, messagesBundle.getString("Consolidating"));
+        new SwingWorker<ConsolidatedReport, Void>() {
+            @Override
+            protected ConsolidatedReport doInBackground() throws IOException {
+                Map<Stores, File> stores = new EnumMap<>(Stores.class);
+                for (File input : inputs) {
+                    StoreDetection detection = StoreDetector.getInstance().detect(input);
+                    if (!detection.isConfident() || stores.put(detection.getStore(), input) != null) {
+                        throw new IllegalArgumentException(MessageFormat.format(errors.getString("ConsolidateStoreUnclear"),
+                                input.getName()));
+                    }
+                }
+                ConsolidatedReport report = ConsolidatedReport.build(stores);
+                report.write(output);
+                return report;
+            }
+
+            @Override
+            protected void done() {
+                consolidating = false;
+                updateJobComponents();
+                try {
+                    ConsolidatedReport report = get();
+                    publishStatus(Severity.Info, MessageFormat.format(messagesBundle.getString("Consolidated"),
+                            report.getProductCount(), report.getStores().size(), output.getName(),
+                            (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1)));
+                } catch (InterruptedException ex) {
+                    Logger.getLogger(MainPanel.class.getName()).log(Level.SEVERE, null, ex);
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    String message = cause instanceof IllegalArgumentException ? cause.getMessage()
+                            : MessageFormat.format(errorBundle.getString("ConsolidationFailed"), output, cause.getMessage());
+                    Logger.getLogger(MainPanel.class.getName()).log(Level.WARNING, message, cause);
+                    publishStatus(Severity.Error, message);
+                    JOptionPane.showMessageDialog(parent, message);
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * @return the new or confirmed existing .xlsx file the consolidated report
+     * is written to, null if none was chosen
+     */
+    private File chooseConsolidatedFile() {
+        if (consolidatedBrowser == null) {
+            consolidatedBrowser = new FileBrowser(parent, BrowseMode.Save, "xlsx");
+        }
+        List<File> picked = consolidatedBrowser.browse(recentOutputs.getDirectory());
+        if (picked.isEmpty()) {
+            return null;
+        }
+        File file = picked.get(0);
+        if (!file.getName().toLowerCase().endsWith(".xlsx")) {
+            file = new File(file.getPath() + ".xlsx");
+        }
+        if (file.exists() && JOptionPane.showConfirmDialog(parent, errorBundle.getString("FileAlreadyExistsOverwrite"),
+                errorBundle.getString("ExistingFileLabel"), JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) {
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Asks for a folder and merges every Excel file dropped into it into the
+     * selected output. The retailer is taken from the subfolder's name or the
+     * selected retailer.
+     */
+    private void startWatching() {
+        if (outputFile == null) {
+            JOptionPane.showMessageDialog(parent, errorBundle.getString("NoOutputFileSelected"));
+            watchFolderToggle.setSelected(false);
+            return;
+        }
+        if (folderBrowser == null) {
+            folderBrowser = new FileBrowser(parent, BrowseMode.Folder);
+        }
+        List<File> picked = folderBrowser.browse(recentInputs.getDirectory());
+        if (picked.isEmpty()) {
+            watchFolderToggle.setSelected(false);
+            return;
+        }
+        File folder = picked.get(0);
+        File output = outputFile;
+        StoreResolver resolver = new StoreResolver(folder.toPath(), getSelectedStore());
+        try {
+            //The retailer is resolved on the watcher's thread, it may have to read the file
+            folderWatcher = new FolderWatcher(folder.toPath(), (file) -> {
+                Stores store = resolver.resolve(file);
+                SwingUtilities.invokeLater(() -> {
+                    if (store == null) {
+                        publishStatus(Severity.Warning, MessageFormat.format(errorBundle.getString("UnknownStoreForFile"), file.getFileName()));
+                    } else {
+                        enqueue(new ReportJob(file.toFile(), output, false, store, largeFileCheckBox.isSelected(),
+                                incrementalCheckBox.isSelected()));
+                    }
+                });
+            });
+            folderWatcher.exclude(output.toPath());
+            folderWatcher.start();
+            updateUndoComponents();
+            publishStatus(Severity.Info, MessageFormat.format(messagesBundle.getString("WatchingFolder"), folder));
+        } catch (IOException ex) {
+            Logger.getLogger(MainPanel.class.getName()).log(Level.SEVERE, null, ex);
+            stopWatching();
+            watchFolderToggle.setSelected(false);
+        }
     }
 
+    private void stopWatching() {
+        if (folderWatcher != null) {
+            try {
+                folderWatcher.close();
+            } catch (IOException ex) {
+                Logger.getLogger(MainPanel.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            folderWatcher = null;
+        }
+        updateUndoComponents();
+    }
+
+    /**
+     * @return true while jobs of the workspace are running or its output is
+     * being created or changed
+     */
+    public boolean isBusy() {
+        return !activeTasks.isEmpty() || creatingNewFile || consolidating || dryRunning || patchingOutput;
+    }
+
+    /**
+     * Stops the background work of a closed workspace. Its jobs must have
+     * finished, see {@link #isBusy()}.
+     */
+    public void close() {
+        stopWatching();
+        etaTimer.stop();
+    }
+
+    /**
+     * Enables or disables the components which must not be used while jobs
+     * are running in the background.
+     */
+    private void updateJobComponents() {
+        boolean running = !activeTasks.isEmpty();
+        createNewFileButton.setEnabled(!running && !creatingNewFile);
+        generateReport.setEnabled(!creatingNewFile && !dryRunning);
+        consolidateButton.setEnabled(!consolidating);
+        cancelButton.setEnabled(running);
+        if (!running) {
+            progressBar.setIndeterminate(false);
+            etaTimer.stop();
+        } else {
+            etaTimer.start();
+        }
+        updateEta();
+        updateUndoComponents();
+    }
+
+    /**
+     * Offers to undo or redo a merge into the selected output. Both are
+     * disabled while jobs may change the output. The journal is read in the
+     * background.
+     */
+    private void updateUndoComponents() {
+        int lookup = ++journalLookups;
+        undoButton.setEnabled(false);
+        redoButton.setEnabled(false);
+        undoButton.setToolTipText(null);
+        redoButton.setToolTipText(null);
+        if (outputFile == null || !activeTasks.isEmpty() || folderWatcher != null || patchingOutput || componentBundle == null) {
+            return;
+        }
+        File output = outputFile;
+        new SwingWorker<JournalEntry[], Void>() {
+            @Override
+            protected JournalEntry[] doInBackground() throws IOException {
+                OutputJournal journal = OutputJournal.forOutput(output);
+                return new JournalEntry[]{journal.peekUndo(), journal.peekRedo()};
+            }
+
+            @Override
+            protected void done() {
+                if (lookup != journalLookups) {
+                    return;
+                }
+                try {
+                    JournalEntry[] entries = get();
+                    describeUndo(undoButton, "MainPanel.undoButton.toolTip", entries[0]);
+                    describeUndo(redoButton, "MainPanel.redoButton.toolTip", entries[1]);
+                } catch (InterruptedException | ExecutionException ex) {
+                    Logger.getLogger(MainPanel.class.getName()).log(Level.WARNING, null, ex);
+                }
+            }
+        }.execute();
+    }
+
+    private void describeUndo(JButton button, String key, JournalEntry entry) {
+        button.setEnabled(entry != null);
+        if (entry != null) {
+            button.setToolTipText(MessageFormat.format(componentBundle.getString(key), entry.getInput().getName(),
+                    Date.from(entry.getTime())));
+        }
+    }
+
+    /**
+     * Reverts or reapplies the last merge into the selected output in the
+     * background, in the output's lane of the queue so no job writes the
+     * output meanwhile.
+     *
+     * @param undo true to undo, false to redo
+     */
+    private void patchOutput(boolean undo) {
+        File output = outputFile;
+        patchingOutput = true;
+        updateUndoComponents();
+        new SwingWorker<JournalEntry, Void>() {
+            @Override
+            protected JournalEntry doInBackground() throws Exception {
+                OutputJournal journal = OutputJournal.forOutput(output);
+                Future<JournalEntry> patched = session.getJobQueue().submit(output, () -> undo ? journal.undo() : journal.redo());
+                try {
+                    return patched.get();
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof Exception) {
+                        throw (Exception) ex.getCause();
+                    }
+                    throw ex;
+                }
+            }
+
+            @Override
+            protected void done() {
+                patchingOutput = false;
+                try {
+                    JournalEntry entry = get();
+                    if (entry != null) {
+                        publishStatus(Severity.Info, MessageFormat.format(messagesBundle.getString(undo ? "MergeUndone" : "MergeRedone"),
+                                entry.getInput().getName()));
+                    }
+                } catch (ExecutionException ex) {
+                    String message;
+                    if (ex.getCause() instanceof OutputChangedException) {
+                        message = MessageFormat.format(errorBundle.getString("OutputChangedSinceMerge"),
+                                ((OutputChangedException) ex.getCause()).getCell(), output.getName());
+                    } else {
+                        Logger.getLogger(MainPanel.class.getName()).log(Level.SEVERE, null, ex);
+                        message = MessageFormat.format(errorBundle.getString("UndoFailed"), output.getName(),
+                                ex.getCause().getMessage());
+                    }
+                    publishStatus(Severity.Error, message);
+                    JOptionPane.showMessageDialog(parent, message);
+                } catch (InterruptedException ex) {
+                    Logger.getLogger(MainPanel.class.getName()).log(Level.WARNING, null, ex);
+                }
+                indexPanel.outputChanged(output);
+                updateUndoComponents();
+            }
+        }.execute();
+    }
+
+    /**
+     * Publishes a message which is not about a particular job.
+     */
+    private void publishStatus(Severity severity, String message) {
+        statusBus.publish(severity, null, message);
+    }
+
+    /**
+     * Shows the newest of the delivered messages in the status bar and adds
+     * all of them to the log.
+     */
+    private void showStatus(List<StatusEvent> events) {
+        statusBar.setText(events.get(events.size() - 1).getMessage());
+        logPanel.append(events);
+    }
+
+    /**
+     * Shows the combined progress of the current batch. A single job shows its
+     * phase, a batch shows how many of its jobs are done.
+     */
+    private void updateProgress() {
+        int total = activeTasks.size();
+        int progress = 0;
+        int finished = 0;
+        for (ReportTask task : activeTasks) {
+            if (task.getStatus().isFinal()) {
+                progress += 100;
+                finished++;
+            } else if (task.getPhase() != null) {
+                progress += task.getPhase().getProgress();
+            }
+        }
+        progressBar.setValue(progress / total);
+        if (total == 1) {
+            ReportTask task = activeTasks.get(0);
+            progressBar.setIndeterminate(task.getStatus() == JobStatus.Running && task.getPhase() == JobPhase.Generating);
+            if (task.getStatus() == JobStatus.Running && task.getPhase() != null) {
+                progressBar.setString(messagesBundle.getString(task.getPhase().getMessageKey()));
+            } else {
+                progressBar.setString(messagesBundle.getString("JobStatus." + task.getStatus()));
+            }
+        } else {
+            progressBar.setIndeterminate(false);
+            progressBar.setString(MessageFormat.format(messagesBundle.getString("JobsDone"), finished, total));
+        }
+    }
+
+    /**
+     * Shows the predicted time left of the current batch, and the rate of a
+     * single running job. Nothing is shown while any job cannot be predicted.
+     */
+    private void updateEta() {
+        ThroughputModel model = ThroughputModel.getInstance();
+        long remaining = 0;
+        boolean overdue = false;
+        double rowsPerSecond = 0;
+        int runningJobs = 0;
+        for (ReportTask task : activeTasks) {
+            if (task.getStatus().isFinal()) {
+                continue;
+            }
+            ThroughputModel.Estimate estimate = task.getStatus() == JobStatus.Running ? model.estimate(task.getJob()) : null;
+            if (estimate != null) {
+                remaining += estimate.getRemainingMillis();
+                overdue |= estimate.isOverdue();
+                rowsPerSecond = estimate.getRowsPerSecond();
+                runningJobs++;
+            } else {
+                ThroughputModel.Prediction prediction = model.predict(task.getJob());
+                if (prediction == null) {
+                    etaLabel.setText(null);
+                    return;
+                }
+                remaining += prediction.getTotalMillis();
+            }
+        }
+        if (remaining == 0 && !overdue) {
+            etaLabel.setText(null);
+            return;
+        }
+        long seconds = (remaining + 999) / 1000;
+        String left = String.format("%d:%02d", seconds / 60, seconds % 60);
+        String key = overdue ? "MainPanel.etaOverdue" : runningJobs == 1 && rowsPerSecond > 0 ? "MainPanel.etaRows" : "MainPanel.eta";
+        etaLabel.setText(MessageFormat.format(componentBundle.getString(key), left, rowsPerSecond));
+    }
+
+    /**
+     * Asks the user whether to apply an input which conflicts with the
+     * output's ledger. Called on the job's thread, which waits for the answer.
+     *
+     * @param job the job about to run
+     * @param conflict what is wrong with the job
+     * @return true if the job should run anyway
+     */
+    private boolean confirmLedgerConflict(ReportJob job, LedgerConflict conflict) {
+        AtomicBoolean proceed = new AtomicBoolean();
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                String message = MessageFormat.format(errorBundle.getString("LedgerConflict." + conflict),
+                        job.getInput().getName(), job.getOutput().getName());
+                proceed.set(JOptionPane.showConfirmDialog(parent, message, errorBundle.getString("LedgerConflictLabel"),
+                        JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE) == JOptionPane.YES_OPTION);
+            });
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (InvocationTargetException ex) {
+            Logger.getLogger(MainPanel.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return proceed.get();
+    }
+
+    private final JobListener reportListener = new EdtJobListener(new JobListener() {
+        @Override
+        public void phaseChanged(ReportJob job, JobPhase phase) {
+            jobTableModel.jobChanged(job);
+            updateProgress();
+            updateEta();
+        }
+
+        @Override
+        public void jobFinished(ReportJob job, JobStatus status, Throwable error) {
+            jobTableModel.jobChanged(job);
+            if (status == JobStatus.Cancelled) {
+                statusBus.publish(Severity.Warning, job, messagesBundle.getString("ReportCancelled"));
+            } else if (status == JobStatus.Skipped) {
+                statusBus.publish(Severity.Warning, job, MessageFormat.format(messagesBundle.getString("ReportSkipped"),
+                        job.getInput().getName()));
+            } else if (status == JobStatus.Failed) {
+                String message = backEndErrorBundle.getString("FailedToGenerateReport");
+                if (error != null && error.getLocalizedMessage() != null) {
+                    message += " (" + error.getLocalizedMessage() + ")";
+                }
+                statusBus.publish(Severity.Error, job, message);
+            }
+            ThroughputModel.Anomaly anomaly = ThroughputModel.getInstance().getAnomaly(job);
+            if (status == JobStatus.Completed && anomaly != null) {
+                statusBus.publish(Severity.Warning, job, MessageFormat.format(messagesBundle.getString("SlowerThanExpected"),
+                        job.getInput().getName(), anomaly.getActualMillis() / 1000.0, anomaly.getExpectedMillis() / 1000.0));
+            }
+            if (status == JobStatus.Completed) {
+                indexPanel.outputChanged(job.getOutput());
+            }
+            updateProgress();
+            for (ReportTask task : activeTasks) {
+                if (!task.getStatus().isFinal()) {
+                    return;
+                }
+            }
+            activeTasks.clear();
+            updateJobComponents();
+        }
+    });
+
     private void attachListeners() {
+        tabbedPane.addChangeListener((ce) -> {
+            if (tabbedPane.getSelectedComponent() == indexPanel) {
+                indexPanel.search(false);
+            }
+        });
         selectSrcFileButton.addActionListener((ae) -> {
-            inputFileChooser.showOpenDialog(parent);
+            chooseFiles(selectSrcFileButton, recentInputs, this::getInputBrowser, this::setInputFiles);
         });
         selectDestFileButton.addActionListener((ae) -> {
-            outputFileChooser.showOpenDialog(parent);
+            chooseFiles(selectDestFileButton, recentOutputs, this::getOutputBrowser, (files) -> setOutputFile(files.get(0)));
         });
         createNewFileButton.addActionListener((ae) -> {
-            statusBar.setText(messagesBundle.getString("CreatingNewFile"));
-            NewFileManager.getInstance().setFileCallback(createNewFileChooser);
-            LiteReportManager.getInstance().initOutputComponents(parent, statusBar);
-            LiteReportManager.getInstance().createNewFile();
+            publishStatus(Severity.Info, messagesBundle.getString("CreatingNewFile"));
+            CreateNewFileChooser chooser = getCreateNewFileChooser();
+            creatingNewFile = true;
+            updateJobComponents();
+            new SwingWorker<Void, Void>() {
+                @Override
+                protected Void doInBackground() {
+                    session.createNewFile(chooser);
+                    return null;
+                }
+
+                @Override
+                protected void done() {
+                    creatingNewFile = false;
+                    updateJobComponents();
+                    try {
+                        get();
+                    } catch (InterruptedException | ExecutionException ex) {
+                        Logger.getLogger(MainPanel.class.getName()).log(Level.SEVERE, null, ex);
+                    }
+                }
+            }.execute();
         });
         clearInputFileButton.addActionListener((ae) -> {
-            inputFileChooser.setSelectedFile(null);
-            inputFilePath.setText(null);
+            setInputFiles(Collections.<File>emptyList());
         });
         clearOutputFileButton.addActionListener((ae) -> {
-            outputFileChooser.setSelectedFile(null);
-            outputFilePath.setText(null);
+            setOutputFile(null);
         });
         generateReport.addActionListener((ae) -> {
-            statusBar.setText(messagesBundle.getString("GeneratingReport"));
-            if (inputFileChooser.getSelectedFile() == null) {
+            publishStatus(Severity.Info, messagesBundle.getString("GeneratingReport"));
+            if (getInputFiles().length == 0) {
                 JOptionPane.showMessageDialog(parent, errorBundle.getString("NoInputFileSelected"));
-                statusBar.setText(backEndErrorBundle.getString("FailedToGenerateReport"));
-            } else if (outputFileChooser.getSelectedFile() == null) {
+                publishStatus(Severity.Error, backEndErrorBundle.getString("FailedToGenerateReport"));
+            } else if (outputFile == null) {
                 JOptionPane.showMessageDialog(parent, errorBundle.getString("NoOutputFileSelected"));
-                statusBar.setText(backEndErrorBundle.getString("FailedToGenerateReport"));
+                publishStatus(Severity.Error, backEndErrorBundle.getString("FailedToGenerateReport"));
             } else if (retailersButtonGroup.getSelection() == null) {
                 JOptionPane.showMessageDialog(parent, errorBundle.getString("SelectRetailerMessage"));
-                statusBar.setText(backEndErrorBundle.getString("FailedToGenerateReport"));
+                publishStatus(Severity.Error, backEndErrorBundle.getString("FailedToGenerateReport"));
             } else {
-                LiteReportManager.getInstance().initOutputComponents(parent, statusBar);
-                LiteReportManager.getInstance().generateReport(inputFileChooser.getSelectedFile(),
-                        outputFileChooser.getSelectedFile(), subtractCheckBox.isSelected(), technomarketJButton.isSelected() ? Stores.Technomarket : Stores.Technopolis);
+                recentInputs.add(getSelectedStore(), Arrays.asList(getInputFiles()));
+                recentOutputs.add(getSelectedStore(), Collections.singletonList(outputFile));
+                List<ReportJob> jobs = new ArrayList<>();
+                for (File input : getInputFiles()) {
+                    jobs.add(new ReportJob(input, outputFile, subtractCheckBox.isSelected(),
+                            getSelectedStore(), largeFileCheckBox.isSelected(), incrementalCheckBox.isSelected()));
+                }
+                if (dryRunCheckBox.isSelected()) {
+                    dryRun(jobs);
+                } else {
+                    tabbedPane.setSelectedIndex(0);
+                    jobs.forEach(this::enqueue);
+                }
+            }
+        });
+        consolidateButton.addActionListener((ae) -> {
+            consolidate();
+        });
+        cancelButton.addActionListener((ae) -> {
+            for (ReportTask task : new ArrayList<>(activeTasks)) {
+                task.abort();
+            }
+        });
+        clearJobsButton.addActionListener((ae) -> {
+            jobTableModel.removeFinished();
+        });
+        undoButton.addActionListener((ae) -> {
+            patchOutput(true);
+        });
+        redoButton.addActionListener((ae) -> {
+            patchOutput(false);
+        });
+        bindKey(KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK), undoButton);
+        bindKey(KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK), redoButton);
+        watchFolderToggle.addActionListener((ae) -> {
+            if (watchFolderToggle.isSelected()) {
+                startWatching();
+            } else {
+                stopWatching();
+                publishStatus(Severity.Info, messagesBundle.getString("WatchFolderStopped"));
+            }
+        });
+        FileDropHandler dropHandler = new FileDropHandler(this::setInputFiles, "xlsx", "xls");
+        setTransferHandler(dropHandler);
+        inputFilePath.setTransferHandler(dropHandler);
+        jobTable.setTransferHandler(dropHandler);
+    }
+
+    /**
+     * Clicks a button with a key stroke anywhere in the window, as long as the
+     * button is enabled.
+     */
+    private void bindKey(KeyStroke key, JButton button) {
+        getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(key, key.toString());
+        getActionMap().put(key.toString(), new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (button.isEnabled()) {
+                    button.doClick();
+                }
             }
         });
     }
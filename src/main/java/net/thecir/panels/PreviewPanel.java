@@ -0,0 +1,145 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.panels;
+
+import java.awt.Component;
+import java.io.File;
+import java.text.MessageFormat;
+import java.util.List;
+import java.util.Objects;
+import java.util.ResourceBundle;
+import javax.swing.DefaultComboBoxModel;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JComboBox;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import net.miginfocom.swing.MigLayout;
+
+/**
+ * Shows the first rows of the selected input files, so the right retailer's
+ * file can be confirmed without opening it in Excel.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class PreviewPanel extends JPanel {
+
+    private final JLabel fileLabel;
+    private final JComboBox<File> fileComboBox;
+    private final JLabel infoLabel;
+    private final JTable previewTable;
+    private final PreviewTableModel previewTableModel;
+
+    private ResourceBundle componentBundle;
+    private ResourceBundle errorBundle;
+    //The error of the shown file, null if it was read fine
+    private Exception error;
+
+    public PreviewPanel() {
+        setLayout(new MigLayout("insets 0", "[shrink 0][grow][shrink 0]", "[shrink 0][grow]"));
+        fileLabel = new JLabel();
+        fileComboBox = new JComboBox<>();
+        fileComboBox.setRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+                if (value instanceof File) {
+                    setText(((File) value).getName());
+                    setToolTipText(((File) value).getPath());
+                }
+                return this;
+            }
+        });
+        infoLabel = new JLabel();
+        previewTableModel = new PreviewTableModel((file, ex) -> {
+            error = ex;
+            displayInfo();
+        });
+        previewTable = new JTable(previewTableModel);
+        //Rows are rendered on demand, a wide sheet scrolls instead of squeezing its columns
+        previewTable.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
+        previewTable.setFillsViewportHeight(true);
+        previewTableModel.addTableModelListener((e) -> displayInfo());
+
+        add(fileLabel);
+        add(fileComboBox, "growx");
+        add(infoLabel, "wrap");
+        add(new JScrollPane(previewTable), "span, grow");
+
+        fileComboBox.addActionListener((ae) -> {
+            File selected = (File) fileComboBox.getSelectedItem();
+            if (!Objects.equals(selected, previewTableModel.getFile())) {
+                error = null;
+                previewTableModel.setFile(selected);
+            }
+        });
+    }
+
+    /**
+     * Sets the texts in the current language.
+     *
+     * @param componentText bundle containing the component texts
+     * @param errors bundle containing the error messages
+     */
+    public void setComponentText(ResourceBundle componentText, ResourceBundle errors) {
+        componentBundle = componentText;
+        errorBundle = errors;
+        fileLabel.setText(componentText.getString("PreviewPanel.fileLabel"));
+        previewTableModel.setComponentText(componentText);
+        displayInfo();
+    }
+
+    /**
+     * Offers the files for preview and starts reading the first of them.
+     *
+     * @param files the selected input files
+     */
+    public void setFiles(List<File> files) {
+        fileComboBox.setModel(new DefaultComboBoxModel<>(files.toArray(new File[files.size()])));
+        File first = files.isEmpty() ? null : files.get(0);
+        if (!Objects.equals(first, previewTableModel.getFile())) {
+            error = null;
+            previewTableModel.setFile(first);
+        }
+    }
+
+    private void displayInfo() {
+        if (componentBundle == null) {
+            return;
+        }
+        PreviewTableModel model = previewTableModel;
+        if (model.getFile() == null) {
+            infoLabel.setText(null);
+        } else if (error != null) {
+            infoLabel.setText(MessageFormat.format(errorBundle.getString("CannotPreviewFile"), error.getMessage()));
+        } else if (model.getSheetName() == null) {
+            infoLabel.setText(componentBundle.getString("PreviewPanel.loading"));
+        } else {
+            String key = model.isComplete() ? "PreviewPanel.rows" : "PreviewPanel.moreRows";
+            infoLabel.setText(MessageFormat.format(componentBundle.getString(key), model.getSheetName(), model.getKnownRows()));
+        }
+    }
+}
@@ -0,0 +1,426 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.panels;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+import lombok.Getter;
+import net.thecir.cache.InputCache;
+import net.thecir.cache.ParsedInput;
+import net.thecir.readers.RowHandler;
+import net.thecir.readers.WorkbookReader;
+import org.apache.poi.ss.util.CellReference;
+
+/**
+ * Table model showing the rows of the first sheet of a workbook, read a page at
+ * a time on a background thread. Only a few pages are kept and the rest are
+ * read again when they are scrolled to, so memory use does not depend on the
+ * size of the file. The reader keeps its place in the file for a while after a
+ * page, so scrolling down continues the read instead of starting it over.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class PreviewTableModel extends AbstractTableModel {
+
+    //Rows read at a time
+    private static final int PAGE_SIZE = 200;
+    //Pages kept in memory, also the most pages waiting to be read
+    private static final int MAX_PAGES = 5;
+    //How long the reader keeps the file open waiting for the next page
+    private static final long IDLE_MILLIS = 10_000;
+
+    private static final ExecutorService READER = Executors.newSingleThreadExecutor((runnable) -> {
+        Thread thread = new Thread(runnable, "preview-reader");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    //Called on the EDT when the file cannot be read
+    private final BiConsumer<File, Exception> errorHandler;
+
+    //Guards the fields shared with the reader
+    private final Object lock = new Object();
+    //Pages waiting to be read, oldest request first
+    private final Set<Integer> pending = new LinkedHashSet<>();
+    //The page being read, -1 if none
+    private int reading = -1;
+    private boolean readerRunning;
+    //Changed with the file, tells the reader its work is obsolete
+    private volatile int generation;
+
+    //Pages read so far, least recently used first. Only used on the EDT
+    private final Map<Integer, List<Object[]>> pages = new LinkedHashMap<Integer, List<Object[]>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<Object[]>> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+
+    @Getter
+    private File file;
+    //Null until the first page has been read
+    @Getter
+    private String sheetName;
+    //Rows known to exist, the exact count once complete
+    @Getter
+    private int knownRows;
+    //If the end of the sheet has been reached
+    @Getter
+    private boolean complete;
+    @Getter
+    private boolean failed;
+    private int columnCount = 1;
+    private String rowColumnName = "";
+
+    /**
+     * @param errorHandler called on the EDT with the file and the error when
+     * the file cannot be read
+     */
+    public PreviewTableModel(BiConsumer<File, Exception> errorHandler) {
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * Sets the name of the column holding the row numbers.
+     *
+     * @param componentText bundle containing the column name
+     */
+    public void setComponentText(ResourceBundle componentText) {
+        rowColumnName = componentText.getString("PreviewTable.row");
+        fireTableStructureChanged();
+    }
+
+    /**
+     * Shows another workbook, stopping any read of the previous one.
+     *
+     * @param file the workbook, null to show nothing
+     */
+    public void setFile(File file) {
+        synchronized (lock) {
+            generation++;
+            pending.clear();
+            reading = -1;
+            readerRunning = false;
+            lock.notifyAll();
+        }
+        this.file = file;
+        pages.clear();
+        sheetName = null;
+        knownRows = 0;
+        complete = file == null;
+        failed = false;
+        columnCount = 1;
+        fireTableStructureChanged();
+        if (file != null) {
+            request(0);
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        //Rows which may exist get a page of placeholders, scrolling to them reads them
+        return complete || failed ? knownRows : knownRows + PAGE_SIZE;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return column == 0 ? rowColumnName : CellReference.convertNumToColString(column - 1);
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        List<Object[]> page = pages.get(row / PAGE_SIZE);
+        if (page == null) {
+            if (!failed) {
+                request(row / PAGE_SIZE);
+            }
+            return null;
+        }
+        int index = row % PAGE_SIZE;
+        if (index >= page.size()) {
+            return null;
+        }
+        Object[] values = page.get(index);
+        return column < values.length ? values[column] : null;
+    }
+
+    /**
+     * Queues a page to be read, dropping the oldest requests the user has most
+     * likely scrolled past.
+     */
+    private void request(int page) {
+        synchronized (lock) {
+            if (page == reading || !pending.add(page)) {
+                return;
+            }
+            if (pending.size() > MAX_PAGES) {
+                Iterator<Integer> oldest = pending.iterator();
+                oldest.next();
+                oldest.remove();
+            }
+            if (!readerRunning) {
+                readerRunning = true;
+                int current = generation;
+                File source = file;
+                READER.execute(() -> read(current, source));
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Takes the next page to read, waiting for one if there is none.
+     *
+     * @param expected generation of the reader
+     * @param from the page the reader can continue with, -1 if any
+     * @return the page nearest after from if there is one, the first page
+     * otherwise, null if the reader should stop
+     */
+    private Integer nextPage(int expected, int from) {
+        synchronized (lock) {
+            long deadline = System.currentTimeMillis() + IDLE_MILLIS;
+            reading = -1;
+            while (expected == generation) {
+                if (!pending.isEmpty()) {
+                    Integer next = null;
+                    for (Integer page : pending) {
+                        if (page >= from && (next == null || page < next)) {
+                            next = page;
+                        }
+                    }
+                    if (next == null) {
+                        next = Collections.min(pending);
+                    }
+                    pending.remove(next);
+                    reading = next;
+                    return next;
+                }
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    readerRunning = false;
+                    return null;
+                }
+                try {
+                    lock.wait(wait);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    readerRunning = false;
+                    return null;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Reads the requested pages until none are requested for a while. Runs on
+     * the reader thread.
+     */
+    private void read(int expected, File source) {
+        Integer page = nextPage(expected, -1);
+        while (page != null) {
+            Cursor cursor = new Cursor(expected, page);
+            try {
+                //Only an input already in the cache is replayed, others are
+                //streamed so a page never costs more than the page itself
+                ParsedInput cached = InputCache.getInstance().find(source);
+                if (cached != null) {
+                    cached.replay(cursor);
+                } else {
+                    WorkbookReader.read(source, cursor);
+                }
+            } catch (IOException | RuntimeException ex) {
+                synchronized (lock) {
+                    if (expected == generation) {
+                        pending.clear();
+                        reading = -1;
+                        readerRunning = false;
+                    }
+                }
+                SwingUtilities.invokeLater(() -> readFailed(expected, ex));
+                return;
+            }
+            if (cursor.restart != null) {
+                page = cursor.restart;
+            } else if (cursor.stopped) {
+                return;
+            } else {
+                //The end of the sheet, later requests have to start over
+                publish(expected, cursor.target, cursor.rows, false, cursor.count, cursor.sheet);
+                page = nextPage(expected, -1);
+            }
+        }
+    }
+
+    private void publish(int expected, int page, List<Object[]> rows, boolean more, int count, String sheet) {
+        SwingUtilities.invokeLater(() -> pageRead(expected, page, rows, more, count, sheet));
+    }
+
+    private void pageRead(int expected, int page, List<Object[]> rows, boolean more, int count, String sheet) {
+        if (expected != generation) {
+            return;
+        }
+        int oldRows = getRowCount();
+        int oldColumns = columnCount;
+        //A workbook without sheets has no name to show
+        sheetName = sheet == null ? "" : sheet;
+        pages.put(page, rows);
+        for (Object[] row : rows) {
+            columnCount = Math.max(columnCount, row.length);
+        }
+        if (more) {
+            knownRows = Math.max(knownRows, count);
+        } else {
+            knownRows = count;
+            complete = true;
+            synchronized (lock) {
+                pending.removeIf((requested) -> requested * PAGE_SIZE >= count);
+            }
+        }
+        int newRows = getRowCount();
+        if (columnCount != oldColumns) {
+            fireTableStructureChanged();
+            return;
+        }
+        if (newRows > oldRows) {
+            fireTableRowsInserted(oldRows, newRows - 1);
+        } else if (newRows < oldRows) {
+            fireTableRowsDeleted(newRows, oldRows - 1);
+        }
+        int first = page * PAGE_SIZE;
+        int last = Math.min(first + PAGE_SIZE, newRows) - 1;
+        if (first <= last) {
+            fireTableRowsUpdated(first, last);
+        } else {
+            //Nothing changed in the table but the loading state
+            fireTableDataChanged();
+        }
+    }
+
+    private void readFailed(int expected, Exception error) {
+        if (expected != generation) {
+            return;
+        }
+        failed = true;
+        fireTableDataChanged();
+        errorHandler.accept(file, error);
+    }
+
+    /**
+     * Collects the rows of the requested page and then waits in the middle of
+     * the read for the next request.
+     */
+    private class Cursor implements RowHandler {
+
+        private final int expected;
+        private int target;
+        private List<Object[]> rows = new ArrayList<>();
+        //Rows of the sheet passed so far
+        private int count;
+        private String sheet;
+        //The page to start over from, it lies before the reader's place
+        private Integer restart;
+        //If reading was given up because no more pages were requested
+        private boolean stopped;
+
+        Cursor(int expected, int target) {
+            this.expected = expected;
+            this.target = target;
+        }
+
+        @Override
+        public boolean startSheet(String name) {
+            if (sheet != null) {
+                return false;
+            }
+            sheet = name;
+            return true;
+        }
+
+        @Override
+        public boolean row(String sheetName, int rowIndex, Object[] cells) {
+            if (expected != generation) {
+                stopped = true;
+                return false;
+            }
+            if (count == (target + 1) * PAGE_SIZE) {
+                publish(expected, target, rows, true, count, sheet);
+                Integer next = nextPage(expected, target + 1);
+                if (next == null) {
+                    stopped = true;
+                    return false;
+                }
+                if (next <= target) {
+                    restart = next;
+                    return false;
+                }
+                target = next;
+                rows = new ArrayList<>();
+            }
+            if (count >= target * PAGE_SIZE) {
+                Object[] values = new Object[cells.length + 1];
+                values[0] = rowIndex + 1;
+                for (int i = 0; i < cells.length; i++) {
+                    values[i + 1] = format(cells[i]);
+                }
+                rows.add(values);
+            }
+            count++;
+            return true;
+        }
+    }
+
+    /**
+     * Shows whole numbers without a fraction.
+     */
+    private static Object format(Object cell) {
+        if (cell instanceof Double) {
+            double value = (Double) cell;
+            if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+                return Long.toString((long) value);
+            }
+        }
+        return cell;
+    }
+}
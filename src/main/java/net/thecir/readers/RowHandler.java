@@ -0,0 +1,53 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.readers;
+
+/**
+ * Receives the rows of a workbook as it is being read.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public interface RowHandler {
+
+    /**
+     * Called before the rows of each sheet.
+     *
+     * @param name name of the sheet
+     * @return false to stop reading the workbook
+     */
+    default boolean startSheet(String name) {
+        return true;
+    }
+
+    /**
+     * Called for every non-empty row.
+     *
+     * @param sheet name of the sheet containing the row
+     * @param rowIndex zero based index of the row
+     * @param cells values of the row's cells - Double for numbers, String
+     * otherwise and null for blank cells
+     * @return false to stop reading the workbook
+     */
+    boolean row(String sheet, int rowIndex, Object[] cells);
+}
@@ -0,0 +1,612 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.readers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.poi.hssf.eventusermodel.AbortableHSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.eventusermodel.HSSFUserException;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BoolErrRecord;
+import org.apache.poi.hssf.record.BoundSheetRecord;
+import org.apache.poi.hssf.record.CellValueRecordInterface;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.hssf.record.StringRecord;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Streams the rows of .xls and .xlsx workbooks without building the workbook
+ * in memory. Only the current row is held, so memory use does not depend on
+ * the size of the file, and reading can be stopped after any row.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public final class WorkbookReader {
+
+    private WorkbookReader() {
+    }
+
+    /**
+     * Reads the workbook row by row until the end or until the handler asks to
+     * stop.
+     *
+     * @param file .xls or .xlsx workbook
+     * @param handler receives the sheets and rows
+     * @throws IOException if the file cannot be read or is not a workbook
+     */
+    public static void read(File file, RowHandler handler) throws IOException {
+        if ("xls".equalsIgnoreCase(FilenameUtils.getExtension(file.getName()))) {
+            readXls(file, handler);
+        } else {
+            readXlsx(file, handler);
+        }
+    }
+
+    /**
+     * Reads the sheet names and the first rows of the first sheet, leaving the
+     * rest of the workbook unread. Of an .xlsx only the strings used by these
+     * rows are looked up, so the time taken hardly depends on the size of the
+     * file.
+     *
+     * @param file .xls or .xlsx workbook
+     * @param rows the most rows to read
+     * @return the sheet names and the rows
+     * @throws IOException if the file cannot be read or is not a workbook
+     */
+    public static WorkbookHead readHead(File file, int rows) throws IOException {
+        if ("xls".equalsIgnoreCase(FilenameUtils.getExtension(file.getName()))) {
+            return readXlsHead(file, rows);
+        }
+        return readXlsxHead(file, rows);
+    }
+
+    /**
+     * Returns how many rows the workbook declares, without reading them. Each
+     * sheet of an .xlsx declares the range of its cells, .xls workbooks are not
+     * looked into.
+     *
+     * @param file .xls or .xlsx workbook
+     * @return the rows of all sheets, empty ones included, -1 if a sheet does
+     * not declare them or the workbook is an .xls
+     * @throws IOException if the file cannot be read or is not a workbook
+     */
+    public static long readRowCount(File file) throws IOException {
+        if ("xls".equalsIgnoreCase(FilenameUtils.getExtension(file.getName()))) {
+            return -1;
+        }
+        OPCPackage pkg = open(file);
+        try {
+            Iterator<InputStream> sheets = new XSSFReader(pkg).getSheetsData();
+            SAXParserFactory factory = newParserFactory();
+            long rows = 0;
+            while (sheets.hasNext()) {
+                DimensionHandler dimension = new DimensionHandler();
+                try (InputStream stream = sheets.next()) {
+                    XMLReader parser = factory.newSAXParser().getXMLReader();
+                    parser.setContentHandler(dimension);
+                    parser.parse(new InputSource(stream));
+                } catch (StopReading ex) {
+                    //The dimension precedes the cells
+                }
+                if (dimension.rows < 0) {
+                    return -1;
+                }
+                rows += dimension.rows;
+            }
+            return rows;
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException ex) {
+            throw new IOException(ex);
+        } finally {
+            pkg.revert();
+        }
+    }
+
+    private static OPCPackage open(File file) throws IOException {
+        try {
+            return OPCPackage.open(file, PackageAccess.READ);
+        } catch (OpenXML4JException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private static SAXParserFactory newParserFactory() throws SAXException, ParserConfigurationException {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        return factory;
+    }
+
+    private static void readXlsx(File file, RowHandler handler) throws IOException {
+        OPCPackage pkg = open(file);
+        try {
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+            XSSFReader reader = new XSSFReader(pkg);
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            SAXParserFactory factory = newParserFactory();
+            while (sheets.hasNext()) {
+                try (InputStream stream = sheets.next()) {
+                    String name = sheets.getSheetName();
+                    if (!handler.startSheet(name)) {
+                        return;
+                    }
+                    XMLReader parser = factory.newSAXParser().getXMLReader();
+                    parser.setContentHandler(new SheetHandler(name, strings::getEntryAt, handler));
+                    parser.parse(new InputSource(stream));
+                } catch (StopReading ex) {
+                    return;
+                }
+            }
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException ex) {
+            throw new IOException(ex);
+        } finally {
+            pkg.revert();
+        }
+    }
+
+    private static WorkbookHead readXlsxHead(File file, int rows) throws IOException {
+        OPCPackage pkg = open(file);
+        try {
+            XSSFReader reader = new XSSFReader(pkg);
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            SAXParserFactory factory = newParserFactory();
+            List<String> names = new ArrayList<>();
+            List<Object[]> head = new ArrayList<>();
+            //The shared strings are resolved once the rows are known
+            Map<Integer, List<SharedString>> strings = new HashMap<>();
+            while (sheets.hasNext()) {
+                try (InputStream stream = sheets.next()) {
+                    names.add(sheets.getSheetName());
+                    if (names.size() > 1 || rows <= 0) {
+                        continue;
+                    }
+                    XMLReader parser = factory.newSAXParser().getXMLReader();
+                    parser.setContentHandler(new SheetHandler(names.get(0), (index) -> {
+                        SharedString string = new SharedString();
+                        strings.computeIfAbsent(index, (key) -> new ArrayList<>()).add(string);
+                        return string;
+                    }, (sheet, rowIndex, cells) -> {
+                        head.add(cells);
+                        return head.size() < rows;
+                    }));
+                    parser.parse(new InputSource(stream));
+                } catch (StopReading ex) {
+                    //The first rows have been read, only the names of the other sheets are needed
+                }
+            }
+            if (!strings.isEmpty()) {
+                try (InputStream stream = reader.getSharedStringsData()) {
+                    XMLReader parser = factory.newSAXParser().getXMLReader();
+                    parser.setContentHandler(new SharedStringsHandler(strings));
+                    parser.parse(new InputSource(stream));
+                } catch (StopReading ex) {
+                    //All strings of the rows have been found
+                }
+                for (Object[] cells : head) {
+                    for (int i = 0; i < cells.length; i++) {
+                        if (cells[i] instanceof SharedString) {
+                            cells[i] = ((SharedString) cells[i]).value;
+                        }
+                    }
+                }
+            }
+            return new WorkbookHead(names, head);
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException ex) {
+            throw new IOException(ex);
+        } finally {
+            pkg.revert();
+        }
+    }
+
+    private static void readXls(File file, RowHandler handler) throws IOException {
+        readXls(file, new XlsListener(handler));
+    }
+
+    private static void readXls(File file, XlsListener listener) throws IOException {
+        try (POIFSFileSystem fs = new POIFSFileSystem(file, true)) {
+            HSSFRequest request = new HSSFRequest();
+            request.addListenerForAllRecords(listener);
+            new HSSFEventFactory().abortableProcessWorkbookEvents(request, fs);
+        } catch (HSSFUserException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private static WorkbookHead readXlsHead(File file, int rows) throws IOException {
+        List<Object[]> head = new ArrayList<>();
+        //The names of all sheets precede the first sheet, so reading can stop within it
+        XlsListener listener = new XlsListener(new RowHandler() {
+            private boolean started;
+
+            @Override
+            public boolean startSheet(String name) {
+                if (started || rows <= 0) {
+                    return false;
+                }
+                started = true;
+                return true;
+            }
+
+            @Override
+            public boolean row(String sheet, int rowIndex, Object[] cells) {
+                head.add(cells);
+                return head.size() < rows;
+            }
+        });
+        readXls(file, listener);
+        return new WorkbookHead(listener.sheetNames, head);
+    }
+
+    /**
+     * Thrown out of the SAX parser when the handler asks to stop.
+     */
+    private static class StopReading extends RuntimeException {
+
+        StopReading() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Collects the cells of a row, padding skipped columns with nulls.
+     */
+    private static class RowBuffer {
+
+        private final List<Object> cells = new ArrayList<>();
+
+        void set(int column, Object value) {
+            while (cells.size() <= column) {
+                cells.add(null);
+            }
+            cells.set(column, value);
+        }
+
+        boolean isEmpty() {
+            return cells.isEmpty();
+        }
+
+        Object[] drain() {
+            Object[] row = cells.toArray();
+            cells.clear();
+            return row;
+        }
+    }
+
+    /**
+     * Parses the XML of a single .xlsx sheet.
+     */
+    private static class SheetHandler extends DefaultHandler {
+
+        private final String sheet;
+        //Looks up a shared string by its index
+        private final IntFunction<Object> strings;
+        private final RowHandler handler;
+        private final RowBuffer row = new RowBuffer();
+        private final StringBuilder value = new StringBuilder();
+        private int rowIndex;
+        private int column;
+        private String cellType;
+        private boolean inValue;
+
+        SheetHandler(String sheet, IntFunction<Object> strings, RowHandler handler) {
+            this.sheet = sheet;
+            this.strings = strings;
+            this.handler = handler;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (localName) {
+                case "row":
+                    String r = attributes.getValue("r");
+                    rowIndex = r == null ? rowIndex + 1 : Integer.parseInt(r) - 1;
+                    column = -1;
+                    break;
+                case "c":
+                    String ref = attributes.getValue("r");
+                    column = ref == null ? column + 1 : new CellReference(ref).getCol();
+                    cellType = attributes.getValue("t");
+                    value.setLength(0);
+                    break;
+                case "v":
+                case "t":
+                    inValue = true;
+                    break;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (inValue) {
+                value.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            switch (localName) {
+                case "v":
+                case "t":
+                    inValue = false;
+                    break;
+                case "c":
+                    if (value.length() > 0) {
+                        row.set(column, convert(value.toString()));
+                    }
+                    break;
+                case "row":
+                    if (!row.isEmpty() && !handler.row(sheet, rowIndex, row.drain())) {
+                        throw new StopReading();
+                    }
+                    break;
+            }
+        }
+
+        private Object convert(String text) {
+            if (cellType == null || "n".equals(cellType)) {
+                try {
+                    return Double.valueOf(text);
+                } catch (NumberFormatException ex) {
+                    return text;
+                }
+            }
+            if ("s".equals(cellType)) {
+                return strings.apply(Integer.parseInt(text));
+            }
+            if ("b".equals(cellType)) {
+                return "1".equals(text) ? "TRUE" : "FALSE";
+            }
+            return text;
+        }
+    }
+
+    /**
+     * Reads the range of cells an .xlsx sheet declares, stopping before its
+     * cells.
+     */
+    private static class DimensionHandler extends DefaultHandler {
+
+        //Rows of the range, -1 if not declared
+        private long rows = -1;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            if ("dimension".equals(localName)) {
+                String[] range = String.valueOf(attributes.getValue("ref")).split(":");
+                //Some writers declare A1 whatever the sheet holds, a single cell says nothing
+                if (range.length == 2) {
+                    try {
+                        rows = new CellReference(range[1]).getRow() - new CellReference(range[0]).getRow() + 1L;
+                    } catch (RuntimeException ex) {
+                        rows = -1;
+                    }
+                }
+                throw new StopReading();
+            }
+            if ("sheetData".equals(localName)) {
+                throw new StopReading();
+            }
+        }
+    }
+
+    /**
+     * A shared string of the first rows, looked up after the rows are read.
+     */
+    private static class SharedString {
+
+        private String value;
+    }
+
+    /**
+     * Reads the shared strings table up to the last string needed.
+     */
+    private static class SharedStringsHandler extends DefaultHandler {
+
+        private final Map<Integer, List<SharedString>> strings;
+        private final int last;
+        private final StringBuilder value = new StringBuilder();
+        private int index = -1;
+        private boolean inText;
+        //Phonetic runs are not part of the text
+        private boolean inPhonetic;
+
+        SharedStringsHandler(Map<Integer, List<SharedString>> strings) {
+            this.strings = strings;
+            this.last = strings.keySet().stream().mapToInt(Integer::intValue).max().orElse(-1);
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (localName) {
+                case "si":
+                    index++;
+                    value.setLength(0);
+                    break;
+                case "rPh":
+                    inPhonetic = true;
+                    break;
+                case "t":
+                    inText = !inPhonetic;
+                    break;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (inText) {
+                value.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            switch (localName) {
+                case "rPh":
+                    inPhonetic = false;
+                    break;
+                case "t":
+                    inText = false;
+                    break;
+                case "si":
+                    List<SharedString> found = strings.get(index);
+                    if (found != null) {
+                        for (SharedString string : found) {
+                            string.value = value.toString();
+                        }
+                    }
+                    if (index >= last) {
+                        throw new StopReading();
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Turns the records of an .xls workbook into rows.
+     */
+    private static class XlsListener extends AbortableHSSFListener {
+
+        private static final short CONTINUE = 0;
+        private static final short ABORT = 1;
+
+        private final RowHandler handler;
+        private final List<String> sheetNames = new ArrayList<>();
+        private final RowBuffer row = new RowBuffer();
+        private SSTRecord sst;
+        private int sheetIndex = -1;
+        private int rowIndex = -1;
+        //A formula with a string result, its value follows in a StringRecord
+        private FormulaRecord pendingFormula;
+
+        XlsListener(RowHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public short abortableProcessRecord(Record record) {
+            switch (record.getSid()) {
+                case BoundSheetRecord.sid:
+                    sheetNames.add(((BoundSheetRecord) record).getSheetname());
+                    break;
+                case SSTRecord.sid:
+                    sst = (SSTRecord) record;
+                    break;
+                case BOFRecord.sid:
+                    if (((BOFRecord) record).getType() == BOFRecord.TYPE_WORKSHEET) {
+                        sheetIndex++;
+                        rowIndex = -1;
+                        if (!handler.startSheet(sheetName())) {
+                            return ABORT;
+                        }
+                    }
+                    break;
+                case EOFRecord.sid:
+                    return flush() ? CONTINUE : ABORT;
+                case NumberRecord.sid:
+                    return cell(record, ((NumberRecord) record).getValue());
+                case LabelSSTRecord.sid:
+                    return cell(record, sst.getString(((LabelSSTRecord) record).getSSTIndex()).getString());
+                case LabelRecord.sid:
+                    return cell(record, ((LabelRecord) record).getValue());
+                case BoolErrRecord.sid:
+                    BoolErrRecord boolErr = (BoolErrRecord) record;
+                    return boolErr.isBoolean() ? cell(record, boolErr.getBooleanValue() ? "TRUE" : "FALSE") : CONTINUE;
+                case FormulaRecord.sid:
+                    FormulaRecord formula = (FormulaRecord) record;
+                    if (formula.hasCachedResultString()) {
+                        pendingFormula = formula;
+                        return CONTINUE;
+                    }
+                    return cachedType(formula) == CellType.NUMERIC ? cell(record, formula.getValue()) : CONTINUE;
+                case StringRecord.sid:
+                    if (pendingFormula != null) {
+                        FormulaRecord owner = pendingFormula;
+                        pendingFormula = null;
+                        return cell(owner, ((StringRecord) record).getString());
+                    }
+                    break;
+            }
+            return CONTINUE;
+        }
+
+        // POI 3.17 only exposes the cached result as an int code
+        @SuppressWarnings("deprecation")
+        private static CellType cachedType(FormulaRecord formula) {
+            return CellType.forInt(formula.getCachedResultType());
+        }
+
+        private short cell(Record record, Object value) {
+            CellValueRecordInterface cell = (CellValueRecordInterface) record;
+            if (cell.getRow() != rowIndex) {
+                if (!flush()) {
+                    return ABORT;
+                }
+                rowIndex = cell.getRow();
+            }
+            row.set(cell.getColumn(), value);
+            return CONTINUE;
+        }
+
+        private boolean flush() {
+            if (row.isEmpty() || sheetIndex < 0) {
+                return true;
+            }
+            return handler.row(sheetName(), rowIndex, row.drain());
+        }
+
+        private String sheetName() {
+            return sheetIndex < sheetNames.size() ? sheetNames.get(sheetIndex) : "Sheet" + (sheetIndex + 1);
+        }
+    }
+}
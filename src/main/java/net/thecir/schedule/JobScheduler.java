@@ -0,0 +1,461 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.schedule;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import lombok.extern.java.Log;
+import net.thecir.enums.JobPhase;
+import net.thecir.enums.JobStatus;
+import net.thecir.enums.SchedulePriority;
+import net.thecir.jobs.DuplicatePolicy;
+import net.thecir.jobs.JobListener;
+import net.thecir.jobs.ReportJob;
+import net.thecir.main.AppDirectory;
+import net.thecir.server.JobSubmitter;
+
+/**
+ * Runs the saved {@link ScheduledJob}s at their scheduled times, in the queue
+ * of the GUI or of the headless runner. The jobs and the results of their
+ * last runs are kept in the application's folder, runs missed while the
+ * application was closed are made up once when it starts.
+ *
+ * Due jobs wait for each other, at most lrm.schedule.maxRuns (1) run at once,
+ * the ones of higher priority first. Off-peak jobs start only between the
+ * hours lrm.schedule.offPeakStart (22) and lrm.schedule.offPeakEnd (6). Only
+ * one instance of the application runs the schedules, the others can only
+ * show them.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+@Log
+public class JobScheduler implements Closeable {
+
+    private static final String HEADER = "#LiteReportManager schedules 1";
+    private static final int MAX_RUNS = Integer.getInteger("lrm.schedule.maxRuns", 1);
+    private static final long TICK_SECONDS = Long.getLong("lrm.schedule.tickSeconds", 30);
+    private static final int OFF_PEAK_START = Integer.getInteger("lrm.schedule.offPeakStart", 22);
+    private static final int OFF_PEAK_END = Integer.getInteger("lrm.schedule.offPeakEnd", 6);
+
+    private final Path file;
+    private final JobSubmitter submitter;
+    private final Map<String, ScheduledJob> jobs = new LinkedHashMap<>();
+    //Due jobs waiting to run, by name, with the time they became due
+    private final Map<String, Instant> pending = new HashMap<>();
+    private final Map<String, Run> running = new HashMap<>();
+    private final List<ScheduleListener> listeners = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService timer;
+    //Held while the schedules are run by this instance
+    private FileChannel lockChannel;
+
+    /**
+     * Reads the scheduled jobs, they are not run until {@link #start()}.
+     *
+     * @param file the file keeping the scheduled jobs
+     * @param submitter queues the jobs of the runs
+     * @throws IOException if the file cannot be read
+     */
+    public JobScheduler(Path file, JobSubmitter submitter) throws IOException {
+        this.file = file;
+        this.submitter = submitter;
+        if (!Files.exists(file)) {
+            return;
+        }
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                ScheduledJob job = ScheduledJob.parse(line);
+                jobs.put(job.getName(), job);
+            } catch (RuntimeException ex) {
+                log.log(Level.WARNING, "Skipped a damaged line of " + file, ex);
+            }
+        }
+    }
+
+    /**
+     * @return the file keeping the scheduled jobs in the application's folder
+     * @throws IOException if the folder cannot be created
+     */
+    public static Path defaultFile() throws IOException {
+        return AppDirectory.resolve("schedules.tsv");
+    }
+
+    public void addListener(ScheduleListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ScheduleListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts running the scheduled jobs, beginning with the runs missed since
+     * the last start.
+     *
+     * @return false if another instance of the application runs them
+     * @throws IOException if the lock of the file cannot be created
+     */
+    public synchronized boolean start() throws IOException {
+        if (timer != null) {
+            return true;
+        }
+        lockChannel = FileChannel.open(file.resolveSibling(file.getFileName() + ".lock"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        FileLock lock = lockChannel.tryLock();
+        if (lock == null) {
+            lockChannel.close();
+            lockChannel = null;
+            return false;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "job-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleWithFixedDelay(this::tick, 0, TICK_SECONDS, TimeUnit.SECONDS);
+        return true;
+    }
+
+    /**
+     * @return true if this instance runs the scheduled jobs
+     */
+    public synchronized boolean isStarted() {
+        return timer != null;
+    }
+
+    /**
+     * @return the scheduled jobs in the order they were added
+     */
+    public synchronized List<ScheduledJob> getJobs() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    /**
+     * Adds a scheduled job or replaces one. A new job runs first at its next
+     * scheduled time, an edited one keeps its last due time and results, and
+     * a run of it in progress is counted in the edited job.
+     *
+     * @param previousName name of the job being replaced, null to add a job
+     * @param job the job
+     * @throws IllegalArgumentException if another job has the same name
+     */
+    public synchronized void put(String previousName, ScheduledJob job) {
+        if (!job.getName().equals(previousName) && jobs.containsKey(job.getName())) {
+            throw new IllegalArgumentException("Duplicate scheduled job: " + job.getName());
+        }
+        ScheduledJob previous = previousName == null ? null : jobs.get(previousName);
+        if (previous != null) {
+            job = job.withState(previous);
+            if (!previousName.equals(job.getName())) {
+                Map<String, ScheduledJob> renamed = new LinkedHashMap<>();
+                for (ScheduledJob existing : jobs.values()) {
+                    renamed.put(existing == previous ? job.getName() : existing.getName(), existing == previous ? job : existing);
+                }
+                jobs.clear();
+                jobs.putAll(renamed);
+                pending.remove(previousName);
+                Run run = running.remove(previousName);
+                if (run != null) {
+                    run.name = job.getName();
+                    running.put(run.name, run);
+                }
+            }
+        }
+        jobs.put(job.getName(), job);
+        save();
+    }
+
+    /**
+     * Removes a scheduled job. A run in progress is finished.
+     *
+     * @param name the job's name
+     */
+    public synchronized void remove(String name) {
+        jobs.remove(name);
+        pending.remove(name);
+        save();
+    }
+
+    /**
+     * Runs a scheduled job as soon as possible, whatever its schedule.
+     *
+     * @param name the job's name
+     */
+    public void runNow(String name) {
+        synchronized (this) {
+            if (timer == null || !jobs.containsKey(name) || running.containsKey(name)) {
+                return;
+            }
+            pending.put(name, Instant.now());
+        }
+        timer.execute(this::tick);
+    }
+
+    /**
+     * @param name a job's name
+     * @return true if the job is due or running
+     */
+    public synchronized boolean isActive(String name) {
+        return pending.containsKey(name) || running.containsKey(name);
+    }
+
+    /**
+     * @param job a scheduled job
+     * @return when the job runs next, later than its scheduled time for
+     * off-peak jobs outside the off-peak hours, null if it is disabled
+     */
+    public Instant getNextRun(ScheduledJob job) {
+        if (!job.isEnabled()) {
+            return null;
+        }
+        Instant next = job.nextDue(Instant.now());
+        if (job.getPriority() != SchedulePriority.OffPeak || isOffPeak(next)) {
+            return next;
+        }
+        ZonedDateTime start = next.atZone(ZoneId.systemDefault()).withHour(OFF_PEAK_START).withMinute(0).withSecond(0).withNano(0);
+        return (start.toInstant().isBefore(next) ? start.plusDays(1) : start).toInstant();
+    }
+
+    /**
+     * Stops starting runs, the jobs already queued are finished by the queue.
+     */
+    @Override
+    public synchronized void close() {
+        if (timer == null) {
+            return;
+        }
+        timer.shutdownNow();
+        timer = null;
+        try {
+            lockChannel.close();
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "Cannot release the lock of " + file, ex);
+        }
+        lockChannel = null;
+    }
+
+    /**
+     * Finds the due jobs and starts as many of them as allowed. The jobs of
+     * the runs are submitted without holding the scheduler's lock, the
+     * submitter may have to wait for the GUI.
+     */
+    private void tick() {
+        List<Run> started = new ArrayList<>();
+        synchronized (this) {
+            Instant now = Instant.now();
+            for (ScheduledJob job : jobs.values()) {
+                String name = job.getName();
+                Instant due = job.previousDue(now);
+                //Runs missed in between are made up once
+                if (job.isEnabled() && due.isAfter(job.lastDue) && !pending.containsKey(name) && !running.containsKey(name)) {
+                    pending.put(name, due);
+                }
+            }
+            while (running.size() < MAX_RUNS) {
+                ScheduledJob next = pending.keySet().stream()
+                        .map(jobs::get)
+                        .filter((job) -> job.getPriority() != SchedulePriority.OffPeak || isOffPeak(now))
+                        .min(Comparator.comparing(ScheduledJob::getPriority)
+                                .thenComparing((job) -> pending.get(job.getName())))
+                        .orElse(null);
+                if (next == null) {
+                    break;
+                }
+                Run run = begin(next, pending.remove(next.getName()), now);
+                if (run != null) {
+                    started.add(run);
+                }
+            }
+        }
+        for (Run run : started) {
+            for (ScheduleListener listener : listeners) {
+                listener.runStarted(run.job, run.inputs.size());
+            }
+            run.submit();
+        }
+    }
+
+    /**
+     * Starts a run of a due job.
+     *
+     * @return the run, null if its inputs cannot be listed
+     */
+    private Run begin(ScheduledJob job, Instant due, Instant now) {
+        if (due.isAfter(job.lastDue)) {
+            job.lastDue = due;
+        }
+        job.lastRun = now;
+        job.lastCompleted = 0;
+        job.lastSkipped = 0;
+        job.lastFailed = 0;
+        job.lastError = null;
+        try {
+            Run run = new Run(job, job.findInputs());
+            running.put(job.getName(), run);
+            save();
+            return run;
+        } catch (IOException | RuntimeException ex) {
+            log.log(Level.FINE, "Cannot list the inputs of " + job.getName(), ex);
+            job.lastError = ex.toString();
+            save();
+            for (ScheduleListener listener : listeners) {
+                listener.runStarted(job, 0);
+            }
+            return null;
+        }
+    }
+
+    private void finish(Run run) {
+        ScheduledJob job;
+        synchronized (this) {
+            running.remove(run.name);
+            job = run.current();
+            save();
+        }
+        for (ScheduleListener listener : listeners) {
+            listener.runFinished(job);
+        }
+        ScheduledExecutorService current = timer;
+        if (current != null) {
+            current.execute(this::tick);
+        }
+    }
+
+    private static boolean isOffPeak(Instant time) {
+        int hour = time.atZone(ZoneId.systemDefault()).getHour();
+        return OFF_PEAK_START <= OFF_PEAK_END ? hour >= OFF_PEAK_START && hour < OFF_PEAK_END
+                : hour >= OFF_PEAK_START || hour < OFF_PEAK_END;
+    }
+
+    private void save() {
+        List<String> lines = new ArrayList<>(jobs.size() + 1);
+        lines.add(HEADER);
+        for (ScheduledJob job : jobs.values()) {
+            lines.add(job.toLine());
+        }
+        try {
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(temp, lines, StandardCharsets.UTF_8);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "Cannot save the scheduled jobs to " + file, ex);
+        }
+    }
+
+    /**
+     * The jobs of one run of a scheduled job, one per input. The results are
+     * counted in the scheduled job as it is now, it may be edited during the
+     * run.
+     */
+    private class Run implements JobListener {
+
+        //The scheduled job when the run started
+        private final ScheduledJob job;
+        private final List<File> inputs;
+        //Name of the scheduled job, changed when it is renamed
+        private String name;
+        private int finished;
+
+        Run(ScheduledJob job, List<File> inputs) {
+            this.job = job;
+            this.inputs = inputs;
+            this.name = job.getName();
+        }
+
+        /**
+         * @return the scheduled job as edited since the start, the job the run
+         * started with if it has been removed
+         */
+        ScheduledJob current() {
+            ScheduledJob current = jobs.get(name);
+            return current == null ? job : current;
+        }
+
+        void submit() {
+            if (inputs.isEmpty()) {
+                finish(this);
+                return;
+            }
+            for (File input : inputs) {
+                ReportJob report = new ReportJob(input, job.getOutput(), job.isSubtract(), job.getStore());
+                try {
+                    //Inputs applied by earlier runs are skipped by the ledger
+                    submitter.submit(report, this, DuplicatePolicy.REFUSE);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    jobFinished(report, JobStatus.Failed, ex);
+                } catch (RuntimeException ex) {
+                    log.log(Level.WARNING, "Cannot queue " + report, ex);
+                    jobFinished(report, JobStatus.Failed, ex);
+                }
+            }
+        }
+
+        @Override
+        public void phaseChanged(ReportJob report, JobPhase phase) {
+        }
+
+        @Override
+        public void jobFinished(ReportJob report, JobStatus status, Throwable error) {
+            synchronized (JobScheduler.this) {
+                ScheduledJob current = current();
+                if (status == JobStatus.Completed) {
+                    current.lastCompleted++;
+                } else if (status == JobStatus.Skipped) {
+                    current.lastSkipped++;
+                } else {
+                    current.lastFailed++;
+                }
+                if (++finished < inputs.size()) {
+                    return;
+                }
+            }
+            finish(this);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.schedule;
+
+/**
+ * Receives the runs of scheduled jobs. The methods are invoked on the
+ * scheduler's thread or on the thread of the last job of a run.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public interface ScheduleListener {
+
+    /**
+     * Called when a run of a scheduled job starts, or fails to start.
+     *
+     * @param job the scheduled job, its error is set if the run cannot start
+     * @param inputs number of files being merged
+     */
+    void runStarted(ScheduledJob job, int inputs);
+
+    /**
+     * Called once all jobs of a run have finished, the results of the run are
+     * set in the scheduled job.
+     *
+     * @param job the scheduled job
+     */
+    void runFinished(ScheduledJob job);
+}
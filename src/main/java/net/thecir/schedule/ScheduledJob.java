@@ -0,0 +1,201 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.schedule;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import lombok.Getter;
+import net.thecir.enums.ScheduleInterval;
+import net.thecir.enums.SchedulePriority;
+import net.thecir.enums.Stores;
+
+/**
+ * A saved job definition run by the {@link JobScheduler}, with the result of
+ * its last run. Every run merges the files matching the input pattern into
+ * the output; files already applied are skipped by the output's ledger, so a
+ * folder of exports can be scheduled as a whole.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+@Getter
+public class ScheduledJob {
+
+    //Unique, identifies the job in the scheduler
+    private final String name;
+    //Path of the inputs, the file name may contain the wildcards * and ?
+    private final String inputPattern;
+    private final File output;
+    private final Stores store;
+    private final boolean subtract;
+    private final ScheduleInterval interval;
+    //Time of day of the runs, only the minute is used by hourly jobs
+    private final LocalTime time;
+    //Day of the runs of weekly jobs
+    private final DayOfWeek day;
+    private final SchedulePriority priority;
+    private final boolean enabled;
+
+    //The last scheduled time which was run or skipped, earlier runs are not due
+    volatile Instant lastDue;
+    //Start of the last run, null if the job has not run yet
+    volatile Instant lastRun;
+    volatile int lastCompleted;
+    volatile int lastSkipped;
+    volatile int lastFailed;
+    //Why the last run could not start, null if it did
+    volatile String lastError;
+
+    public ScheduledJob(String name, String inputPattern, File output, Stores store, boolean subtract,
+            ScheduleInterval interval, LocalTime time, DayOfWeek day, SchedulePriority priority, boolean enabled) {
+        if (name.trim().isEmpty() || name.contains("\t") || inputPattern.contains("\t")) {
+            throw new IllegalArgumentException("Invalid scheduled job: " + name);
+        }
+        this.name = name.trim();
+        this.inputPattern = inputPattern;
+        this.output = output;
+        this.store = store;
+        this.subtract = subtract;
+        this.interval = interval;
+        this.time = time.withSecond(0).withNano(0);
+        this.day = day;
+        this.priority = priority;
+        this.enabled = enabled;
+        lastDue = Instant.now();
+    }
+
+    /**
+     * @param now the current time
+     * @return the latest scheduled time not after now
+     */
+    public Instant previousDue(Instant now) {
+        ZonedDateTime at = now.atZone(ZoneId.systemDefault());
+        ZonedDateTime due;
+        switch (interval) {
+            case Hourly:
+                due = at.withMinute(time.getMinute()).withSecond(0).withNano(0);
+                return (due.isAfter(at) ? due.minusHours(1) : due).toInstant();
+            case Daily:
+                due = at.with(time);
+                return (due.isAfter(at) ? due.minusDays(1) : due).toInstant();
+            default:
+                due = at.with(TemporalAdjusters.previousOrSame(day)).with(time);
+                return (due.isAfter(at) ? due.minusWeeks(1) : due).toInstant();
+        }
+    }
+
+    /**
+     * @param now the current time
+     * @return the first scheduled time after now
+     */
+    public Instant nextDue(Instant now) {
+        ZonedDateTime due = previousDue(now).atZone(ZoneId.systemDefault());
+        switch (interval) {
+            case Hourly:
+                return due.plusHours(1).toInstant();
+            case Daily:
+                return due.plusDays(1).with(time).toInstant();
+            default:
+                return due.plusWeeks(1).with(time).toInstant();
+        }
+    }
+
+    /**
+     * Lists the files matching the input pattern, except the output and
+     * hidden files.
+     *
+     * @return the inputs, oldest first so cumulative exports are applied in
+     * the order they were made
+     * @throws IOException if the folder of the inputs cannot be listed
+     */
+    public List<File> findInputs() throws IOException {
+        //Not a Path, Windows does not allow wildcards in paths
+        File pattern = new File(inputPattern).getAbsoluteFile();
+        Path outputPath = output.getAbsoluteFile().toPath();
+        List<File> inputs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(pattern.getParentFile().toPath(), pattern.getName())) {
+            for (Path file : files) {
+                if (Files.isRegularFile(file) && !Files.isHidden(file) && !file.equals(outputPath)) {
+                    inputs.add(file.toFile());
+                }
+            }
+        }
+        inputs.sort(Comparator.comparingLong(File::lastModified).thenComparing(File::getName));
+        return inputs;
+    }
+
+    /**
+     * @return a copy of the definition with the last due time and the result
+     * of the last run of another job, used when a job is edited
+     */
+    ScheduledJob withState(ScheduledJob previous) {
+        ScheduledJob job = new ScheduledJob(name, inputPattern, output, store, subtract, interval, time, day, priority, enabled);
+        job.lastDue = previous.lastDue;
+        job.lastRun = previous.lastRun;
+        job.lastCompleted = previous.lastCompleted;
+        job.lastSkipped = previous.lastSkipped;
+        job.lastFailed = previous.lastFailed;
+        job.lastError = previous.lastError;
+        return job;
+    }
+
+    String toLine() {
+        return String.join("\t", name, inputPattern, output.getPath(), store.name(), Boolean.toString(subtract),
+                interval.name(), time.toString(), day.name(), priority.name(), Boolean.toString(enabled),
+                lastDue.toString(), lastRun == null ? "" : lastRun.toString(), Integer.toString(lastCompleted),
+                Integer.toString(lastSkipped), Integer.toString(lastFailed),
+                lastError == null ? "" : lastError.replaceAll("\\s+", " "));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the line is not a scheduled job
+     */
+    static ScheduledJob parse(String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 16) {
+            throw new IllegalArgumentException("Not a scheduled job: " + line);
+        }
+        ScheduledJob job = new ScheduledJob(fields[0], fields[1], new File(fields[2]), Stores.valueOf(fields[3]),
+                Boolean.parseBoolean(fields[4]), ScheduleInterval.valueOf(fields[5]), LocalTime.parse(fields[6]),
+                DayOfWeek.valueOf(fields[7]), SchedulePriority.valueOf(fields[8]), Boolean.parseBoolean(fields[9]));
+        job.lastDue = Instant.parse(fields[10]);
+        job.lastRun = fields[11].isEmpty() ? null : Instant.parse(fields[11]);
+        job.lastCompleted = Integer.parseInt(fields[12]);
+        job.lastSkipped = Integer.parseInt(fields[13]);
+        job.lastFailed = Integer.parseInt(fields[14]);
+        job.lastError = fields[15].isEmpty() ? null : fields[15];
+        return job;
+    }
+}
@@ -0,0 +1,435 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import lombok.extern.java.Log;
+import net.thecir.detection.StoreDetection;
+import net.thecir.detection.StoreDetector;
+import net.thecir.diagnostics.JobMetrics;
+import net.thecir.diagnostics.MetricsExporter;
+import net.thecir.diagnostics.MetricsRecorder;
+import net.thecir.enums.JobPhase;
+import net.thecir.enums.JobStatus;
+import net.thecir.enums.Stores;
+import net.thecir.jobs.DuplicatePolicy;
+import net.thecir.jobs.JobListener;
+import net.thecir.jobs.ReportJob;
+import net.thecir.jobs.ReportTask;
+import net.thecir.main.AppDirectory;
+
+/**
+ * Accepts report jobs from other programs over HTTP on the loopback
+ * interface. A job is submitted with
+ * <pre>
+ * POST /jobs   {"input": "&lt;file&gt;", "output": "&lt;file&gt;", "store": "&lt;name|auto&gt;"[, "subtract": true][, "incremental": true][, "largeFiles": true][, "force": true]}
+ * </pre>
+ * as an application/json body, and answered with its id. GET /jobs and
+ * GET /jobs/&lt;id&gt; return the status, and the timings once finished,
+ * DELETE /jobs/&lt;id&gt; cancels a job. All answers are JSON.
+ *
+ * Every request carries the secret kept in the server.token file of the
+ * application's folder in the X-LRM-Token header, so only programs of the
+ * user can send jobs. Requests with an Origin header come from web pages and
+ * are refused.
+ *
+ * The jobs go into the same queue as the jobs started by hand. Requests are
+ * handled by two threads, and once too many submitted jobs are unfinished
+ * further submissions are refused with 429 until the queue drains.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+@Log
+public class JobServer implements Closeable {
+
+    public static final int DEFAULT_PORT = 8765;
+
+    public static final String TOKEN_HEADER = "X-LRM-Token";
+    public static final String TOKEN_FILE = "server.token";
+
+    private static final String CONTEXT = "/jobs";
+    //Unfinished jobs from which further submissions are refused
+    private static final int CAPACITY = Integer.getInteger("lrm.server.capacity", 64);
+    //Finished jobs kept for status requests
+    private static final int RETAINED = 1000;
+    private static final int HANDLER_THREADS = 2;
+    private static final int RETRY_AFTER_SECONDS = 5;
+    private static final int MAX_REQUEST_BYTES = 64 * 1024;
+
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final JobSubmitter submitter;
+    private final Path tokenFile;
+    private final byte[] token;
+    //Submitted jobs by id, oldest first
+    private final Map<Long, SubmittedJob> jobs = new LinkedHashMap<>();
+    private long nextId = 1;
+    private int unfinished;
+
+    /**
+     * Binds the server to a port of the loopback interface, it accepts
+     * requests once started.
+     *
+     * @param port the port, 0 for any free port
+     * @param submitter queues the received jobs
+     * @throws IOException if the port cannot be bound or the token cannot be
+     * read
+     */
+    public JobServer(int port, JobSubmitter submitter) throws IOException {
+        this.submitter = submitter;
+        tokenFile = AppDirectory.resolve(TOKEN_FILE);
+        token = token(tokenFile).getBytes(StandardCharsets.UTF_8);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        AtomicInteger threads = new AtomicInteger();
+        handlers = Executors.newFixedThreadPool(HANDLER_THREADS, (runnable) -> {
+            Thread thread = new Thread(runnable, "job-server-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(handlers);
+        server.createContext(CONTEXT, this::handle);
+    }
+
+    public void start() {
+        server.start();
+        log.info("Accepting jobs on " + getAddress() + " with the token in " + tokenFile);
+    }
+
+    /**
+     * @return the address jobs are submitted to
+     */
+    public String getAddress() {
+        return "http://localhost:" + server.getAddress().getPort() + CONTEXT;
+    }
+
+    /**
+     * @return the file holding the token the requests have to carry
+     */
+    public Path getTokenFile() {
+        return tokenFile;
+    }
+
+    /**
+     * Stops accepting requests, the submitted jobs keep running.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        handlers.shutdown();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath().substring(CONTEXT.length());
+            String method = exchange.getRequestMethod();
+            if (exchange.getRequestHeaders().containsKey("Origin")) {
+                send(exchange, 403, error("Requests from web pages are not accepted"));
+                return;
+            }
+            String sent = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+            if (sent == null || !MessageDigest.isEqual(token, sent.trim().getBytes(StandardCharsets.UTF_8))) {
+                send(exchange, 401, error("Missing or wrong " + TOKEN_HEADER + " header"));
+                return;
+            }
+            if (path.isEmpty() || path.equals("/")) {
+                if ("POST".equals(method)) {
+                    submit(exchange);
+                } else if ("GET".equals(method)) {
+                    send(exchange, 200, list());
+                } else {
+                    send(exchange, 405, error("Use GET or POST"));
+                }
+                return;
+            }
+            SubmittedJob job = find(path.substring(1));
+            if (job == null) {
+                send(exchange, 404, error("No such job"));
+            } else if ("GET".equals(method)) {
+                send(exchange, 200, job.toJson());
+            } else if ("DELETE".equals(method)) {
+                job.task.abort();
+                send(exchange, 200, job.toJson());
+            } else {
+                send(exchange, 405, error("Use GET or DELETE"));
+            }
+        } catch (IllegalArgumentException ex) {
+            send(exchange, 400, error(ex.getMessage()));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            send(exchange, 503, error("Shutting down"));
+        } catch (RuntimeException ex) {
+            log.log(Level.SEVERE, "Failed to handle " + exchange.getRequestURI(), ex);
+            send(exchange, 500, error(ex.toString()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void submit(HttpExchange exchange) throws IOException, InterruptedException {
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType == null || !contentType.split(";")[0].trim().equalsIgnoreCase("application/json")) {
+            send(exchange, 415, error("Send the job as application/json"));
+            return;
+        }
+        Map<String, String> parameters = JsonForm.parse(body(exchange));
+        File input = file(parameters, "input");
+        File output = file(parameters, "output");
+        Stores store = store(parameters.get("store"), input);
+        ReportJob job = new ReportJob(input, output, flag(parameters, "subtract"), store, flag(parameters, "largeFiles"),
+                flag(parameters, "incremental"));
+        DuplicatePolicy duplicatePolicy = flag(parameters, "force") ? DuplicatePolicy.ALLOW : DuplicatePolicy.REFUSE;
+        SubmittedJob submitted = null;
+        synchronized (this) {
+            if (unfinished < CAPACITY) {
+                unfinished++;
+                submitted = new SubmittedJob(nextId++, job);
+                jobs.put(submitted.id, submitted);
+                prune();
+            }
+        }
+        if (submitted == null) {
+            exchange.getResponseHeaders().set("Retry-After", Integer.toString(RETRY_AFTER_SECONDS));
+            send(exchange, 429, error("Too many unfinished jobs, retry later"));
+            return;
+        }
+        try {
+            submitted.task = submitter.submit(job, submitted, duplicatePolicy);
+        } catch (InterruptedException | RuntimeException ex) {
+            synchronized (this) {
+                jobs.remove(submitted.id);
+                unfinished--;
+            }
+            throw ex;
+        }
+        exchange.getResponseHeaders().set("Location", CONTEXT + "/" + submitted.id);
+        send(exchange, 202, submitted.toJson());
+    }
+
+    private synchronized String list() {
+        StringBuilder json = new StringBuilder("[");
+        for (SubmittedJob job : jobs.values()) {
+            json.append(json.length() == 1 ? "\n  " : ",\n  ").append(job.toJson());
+        }
+        return json.append("\n]").toString();
+    }
+
+    private synchronized SubmittedJob find(String id) {
+        try {
+            SubmittedJob job = jobs.get(Long.parseLong(id));
+            //Not visible before its task is queued
+            return job == null || job.task == null ? null : job;
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Forgets the oldest finished jobs beyond the retained number.
+     */
+    private void prune() {
+        int excess = jobs.size() - unfinished - RETAINED;
+        for (Iterator<SubmittedJob> it = jobs.values().iterator(); it.hasNext() && excess > 0;) {
+            if (it.next().finished) {
+                it.remove();
+                excess--;
+            }
+        }
+    }
+
+    /**
+     * Reads the token from the file, creating the file with a new random
+     * token readable only by the user if missing.
+     */
+    private static String token(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            byte[] random = new byte[32];
+            new SecureRandom().nextBytes(random);
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(temporary, String.format("%064x", new BigInteger(1, random)).getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.setPosixFilePermissions(temporary, PosixFilePermissions.fromString("rw-------"));
+            } catch (UnsupportedOperationException ex) {
+                log.log(Level.FINE, "Cannot restrict the permissions of " + file, ex);
+            }
+            try {
+                Files.move(temporary, file);
+            } catch (FileAlreadyExistsException ex) {
+                //Created meanwhile by another instance
+                Files.delete(temporary);
+            }
+        }
+        String token = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+        if (token.isEmpty()) {
+            throw new IOException("Empty token in " + file);
+        }
+        return token;
+    }
+
+    private static String body(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[4096];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                body.write(buffer, 0, read);
+                if (body.size() > MAX_REQUEST_BYTES) {
+                    throw new IllegalArgumentException("Request too large");
+                }
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static File file(Map<String, String> parameters, String name) {
+        String path = parameters.get(name);
+        if (path == null || path.isEmpty()) {
+            throw new IllegalArgumentException("Missing " + name);
+        }
+        File file = new File(path);
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("No such file: " + path);
+        }
+        return file;
+    }
+
+    private static boolean flag(Map<String, String> parameters, String name) {
+        return Boolean.parseBoolean(parameters.get(name));
+    }
+
+    private static Stores store(String name, File input) {
+        if (name == null) {
+            throw new IllegalArgumentException("Missing store");
+        }
+        if (name.equalsIgnoreCase("auto")) {
+            try {
+                StoreDetection detection = StoreDetector.getInstance().detect(input);
+                if (detection.isConfident()) {
+                    return detection.getStore();
+                }
+            } catch (IOException ex) {
+                log.log(Level.FINE, "Cannot read the header of " + input, ex);
+            }
+            throw new IllegalArgumentException("Cannot recognise the retailer of " + input);
+        }
+        for (Stores store : Stores.values()) {
+            if (store.name().equalsIgnoreCase(name)) {
+                return store;
+            }
+        }
+        throw new IllegalArgumentException("Unknown store: " + name);
+    }
+
+    private static String error(String message) {
+        return "{\"error\": " + MetricsExporter.json(message) + "}";
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = (json + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * A job received by the server, notified about its progress.
+     */
+    private class SubmittedJob implements JobListener {
+
+        private final long id;
+        private final ReportJob job;
+        private final Instant submitted = Instant.now();
+        private volatile ReportTask task;
+        private volatile boolean finished;
+        private volatile String error;
+        private volatile JobMetrics metrics;
+
+        SubmittedJob(long id, ReportJob job) {
+            this.id = id;
+            this.job = job;
+        }
+
+        @Override
+        public void phaseChanged(ReportJob job, JobPhase phase) {
+        }
+
+        @Override
+        public void jobFinished(ReportJob job, JobStatus status, Throwable error) {
+            this.error = error == null ? null : error.toString();
+            metrics = MetricsRecorder.getInstance().find(job);
+            finished = true;
+            synchronized (JobServer.this) {
+                unfinished--;
+            }
+        }
+
+        String toJson() {
+            ReportTask current = task;
+            StringBuilder json = new StringBuilder();
+            json.append("{\"id\": ").append(id)
+                    .append(", \"input\": ").append(MetricsExporter.json(job.getInput().toString()))
+                    .append(", \"output\": ").append(MetricsExporter.json(job.getOutput().toString()))
+                    .append(", \"store\": ").append(MetricsExporter.json(job.getStore().name()))
+                    .append(", \"subtract\": ").append(job.isSubtract())
+                    .append(", \"incremental\": ").append(job.isIncremental())
+                    .append(", \"submitted\": ").append(MetricsExporter.json(submitted.toString()))
+                    .append(", \"status\": ").append(MetricsExporter.json((current == null ? JobStatus.Queued : current.getStatus()).name()));
+            if (current != null && current.getPhase() != null) {
+                json.append(", \"phase\": ").append(MetricsExporter.json(current.getPhase().name()));
+            }
+            if (error != null) {
+                json.append(", \"error\": ").append(MetricsExporter.json(error));
+            }
+            if (metrics != null) {
+                json.append(", \"metrics\": ").append(MetricsExporter.toJson(metrics));
+            }
+            return json.append("}").toString();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.server;
+
+import net.thecir.jobs.DuplicatePolicy;
+import net.thecir.jobs.JobListener;
+import net.thecir.jobs.ReportJob;
+import net.thecir.jobs.ReportTask;
+
+/**
+ * Queues the jobs received by the {@link JobServer}, in the queue of the GUI
+ * or of the headless runner.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+@FunctionalInterface
+public interface JobSubmitter {
+
+    /**
+     * Queues a job. Called on a thread of the server.
+     *
+     * @param job the job to be run
+     * @param listener the server's listener, must be notified along with the
+     * submitter's own listeners
+     * @param duplicatePolicy decides about inputs conflicting with the
+     * output's ledger
+     * @return the queued task
+     * @throws InterruptedException if the thread was interrupted while
+     * queueing
+     */
+    ReportTask submit(ReportJob job, JobListener listener, DuplicatePolicy duplicatePolicy) throws InterruptedException;
+}
@@ -0,0 +1,186 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.server;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the flat JSON object a job is submitted as. The values are strings,
+ * numbers, booleans or null, and are returned as text.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+final class JsonForm {
+
+    private final String text;
+    private int position;
+
+    private JsonForm(String text) {
+        this.text = text;
+    }
+
+    /**
+     * @param text a JSON object without nested objects or arrays
+     * @return the values by name, null values are left out
+     * @throws IllegalArgumentException if the text is not such an object
+     */
+    static Map<String, String> parse(String text) {
+        JsonForm form = new JsonForm(text);
+        Map<String, String> values = form.object();
+        form.skipSpace();
+        if (form.position < text.length()) {
+            throw form.invalid();
+        }
+        return values;
+    }
+
+    private Map<String, String> object() {
+        Map<String, String> values = new HashMap<>();
+        expect('{');
+        skipSpace();
+        if (peek() == '}') {
+            position++;
+            return values;
+        }
+        do {
+            skipSpace();
+            String name = string();
+            skipSpace();
+            expect(':');
+            skipSpace();
+            String value = value();
+            if (value != null) {
+                values.put(name, value);
+            }
+            skipSpace();
+        } while (next() == ',');
+        position--;
+        expect('}');
+        return values;
+    }
+
+    private String value() {
+        char first = peek();
+        if (first == '"') {
+            return string();
+        }
+        int start = position;
+        while (position < text.length() && "-+.eE0123456789abcdefghijklmnopqrstuvwxyz".indexOf(text.charAt(position)) >= 0) {
+            position++;
+        }
+        String literal = text.substring(start, position);
+        if (literal.equals("null")) {
+            return null;
+        }
+        if (literal.equals("true") || literal.equals("false")) {
+            return literal;
+        }
+        try {
+            Double.parseDouble(literal);
+            return literal;
+        } catch (NumberFormatException ex) {
+            position = start;
+            throw invalid();
+        }
+    }
+
+    private String string() {
+        expect('"');
+        StringBuilder value = new StringBuilder();
+        for (char c = next(); c != '"'; c = next()) {
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            char escaped = next();
+            switch (escaped) {
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'u':
+                    if (position + 4 > text.length()) {
+                        throw invalid();
+                    }
+                    try {
+                        value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                    } catch (NumberFormatException ex) {
+                        throw invalid();
+                    }
+                    position += 4;
+                    break;
+                case '"':
+                case '\\':
+                case '/':
+                    value.append(escaped);
+                    break;
+                default:
+                    throw invalid();
+            }
+        }
+        return value.toString();
+    }
+
+    private void skipSpace() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+
+    private char peek() {
+        if (position >= text.length()) {
+            throw invalid();
+        }
+        return text.charAt(position);
+    }
+
+    private char next() {
+        char c = peek();
+        position++;
+        return c;
+    }
+
+    private void expect(char expected) {
+        if (next() != expected) {
+            position--;
+            throw invalid();
+        }
+    }
+
+    private IllegalArgumentException invalid() {
+        return new IllegalArgumentException("Invalid JSON at character " + (position + 1));
+    }
+}
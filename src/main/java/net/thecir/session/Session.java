@@ -0,0 +1,88 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.session;
+
+import javax.swing.JFrame;
+import javax.swing.JTextField;
+import lombok.Getter;
+import net.thecir.callbacks.FileCallback;
+import net.thecir.core.LiteReportManager;
+import net.thecir.filemanagers.NewFileManager;
+import net.thecir.jobs.JobQueue;
+
+/**
+ * The engine context of one workspace. Each session has its own instance of
+ * the core, bound once to the workspace's window and status field, so the
+ * jobs of different workspaces never report to each other's components.
+ *
+ * The sessions of a window share its job queue. Jobs of different outputs
+ * run in parallel, whichever session they belong to, while the jobs of one
+ * output are still run one after another.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class Session {
+
+    //The core looks up the shared new file manager itself, so creating new files takes turns
+    private static final Object NEW_FILE_LOCK = new Object();
+
+    //Generates the reports of the session's jobs
+    @Getter
+    private final LiteReportManager engine = new LiteReportManager();
+    @Getter
+    private final JobQueue jobQueue;
+
+    /**
+     * Constructor
+     *
+     * @param jobQueue - runs the session's jobs, may be shared with other
+     * sessions
+     */
+    public Session(JobQueue jobQueue) {
+        this.jobQueue = jobQueue;
+    }
+
+    /**
+     * Binds the engine to the components it reports to.
+     *
+     * @param parent - owner of the engine's dialogs
+     * @param statusField - receives the engine's status messages
+     */
+    public void bind(JFrame parent, JTextField statusField) {
+        engine.initOutputComponents(parent, statusField);
+    }
+
+    /**
+     * Lets the user create a new output file. The core may wait for the user,
+     * so it must not be called on the event dispatch thread.
+     *
+     * @param callback - receives the created file
+     */
+    public void createNewFile(FileCallback callback) {
+        synchronized (NEW_FILE_LOCK) {
+            NewFileManager.getInstance().setFileCallback(callback);
+            engine.createNewFile();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.status;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import net.thecir.enums.JobPhase;
+import net.thecir.enums.JobStatus;
+import net.thecir.enums.Severity;
+import net.thecir.jobs.JobListener;
+import net.thecir.jobs.ReportJob;
+
+/**
+ * Carries status messages from any thread to the user interface. Messages are
+ * queued without locking and handed to the listeners in batches on the event
+ * dispatch thread, at most once per interval, so a burst of messages costs a
+ * single repaint. If the interface falls behind, the oldest queued messages
+ * are dropped.
+ *
+ * The bus also listens to the jobs, so a message published by the core on a
+ * job's thread is attributed to that job.
+ *
+ * The interval is set in milliseconds with the system property
+ * lrm.status.intervalMillis, the number of queued messages with
+ * lrm.status.logSize.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class StatusBus implements JobListener {
+
+    private static final long INTERVAL_MILLIS = Long.getLong("lrm.status.intervalMillis", 100);
+    private static final int CAPACITY = Integer.getInteger("lrm.status.logSize", 1000);
+
+    private final Queue<StatusEvent> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    //Set while a delivery of the pending messages is scheduled
+    private final AtomicBoolean deliveryScheduled = new AtomicBoolean();
+    //The jobs being run, by the thread running them
+    private final Map<Thread, ReportJob> runningJobs = new ConcurrentHashMap<>();
+    private final List<Consumer<List<StatusEvent>>> listeners = new CopyOnWriteArrayList<>();
+    private final Timer deliveryTimer = new Timer(0, (event) -> deliver());
+    private volatile long lastDelivery = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(INTERVAL_MILLIS);
+
+    public StatusBus() {
+        deliveryTimer.setRepeats(false);
+    }
+
+    public static int getCapacity() {
+        return CAPACITY;
+    }
+
+    /**
+     * @param listener receives the messages published since its last call, in
+     * order, on the event dispatch thread
+     */
+    public void addListener(Consumer<List<StatusEvent>> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<List<StatusEvent>> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Publishes a message. May be called from any thread.
+     *
+     * @param severity how severe the message is
+     * @param job the job the message is about, null if none
+     * @param message the text, in the current language
+     */
+    public void publish(Severity severity, ReportJob job, String message) {
+        pending.add(new StatusEvent(Instant.now(), severity, job, message));
+        if (pendingCount.incrementAndGet() > CAPACITY && pending.poll() != null) {
+            pendingCount.decrementAndGet();
+        }
+        if (deliveryScheduled.compareAndSet(false, true)) {
+            long wait = INTERVAL_MILLIS - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastDelivery);
+            if (wait <= 0) {
+                SwingUtilities.invokeLater(this::deliver);
+            } else {
+                deliveryTimer.setInitialDelay((int) wait);
+                deliveryTimer.start();
+            }
+        }
+    }
+
+    /**
+     * Publishes a message about the job run by the current thread, if any.
+     *
+     * @param severity how severe the message is
+     * @param message the text, in the current language
+     */
+    public void publishForCurrentThread(Severity severity, String message) {
+        publish(severity, runningJobs.get(Thread.currentThread()), message);
+    }
+
+    private void deliver() {
+        //Cleared first, a message published meanwhile schedules the next delivery
+        deliveryScheduled.set(false);
+        lastDelivery = System.nanoTime();
+        List<StatusEvent> events = new ArrayList<>();
+        for (StatusEvent event = pending.poll(); event != null; event = pending.poll()) {
+            pendingCount.decrementAndGet();
+            events.add(event);
+        }
+        if (events.isEmpty()) {
+            return;
+        }
+        for (Consumer<List<StatusEvent>> listener : listeners) {
+            listener.accept(events);
+        }
+    }
+
+    @Override
+    public void phaseChanged(ReportJob job, JobPhase phase) {
+        runningJobs.put(Thread.currentThread(), job);
+    }
+
+    @Override
+    public void jobFinished(ReportJob job, JobStatus status, Throwable error) {
+        runningJobs.values().removeIf((running) -> running == job);
+    }
+}
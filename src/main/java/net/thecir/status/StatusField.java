@@ -0,0 +1,58 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.status;
+
+import javax.swing.JTextField;
+import net.thecir.enums.Severity;
+
+/**
+ * The status field handed to the core. It is never shown, the texts the core
+ * sets on it, from whichever thread, are published on a {@link StatusBus}
+ * instead of being painted straight away.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class StatusField extends JTextField {
+
+    private final StatusBus bus;
+    private volatile String text;
+
+    public StatusField(StatusBus bus) {
+        this.bus = bus;
+    }
+
+    @Override
+    public void setText(String text) {
+        this.text = text;
+        //The field's constructor may set a text before the bus is assigned
+        if (bus != null && text != null && !text.isEmpty()) {
+            bus.publishForCurrentThread(Severity.Info, text);
+        }
+    }
+
+    @Override
+    public String getText() {
+        return text;
+    }
+}
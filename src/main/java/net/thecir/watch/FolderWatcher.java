@@ -0,0 +1,206 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.watch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import lombok.Getter;
+import lombok.extern.java.Log;
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Watches a folder and its subfolders for new Excel files. A file is handed
+ * over only once its size and modification time have stopped changing, so
+ * files which are still being copied are never picked up. Nothing is polled
+ * while no file is arriving.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+@Log
+public class FolderWatcher implements Closeable {
+
+    //Interval between two checks whether a new file is still being written
+    private static final long STABILIZATION_MILLIS = 2000;
+
+    @Getter
+    private final Path root;
+    private final Consumer<Path> onFileReady;
+    private final WatchService watchService;
+    private final ScheduledExecutorService stabilizer;
+    //Files waiting for their size to settle
+    private final Set<Path> pending = ConcurrentHashMap.newKeySet();
+    //Size and modification time of the files already handed over, to skip repeated events
+    private final Map<Path, String> delivered = new ConcurrentHashMap<>();
+    //Files inside the folder which must never be picked up, such as the output itself
+    private final Set<Path> excluded = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    /**
+     * Constructor
+     *
+     * @param root - folder to be watched
+     * @param onFileReady - receives the completely written files, called on a
+     * background thread
+     * @throws IOException if the file system cannot be watched
+     */
+    public FolderWatcher(Path root, Consumer<Path> onFileReady) throws IOException {
+        this.root = root.toAbsolutePath();
+        this.onFileReady = onFileReady;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.stabilizer = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "folder-watcher-stabilizer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Never hands over the given file. Used for an output file located inside
+     * the watched folder, which would otherwise be picked up every time it is
+     * saved.
+     *
+     * @param file file to be ignored
+     */
+    public void exclude(Path file) {
+        excluded.add(file.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Registers the folder tree and starts watching it in the background.
+     *
+     * @throws IOException if the folder cannot be registered
+     */
+    public void start() throws IOException {
+        registerTree(root);
+        Thread thread = new Thread(this::watch, "folder-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        stabilizer.shutdownNow();
+        watchService.close();
+    }
+
+    private void watch() {
+        try {
+            while (!closed) {
+                WatchKey key = watchService.take();
+                Path folder = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        log.warning("Events lost while watching " + folder);
+                        continue;
+                    }
+                    Path path = folder.resolve((Path) event.context());
+                    if (Files.isDirectory(path)) {
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                            registerTree(path);
+                        }
+                    } else if (isExcelFile(path) && !excluded.contains(path.normalize())) {
+                        awaitStable(path);
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ex) {
+            //Closed
+        } catch (IOException ex) {
+            log.log(Level.SEVERE, "Stopped watching " + root, ex);
+        }
+    }
+
+    private void registerTree(Path folder) throws IOException {
+        Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void awaitStable(Path file) {
+        if (pending.add(file)) {
+            schedule(file, null);
+        }
+    }
+
+    private void schedule(Path file, String lastState) {
+        if (!closed) {
+            stabilizer.schedule(() -> checkStable(file, lastState), STABILIZATION_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void checkStable(Path file, String lastState) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            String state = attrs.size() + "@" + attrs.lastModifiedTime().toMillis();
+            if (attrs.size() == 0 || !state.equals(lastState) || !Files.isReadable(file)) {
+                schedule(file, state);
+                return;
+            }
+            pending.remove(file);
+            if (!state.equals(delivered.put(file, state))) {
+                onFileReady.accept(file);
+            }
+        } catch (NoSuchFileException ex) {
+            pending.remove(file);
+        } catch (IOException | RuntimeException ex) {
+            pending.remove(file);
+            log.log(Level.SEVERE, "Failed to pick up " + file, ex);
+        }
+    }
+
+    /**
+     * Excel lock files and the staged outputs start with ~ and are skipped.
+     */
+    private static boolean isExcelFile(Path path) {
+        String name = path.getFileName().toString();
+        return !name.startsWith("~") && !name.startsWith(".")
+                && FilenameUtils.isExtension(name.toLowerCase(), new String[]{"xls", "xlsx"});
+    }
+}
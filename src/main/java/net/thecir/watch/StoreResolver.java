@@ -0,0 +1,119 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.watch;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import lombok.extern.java.Log;
+import net.thecir.detection.StoreDetection;
+import net.thecir.detection.StoreDetector;
+import net.thecir.enums.Stores;
+
+/**
+ * Determines the retailer of a file in a watched folder by the subfolder it
+ * was dropped into. A subfolder matches if it is named after the retailer or
+ * was mapped to it explicitly. Files outside a matching subfolder are
+ * recognised by their header unless detection is turned off, and if that is
+ * not conclusive the default retailer is used.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+@Log
+public class StoreResolver {
+
+    private final Path root;
+    private final Stores defaultStore;
+    //If files outside a matching subfolder are recognised by their header
+    private final boolean detect;
+    private final Map<String, Stores> folderStores = new HashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param root - the watched folder
+     * @param defaultStore - retailer of files outside any matching subfolder
+     * whose header is not recognised, may be null
+     */
+    public StoreResolver(Path root, Stores defaultStore) {
+        this(root, defaultStore, true);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param root - the watched folder
+     * @param defaultStore - retailer of files outside any matching subfolder
+     * whose header is not recognised, may be null
+     * @param detect - if files outside any matching subfolder are recognised
+     * by their header
+     */
+    public StoreResolver(Path root, Stores defaultStore, boolean detect) {
+        this.root = root.toAbsolutePath();
+        this.defaultStore = defaultStore;
+        this.detect = detect;
+        for (Stores store : Stores.values()) {
+            folderStores.put(store.name().toLowerCase(), store);
+        }
+    }
+
+    /**
+     * Maps a subfolder name to a retailer.
+     *
+     * @param folder name of the subfolder
+     * @param store retailer of the files inside
+     */
+    public void map(String folder, Stores store) {
+        folderStores.put(folder.toLowerCase(), store);
+    }
+
+    /**
+     * @param file a file inside the watched folder
+     * @return the retailer of the file, null if it cannot be determined
+     */
+    public Stores resolve(Path file) {
+        Path relative = root.relativize(file.toAbsolutePath());
+        //The innermost matching folder wins
+        for (int i = relative.getNameCount() - 2; i >= 0; i--) {
+            Stores store = folderStores.get(relative.getName(i).toString().toLowerCase());
+            if (store != null) {
+                return store;
+            }
+        }
+        if (!detect) {
+            return defaultStore;
+        }
+        try {
+            StoreDetection detection = StoreDetector.getInstance().detect(file.toFile());
+            if (detection.isConfident()) {
+                return detection.getStore();
+            }
+        } catch (IOException ex) {
+            log.log(Level.FINE, "Cannot recognise the retailer of " + file, ex);
+        }
+        return defaultStore;
+    }
+}
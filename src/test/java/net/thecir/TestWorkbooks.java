@@ -0,0 +1,88 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import net.thecir.readers.WorkbookReader;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+/**
+ * Writes and reads the small workbooks the tests work with.
+ *
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public final class TestWorkbooks {
+
+    private TestWorkbooks() {
+    }
+
+    /**
+     * Writes an .xlsx with one sheet.
+     *
+     * @param file the file to write
+     * @param sheet name of the sheet
+     * @param rows cell values by row - Double, String or null
+     * @return the file
+     * @throws IOException if the file cannot be written
+     */
+    public static File write(File file, String sheet, Object[]... rows) throws IOException {
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); OutputStream out = new FileOutputStream(file)) {
+            Sheet created = workbook.createSheet(sheet);
+            for (int r = 0; r < rows.length; r++) {
+                if (rows[r] == null) {
+                    continue;
+                }
+                Row row = created.createRow(r);
+                for (int c = 0; c < rows[r].length; c++) {
+                    Object value = rows[r][c];
+                    if (value instanceof Double) {
+                        row.createCell(c).setCellValue((Double) value);
+                    } else if (value != null) {
+                        row.createCell(c).setCellValue(value.toString());
+                    }
+                }
+            }
+            workbook.write(out);
+        }
+        return file;
+    }
+
+    /**
+     * @param file .xls or .xlsx workbook
+     * @return the non-empty rows of all sheets, as WorkbookReader reads them
+     * @throws IOException if the file cannot be read
+     */
+    public static List<Object[]> read(File file) throws IOException {
+        List<Object[]> rows = new ArrayList<>();
+        WorkbookReader.read(file, (sheet, rowIndex, cells) -> rows.add(cells));
+        return rows;
+    }
+}
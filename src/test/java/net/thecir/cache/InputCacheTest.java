@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import net.thecir.TestWorkbooks;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class InputCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void evictsTheLeastRecentlyUsedInput() throws IOException {
+        File a = input("a.xlsx", "Alpha");
+        File b = input("b.xlsx", "Bravo");
+        File c = input("c.xlsx", "Gamma");
+        long size = ParsedInput.parse(a).estimateSize();
+        InputCache cache = new InputCache(2 * size + size / 2, false);
+        cache.get(a);
+        cache.get(b);
+        cache.get(a);
+        cache.get(c);
+        assertNotNull(cache.find(a));
+        assertNull(cache.find(b));
+        assertNotNull(cache.find(c));
+        assertEquals(2 * size, cache.getSize());
+    }
+
+    @Test
+    public void countsACopySharingTheInputOnce() throws IOException {
+        File a = input("a.xlsx", "Alpha");
+        File copy = new File(folder.getRoot(), "copy.xlsx");
+        Files.copy(a.toPath(), copy.toPath());
+        assertTrue(copy.setLastModified(a.lastModified() - TimeUnit.MINUTES.toMillis(1)));
+        InputCache cache = new InputCache(1 << 20, false);
+        ParsedInput parsed = cache.get(a);
+        long size = cache.getSize();
+        assertSame(parsed, cache.get(copy));
+        assertEquals(size, cache.getSize());
+        cache.clear();
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void keepsNoInputLargerThanTheBudget() throws IOException {
+        File a = input("a.xlsx", "Alpha");
+        InputCache cache = new InputCache(ParsedInput.parse(a).estimateSize() - 1, false);
+        assertEquals(2, cache.get(a).getSheets().get(0).getRows().size());
+        assertNull(cache.find(a));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void readsAChangedInputAgain() throws IOException {
+        File a = input("a.xlsx", "Alpha");
+        InputCache cache = new InputCache(1 << 20, false);
+        cache.get(a);
+        TestWorkbooks.write(a, "Sheet", new Object[]{"Changed"}, new Object[]{null, 7.0});
+        assertTrue(a.setLastModified(a.lastModified() - TimeUnit.MINUTES.toMillis(1)));
+        assertNull(cache.find(a));
+        assertEquals("Changed", cache.get(a).getSheets().get(0).getRows().get(0).get(0));
+    }
+
+    @Test
+    public void keepsOnlyInputsReadToTheEnd() throws IOException {
+        File a = input("a.xlsx", "Alpha");
+        InputCache cache = new InputCache(1 << 20, false);
+        cache.read(a, (sheet, rowIndex, cells) -> false);
+        assertNull(cache.find(a));
+        int[] rows = {0};
+        cache.read(a, (sheet, rowIndex, cells) -> ++rows[0] > 0);
+        assertNotNull(cache.find(a));
+        cache.read(a, (sheet, rowIndex, cells) -> ++rows[0] > 0);
+        assertEquals(4, rows[0]);
+        assertFalse(cache.find(a).getSheets().isEmpty());
+    }
+
+    private File input(String name, String title) throws IOException {
+        return TestWorkbooks.write(folder.newFile(name), "Sheet", new Object[]{title}, new Object[]{null, 1.0, 2.0});
+    }
+}
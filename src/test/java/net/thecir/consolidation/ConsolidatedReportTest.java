@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.consolidation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.thecir.TestWorkbooks;
+import net.thecir.enums.Stores;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class ConsolidatedReportTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sumsProductsByTheirCode() throws IOException {
+        Map<Stores, File> inputs = new LinkedHashMap<>();
+        inputs.put(Stores.Technopolis, TestWorkbooks.write(folder.newFile("technopolis.xlsx"), "Sales",
+                new Object[]{"EAN", "Name", "Sold"},
+                new Object[]{3800000000011.0, "Phone X", 2.0},
+                new Object[]{"3800000000028", "Laptop Y", 1.0},
+                new Object[]{null, null, 3.0}));
+        inputs.put(Stores.Technomarket, TestWorkbooks.write(folder.newFile("technomarket.xlsx"), "Export",
+                new Object[]{"Category", "Product", "Barcode", "Sold"},
+                new Object[]{"Phones", "PHONE X 128GB", 3800000000011.0, 5.0},
+                new Object[]{"Laptops", "Laptop Y", 3800000000028.0, 4.0},
+                new Object[]{"Tablets", "Tablet Z", 3800000000035.0, 1.0}));
+        ConsolidatedReport report = ConsolidatedReport.build(inputs);
+        assertEquals(3, report.getProductCount());
+        assertEquals(Arrays.asList("Sold"), report.getMeasures());
+
+        List<Object[]> rows = TestWorkbooks.read(write(report));
+        assertEquals(4, rows.size());
+        assertArrayEquals(new Object[]{"EAN", "Name", null, "Sold", "Sold (Technopolis)", "Sold (Technomarket)"}, rows.get(0));
+        assertSold(find(rows, "Phone X"), 7, 2, 5);
+        assertSold(find(rows, "Laptop Y"), 5, 1, 4);
+        assertSold(find(rows, "Tablet Z"), 1, 0, 1);
+    }
+
+    @Test
+    public void sumsProductsWithoutCodeByTheirText() throws IOException {
+        Map<Stores, File> inputs = new LinkedHashMap<>();
+        inputs.put(Stores.Technopolis, TestWorkbooks.write(folder.newFile("technopolis.xlsx"), "Sales",
+                new Object[]{"Name", "Sold"},
+                new Object[]{"Phone X", 2.0},
+                new Object[]{"Laptop Y", 1.0}));
+        inputs.put(Stores.Technomarket, TestWorkbooks.write(folder.newFile("technomarket.xlsx"), "Sales",
+                new Object[]{"Name", "Sold"},
+                new Object[]{" phone   X ", 5.0}));
+        ConsolidatedReport report = ConsolidatedReport.build(inputs);
+        assertEquals(2, report.getProductCount());
+        assertSold(find(TestWorkbooks.read(write(report)), "Phone X"), 7, 2, 5);
+    }
+
+    private File write(ConsolidatedReport report) throws IOException {
+        File output = new File(folder.getRoot(), "consolidated.xlsx");
+        report.write(output);
+        return output;
+    }
+
+    private static Object[] find(List<Object[]> rows, String name) {
+        for (Object[] row : rows) {
+            if (Arrays.asList(row).contains(name)) {
+                return row;
+            }
+        }
+        fail(name + " is missing");
+        return null;
+    }
+
+    private static void assertSold(Object[] row, double total, double technopolis, double technomarket) {
+        assertArrayEquals(new Object[]{total, technopolis, technomarket}, Arrays.copyOfRange(row, row.length - 3, row.length));
+    }
+}
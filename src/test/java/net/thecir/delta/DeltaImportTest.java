@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.delta;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import net.thecir.TestWorkbooks;
+import net.thecir.enums.Stores;
+import net.thecir.jobs.ReportJob;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class DeltaImportTest {
+
+    private static final Object[] HEADER = {"Product", "Sold"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File output;
+
+    @Before
+    public void createOutput() throws IOException {
+        output = TestWorkbooks.write(folder.newFile("out.xlsx"), "Report", HEADER);
+    }
+
+    @Test
+    public void snapshotKeepsTheRowsOfTheExport() throws IOException {
+        File export = export("first.xlsx", row("Phone", 1), row("Laptop", 2));
+        try (InputSnapshot.Writer writer = new InputSnapshot.Writer(output, Stores.Technopolis, "hash1")) {
+            writer.startSheet("Sales");
+            for (Object[] cells : TestWorkbooks.read(export)) {
+                writer.row("Sales", 0, cells);
+            }
+            writer.keep();
+        }
+        List<InputSnapshot> snapshots = InputSnapshot.list(output, Stores.Technopolis);
+        assertEquals(1, snapshots.size());
+        assertEquals("hash1", snapshots.get(0).getHash());
+        assertTrue(InputSnapshot.list(output, Stores.Technomarket).isEmpty());
+        List<Object[]> rows = new ArrayList<>();
+        snapshots.get(0).read((sheet, rowIndex, cells) -> rows.add(cells));
+        assertEquals(3, rows.size());
+        assertEquals(Arrays.asList(row("Laptop", 2)), Arrays.asList(rows.get(2)));
+    }
+
+    @Test
+    public void firstExportIsAppliedWhole() throws IOException {
+        ReportJob job = job(export("first.xlsx", row("Phone", 1), row("Laptop", 2)));
+        try (DeltaImport delta = DeltaImport.prepare(job, "hash1", null)) {
+            assertEquals(1, delta.getJobs().size());
+            assertSame(job, delta.getJobs().get(0));
+            delta.keepSnapshot();
+        }
+        assertEquals("hash1", InputSnapshot.list(output, Stores.Technopolis).get(0).getHash());
+    }
+
+    @Test
+    public void laterExportAppliesOnlyTheDifference() throws IOException {
+        try (DeltaImport first = DeltaImport.prepare(job(export("first.xlsx", row("Phone", 1), row("Laptop", 2),
+                row("Tablet", 3))), "hash1", null)) {
+            first.keepSnapshot();
+        }
+        InputSnapshot previous = InputSnapshot.list(output, Stores.Technopolis).get(0);
+        ReportJob job = job(export("second.xlsx", row("Phone", 1), row("Laptop", 5), row("Camera", 4)));
+        try (DeltaImport delta = DeltaImport.prepare(job, "hash2", previous)) {
+            assertEquals(1, delta.getUnchangedRows());
+            assertEquals(2, delta.getAddedRows());
+            assertEquals(2, delta.getRemovedRows());
+            List<ReportJob> jobs = delta.getJobs();
+            assertEquals(2, jobs.size());
+            //The removed rows are subtracted first, both parts keep the header
+            assertTrue(jobs.get(0).isSubtract());
+            assertRows(jobs.get(0).getInput(), HEADER, row("Laptop", 2), row("Tablet", 3));
+            assertFalse(jobs.get(1).isSubtract());
+            assertRows(jobs.get(1).getInput(), HEADER, row("Laptop", 5), row("Camera", 4));
+            delta.keepSnapshot();
+        }
+        assertEquals("hash2", InputSnapshot.list(output, Stores.Technopolis).get(0).getHash());
+    }
+
+    @Test
+    public void unchangedExportHasNothingToApply() throws IOException {
+        File export = export("first.xlsx", row("Phone", 1), row("Phone", 1));
+        try (DeltaImport first = DeltaImport.prepare(job(export), "hash1", null)) {
+            first.keepSnapshot();
+        }
+        InputSnapshot previous = InputSnapshot.list(output, Stores.Technopolis).get(0);
+        try (DeltaImport delta = DeltaImport.prepare(job(export("again.xlsx", row("Phone", 1), row("Phone", 1))), "hash1",
+                previous)) {
+            assertTrue(delta.getJobs().isEmpty());
+            assertEquals(2, delta.getUnchangedRows());
+        }
+    }
+
+    private File export(String name, Object[]... rows) throws IOException {
+        Object[][] all = new Object[rows.length + 1][];
+        all[0] = HEADER;
+        System.arraycopy(rows, 0, all, 1, rows.length);
+        return TestWorkbooks.write(folder.newFile(name), "Sales", all);
+    }
+
+    private ReportJob job(File export) {
+        return new ReportJob(export, output, false, Stores.Technopolis, false, true);
+    }
+
+    private static Object[] row(String product, double sold) {
+        return new Object[]{product, sold};
+    }
+
+    private static void assertRows(File file, Object[]... expected) throws IOException {
+        List<Object[]> rows = TestWorkbooks.read(file);
+        assertEquals(expected.length, rows.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(Arrays.asList(expected[i]), Arrays.asList(rows.get(i)));
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.thecir.TestWorkbooks;
+import net.thecir.journal.JournalEntry;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class OutputIndexTest {
+
+    private static final Object[] HEADER = {"Product", "Jan", "Feb"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File output;
+    private OutputIndex index;
+
+    @Before
+    public void indexOutput() throws IOException {
+        output = TestWorkbooks.write(folder.newFile("out.xlsx"), "Report", HEADER,
+                new Object[]{"Phone X", 1.0, 2.0},
+                new Object[]{"Phone Y", 3.0, 4.0},
+                new Object[]{"Laptop Z", 5.0, null});
+        index = OutputIndex.forOutput(output);
+        index.refresh();
+    }
+
+    @Test
+    public void searchSumsTheMatchingRows() {
+        assertEquals(3, index.getRowCount());
+        IndexQuery query = index.query("phone", 10);
+        assertEquals(2, query.getMatchedRows());
+        assertRow(query.getRows().get(0), 1, "Phone X", 3);
+        assertRow(query.getRows().get(1), 2, "Phone Y", 7);
+        assertEquals(2, query.getSums().size());
+        assertSum(query.getSums().get(0), "Jan", 4, 2);
+        assertSum(query.getSums().get(1), "Feb", 6, 2);
+    }
+
+    @Test
+    public void searchNeedsAllWords() {
+        IndexQuery query = index.query("  PHONE   y ", 10);
+        assertEquals(1, query.getMatchedRows());
+        assertRow(query.getRows().get(0), 2, "Phone Y", 7);
+        assertEquals(0, index.query("phone z", 10).getMatchedRows());
+        assertTrue(index.query("camera", 10).getSums().isEmpty());
+    }
+
+    @Test
+    public void rowLimitLeavesTheSumsWhole() {
+        IndexQuery query = index.query("", 1);
+        assertEquals(3, query.getMatchedRows());
+        assertEquals(1, query.getRows().size());
+        assertSum(query.getSums().get(0), "Jan", 9, 3);
+        //Laptop Z has no Feb value
+        assertSum(query.getSums().get(1), "Feb", 6, 2);
+    }
+
+    @Test
+    public void updateAppliesChangedNumbers() throws IOException {
+        rewrite(new Object[]{"Phone X", 10.0, 2.0}, new Object[]{"Phone Y", 3.0, 4.0}, new Object[]{"Laptop Z", 5.0, 1.0});
+        index.update(Collections.singletonList(Arrays.asList(
+                new JournalEntry.Change("Report", 1, 1, 1.0, 10.0),
+                new JournalEntry.Change("Report", 3, 2, null, 1.0))));
+        assertNotNull(OutputIndex.findCurrent(output));
+        assertSum(index.query("", 10).getSums().get(0), "Jan", 18, 3);
+        assertSum(index.query("laptop", 10).getSums().get(1), "Feb", 1, 1);
+    }
+
+    @Test
+    public void updateDropsTheIndexForOtherChanges() throws IOException {
+        rewrite(new Object[]{"Phone X", 1.0, 2.0}, new Object[]{"Phone Y", 3.0, 4.0}, new Object[]{"Tablet Z", 5.0});
+        index.update(Collections.singletonList(Collections.singletonList(
+                new JournalEntry.Change("Report", 3, 0, "Laptop Z", "Tablet Z"))));
+        assertNull(OutputIndex.findCurrent(output));
+        index.refresh();
+        assertEquals(1, index.query("tablet", 10).getMatchedRows());
+    }
+
+    @Test
+    public void changedOutputIsIndexedAgain() throws IOException {
+        rewrite(new Object[]{"Phone X", 1.0, 2.0});
+        assertNull(OutputIndex.findCurrent(output));
+        index.refresh();
+        assertEquals(1, index.getRowCount());
+        assertEquals(0, index.query("laptop", 10).getMatchedRows());
+    }
+
+    /**
+     * Replaces the output's rows, with a modification time telling it apart.
+     */
+    private void rewrite(Object[]... rows) throws IOException {
+        long modified = output.lastModified();
+        Object[][] all = new Object[rows.length + 1][];
+        all[0] = HEADER;
+        System.arraycopy(rows, 0, all, 1, rows.length);
+        TestWorkbooks.write(output, "Report", all);
+        assertTrue(output.setLastModified(modified + TimeUnit.MINUTES.toMillis(1)));
+    }
+
+    private static void assertRow(IndexQuery.RowMatch row, int index, String label, double total) {
+        assertEquals("Report", row.getSheet());
+        assertEquals(index, row.getRow());
+        assertEquals(label, row.getLabel());
+        assertEquals(total, row.getTotal(), 0);
+    }
+
+    private static void assertSum(IndexQuery.ColumnSum sum, String column, double value, int cells) {
+        assertEquals(column, sum.getColumn());
+        assertEquals(value, sum.getSum(), 0);
+        assertEquals(cells, sum.getCells());
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.jobs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import net.thecir.TestWorkbooks;
+import net.thecir.core.LiteReportManager;
+import net.thecir.enums.JobPhase;
+import net.thecir.enums.JobStatus;
+import net.thecir.enums.Stores;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class JobQueueTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final JobQueue queue = new JobQueue(4);
+    private final Map<String, JobStatus> statuses = new ConcurrentHashMap<>();
+    //Inputs in the order their reports were generated
+    private final List<String> generated = Collections.synchronizedList(new ArrayList<>());
+    //Called with the input and the generated report before it is written
+    private volatile BiConsumer<String, File> onGenerate = (input, target) -> {
+    };
+    //Called on the running thread when a job enters a phase
+    private volatile BiConsumer<ReportJob, JobPhase> onPhase = (job, phase) -> {
+    };
+    private final Map<ReportJob, ReportTask> tasks = new ConcurrentHashMap<>();
+    private File output;
+
+    /**
+     * Adds one to Report!B2 and the input's name as a new row. An input named
+     * bad... fails after it has written.
+     */
+    private final LiteReportManager engine = new LiteReportManager() {
+        @Override
+        public void generateReport(File input, File target, boolean subtract, Stores store) {
+            String name = input.getName();
+            onGenerate.accept(name, target);
+            generated.add(name);
+            try {
+                List<Object[]> rows = new ArrayList<>(TestWorkbooks.read(target));
+                rows.set(1, new Object[]{"Sum", (Double) rows.get(1)[1] + 1});
+                rows.add(new Object[]{name});
+                TestWorkbooks.write(target, "Report", rows.toArray(new Object[0][]));
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            if (name.startsWith("bad")) {
+                throw new IllegalStateException("Cannot read " + name);
+            }
+        }
+    };
+
+    private final JobListener listener = new JobListener() {
+        @Override
+        public void phaseChanged(ReportJob job, JobPhase phase) {
+            onPhase.accept(job, phase);
+        }
+
+        @Override
+        public void jobFinished(ReportJob job, JobStatus status, Throwable error) {
+            statuses.put(job.getInput().getName(), status);
+        }
+    };
+
+    @Before
+    public void createOutput() throws IOException {
+        output = newOutput("out.xlsx");
+    }
+
+    @After
+    public void stopQueue() throws InterruptedException {
+        queue.shutdown(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void runsTheJobsOfAnOutputInOrder() throws Exception {
+        File other = newOutput("other.xlsx");
+        CountDownLatch otherStarted = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger mostRunning = new AtomicInteger();
+        boolean[] parallel = {false};
+        onGenerate = (input, target) -> {
+            if (input.equals("x.xlsx")) {
+                otherStarted.countDown();
+                return;
+            }
+            mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                //The first job of out.xlsx waits for the job of the other output
+                if (input.equals("a.xlsx")) {
+                    parallel[0] = otherStarted.await(10, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.decrementAndGet();
+            }
+        };
+        submit("a.xlsx", output);
+        submit("b.xlsx", output);
+        submit("x.xlsx", other);
+        submit("c.xlsx", output);
+        awaitIdle();
+        assertTrue(parallel[0]);
+        assertEquals(1, mostRunning.get());
+        generated.remove("x.xlsx");
+        assertEquals(Arrays.asList("a.xlsx", "b.xlsx", "c.xlsx"), generated);
+        assertEquals(JobStatus.Completed, statuses.get("c.xlsx"));
+        assertEquals(3.0, sum(output), 0);
+        assertEquals(1.0, sum(other), 0);
+    }
+
+    @Test
+    public void actionsWaitForTheReportsQueuedBefore() throws Exception {
+        submit("a.xlsx", output);
+        submit("b.xlsx", output);
+        assertEquals(2.0, queue.submit(output, () -> sum(output)).get(10, TimeUnit.SECONDS), 0);
+        awaitIdle();
+    }
+
+    @Test
+    public void abortWhileStagingLeavesTheOutput() throws Exception {
+        onPhase = (job, phase) -> {
+            if (phase == JobPhase.Staging) {
+                assertTrue(tasks.get(job).abort());
+            }
+        };
+        submit("a.xlsx", output);
+        awaitIdle();
+        assertEquals(JobStatus.Cancelled, statuses.get("a.xlsx"));
+        assertTrue(generated.isEmpty());
+        assertEquals(0.0, sum(output), 0);
+        assertNoWorkingCopies();
+    }
+
+    @Test
+    public void abortWhileCommittingIsRefused() throws Exception {
+        boolean[] aborted = {true};
+        onPhase = (job, phase) -> {
+            if (phase == JobPhase.Committing) {
+                aborted[0] = tasks.get(job).abort();
+            }
+        };
+        submit("a.xlsx", output);
+        awaitIdle();
+        assertFalse(aborted[0]);
+        assertEquals(JobStatus.Completed, statuses.get("a.xlsx"));
+        assertEquals(1.0, sum(output), 0);
+    }
+
+    @Test
+    public void failedJobDoesNotSpoilTheBatch() throws Exception {
+        CountDownLatch queued = new CountDownLatch(1);
+        holdFirstJob(queued);
+        submit("a.xlsx", output);
+        submit("bad.xlsx", output);
+        submit("c.xlsx", output);
+        queued.countDown();
+        awaitIdle();
+        assertEquals(JobStatus.Completed, statuses.get("a.xlsx"));
+        assertEquals(JobStatus.Failed, statuses.get("bad.xlsx"));
+        assertEquals(JobStatus.Completed, statuses.get("c.xlsx"));
+        List<Object[]> rows = TestWorkbooks.read(output);
+        assertEquals(4, rows.size());
+        assertEquals(2.0, (Double) rows.get(1)[1], 0);
+        assertArrayEquals(new Object[]{"a.xlsx"}, rows.get(2));
+        assertArrayEquals(new Object[]{"c.xlsx"}, rows.get(3));
+        assertNoWorkingCopies();
+    }
+
+    @Test
+    public void flushesWhenTheBatchIsFull() throws Exception {
+        queue.setBatchLimits(2, 1, TimeUnit.HOURS);
+        CountDownLatch queued = new CountDownLatch(1);
+        holdFirstJob(queued);
+        List<Double> found = recordOutputSums();
+        submit("a.xlsx", output);
+        submit("b.xlsx", output);
+        submit("c.xlsx", output);
+        queued.countDown();
+        awaitIdle();
+        //The output is only written after the second job
+        assertEquals(Arrays.asList(0.0, 0.0, 2.0), found);
+        assertEquals(3.0, sum(output), 0);
+    }
+
+    @Test
+    public void flushesWhenTheBatchIsOld() throws Exception {
+        queue.setBatchLimits(10, 50, TimeUnit.MILLISECONDS);
+        CountDownLatch queued = new CountDownLatch(1);
+        holdFirstJob(queued);
+        List<Double> found = recordOutputSums();
+        submit("a.xlsx", output);
+        submit("b.xlsx", output);
+        Thread.sleep(100);
+        queued.countDown();
+        awaitIdle();
+        assertEquals(Arrays.asList(0.0, 1.0), found);
+    }
+
+    /**
+     * Keeps the first job of the output waiting until the others are queued,
+     * so they all belong to one batch.
+     */
+    private void holdFirstJob(CountDownLatch queued) {
+        onPhase = (job, phase) -> {
+            if (phase == JobPhase.Checking && job.getInput().getName().equals("a.xlsx")) {
+                try {
+                    queued.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return Report!B2 of the output as each job found it
+     */
+    private List<Double> recordOutputSums() {
+        List<Double> found = Collections.synchronizedList(new ArrayList<>());
+        onGenerate = (input, target) -> found.add(sum(output));
+        return found;
+    }
+
+    private void submit(String input, File target) throws IOException {
+        ReportJob job = new ReportJob(TestWorkbooks.write(folder.newFile(input), "Sheet", new Object[]{input}),
+                target, false, Stores.Technopolis);
+        ReportTask task = new ReportTask(job, listener, DuplicatePolicy.ALLOW, engine);
+        tasks.put(job, task);
+        queue.submit(task);
+    }
+
+    private void awaitIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (!queue.isIdle()) {
+            assertTrue("The queue did not finish", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private File newOutput(String name) throws IOException {
+        return TestWorkbooks.write(folder.newFile(name), "Report", new Object[]{"Total"}, new Object[]{"Sum", 0.0});
+    }
+
+    private static double sum(File output) {
+        try {
+            return (Double) TestWorkbooks.read(output).get(1)[1];
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void assertNoWorkingCopies() {
+        for (String name : folder.getRoot().list()) {
+            assertFalse(name, name.startsWith("~"));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import net.thecir.TestWorkbooks;
+import net.thecir.enums.Stores;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class OutputJournalTest {
+
+    private static final Object[][] BEFORE = {
+        {"Product", "Sold"},
+        {"Phone", 1.0},
+        {"Laptop", 2.0}
+    };
+    private static final Object[][] AFTER = {
+        {"Product", "Sold"},
+        {"Phone", 4.0},
+        {"Laptop", 2.0},
+        {"Camera", 3.0}
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File before;
+    private File output;
+    private OutputJournal journal;
+
+    @Before
+    public void mergeIntoOutput() throws IOException {
+        before = TestWorkbooks.write(folder.newFile("before.xlsx"), "Report", BEFORE);
+        output = TestWorkbooks.write(folder.newFile("out.xlsx"), "Report", AFTER);
+        journal = OutputJournal.forOutput(output);
+    }
+
+    @Test
+    public void diffFindsTheChangedCells() throws IOException {
+        List<JournalEntry.Change> changes = OutputJournal.diff(before, output);
+        assertEquals(3, changes.size());
+        assertChange(changes.get(0), 1, 1, 1.0, 4.0);
+        assertChange(changes.get(1), 3, 0, null, "Camera");
+        assertChange(changes.get(2), 3, 1, null, 3.0);
+        assertTrue(OutputJournal.diff(output, output).isEmpty());
+        assertTrue(OutputJournal.isJournaled(output));
+    }
+
+    @Test
+    public void undoAndRedoPatchTheOutput() throws IOException {
+        JournalEntry entry = record();
+        assertSame(entry, journal.peekUndo());
+        assertSame(entry, journal.undo());
+        assertRows(BEFORE);
+        assertNull(journal.peekUndo());
+        assertSame(entry, journal.peekRedo());
+        assertSame(entry, journal.redo());
+        assertRows(AFTER);
+        assertNull(journal.peekRedo());
+    }
+
+    @Test
+    public void undoRefusesCellsChangedSinceTheMerge() throws IOException {
+        record();
+        File edited = TestWorkbooks.write(folder.newFile("edited.xlsx"), "Report",
+                BEFORE[0], new Object[]{"Phone", 5.0}, BEFORE[2], AFTER[3]);
+        Files.copy(edited.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        try {
+            journal.undo();
+            fail("Undid a merge over a changed cell");
+        } catch (OutputChangedException ex) {
+            assertEquals("Report!B2", ex.getCell());
+        }
+        assertEquals(5.0, TestWorkbooks.read(output).get(1)[1]);
+    }
+
+    @Test
+    public void journalIsReadBackFromItsFile() throws IOException {
+        JournalEntry entry = record();
+        File copy = folder.newFile("copy.xlsx");
+        Files.copy(output.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(new File(output.getParentFile(), ".out.xlsx.journal").toPath(),
+                new File(copy.getParentFile(), ".copy.xlsx.journal").toPath());
+        JournalEntry read = OutputJournal.forOutput(copy).peekUndo();
+        assertEquals(entry.getHash(), read.getHash());
+        assertEquals(entry.getChanges().size(), read.getChanges().size());
+    }
+
+    private JournalEntry record() throws IOException {
+        JournalEntry entry = new JournalEntry(Instant.now(), folder.newFile("in.xlsx"), "hash", Stores.Technopolis, false,
+                OutputJournal.diff(before, output));
+        journal.record(entry);
+        return entry;
+    }
+
+    private void assertRows(Object[][] expected) throws IOException {
+        List<Object[]> rows = TestWorkbooks.read(output);
+        assertEquals(expected.length, rows.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(Arrays.asList(expected[i]), Arrays.asList(rows.get(i)));
+        }
+    }
+
+    private static void assertChange(JournalEntry.Change change, int row, int column, Object was, Object is) {
+        assertEquals("Report", change.getSheet());
+        assertEquals(row, change.getRow());
+        assertEquals(column, change.getColumn());
+        assertEquals(was, change.getBefore());
+        assertEquals(is, change.getAfter());
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Konstantin Tsanov <k.tsanov@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.thecir.server;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.thecir.TestWorkbooks;
+import net.thecir.diagnostics.MetricsExporter;
+import net.thecir.enums.JobStatus;
+import net.thecir.jobs.JobListener;
+import net.thecir.jobs.ReportTask;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Konstantin Tsanov <k.tsanov@gmail.com>
+ */
+public class JobServerTest {
+
+    private static final String JSON = "application/json";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String userHome;
+    private JobServer server;
+    private String token;
+    private String job;
+    //Listeners of the submitted jobs, the jobs are never run
+    private final List<JobListener> submitted = new ArrayList<>();
+
+    @Before
+    public void startServer() throws IOException {
+        //The token file is created in the application's folder
+        userHome = System.getProperty("user.home");
+        System.setProperty("user.home", folder.newFolder("home").getPath());
+        server = new JobServer(0, (job, listener, duplicatePolicy) -> {
+            synchronized (submitted) {
+                submitted.add(listener);
+            }
+            return new ReportTask(job, listener);
+        });
+        server.start();
+        token = new String(Files.readAllBytes(server.getTokenFile()), StandardCharsets.UTF_8).trim();
+        File input = TestWorkbooks.write(folder.newFile("in.xlsx"), "Sheet", new Object[]{"Product"});
+        File output = TestWorkbooks.write(folder.newFile("out.xlsx"), "Report", new Object[]{"Product"});
+        job = "{\"input\": " + MetricsExporter.json(input.getPath()) + ", \"output\": " + MetricsExporter.json(output.getPath())
+                + ", \"store\": \"Technopolis\"}";
+    }
+
+    @After
+    public void stopServer() {
+        server.close();
+        System.setProperty("user.home", userHome);
+    }
+
+    @Test
+    public void acceptsAJobWithTheToken() throws IOException {
+        Response response = send("POST", job, "Content-Type", JSON, JobServer.TOKEN_HEADER, token);
+        assertEquals(202, response.status);
+        assertEquals("/jobs/1", response.headers.get("location"));
+        assertEquals(200, send("GET", null, JobServer.TOKEN_HEADER, token).status);
+        assertEquals(1, submitted.size());
+    }
+
+    @Test
+    public void refusesRequestsWithoutTheToken() throws IOException {
+        assertEquals(401, send("GET", null).status);
+        assertEquals(401, send("GET", null, JobServer.TOKEN_HEADER, token + "0").status);
+        assertEquals(401, send("POST", job, "Content-Type", JSON).status);
+        assertEquals(0, submitted.size());
+    }
+
+    @Test
+    public void refusesRequestsFromWebPages() throws IOException {
+        assertEquals(403, send("POST", job, "Content-Type", JSON, JobServer.TOKEN_HEADER, token,
+                "Origin", "http://example.com").status);
+        assertEquals(0, submitted.size());
+    }
+
+    @Test
+    public void refusesJobsWhichAreNotJson() throws IOException {
+        assertEquals(415, send("POST", job, JobServer.TOKEN_HEADER, token).status);
+        assertEquals(415, send("POST", "input=in.xlsx", "Content-Type", "application/x-www-form-urlencoded",
+                JobServer.TOKEN_HEADER, token).status);
+        assertEquals(415, send("POST", job, "Content-Type", "text/plain", JobServer.TOKEN_HEADER, token).status);
+        assertEquals(202, send("POST", job, "Content-Type", "application/json; charset=utf-8", JobServer.TOKEN_HEADER, token).status);
+    }
+
+    @Test
+    public void refusesJobsOnceTooManyAreUnfinished() throws IOException {
+        Response response = send("POST", job, "Content-Type", JSON, JobServer.TOKEN_HEADER, token);
+        for (int sent = 1; response.status == 202 && sent < 1000; sent++) {
+            response = send("POST", job, "Content-Type", JSON, JobServer.TOKEN_HEADER, token);
+        }
+        assertEquals(429, response.status);
+        assertEquals("5", response.headers.get("retry-after"));
+        submitted.get(0).jobFinished(null, JobStatus.Completed, null);
+        response = send("POST", job, "Content-Type", JSON, JobServer.TOKEN_HEADER, token);
+        assertEquals(202, response.status);
+        assertNull(response.headers.get("retry-after"));
+    }
+
+    /**
+     * Sends a request over a plain socket, which unlike HttpURLConnection
+     * allows to set the Origin header.
+     *
+     * @param headers names and values of the request headers
+     */
+    private Response send(String method, String body, String... headers) throws IOException {
+        URL url = new URL(server.getAddress());
+        byte[] content = body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+        StringBuilder request = new StringBuilder(method + " " + url.getPath() + " HTTP/1.1\r\n")
+                .append("Host: localhost:").append(url.getPort()).append("\r\n")
+                .append("Connection: close\r\n")
+                .append("Content-Length: ").append(content.length).append("\r\n");
+        for (int i = 0; i < headers.length; i += 2) {
+            request.append(headers[i]).append(": ").append(headers[i + 1]).append("\r\n");
+        }
+        try (Socket socket = new Socket("localhost", url.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            out.write(request.append("\r\n").toString().getBytes(StandardCharsets.UTF_8));
+            out.write(content);
+            out.flush();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            Response response = new Response(Integer.parseInt(in.readLine().split(" ")[1]));
+            for (String line = in.readLine(); line != null && !line.isEmpty(); line = in.readLine()) {
+                int colon = line.indexOf(':');
+                response.headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+            }
+            return response;
+        }
+    }
+
+    private static class Response {
+
+        private final int status;
+        //By lower case name
+        private final Map<String, String> headers = new HashMap<>();
+
+        Response(int status) {
+            this.status = status;
+        }
+    }
+}